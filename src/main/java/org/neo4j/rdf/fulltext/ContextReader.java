@@ -0,0 +1,19 @@
+package org.neo4j.rdf.fulltext;
+
+import java.util.Collection;
+
+import org.neo4j.graphdb.Node;
+
+/**
+ * This is a hook for the {@link SimpleFulltextIndex} to find out which
+ * contexts an indexed literal is in, so that searches can be restricted
+ * to contexts, see {@link SearchOptions#setContexts(Collection)}.
+ */
+public interface ContextReader
+{
+    /**
+     * @return the uris of the contexts which the statement with the given
+     * literal node is in.
+     */
+    Collection<String> readContexts( Node literalNode );
+}
@@ -0,0 +1,46 @@
+package org.neo4j.rdf.fulltext;
+
+import java.util.Map;
+
+/**
+ * The number of hits of a fulltext query grouped by predicate and by
+ * context, see {@link FulltextIndex#facets(String, SearchOptions)}. A hit
+ * whose statement is in several contexts is counted once in each of them.
+ */
+public class Facets
+{
+    private final int totalHits;
+    private final Map<String, Integer> predicateCounts;
+    private final Map<String, Integer> contextCounts;
+    
+    public Facets( int totalHits, Map<String, Integer> predicateCounts,
+        Map<String, Integer> contextCounts )
+    {
+        this.totalHits = totalHits;
+        this.predicateCounts = predicateCounts;
+        this.contextCounts = contextCounts;
+    }
+    
+    public int getTotalHits()
+    {
+        return this.totalHits;
+    }
+    
+    /**
+     * @return the number of hits for each predicate uri which has any.
+     */
+    public Map<String, Integer> getPredicateCounts()
+    {
+        return this.predicateCounts;
+    }
+    
+    /**
+     * @return the number of hits for each context uri which has any. Only
+     * literals which were indexed with their contexts are counted, see
+     * {@link SimpleFulltextIndex#setContextReader(ContextReader)}.
+     */
+    public Map<String, Integer> getContextCounts()
+    {
+        return this.contextCounts;
+    }
+}
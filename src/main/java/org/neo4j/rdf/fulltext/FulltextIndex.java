@@ -39,6 +39,13 @@ public interface FulltextIndex
      */
     void removeIndex( Node node, Uri predicate, Object literal );
     
+    /**
+     * Removes all literals indexed with a context, or rather places the
+     * removal in memory in wait for a call to the end method.
+     * @param contextUri the uri of the context.
+     */
+    void removeContext( String contextUri );
+    
     /**
      * Clears the index so that a reindex can be made if necessary.
      */
@@ -76,6 +83,25 @@ public interface FulltextIndex
     Iterable<RawQueryResult> searchWithSnippets( String query,
         int snippetCountLimit );
     
+    /**
+     * Searches the index for a page of matches. See above for query format.
+     * @param query the search query.
+     * @param options offset, limit, minimum score and snippets.
+     * @return the matches in the requested window, sorted by relevance,
+     * together with the total number of hits.
+     */
+    ResultWindow<RawQueryResult> search( String query, SearchOptions options );
+    
+    /**
+     * Counts the hits for a query grouped by predicate and by context,
+     * without looking up the hits.
+     * @param query the search query.
+     * @param options the predicates and contexts to restrict the search to,
+     * the rest of the options doesn't apply.
+     * @return the number of hits for each predicate and context.
+     */
+    Facets facets( String query, SearchOptions options );
+    
     /**
      * Runs through the index and verifying that its contents are ok.
      * @param hook the hook which the caller uses to implement the verification
@@ -0,0 +1,276 @@
+package org.neo4j.rdf.fulltext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.neo4j.rdf.fulltext.VerificationHook.Status;
+
+/**
+ * Verifies an entire {@link SimpleFulltextIndex} with several threads, as
+ * opposed to {@link SimpleFulltextIndex#verify(VerificationHook, String)}
+ * which does it in one. The document id space is split into ranges of
+ * {@link #setRangeSize(int)} documents which are verified by
+ * {@link #setNumberOfThreads(int)} threads, so the {@link VerificationHook}
+ * must be thread safe.
+ * 
+ * Documents which doesn't verify OK can be repaired: they are removed from
+ * the index and, if they had the wrong literal and the hook is a
+ * {@link RepairingVerificationHook}, indexed again with the current literal.
+ * The repairs go through the indexing queue like any other change.
+ * 
+ * A report with one tab separated line per document which didn't verify OK
+ * (status, node id, predicate, literal, repair) followed by the total count
+ * for each status can be written to a file, see
+ * {@link #setReportFile(File)}. Tabs, newlines and backslashes in the
+ * literals are escaped with a backslash.
+ */
+public class FulltextVerifier
+{
+    private static final int DEFAULT_RANGE_SIZE = 10000;
+    
+    private final SimpleFulltextIndex index;
+    private final VerificationHook hook;
+    private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+    private int rangeSize = DEFAULT_RANGE_SIZE;
+    private boolean repair;
+    private File reportFile;
+    private PrintStream report;
+    private final AtomicInteger numberOfRepairs = new AtomicInteger();
+    
+    public FulltextVerifier( SimpleFulltextIndex index, VerificationHook hook )
+    {
+        this.index = index;
+        this.hook = hook;
+    }
+    
+    public void setNumberOfThreads( int numberOfThreads )
+    {
+        this.numberOfThreads = numberOfThreads;
+    }
+    
+    /**
+     * @param rangeSize the number of documents each range of the document
+     * id space is.
+     */
+    public void setRangeSize( int rangeSize )
+    {
+        this.rangeSize = rangeSize;
+    }
+    
+    public void setRepair( boolean repair )
+    {
+        this.repair = repair;
+    }
+    
+    /**
+     * @param reportFile the file to write the report to, or
+     * <code>null</code> for no report.
+     */
+    public void setReportFile( File reportFile )
+    {
+        this.reportFile = reportFile;
+    }
+    
+    /**
+     * @return the number of documents which were repaired, i.e. removed
+     * or reindexed, by the last {@link #verify()}.
+     */
+    public int getNumberOfRepairs()
+    {
+        return numberOfRepairs.get();
+    }
+    
+    /**
+     * Verifies all documents in the index.
+     * @return the number of documents for each status.
+     */
+    public Map<Status, Integer> verify()
+    {
+        numberOfRepairs.set( 0 );
+        IndexReader reader = null;
+        ExecutorService executor = null;
+        try
+        {
+            if ( reportFile != null )
+            {
+                report = new PrintStream( reportFile, "UTF-8" );
+                report.println( "# status\tnode\tpredicate\tliteral\trepair" );
+            }
+            reader = IndexReader.open( index.getDir(), true );
+            int maxDoc = reader.maxDoc();
+            hook.verificationStarting( maxDoc );
+            
+            executor = Executors.newFixedThreadPool(
+                Math.max( 1, numberOfThreads ) );
+            List<Future<Map<Status, Integer>>> futures =
+                new ArrayList<Future<Map<Status, Integer>>>();
+            for ( int start = 0; start < maxDoc; start += rangeSize )
+            {
+                futures.add( executor.submit( new RangeVerification(
+                    reader, start, Math.min( start + rangeSize, maxDoc ) ) ) );
+            }
+            
+            Map<Status, Integer> counts =
+                new EnumMap<Status, Integer>( Status.class );
+            for ( Future<Map<Status, Integer>> future : futures )
+            {
+                for ( Map.Entry<Status, Integer> count :
+                    future.get().entrySet() )
+                {
+                    Integer total = counts.get( count.getKey() );
+                    counts.put( count.getKey(), count.getValue() +
+                        ( total == null ? 0 : total ) );
+                }
+            }
+            hook.verificationCompleted( counts );
+            if ( report != null )
+            {
+                for ( Map.Entry<Status, Integer> count : counts.entrySet() )
+                {
+                    report.println( "# total\t" + count.getKey().name() +
+                        "\t" + count.getValue() );
+                }
+            }
+            return counts;
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new RuntimeException( e.getCause() );
+        }
+        finally
+        {
+            if ( executor != null )
+            {
+                executor.shutdownNow();
+            }
+            index.safeClose( reader );
+            if ( report != null )
+            {
+                report.close();
+                report = null;
+            }
+        }
+    }
+    
+    private void reportMismatch( Status status, long nodeId,
+        String predicate, String literal, String repairAction )
+    {
+        if ( report == null )
+        {
+            return;
+        }
+        synchronized ( report )
+        {
+            report.println( status.name() + "\t" + nodeId + "\t" +
+                escape( predicate ) + "\t" + escape( literal ) + "\t" +
+                repairAction );
+        }
+    }
+    
+    private static String escape( String value )
+    {
+        if ( value == null )
+        {
+            return "";
+        }
+        return value.replace( "\\", "\\\\" ).replace( "\t", "\\t" ).replace(
+            "\n", "\\n" ).replace( "\r", "\\r" );
+    }
+    
+    private String repair( Status status, long nodeId, String predicate,
+        String literal, Collection<Object[]> commands )
+    {
+        if ( !repair )
+        {
+            return "NONE";
+        }
+        
+        commands.add( new Object[] { false, nodeId, predicate, literal } );
+        numberOfRepairs.incrementAndGet();
+        if ( status == Status.WRONG_LITERAL &&
+            hook instanceof RepairingVerificationHook )
+        {
+            Object currentLiteral = ( ( RepairingVerificationHook )
+                hook ).getCurrentLiteral( nodeId, predicate );
+            if ( currentLiteral != null )
+            {
+                commands.add( new Object[] {
+                    true, nodeId, predicate, currentLiteral } );
+                return "REINDEXED";
+            }
+        }
+        return "REMOVED";
+    }
+    
+    private class RangeVerification implements Callable<Map<Status, Integer>>
+    {
+        private final IndexReader reader;
+        private final int start;
+        private final int end;
+        
+        RangeVerification( IndexReader reader, int start, int end )
+        {
+            this.reader = reader;
+            this.start = start;
+            this.end = end;
+        }
+        
+        public Map<Status, Integer> call() throws IOException
+        {
+            Map<Status, Integer> counts =
+                new EnumMap<Status, Integer>( Status.class );
+            Collection<Object[]> repairCommands = new ArrayList<Object[]>();
+            for ( int docId = start; docId < end; docId++ )
+            {
+                if ( reader.isDeleted( docId ) )
+                {
+                    hook.oneWasSkipped();
+                    continue;
+                }
+                
+                Document doc = reader.document( docId );
+                long nodeId = Long.parseLong(
+                    doc.get( SimpleFulltextIndex.KEY_ID ) );
+                String predicate = doc.get( SimpleFulltextIndex.KEY_PREDICATE );
+                String literal = doc.get( SimpleFulltextIndex.KEY_INDEX_SOURCE );
+                Status status = hook.verify( nodeId, predicate, literal );
+                Integer count = counts.get( status );
+                counts.put( status, count == null ? 1 : count + 1 );
+                if ( status != Status.OK )
+                {
+                    reportMismatch( status, nodeId, predicate, literal,
+                        repair( status, nodeId, predicate, literal,
+                            repairCommands ) );
+                }
+            }
+            if ( !repairCommands.isEmpty() )
+            {
+                index.enqueueAll( repairCommands );
+            }
+            return counts;
+        }
+    }
+}
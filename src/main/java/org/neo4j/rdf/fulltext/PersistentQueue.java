@@ -4,11 +4,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -20,6 +26,30 @@ import java.util.concurrent.atomic.AtomicInteger;
  * int:		ENTRY_SIZE
  * ...:		USER_DATA
  * 
+ * The entries are stored in segment files named as the queue file plus
+ * a sequence number, f.ex. "queue.0", "queue.1" a.s.o. New entries are
+ * appended to the last segment (the tail) and when it has grown beyond
+ * {@link #setMaxSegmentSize(long)} a new one is started. A segment which
+ * has been read through and whose entries all are completed is deleted
+ * right away, so the oldest remaining segment is the head of the queue.
+ * Only the tail can have been left half-written by a crash, so that's the
+ * only segment which is scanned when the queue is opened.
+ * 
+ * The position of the first entry which isn't completed, the head, is kept
+ * in a small file next to the segments ("queue.head") and the queue starts
+ * reading from there when opened. It's written, and the segments forced
+ * to disk, as a group commit every {@link #setGroupCommitInterval(long)}
+ * milliseconds and when the queue is closed.
+ * 
+ * A queue opened in memory mapped mode appends entries into a memory
+ * mapped tail segment, preallocated to the max segment size, instead of
+ * writing them to the file channel. An entry header with a zero size marks
+ * the end of the entries in such a segment. Completed entries aren't
+ * marked in their headers in this mode, the head file is the only record
+ * of them. So after a crash all entries from the head and onwards are
+ * read again, even those completed out of order, or completed after the
+ * last group commit.
+ * 
  * Only one reader is allowed, but many writers to this queue
  */
 public class PersistentQueue implements Iterator<PersistentQueue.Entry>
@@ -28,11 +58,22 @@ public class PersistentQueue implements Iterator<PersistentQueue.Entry>
     private static final int HEADER_SIZE = 1 + Integer.SIZE / 8;
     private static final byte NOT_COMPLETED = 0;
     private static final byte COMPLETED = 1;
+    private static final long DEFAULT_MAX_SEGMENT_SIZE = 32 * 1024 * 1024;
+    private static final long DEFAULT_GROUP_COMMIT_INTERVAL = 1000;
+    private static final int WRITE_CHUNK_SIZE = 64 * 1024;
+    // long:SEGMENT_NUMBER, long:POSITION
+    private static final int HEAD_SIZE = 2 * Long.SIZE / 8;
     
     private File file;
+    private boolean memoryMapped;
+    private FileChannel headChannel;
     private ByteBuffer internalBuffer;
     private int bufferSize;
-    private FileChannel channel;
+    private LinkedList<Segment> segments = new LinkedList<Segment>();
+    private Segment readSegment;
+    private long maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
+    private long groupCommitInterval = DEFAULT_GROUP_COMMIT_INTERVAL;
+    private long lastGroupCommitTime = System.currentTimeMillis();
     private Entry previousEntry;
     private Entry nextEntry;
     private boolean autoCompleteEntries = true;
@@ -42,8 +83,19 @@ public class PersistentQueue implements Iterator<PersistentQueue.Entry>
     private boolean recoveryWasNeeded;
     
     public PersistentQueue( File file )
+    {
+        this( file, false );
+    }
+    
+    /**
+     * @param file the queue file, the segments are named after it.
+     * @param memoryMapped whether or not to append entries into memory
+     * mapped segments and record completed entries in the head only.
+     */
+    public PersistentQueue( File file, boolean memoryMapped )
     {
         this.file = file;
+        this.memoryMapped = memoryMapped;
         getBuffer( 500 );
         try
         {
@@ -60,6 +112,30 @@ public class PersistentQueue implements Iterator<PersistentQueue.Entry>
         this.autoCompleteEntries = autoComplete;
     }
     
+    /**
+     * @param maxSegmentSize the size in bytes which a segment may grow to
+     * before a new segment is started.
+     */
+    public void setMaxSegmentSize( long maxSegmentSize )
+    {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+    
+    /**
+     * @param groupCommitInterval the maximum time in milliseconds between
+     * forcing the segments and the head to disk, i.e. how much may be lost
+     * if the machine goes down. Zero forces on every change.
+     */
+    public void setGroupCommitInterval( long groupCommitInterval )
+    {
+        this.groupCommitInterval = groupCommitInterval;
+    }
+    
+    public boolean isMemoryMapped()
+    {
+        return this.memoryMapped;
+    }
+    
     private ByteBuffer getBuffer( int atLeastOfSize )
     {
         if ( atLeastOfSize > 1000000 )
@@ -84,68 +160,156 @@ public class PersistentQueue implements Iterator<PersistentQueue.Entry>
     
     private void openOrCreate() throws IOException
     {
-        checkConsistency();
-        openChannel();
+        // A queue file from before there were segments, it's read before
+        // the segments and deleted when completed as any other segment.
+        if ( file.exists() )
+        {
+            Segment legacy = new Segment( -1, file );
+            checkConsistency( legacy );
+            segments.add( legacy );
+        }
+        List<Long> numbers = findSegmentNumbers( file );
+        for ( Long number : numbers )
+        {
+            segments.add( new Segment( number, segmentFile( file, number ) ) );
+        }
+        if ( numbers.isEmpty() )
+        {
+            segments.add( new Segment( 0, segmentFile( file, 0 ) ) );
+        }
+        else
+        {
+            checkConsistency( segments.getLast() );
+        }
+        headChannel =
+            new RandomAccessFile( headFile( file ), "rw" ).getChannel();
+        skipToHead();
+        readSegment = segments.getFirst();
+    }
+    
+    private void skipToHead() throws IOException
+    {
+        if ( headChannel.size() < HEAD_SIZE )
+        {
+            return;
+        }
+        ByteBuffer buffer = getBuffer( HEAD_SIZE );
+        buffer.clear();
+        buffer.limit( HEAD_SIZE );
+        while ( buffer.hasRemaining() )
+        {
+            if ( headChannel.read( buffer, buffer.position() ) == -1 )
+            {
+                return;
+            }
+        }
+        buffer.flip();
+        long number = buffer.getLong();
+        long position = buffer.getLong();
+        
+        // Segments before the head are completed, they just weren't deleted
+        while ( segments.size() > 1 && segments.getFirst().number < number )
+        {
+            segments.removeFirst().delete();
+        }
+        Segment first = segments.getFirst();
+        if ( first.number == number )
+        {
+            first.readPosition = Math.min( position, dataEnd( first ) );
+        }
+    }
+    
+    private static File headFile( File file )
+    {
+        return new File( file.getPath() + ".head" );
     }
     
-    private void openChannel() throws IOException
+    private static File segmentFile( File file, long number )
     {
-        channel = new RandomAccessFile( file, "rw" ).getChannel();
+        return new File( file.getPath() + "." + number );
     }
     
-    private void closeChannel()
+    private static List<Long> findSegmentNumbers( File file )
     {
-        if ( channel != null )
+        List<Long> numbers = new ArrayList<Long>();
+        File directory = file.getAbsoluteFile().getParentFile();
+        String prefix = file.getName() + ".";
+        File[] files = directory != null ? directory.listFiles() : null;
+        if ( files == null )
+        {
+            return numbers;
+        }
+        for ( File candidate : files )
         {
+            String name = candidate.getName();
+            if ( !name.startsWith( prefix ) )
+            {
+                continue;
+            }
             try
             {
-                channel.close();
+                numbers.add( Long.parseLong(
+                    name.substring( prefix.length() ) ) );
             }
-            catch ( IOException e )
+            catch ( NumberFormatException e )
             {
-                // It's ok
-                System.out.println( "Couldn't close channel" );
+                // Not one of ours
             }
         }
+        Collections.sort( numbers );
+        return numbers;
     }
     
-    private void checkConsistency() throws IOException
+    /**
+     * Deletes all files of a queue, which must be closed.
+     * @param file the queue file given to the constructor.
+     */
+    public static void delete( File file )
     {
-        openChannel();
-        try
+        file.delete();
+        headFile( file ).delete();
+        for ( Long number : findSegmentNumbers( file ) )
         {
-            if ( channel.size() == 0 )
-            {
-                return;
-            }
-            
-            long position = 0;
-            while ( true )
+            segmentFile( file, number ).delete();
+        }
+    }
+    
+    private void checkConsistency( Segment segment ) throws IOException
+    {
+        long position = 0;
+        long size = segment.channel.size();
+        while ( position < size )
+        {
+            try
             {
-                try
+                EntryHeader header = readEntryHeader( segment, position );
+                if ( header.entrySize == 0 )
                 {
-                    Entry entry = tryToFindNext();
-                    if ( entry == null )
-                    {
-                        // Alright, no problems
-                        break;
-                    }
+                    // Preallocated space of a memory mapped segment, or an
+                    // entry which was cut off before its size was written.
+                    segment.channel.truncate( position );
+                    break;
                 }
-                catch ( IOException e )
+                if ( header.entrySize < 0 || ( header.state != NOT_COMPLETED &&
+                    header.state != COMPLETED ) )
                 {
-                    // Somethings' wrong with the file, truncate here
-                    closeChannel();
-                    openChannel();
-                    channel.truncate( position );
-                    recoveryWasNeeded = true;
-                    break;
+                    throw new IOException( "Invalid entry state " +
+                        header.state );
                 }
-                position = channel.position();
+                if ( position + HEADER_SIZE + header.entrySize > size )
+                {
+                    throw new IOException( "Entry at " + position +
+                        " is cut off" );
+                }
+                position += HEADER_SIZE + header.entrySize;
+            }
+            catch ( IOException e )
+            {
+                // Somethings' wrong with the file, truncate here
+                segment.channel.truncate( position );
+                recoveryWasNeeded = true;
+                break;
             }
-        }
-        finally
-        {
-            closeChannel();
         }
     }
     
@@ -155,24 +319,31 @@ public class PersistentQueue implements Iterator<PersistentQueue.Entry>
     }
     
     public synchronized void add( Object... entryData )
+    {
+        addAll( Collections.<Object[]>singletonList( entryData ) );
+    }
+    
+    /**
+     * Appends several entries in one go, which is a lot cheaper than adding
+     * them one by one since they are written to the file in larger chunks.
+     * @param entries the data of each entry to add.
+     */
+    public synchronized void addAll( Collection<Object[]> entries )
     {
         try
         {
-            long position = channel.position();
-            try
+            if ( memoryMapped )
             {
-                channel.position( channel.size() );
-                channel.write( fillBuffer( entryData ) );
-//                channel.force( true );
-            }
-            catch ( IOException e )
-            {
-                throw new RuntimeException( e );
+                for ( Object[] entryData : entries )
+                {
+                    appendMapped( entryData );
+                }
             }
-            finally
+            else
             {
-                channel.position( position );
+                appendChunked( entries );
             }
+            maybeGroupCommit();
         }
         catch ( IOException e )
         {
@@ -180,6 +351,115 @@ public class PersistentQueue implements Iterator<PersistentQueue.Entry>
         }
     }
     
+    private void appendChunked( Collection<Object[]> entries )
+        throws IOException
+    {
+        List<Object[]> chunk = new ArrayList<Object[]>();
+        int chunkSize = 0;
+        for ( Object[] entryData : entries )
+        {
+            int totalSize = HEADER_SIZE + calculateDataSize( entryData );
+            if ( !chunk.isEmpty() && chunkSize + totalSize > WRITE_CHUNK_SIZE )
+            {
+                writeChunk( chunk, chunkSize );
+                chunk.clear();
+                chunkSize = 0;
+            }
+            chunk.add( entryData );
+            chunkSize += totalSize;
+        }
+        if ( !chunk.isEmpty() )
+        {
+            writeChunk( chunk, chunkSize );
+        }
+    }
+    
+    private void writeChunk( List<Object[]> chunk, int chunkSize )
+        throws IOException
+    {
+        ByteBuffer buffer = getBuffer( chunkSize );
+        buffer.clear();
+        buffer.limit( chunkSize );
+        for ( Object[] entryData : chunk )
+        {
+            putEntry( buffer, entryData, calculateDataSize( entryData ) );
+        }
+        buffer.flip();
+        Segment tail = segments.getLast();
+        writeFully( tail.channel, buffer, tail.channel.size() );
+        tail.dirty = true;
+        if ( tail.channel.size() >= maxSegmentSize )
+        {
+            rollTail();
+        }
+    }
+    
+    private void appendMapped( Object[] entryData ) throws IOException
+    {
+        int entrySize = calculateDataSize( entryData );
+        int totalSize = HEADER_SIZE + entrySize;
+        Segment tail = mappedTail( totalSize );
+        int position = ( int ) tail.writePosition;
+        ByteBuffer buffer = getBuffer( totalSize );
+        buffer.clear();
+        buffer.limit( totalSize );
+        putEntry( buffer, entryData, entrySize );
+        buffer.flip();
+        buffer.position( HEADER_SIZE );
+        ByteBuffer target = tail.map.duplicate();
+        target.position( position + HEADER_SIZE );
+        target.put( buffer );
+        
+        // The size goes in last so that a reader, or recovery, never sees
+        // a size for data which isn't there.
+        tail.map.put( position, NOT_COMPLETED );
+        tail.map.putInt( position + 1, entrySize );
+        tail.writePosition += totalSize;
+        tail.dirty = true;
+    }
+    
+    private Segment mappedTail( int totalSize ) throws IOException
+    {
+        // There's always room left for an empty header after the last
+        // entry, marking the end of the entries.
+        int neededSize = totalSize + HEADER_SIZE;
+        Segment tail = segments.getLast();
+        long end = dataEnd( tail );
+        long capacity = tail.map != null ? tail.map.capacity() : maxSegmentSize;
+        if ( end > 0 && end + neededSize > capacity )
+        {
+            rollTail();
+            tail = segments.getLast();
+            end = 0;
+        }
+        if ( tail.map == null )
+        {
+            tail.map( Math.max( maxSegmentSize, end + neededSize ), end );
+        }
+        return tail;
+    }
+    
+    private static long dataEnd( Segment segment ) throws IOException
+    {
+        return segment.map != null ? segment.writePosition :
+            segment.channel.size();
+    }
+    
+    private void rollTail() throws IOException
+    {
+        long number = segments.getLast().number + 1;
+        segments.add( new Segment( number, segmentFile( file, number ) ) );
+    }
+    
+    private static void writeFully( FileChannel channel, ByteBuffer buffer,
+        long position ) throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            position += channel.write( buffer, position );
+        }
+    }
+    
     private int calculateDataSize( Object[] entryData )
     {
         int size = 0;
@@ -191,13 +471,13 @@ public class PersistentQueue implements Iterator<PersistentQueue.Entry>
         return size;
     }
     
-    private ByteBuffer fillBuffer( Object[] entryData )
+    private void putEntry( ByteBuffer buffer, Object[] entryData,
+        int entrySize )
     {
-        int entrySize = calculateDataSize( entryData );
-        int totalSize = HEADER_SIZE + entrySize;
-        ByteBuffer buffer = getBuffer( totalSize );
-        buffer.clear();
-        buffer.limit( totalSize );
+        if ( entryData.length == 0 )
+        {
+            throw new IllegalArgumentException( "Empty entry" );
+        }
         buffer.put( NOT_COMPLETED );
         buffer.putInt( entrySize );
         for ( Object data : entryData )
@@ -208,39 +488,71 @@ public class PersistentQueue implements Iterator<PersistentQueue.Entry>
             buffer.put( typeUtil.byteKey() );
             typeUtil.putIntoByteBuffer( buffer, data );
         }
-        buffer.flip();
-        return buffer;
     }
     
     public synchronized void markAsCompleted( Entry... entries )
     {
         try
         {
-            long position = channel.position();
-            try
+            for ( Entry entry : entries )
             {
-                for ( Entry entry : entries )
+                Segment segment = entry.segment;
+                if ( !segment.pending.remove( entry.position() ) )
+                {
+                    // Already completed
+                    continue;
+                }
+                
+                if ( !memoryMapped )
                 {
-                    channel.position( entry.position() );
-                    if ( readNextEntryHeader( true ).state == COMPLETED )
-                    {
-                        continue;
-                    }
-                    
                     ByteBuffer buffer = getBuffer( HEADER_SIZE );
                     buffer.clear();
                     buffer.limit( 1 );
                     buffer.put( COMPLETED );
                     buffer.flip();
-                    channel.write( buffer );
-                    numberOfEntriesReadButNotYetCompleted.decrementAndGet();
+                    writeFully( segment.channel, buffer, entry.position() );
+                    segment.dirty = true;
                 }
-//                channel.force( false );
-            }
-            finally
-            {
-                channel.position( position );
+                numberOfEntriesReadButNotYetCompleted.decrementAndGet();
+                deleteIfDone( segment );
             }
+            maybeGroupCommit();
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+    
+    private void deleteIfDone( Segment segment )
+    {
+        if ( !segment.readThrough || !segment.pending.isEmpty() ||
+            segment == segments.getLast() )
+        {
+            return;
+        }
+        segments.remove( segment );
+        segment.delete();
+    }
+    
+    private void maybeGroupCommit() throws IOException
+    {
+        if ( System.currentTimeMillis() - lastGroupCommitTime >=
+            groupCommitInterval )
+        {
+            groupCommit();
+        }
+    }
+    
+    /**
+     * Forces all appended entries and the current head to disk right away,
+     * instead of waiting for the next group commit.
+     */
+    public synchronized void force()
+    {
+        try
+        {
+            groupCommit();
         }
         catch ( IOException e )
         {
@@ -248,6 +560,39 @@ public class PersistentQueue implements Iterator<PersistentQueue.Entry>
         }
     }
     
+    private void groupCommit() throws IOException
+    {
+        for ( Segment segment : segments )
+        {
+            segment.force();
+        }
+        writeHead();
+        lastGroupCommitTime = System.currentTimeMillis();
+    }
+    
+    private void writeHead() throws IOException
+    {
+        Segment headSegment = readSegment;
+        long headPosition = readSegment.readPosition;
+        for ( Segment segment : segments )
+        {
+            if ( !segment.pending.isEmpty() )
+            {
+                headSegment = segment;
+                headPosition = segment.pending.first();
+                break;
+            }
+        }
+        ByteBuffer buffer = getBuffer( HEAD_SIZE );
+        buffer.clear();
+        buffer.limit( HEAD_SIZE );
+        buffer.putLong( headSegment.number );
+        buffer.putLong( headPosition );
+        buffer.flip();
+        writeFully( headChannel, buffer, 0 );
+        headChannel.force( false );
+    }
+    
     public boolean hasNext()
     {
         if ( nextEntry != null )
@@ -279,65 +624,87 @@ public class PersistentQueue implements Iterator<PersistentQueue.Entry>
         return nextEntry != null;
     }
     
-    private synchronized EntryHeader readNextEntryHeader(
-        boolean restorePositionAfterRead ) throws IOException
+    private synchronized EntryHeader readEntryHeader( Segment segment,
+        long position ) throws IOException
     {
-        long positionBeforeRead = channel.position();
-        try
+        ByteBuffer buffer = getBuffer( HEADER_SIZE );
+        buffer.clear();
+        buffer.limit( HEADER_SIZE );
+        read( segment, buffer, position );
+        buffer.flip();
+        byte state = buffer.get();
+        int entrySize = buffer.getInt();
+        return new EntryHeader( state, entrySize );
+    }
+    
+    private void read( Segment segment, ByteBuffer buffer, long position )
+        throws IOException
+    {
+        if ( segment.map != null )
         {
-            ByteBuffer buffer = getBuffer( HEADER_SIZE );
-            buffer.clear();
-            buffer.limit( HEADER_SIZE );
-            long bytesRead = channel.read( buffer );
-            if ( bytesRead < HEADER_SIZE )
-            {
-                throw new IOException( "Invalid header:" + bytesRead +
-                " bytes" );
-            }
-            buffer.flip();
-            byte state = buffer.get();
-            int entrySize = buffer.getInt();
-            return new EntryHeader( state, entrySize );
+            ByteBuffer source = segment.map.duplicate();
+            source.position( ( int ) position );
+            source.limit( ( int ) position + buffer.remaining() );
+            buffer.put( source );
+            return;
         }
-        finally
+        
+        while ( buffer.hasRemaining() )
         {
-            if ( restorePositionAfterRead )
+            int bytesRead = segment.channel.read( buffer,
+                position + buffer.position() );
+            if ( bytesRead == -1 )
             {
-                channel.position( positionBeforeRead );
+                throw new IOException( "Unexpected end of " + segment.file +
+                    " at " + ( position + buffer.position() ) );
             }
         }
     }
     
     private synchronized Entry tryToFindNext() throws IOException
     {
-        Entry result = null;
-        while ( result == null && channel.position() < channel.size() )
+        while ( true )
         {
-            long positionBeforeRead = channel.position();
-            EntryHeader header = readNextEntryHeader( false );
-            totalQueueIndex.incrementAndGet();
-            if ( header.state == NOT_COMPLETED )
-            {
-                ByteBuffer buffer = getBuffer( header.entrySize );
-                buffer.clear();
-                buffer.limit( header.entrySize );
-                channel.read( buffer );
-                buffer.flip();
-                Object[] data = readBuffer( buffer );
-                long entryPosition = positionBeforeRead;
-                result = new Entry( data, entryPosition );
-            }
-            else if ( header.state == COMPLETED )
+            Segment segment = readSegment;
+            while ( segment.readPosition + HEADER_SIZE <= dataEnd( segment ) )
             {
-                channel.position( channel.position() + header.entrySize );
-                continue;
+                long position = segment.readPosition;
+                EntryHeader header = readEntryHeader( segment, position );
+                if ( header.entrySize == 0 )
+                {
+                    // Preallocated space of a memory mapped segment
+                    break;
+                }
+                totalQueueIndex.incrementAndGet();
+                segment.readPosition = position + HEADER_SIZE +
+                    header.entrySize;
+                if ( header.state == NOT_COMPLETED )
+                {
+                    ByteBuffer buffer = getBuffer( header.entrySize );
+                    buffer.clear();
+                    buffer.limit( header.entrySize );
+                    read( segment, buffer, position + HEADER_SIZE );
+                    buffer.flip();
+                    Object[] data = readBuffer( buffer );
+                    segment.pending.add( position );
+                    return new Entry( data, segment, position );
+                }
+                else if ( header.state != COMPLETED )
+                {
+                    throw new IOException( "Invalid entry state " +
+                        header.state );
+                }
             }
-            else
+            
+            if ( segment == segments.getLast() )
             {
-                throw new IOException( "Invalid entry state " + header.state );
+                return null;
             }
+            // Move on to the next segment, this one won't get any more entries
+            readSegment = segments.get( segments.indexOf( segment ) + 1 );
+            segment.readThrough = true;
+            deleteIfDone( segment );
         }
-        return result;
     }
     
     private Object[] readBuffer( ByteBuffer buffer )
@@ -375,9 +742,17 @@ public class PersistentQueue implements Iterator<PersistentQueue.Entry>
         return this.totalQueueIndex.get();
     }
     
+    /**
+     * @return the number of segment files the queue currently consists of.
+     */
+    public synchronized int getNumberOfSegments()
+    {
+        return segments.size();
+    }
+    
     /**
      * Returns <code>true</code> if the queue has no more incompleted entries
-     * and the backing file was deleted.
+     * and the backing files were deleted.
      */
     public boolean close()
     {
@@ -385,7 +760,26 @@ public class PersistentQueue implements Iterator<PersistentQueue.Entry>
         boolean hasIncompletedEntries =
             numberOfEntriesReadButNotYetCompleted.get() > 0;
         boolean keepFile = hasNext || hasIncompletedEntries;
-        closeChannel();
+        synchronized ( this )
+        {
+            if ( keepFile )
+            {
+                force();
+            }
+            for ( Segment segment : segments )
+            {
+                segment.close();
+            }
+            try
+            {
+                headChannel.close();
+            }
+            catch ( IOException e )
+            {
+                // It's ok
+                System.out.println( "Couldn't close head channel" );
+            }
+        }
         if ( !keepFile )
         {
             deleteBackingFile();
@@ -395,21 +789,100 @@ public class PersistentQueue implements Iterator<PersistentQueue.Entry>
     
     protected void deleteBackingFile()
     {
-        // We delete the backing file if all the entries in it are completed
-        if ( !file.delete() )
+        // We delete the backing files if all the entries in it are completed
+        for ( Segment segment : segments )
         {
-            file.deleteOnExit();
+            if ( !segment.file.delete() )
+            {
+                segment.file.deleteOnExit();
+            }
+        }
+        segments.clear();
+        File head = headFile( file );
+        if ( !head.delete() )
+        {
+            head.deleteOnExit();
+        }
+    }
+    
+    private static class Segment
+    {
+        private final long number;
+        private final File file;
+        private final FileChannel channel;
+        private MappedByteBuffer map;
+        private long writePosition;
+        private long readPosition;
+        private TreeSet<Long> pending = new TreeSet<Long>();
+        private boolean readThrough;
+        private boolean dirty;
+        
+        private Segment( long number, File file ) throws IOException
+        {
+            this.number = number;
+            this.file = file;
+            this.channel = new RandomAccessFile( file, "rw" ).getChannel();
+        }
+        
+        private void map( long capacity, long writePosition )
+            throws IOException
+        {
+            this.map = channel.map( MapMode.READ_WRITE, 0,
+                Math.min( capacity, Integer.MAX_VALUE ) );
+            this.writePosition = writePosition;
+        }
+        
+        private void force() throws IOException
+        {
+            if ( !dirty )
+            {
+                return;
+            }
+            if ( map != null )
+            {
+                map.force();
+            }
+            else
+            {
+                channel.force( false );
+            }
+            dirty = false;
+        }
+        
+        private void close()
+        {
+            map = null;
+            try
+            {
+                channel.close();
+            }
+            catch ( IOException e )
+            {
+                // It's ok
+                System.out.println( "Couldn't close channel" );
+            }
+        }
+        
+        private void delete()
+        {
+            close();
+            if ( !file.delete() )
+            {
+                file.deleteOnExit();
+            }
         }
     }
     
     public static class Entry
     {
         private Object[] data;
+        private Segment segment;
         private long position;
         
-        private Entry( Object[] data, long position )
+        private Entry( Object[] data, Segment segment, long position )
         {
             this.data = data;
+            this.segment = segment;
             this.position = position;
         }
         
@@ -10,6 +10,7 @@ public class QueryResult
     private CompleteStatement statement;
     private double score;
     private String snippet;
+    private RawQueryResult rawResult;
     
     public QueryResult( CompleteStatement statement, double score,
         String snippet )
@@ -19,6 +20,18 @@ public class QueryResult
         this.snippet = snippet;
     }
     
+    /**
+     * Takes the score and snippet from {@code rawResult}, the snippet isn't
+     * asked for until {@link #getSnippet()} is called, so that a lazily
+     * generated snippet stays lazy.
+     */
+    public QueryResult( CompleteStatement statement, RawQueryResult rawResult )
+    {
+        this.statement = statement;
+        this.score = rawResult.getScore();
+        this.rawResult = rawResult;
+    }
+    
     public CompleteStatement getStatement()
     {
         return this.statement;
@@ -31,6 +44,7 @@ public class QueryResult
     
     public String getSnippet()
     {
-        return this.snippet;
+        return this.rawResult != null ? this.rawResult.getSnippet() :
+            this.snippet;
     }
 }
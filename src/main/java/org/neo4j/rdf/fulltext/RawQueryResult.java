@@ -1,16 +1,21 @@
 package org.neo4j.rdf.fulltext;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
 import org.neo4j.graphdb.Node;
 
 /**
  * Just a raw query result returned from lucene from a search query.
- * A sort of intermediate format.
+ * A sort of intermediate format. The snippet can be generated lazily, the
+ * first time it's asked for.
  */
 public class RawQueryResult implements Comparable<RawQueryResult>
 {
     private Node node;
     private double score;
     private String snippet;
+    private FutureTask<String> snippetTask;
     
     public RawQueryResult( Node node, double score, String snippet )
     {
@@ -19,6 +24,18 @@ public class RawQueryResult implements Comparable<RawQueryResult>
         this.snippet = snippet;
     }
     
+    /**
+     * @param snippetTask generates the snippet, it's run the first time
+     * the snippet is asked for unless some other thread has run it already.
+     */
+    public RawQueryResult( Node node, double score,
+        FutureTask<String> snippetTask )
+    {
+        this.node = node;
+        this.score = score;
+        this.snippetTask = snippetTask;
+    }
+    
     public Node getNode()
     {
         return this.node;
@@ -31,6 +48,24 @@ public class RawQueryResult implements Comparable<RawQueryResult>
     
     public String getSnippet()
     {
+        if ( this.snippetTask != null )
+        {
+            // Doesn't do anything if it's run, or being run, already
+            this.snippetTask.run();
+            try
+            {
+                return this.snippetTask.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException( e );
+            }
+            catch ( ExecutionException e )
+            {
+                throw new RuntimeException( e.getCause() );
+            }
+        }
         return this.snippet;
     }
     
@@ -0,0 +1,15 @@
+package org.neo4j.rdf.fulltext;
+
+/**
+ * A {@link VerificationHook} which also can tell what a document with
+ * the wrong literal should have been, so that {@link FulltextVerifier}
+ * can index it again when repairing.
+ */
+public interface RepairingVerificationHook extends VerificationHook
+{
+    /**
+     * @return the literal the node currently has for the predicate, or
+     * <code>null</code> if it has none.
+     */
+    Object getCurrentLiteral( long id, String predicate );
+}
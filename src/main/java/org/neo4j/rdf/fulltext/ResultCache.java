@@ -0,0 +1,155 @@
+package org.neo4j.rdf.fulltext;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.search.Query;
+
+/**
+ * A bounded cache of paged search results, see
+ * {@link SimpleFulltextIndex#search(String, SearchOptions)}, where the least
+ * recently used entry is evicted when it's full. An entry only holds the
+ * node ids and scores of the hits, and the document ids of the hits which
+ * should have snippets. It's tied to the generation of the index reader
+ * it was searched with and isn't returned for any other generation.
+ */
+class ResultCache
+{
+    private final Map<Key, CachedResult> entries;
+    
+    ResultCache( final int maxSize )
+    {
+        this.entries = new LinkedHashMap<Key, CachedResult>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<Key, CachedResult> eldest )
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+    
+    synchronized CachedResult get( Key key, long generation )
+    {
+        CachedResult result = entries.get( key );
+        if ( result != null && result.generation != generation )
+        {
+            entries.remove( key );
+            return null;
+        }
+        return result;
+    }
+    
+    synchronized void put( Key key, CachedResult result )
+    {
+        CachedResult existing = entries.get( key );
+        if ( existing == null || existing.generation < result.generation )
+        {
+            entries.put( key, result );
+        }
+    }
+    
+    synchronized void clear()
+    {
+        entries.clear();
+    }
+    
+    synchronized int size()
+    {
+        return entries.size();
+    }
+    
+    /**
+     * The parsed query together with the options it was searched with.
+     */
+    static class Key
+    {
+        private final Query query;
+        private final int offset;
+        private final int limit;
+        private final double minimumScore;
+        private final int snippetCountLimit;
+        private final Set<String> predicates;
+        private final Set<String> contexts;
+        
+        Key( Query query, SearchOptions options )
+        {
+            this.query = query;
+            this.offset = options.getOffset();
+            this.limit = options.getLimit();
+            this.minimumScore = options.getMinimumScore();
+            this.snippetCountLimit = options.getSnippetCountLimit();
+            this.predicates = copy( options.getPredicates() );
+            this.contexts = copy( options.getContexts() );
+        }
+        
+        private static Set<String> copy( Collection<String> values )
+        {
+            return values == null ? null : new HashSet<String>( values );
+        }
+        
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( !( o instanceof Key ) )
+            {
+                return false;
+            }
+            Key other = ( Key ) o;
+            return query.equals( other.query ) && offset == other.offset &&
+                limit == other.limit && minimumScore == other.minimumScore &&
+                snippetCountLimit == other.snippetCountLimit &&
+                equal( predicates, other.predicates ) &&
+                equal( contexts, other.contexts );
+        }
+        
+        private static boolean equal( Object first, Object second )
+        {
+            return first == null ? second == null : first.equals( second );
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            int result = query.hashCode();
+            result = 31 * result + offset;
+            result = 31 * result + limit;
+            result = 31 * result + snippetCountLimit;
+            result = 31 * result + ( predicates == null ? 0 :
+                predicates.hashCode() );
+            result = 31 * result + ( contexts == null ? 0 :
+                contexts.hashCode() );
+            return result;
+        }
+    }
+    
+    /**
+     * The hits of a page, in the order they were returned.
+     */
+    static class CachedResult
+    {
+        final long generation;
+        final long[] nodeIds;
+        final double[] scores;
+        final int[] snippetDocIds;
+        final int totalHits;
+        
+        /**
+         * @param snippetDocIds the document id of each hit which should
+         * have a snippet, -1 for those which shouldn't.
+         */
+        CachedResult( long generation, long[] nodeIds, double[] scores,
+            int[] snippetDocIds, int totalHits )
+        {
+            this.generation = generation;
+            this.nodeIds = nodeIds;
+            this.scores = scores;
+            this.snippetDocIds = snippetDocIds;
+            this.totalHits = totalHits;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.neo4j.rdf.fulltext;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A page of search results, i.e. the hits from an offset and on, together
+ * with the total number of hits for the query.
+ * @param <T> the type of results.
+ */
+public class ResultWindow<T> implements Iterable<T>
+{
+    private final List<T> results;
+    private final int totalHits;
+    private final int offset;
+    
+    public ResultWindow( List<T> results, int totalHits, int offset )
+    {
+        this.results = results;
+        this.totalHits = totalHits;
+        this.offset = offset;
+    }
+    
+    public Iterator<T> iterator()
+    {
+        return this.results.iterator();
+    }
+    
+    public List<T> getResults()
+    {
+        return this.results;
+    }
+    
+    public int size()
+    {
+        return this.results.size();
+    }
+    
+    /**
+     * @return the number of documents matching the query, regardless of
+     * offset and limit.
+     */
+    public int getTotalHits()
+    {
+        return this.totalHits;
+    }
+    
+    public int getOffset()
+    {
+        return this.offset;
+    }
+}
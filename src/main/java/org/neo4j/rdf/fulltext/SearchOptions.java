@@ -0,0 +1,112 @@
+package org.neo4j.rdf.fulltext;
+
+import java.util.Collection;
+
+/**
+ * Options for a paged fulltext search, see
+ * {@link FulltextIndex#search(String, SearchOptions)}. The defaults are
+ * all hits from the first one, without snippets, for any predicate in any
+ * context.
+ */
+public class SearchOptions
+{
+    private int offset;
+    private int limit = -1;
+    private double minimumScore;
+    private int snippetCountLimit;
+    private Collection<String> predicates;
+    private Collection<String> contexts;
+    
+    public SearchOptions()
+    {
+    }
+    
+    public SearchOptions( int offset, int limit )
+    {
+        this.offset = offset;
+        this.limit = limit;
+    }
+    
+    /**
+     * @param offset the number of (best) hits to skip.
+     */
+    public void setOffset( int offset )
+    {
+        this.offset = offset;
+    }
+    
+    public int getOffset()
+    {
+        return this.offset;
+    }
+    
+    /**
+     * @param limit the maximum number of hits to return, or -1 for all.
+     */
+    public void setLimit( int limit )
+    {
+        this.limit = limit;
+    }
+    
+    public int getLimit()
+    {
+        return this.limit;
+    }
+    
+    /**
+     * @param minimumScore hits with a lower score than this are left out.
+     * Scores are between 0 and 1, where 1 is the best hit for the query.
+     */
+    public void setMinimumScore( double minimumScore )
+    {
+        this.minimumScore = minimumScore;
+    }
+    
+    public double getMinimumScore()
+    {
+        return this.minimumScore;
+    }
+    
+    /**
+     * @param snippetCountLimit generate snippets for a maximum of this many
+     * of the returned hits, the first ones.
+     */
+    public void setSnippetCountLimit( int snippetCountLimit )
+    {
+        this.snippetCountLimit = snippetCountLimit;
+    }
+    
+    public int getSnippetCountLimit()
+    {
+        return this.snippetCountLimit;
+    }
+    
+    /**
+     * @param predicates only return hits for literals of one of these
+     * predicate uris, or <code>null</code> for any predicate.
+     */
+    public void setPredicates( Collection<String> predicates )
+    {
+        this.predicates = predicates;
+    }
+    
+    public Collection<String> getPredicates()
+    {
+        return this.predicates;
+    }
+    
+    /**
+     * @param contexts only return hits for literals in one of these context
+     * uris, or <code>null</code> for any context. Requires the index to
+     * have a {@link ContextReader}.
+     */
+    public void setContexts( Collection<String> contexts )
+    {
+        this.contexts = contexts;
+    }
+    
+    public Collection<String> getContexts()
+    {
+        return this.contexts;
+    }
+}
@@ -0,0 +1,114 @@
+package org.neo4j.rdf.fulltext;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+
+/**
+ * Hands out {@link IndexSearcher}s for a lucene {@link Directory} without
+ * locking, so that concurrent searches doesn't serialize on each other.
+ * The underlying {@link IndexReader} is reference counted: each
+ * {@link #acquire()} must be followed by a {@link #release(IndexSearcher)}
+ * and a reader is closed when it has been replaced by
+ * {@link #maybeRefresh()} and the last searcher using it is released.
+ */
+class SearcherManager
+{
+    private final AtomicReference<IndexSearcher> current =
+        new AtomicReference<IndexSearcher>();
+    private final Object refreshLock = new Object();
+
+    SearcherManager( Directory directory ) throws IOException
+    {
+        current.set( new IndexSearcher( IndexReader.open( directory, true ) ) );
+    }
+
+    /**
+     * @return the current searcher, which must be given back with
+     * {@link #release(IndexSearcher)} when done with it.
+     */
+    IndexSearcher acquire()
+    {
+        while ( true )
+        {
+            IndexSearcher searcher = current.get();
+            if ( searcher == null )
+            {
+                throw new AlreadyClosedException( "Searcher manager closed" );
+            }
+            try
+            {
+                searcher.getIndexReader().incRef();
+                return searcher;
+            }
+            catch ( AlreadyClosedException e )
+            {
+                // It was replaced and closed after we got it, try the new one
+            }
+        }
+    }
+
+    void release( IndexSearcher searcher )
+    {
+        if ( searcher == null )
+        {
+            return;
+        }
+        try
+        {
+            searcher.getIndexReader().decRef();
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    /**
+     * Reopens the reader if the index has changed since it was opened,
+     * f.ex. after a commit. Searches already in progress continues to use
+     * the old reader.
+     * @return whether or not a new reader was opened.
+     */
+    boolean maybeRefresh() throws IOException
+    {
+        synchronized ( refreshLock )
+        {
+            IndexSearcher searcher = current.get();
+            if ( searcher == null )
+            {
+                return false;
+            }
+            IndexReader reader = searcher.getIndexReader();
+            IndexReader reopened = reader.reopen();
+            if ( reopened == reader )
+            {
+                return false;
+            }
+            current.set( new IndexSearcher( reopened ) );
+            release( searcher );
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of references to the current reader, one for
+     * the manager itself and one for each searcher in use.
+     */
+    int getRefCount()
+    {
+        return current.get().getIndexReader().getRefCount();
+    }
+
+    void close()
+    {
+        synchronized ( refreshLock )
+        {
+            release( current.getAndSet( null ) );
+        }
+    }
+}
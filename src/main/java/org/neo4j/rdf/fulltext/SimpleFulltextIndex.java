@@ -10,8 +10,18 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.transaction.SystemException;
 
@@ -26,15 +36,22 @@ import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.index.IndexWriter.MaxFieldLength;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.Hits;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.highlight.Formatter;
 import org.apache.lucene.search.highlight.Highlighter;
@@ -43,6 +60,7 @@ import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.OpenBitSet;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.NotFoundException;
@@ -69,23 +87,53 @@ import org.neo4j.util.GraphDatabaseUtil;
  * end( boolean commit, int txId ) method if you choose not to use the
  * end( boolean commit ) method which figures it out itself, provided that
  * you are in a transaction at the time of the call.
+ * 
+ * The queue is consumed by a thread which keeps one {@link IndexWriter}
+ * open and commits it every {@link #setCommitBatchSize(int)} entries,
+ * every {@link #setCommitInterval(long)} milliseconds or when the queue
+ * has been drained, whichever comes first. Queue entries are marked as
+ * completed only after they've been committed, so that they are indexed
+ * again after a crash. Searches are done with a shared searcher which is
+ * refreshed after each commit, see {@link SearcherManager}. A search only
+ * holds on to the searcher while it collects hits and loads their
+ * documents, never while its result is iterated through.
+ * 
+ * With {@link #setIndexingWorkers(int)} set to more than one the indexing
+ * is a pipeline: the indexing thread reads entries from the queue and hands
+ * them to a pool of workers which reads the literals, using the
+ * {@link LiteralReader}, and builds the documents. The indexing thread
+ * then applies the documents and removals to the writer in the same order
+ * as they were read from the queue, so that a remove never overtakes the
+ * add it's supposed to remove.
+ * 
+ * The index can be rebuilt on the side while searches continue to use it,
+ * see {@link #createSideIndex()}, {@link #setMirror(SimpleFulltextIndex)}
+ * and {@link #swapIn(SimpleFulltextIndex)}.
  */
 public class SimpleFulltextIndex implements FulltextIndex
 {
     /**
      * The literal node id
      */
-    private static final String KEY_ID = "id";
+    static final String KEY_ID = "id";
     private static final String KEY_INDEX = "index";
-    private static final String KEY_PREDICATE = "predicate";
-    private static final String KEY_INDEX_SOURCE = "index_source";
+    static final String KEY_PREDICATE = "predicate";
+    static final String KEY_INDEX_SOURCE = "index_source";
+    static final String KEY_CONTEXT = "context";
     private static final String SNIPPET_DELIMITER = "...";
-    private static final int BATCH_SIZE = 100;
+    private static final double DEFAULT_RAM_BUFFER_SIZE_MB = 16.0;
+    private static final int DEFAULT_COMMIT_BATCH_SIZE = 10000;
+    private static final long DEFAULT_COMMIT_INTERVAL = 1000;
+    private static final int DEFAULT_RESULT_CACHE_SIZE = 100;
+    private static final int TASKS_IN_FLIGHT_PER_WORKER = 16;
+    private static final int INITIAL_HITS_TO_COLLECT = 100;
+    private static final long COMMIT_RETRY_DELAY = 1000;
     
     private LiteralReader literalReader = new SimpleLiteralReader();
+    private ContextReader contextReader;
     private String directoryPath;
     private String queuePath;
-    private Directory directory;
+    private volatile Directory directory;
     private Analyzer analyzer = new Analyzer()
     {
         @Override
@@ -103,7 +151,22 @@ public class SimpleFulltextIndex implements FulltextIndex
     private IndexingThread indexingThread;
     private Formatter highlightFormatter;
     private Set<String> predicateFilter;
-    private IndexSearcher indexSearcher;
+    private volatile SearcherManager searcherManager;
+    private SimpleFulltextIndex mirror;
+    private final Object mirrorLock = new Object();
+    private double ramBufferSizeMb = DEFAULT_RAM_BUFFER_SIZE_MB;
+    private int commitBatchSize = DEFAULT_COMMIT_BATCH_SIZE;
+    private long commitInterval = DEFAULT_COMMIT_INTERVAL;
+    private boolean memoryMappedQueue;
+    private int indexingWorkers = 1;
+    private int snippetThreads;
+    private ExecutorService snippetExecutor;
+    private final AtomicLong documentLoadTime = new AtomicLong();
+    private final AtomicLong snippetTime = new AtomicLong();
+    private final AtomicLong nodeLookupTime = new AtomicLong();
+    private volatile ResultCache resultCache =
+        new ResultCache( DEFAULT_RESULT_CACHE_SIZE );
+    private int resultCacheSize = DEFAULT_RESULT_CACHE_SIZE;
     
     public SimpleFulltextIndex( GraphDatabaseService graphDb, File storagePath )
     {
@@ -141,12 +204,15 @@ public class SimpleFulltextIndex implements FulltextIndex
     
     private void startUpDirectoryAndThread()
     {
-        this.indexingQueue = new PersistentQueue( new File( queuePath ) );
+        this.indexingQueue = new PersistentQueue( new File( queuePath ),
+            memoryMappedQueue );
         this.indexingQueue.setAutoCompleteEntries( false );
         try
         {
             cleanWriteLocks( new File( directoryPath ) );
             createLuceneDirectory();
+            searcherManager = new SearcherManager( directory );
+            clearResultCache();
         }
         catch ( IOException e )
         {
@@ -200,7 +266,7 @@ public class SimpleFulltextIndex implements FulltextIndex
         }
     }
     
-    private Directory getDir() throws IOException
+    Directory getDir() throws IOException
     {
         return this.directory;
     }
@@ -229,7 +295,13 @@ public class SimpleFulltextIndex implements FulltextIndex
         {
             return;
         }
-        
+        enqueueCommand( new Object[] {
+            trueForIndex, nodeId, predicate, literal
+        } );
+    }
+    
+    private void enqueueCommand( Object[] command )
+    {
         try
         {
             int key =
@@ -240,9 +312,7 @@ public class SimpleFulltextIndex implements FulltextIndex
                 commands = new ArrayList<Object[]>();
                 toIndex.put( key, commands );
             }
-            commands.add( new Object[] {
-                trueForIndex, nodeId, predicate, literal
-            } );
+            commands.add( command );
         }
         catch ( SystemException e )
         {
@@ -280,25 +350,41 @@ public class SimpleFulltextIndex implements FulltextIndex
         }
     }
     
-    private void doIndex( IndexWriter writer, long nodeId, String predicate,
+    private Document newDocument( long nodeId, String predicate,
         Object literal )
     {
-        try
+        Document doc = new Document();
+        doc.add( new Field( KEY_ID, String.valueOf( nodeId ), Store.YES,
+            Index.NOT_ANALYZED ) );
+        doc.add( new Field( KEY_INDEX, getLiteralReader().read( literal ),
+            Store.YES, Index.ANALYZED ) );
+        doc.add( new Field( KEY_PREDICATE, predicate,
+            Store.YES, Index.NOT_ANALYZED ) );
+        doc.add( new Field( KEY_INDEX_SOURCE, literal.toString(),
+            Store.YES, Index.NOT_ANALYZED ) );
+        for ( String context : readContexts( nodeId ) )
         {
-            Document doc = new Document();
-            doc.add( new Field( KEY_ID, String.valueOf( nodeId ), Store.YES,
-                Index.NOT_ANALYZED ) );
-            doc.add( new Field( KEY_INDEX, getLiteralReader().read( literal ),
-                Store.YES, Index.ANALYZED ) );
-            doc.add( new Field( KEY_PREDICATE, predicate,
-                Store.YES, Index.NOT_ANALYZED ) );
-            doc.add( new Field( KEY_INDEX_SOURCE, literal.toString(),
+            doc.add( new Field( KEY_CONTEXT, context,
                 Store.YES, Index.NOT_ANALYZED ) );
-            writer.addDocument( doc );
         }
-        catch ( IOException e )
+        return doc;
+    }
+    
+    private Collection<String> readContexts( long nodeId )
+    {
+        ContextReader reader = getContextReader();
+        if ( reader == null )
         {
-            throw new RuntimeException( e );
+            return Collections.emptyList();
+        }
+        try
+        {
+            return reader.readContexts( graphDb.getNodeById( nodeId ) );
+        }
+        catch ( NotFoundException e )
+        {
+            // It's been deleted since, a remove command for it is coming
+            return Collections.emptyList();
         }
     }
     
@@ -312,6 +398,12 @@ public class SimpleFulltextIndex implements FulltextIndex
         enqueueCommand( false, nodeId, predicate, literal );
     }
     
+    public void removeContext( String contextUri )
+    {
+        // Has no node, predicate or literal, see IndexingThread.apply
+        enqueueCommand( new Object[] { false, contextUri } );
+    }
+    
     private void doRemoveIndex( IndexWriter writer,
         long nodeId, String predicate, Object literal )
     {
@@ -334,26 +426,19 @@ public class SimpleFulltextIndex implements FulltextIndex
         }
     }
     
-    private synchronized IndexSearcher getSearcher() throws IOException
+    private IndexSearcher getSearcher()
     {
-        if ( this.indexSearcher == null )
-        {
-            this.indexSearcher = new IndexSearcher( getDir() );
-        }
-        else
-        {
-            IndexReader reopened =
-                this.indexSearcher.getIndexReader().reopen();
-            if ( reopened != null )
-            {
-                this.indexSearcher = new IndexSearcher( reopened );
-            }
-        }
-        return this.indexSearcher;
+        return searcherManager.acquire();
     }
     
     private void leaveSearcher( IndexSearcher searcher )
     {
+        searcherManager.release( searcher );
+    }
+    
+    int getSearcherRefCount()
+    {
+        return searcherManager.getRefCount();
     }
     
     public Iterable<RawQueryResult> search( String query )
@@ -364,30 +449,64 @@ public class SimpleFulltextIndex implements FulltextIndex
     public Iterable<RawQueryResult> searchWithSnippets( String query,
         int snippetCountLimit )
     {
-        IndexSearcher searcher = null;
         try
         {
-            searcher = getSearcher();
-            Query q = new QueryParser( KEY_INDEX, analyzer ).parse( query );
-            Hits hits = searcher.search( q, Sort.RELEVANCE );
-            
-            Highlighter highlighter = null;
-            if ( snippetCountLimit > 0 )
-            {
-                highlighter = new Highlighter( highlightFormatter,
-                    new QueryScorer( q ) );
-            }
-            
-            Iterator<RawQueryResult> resultIterator =
-                new ResultIterator( hits, snippetCountLimit,
-                    highlighter );
+            Iterator<RawQueryResult> resultIterator = new ResultIterator(
+                null, parseQuery( query ), null, 0, -1, 0, snippetCountLimit );
             return IteratorUtil.asIterable( resultIterator );
         }
         catch ( IOException e )
         {
             throw new RuntimeException( e );
         }
-        catch ( ParseException e )
+    }
+    
+    /**
+     * Collects only the top offset + limit hits, so paging through a large
+     * result doesn't execute the query more than once per page and never
+     * loads more documents than what's returned. The hits of a page are
+     * cached until the next commit, see {@link #setResultCacheSize(int)}.
+     */
+    public ResultWindow<RawQueryResult> search( String query,
+        SearchOptions options )
+    {
+        Query q = parseQuery( query );
+        ResultCache cache = resultCache;
+        ResultCache.Key key = new ResultCache.Key( q, options );
+        IndexSearcher searcher = getSearcher();
+        try
+        {
+            long generation = searcher.getIndexReader().getVersion();
+            ResultCache.CachedResult cached = cache == null ? null :
+                cache.get( key, generation );
+            if ( cached != null )
+            {
+                return cachedResults( cached, searcher, q, options );
+            }
+            
+            RawResultIterator hits = new RawResultIterator( searcher, q,
+                newFilter( options ), options.getOffset(), options.getLimit(),
+                options.getMinimumScore(), options.getSnippetCountLimit() );
+            List<RawQueryResult> results = new ArrayList<RawQueryResult>();
+            List<Integer> snippetDocIds = new ArrayList<Integer>();
+            while ( hits.hasNext() )
+            {
+                RawQueryResult result = hits.next();
+                if ( OK_RESULT.accept( result ) )
+                {
+                    results.add( result );
+                    snippetDocIds.add( hits.lastSnippetDocId() );
+                }
+            }
+            if ( cache != null )
+            {
+                cache.put( key, newCachedResult( generation, results,
+                    snippetDocIds, hits.totalHits() ) );
+            }
+            return new ResultWindow<RawQueryResult>( results,
+                hits.totalHits(), options.getOffset() );
+        }
+        catch ( IOException e )
         {
             throw new RuntimeException( e );
         }
@@ -397,262 +516,884 @@ public class SimpleFulltextIndex implements FulltextIndex
         }
     }
     
-    private static Predicate<RawQueryResult> OK_RESULT = new Predicate<RawQueryResult>()
-    {
-        public boolean accept( RawQueryResult result )
-        {
-            return result != null && result != SPECIAL_FILTERING_INSTANCE;
-        }
-    };
-    
-    private class ResultIterator extends FilteringIterator<RawQueryResult>
+    private ResultCache.CachedResult newCachedResult( long generation,
+        List<RawQueryResult> results, List<Integer> snippetDocIds,
+        int totalHits )
     {
-        ResultIterator( Hits hits, int snippetCountLimit,
-            Highlighter highlighter )
+        long[] nodeIds = new long[ results.size() ];
+        double[] scores = new double[ results.size() ];
+        int[] docIds = new int[ results.size() ];
+        for ( int i = 0; i < nodeIds.length; i++ )
         {
-            super( new RawResultIterator( hits, snippetCountLimit,
-                highlighter ), OK_RESULT );
+            nodeIds[ i ] = results.get( i ).getNode().getId();
+            scores[ i ] = results.get( i ).getScore();
+            docIds[ i ] = snippetDocIds.get( i );
         }
+        return new ResultCache.CachedResult( generation, nodeIds, scores,
+            docIds, totalHits );
     }
     
-    private static final RawQueryResult SPECIAL_FILTERING_INSTANCE =
-        new RawQueryResult( null, 0, null );
-    
-    private class RawResultIterator extends PrefetchingIterator<RawQueryResult>
+    /**
+     * Looks up the nodes of cached hits. The searcher is of the same
+     * generation as the cached hits so that the documents to generate
+     * snippets from are the same.
+     */
+    private ResultWindow<RawQueryResult> cachedResults(
+        ResultCache.CachedResult cached, IndexSearcher searcher, Query query,
+        SearchOptions options ) throws IOException
     {
-        private Hits hits;
-        private int hitsLength;
-        private int snippetCountLimit;
-        private Highlighter highlighter;
-        private int counter = 0;
-        private Set<Long> ids = new HashSet<Long>();
-        
-        private long getIdTime = 0;
-        private long getSnippetTime = 0;
-        private long getNodeTime = 0;
-        
-        RawResultIterator( Hits hits, int snippetCountLimit,
-            Highlighter highlighter )
-        {
-            this.hits = hits;
-            this.hitsLength = hits.length();
-            this.snippetCountLimit = snippetCountLimit;
-            this.highlighter = highlighter;
-        }
-        
-        @Override
-        protected RawQueryResult fetchNextOrNull()
+        List<RawQueryResult> results = new ArrayList<RawQueryResult>();
+        for ( int i = 0; i < cached.nodeIds.length; i++ )
         {
-            int docNum = counter;
-            if ( counter >= hitsLength )
-            {
-                return null;
-            }
-            
-            counter++;
+            Node node = null;
             try
             {
                 long t = System.currentTimeMillis();
-                Document doc = hits.doc( docNum );
-                long id = Long.parseLong( doc.get( KEY_ID ) );
-                getIdTime += ( System.currentTimeMillis() - t );
-                if ( !ids.add( id ) )
-                {
-                    // It's a duplicate here, probably after a crash or
-                    // something
-                    removeDuplicate( doc );
-                    return SPECIAL_FILTERING_INSTANCE;
-                }
-                float score = hits.score( docNum );
-                
-                String snippet = null;
-                t = System.currentTimeMillis();
-                if ( docNum < snippetCountLimit )
-                {
-                    snippet = generateSnippet( doc, highlighter );
-                }
-                getSnippetTime += ( System.currentTimeMillis() - t );
-                
-                try
-                {
-                    t = System.currentTimeMillis();
-                    Node node = graphDb.getNodeById( id );
-                    getNodeTime += ( System.currentTimeMillis() - t );
-                    return new RawQueryResult( node, score, snippet );
-                }
-                catch ( NotFoundException e )
-                {
-                    // Ok, probably index lagging a bit behind, that's all.
-                    // This also effectively hides many bugs, which is a
-                    // BAAD thing.
-                    return SPECIAL_FILTERING_INSTANCE;
-                }
+                node = graphDb.getNodeById( cached.nodeIds[ i ] );
+                nodeLookupTime.addAndGet( System.currentTimeMillis() - t );
             }
-            catch ( IOException e )
+            catch ( NotFoundException e )
             {
-                throw new RuntimeException( e );
+                // Deleted since, the index will catch up
+                continue;
             }
+            int docId = cached.snippetDocIds[ i ];
+            double score = cached.scores[ i ];
+            results.add( docId == -1 ?
+                new RawQueryResult( node, score, ( String ) null ) :
+                new RawQueryResult( node, score,
+                    newSnippetTask( searcher.doc( docId ), query ) ) );
         }
+        return new ResultWindow<RawQueryResult>( results, cached.totalHits,
+            options.getOffset() );
     }
     
-    private void removeDuplicate( Document doc )
+    /**
+     * Counts the hits as they are collected, see {@link FacetCollector},
+     * so that no hits are sorted and no stored documents are loaded.
+     */
+    public Facets facets( String query, SearchOptions options )
     {
-        long nodeId = Long.parseLong( doc.get( KEY_ID ) );
-        String predicate = doc.get( KEY_PREDICATE );
-        String literal = doc.get( KEY_INDEX_SOURCE );
-        removeIndex( nodeId, predicate, literal );
-        index( nodeId, predicate, literal );
+        IndexSearcher searcher = getSearcher();
+        try
+        {
+            FacetCollector collector = new FacetCollector();
+            searcher.search( parseQuery( query ), newFilter( options ),
+                collector );
+            return collector.getFacets();
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        finally
+        {
+            leaveSearcher( searcher );
+        }
     }
     
-    private String generateSnippet( Document doc, Highlighter highlighter )
+    /**
+     * Counts hits per predicate and per context. The predicates are read
+     * from the field cache of each segment, which lucene keeps per segment
+     * reader so that only new segments are read after the index has been
+     * reopened. A document can have several contexts, which the field
+     * cache can't hold, so the hits of a segment are marked in a bit set
+     * and the contexts are counted from the context terms of the segment
+     * and the documents of each term which are hits.
+     */
+    private static class FacetCollector extends Collector
     {
-        StringBuffer snippet = new StringBuffer();
-        for ( Field field : doc.getFields( KEY_INDEX ) )
+        private final Map<String, Integer> predicateCounts =
+            new HashMap<String, Integer>();
+        private final Map<String, Integer> contextCounts =
+            new HashMap<String, Integer>();
+        private int totalHits;
+        private IndexReader reader;
+        private FieldCache.StringIndex predicates;
+        private int[] segmentPredicateCounts;
+        private OpenBitSet segmentHits;
+        private int segmentHitCount;
+        
+        @Override
+        public void setScorer( Scorer scorer )
         {
-            String text = field.stringValue();
-            TokenStream tokenStream = analyzer.tokenStream( KEY_INDEX,
-                new StringReader( text ) );
-            try
+        }
+        
+        @Override
+        public void setNextReader( IndexReader reader, int docBase )
+            throws IOException
+        {
+            addSegmentCounts();
+            this.reader = reader;
+            this.predicates =
+                FieldCache.DEFAULT.getStringIndex( reader, KEY_PREDICATE );
+            this.segmentPredicateCounts = new int[ predicates.lookup.length ];
+            this.segmentHits = new OpenBitSet( reader.maxDoc() );
+            this.segmentHitCount = 0;
+        }
+        
+        @Override
+        public void collect( int doc ) throws IOException
+        {
+            totalHits++;
+            segmentPredicateCounts[ predicates.order[ doc ] ]++;
+            segmentHits.fastSet( doc );
+            segmentHitCount++;
+        }
+        
+        @Override
+        public boolean acceptsDocsOutOfOrder()
+        {
+            return true;
+        }
+        
+        private void addSegmentCounts() throws IOException
+        {
+            if ( segmentPredicateCounts == null )
             {
-                String fragment = highlighter.getBestFragments(
-                    tokenStream, text, 2, SNIPPET_DELIMITER );
-                if ( snippet.length() > 0 )
-                {
-                    snippet.append( SNIPPET_DELIMITER );
-                }
-                snippet.append( fragment );
+                return;
             }
-            catch ( IOException e )
+            if ( segmentHitCount > 0 )
             {
-                // TODO
-                continue;
+                addSegmentContextCounts();
             }
-            catch ( InvalidTokenOffsetsException e )
+            // The first one is for documents without a predicate
+            for ( int i = 1; i < segmentPredicateCounts.length; i++ )
             {
-                // TODO
-                continue;
+                if ( segmentPredicateCounts[ i ] > 0 )
+                {
+                    add( predicateCounts, predicates.lookup[ i ],
+                        segmentPredicateCounts[ i ] );
+                }
             }
+            segmentPredicateCounts = null;
+            segmentHits = null;
         }
-        return snippet.toString();
-    }
-    
-    public boolean verify( VerificationHook hook, String queryOrNullForAll )
-    {
-        IndexSearcher searcher = null;
-        try
+        
+        private void addSegmentContextCounts() throws IOException
         {
-            searcher = new IndexSearcher( getDir() );
-            Map<Status, MutableInteger> counts =
-                new HashMap<Status, MutableInteger>();
-            int maxDoc = 0;
-            final IndexReader reader = searcher.getIndexReader();
-            Iterator<Integer> hitsIterator = null;
-            if ( queryOrNullForAll == null )
+            TermEnum terms = reader.terms( new Term( KEY_CONTEXT, "" ) );
+            TermDocs termDocs = reader.termDocs();
+            try
             {
-                maxDoc = reader.maxDoc();
-                hitsIterator = new PrefetchingIterator<Integer>()
+                do
                 {
-                    private int limit = reader.maxDoc();
-                    private int counter;
-                    
-                    @Override
-                    protected Integer fetchNextOrNull()
+                    Term term = terms.term();
+                    if ( term == null || !term.field().equals( KEY_CONTEXT ) )
                     {
-                        int c = counter++;
-                        return c < limit ? c : null;
+                        break;
                     }
-                };
-            }
-            else
-            {
-                Query q = new QueryParser( KEY_INDEX, analyzer ).parse(
-                    queryOrNullForAll );
-                final Hits hits = searcher.search( q, Sort.RELEVANCE );
-                maxDoc = hits.length();
-                hitsIterator = new PrefetchingIterator<Integer>()
-                {
-                    private int counter;
-                    
-                    @Override
-                    protected Integer fetchNextOrNull()
+                    int count = 0;
+                    termDocs.seek( terms );
+                    while ( termDocs.next() )
                     {
-                        try
-                        {
-                            int c = counter++;
-                            return c < hits.length() ? hits.id( c ) : null;
-                        }
-                        catch ( IOException e )
+                        if ( segmentHits.fastGet( termDocs.doc() ) )
                         {
-                            throw new RuntimeException( e );
+                            count++;
                         }
                     }
-                };
-            }
-            
-            hook.verificationStarting( maxDoc );
-            while ( hitsIterator.hasNext() )
-            {
-                int docId = hitsIterator.next();
-                if ( reader.isDeleted( docId ) )
-                {
-                    hook.oneWasSkipped();
-                    continue;
-                }
-                
-                Document doc = reader.document( docId );
-                long nodeId = Long.parseLong( doc.get( KEY_ID ) );
-                Status status = hook.verify( nodeId,
-                    doc.get( KEY_PREDICATE ), doc.get( KEY_INDEX_SOURCE ) );
-                MutableInteger count = counts.get( status );
-                if ( count == null )
-                {
-                    count = new MutableInteger();
-                    counts.put( status, count );
+                    if ( count > 0 )
+                    {
+                        add( contextCounts, term.text(), count );
+                    }
                 }
-                count.value++;
+                while ( terms.next() );
             }
-            
-            Map<Status, Integer> resultCounts = new HashMap<Status, Integer>();
-            int errors = 0;
-            for ( Map.Entry<Status, MutableInteger> count :
-                counts.entrySet() )
+            finally
             {
-                resultCounts.put( count.getKey(), count.getValue().value );
-                errors += ( count.getKey() == Status.OK ? 0 :
-                    count.getValue().value );
+                termDocs.close();
+                terms.close();
             }
-            hook.verificationCompleted( resultCounts );
-            return errors == 0;
-        }
-        catch ( ParseException e )
-        {
-            throw new RuntimeException( e );
         }
-        catch ( IOException e )
+        
+        private static void add( Map<String, Integer> counts, String key,
+            int count )
         {
-            throw new RuntimeException( e );
+            Integer current = counts.get( key );
+            counts.put( key, current == null ? count : current + count );
         }
-        finally
+        
+        Facets getFacets() throws IOException
         {
-            safeClose( searcher );
+            addSegmentCounts();
+            return new Facets( totalHits, predicateCounts, contextCounts );
         }
     }
     
-    private static class MutableInteger
+    private Filter newFilter( SearchOptions options )
     {
-        private int value;
+        BooleanQuery filterQuery = new BooleanQuery();
+        addAnyOf( filterQuery, KEY_PREDICATE, options.getPredicates() );
+        addAnyOf( filterQuery, KEY_CONTEXT, options.getContexts() );
+        return filterQuery.getClauses().length == 0 ? null :
+            new QueryWrapperFilter( filterQuery );
     }
     
-    public LiteralReader getLiteralReader()
+    private void addAnyOf( BooleanQuery query, String key,
+        Collection<String> values )
     {
-        return this.literalReader;
+        if ( values == null )
+        {
+            return;
+        }
+        BooleanQuery anyOf = new BooleanQuery();
+        for ( String value : values )
+        {
+            anyOf.add( new TermQuery( new Term( key, value ) ), Occur.SHOULD );
+        }
+        query.add( anyOf, Occur.MUST );
     }
     
-    public void setLiteralReader( LiteralReader reader )
+    private Query parseQuery( String query )
+    {
+        try
+        {
+            return new QueryParser( KEY_INDEX, analyzer ).parse( query );
+        }
+        catch ( ParseException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+    
+    private Highlighter newHighlighter( Query query )
+    {
+        return new Highlighter( highlightFormatter, new QueryScorer( query ) );
+    }
+    
+    /**
+     * Creates the task which generates the snippet of a hit, it's handed
+     * to the snippet threads, if any, so that it's ready when asked for.
+     * Otherwise it's run the first time the snippet is asked for.
+     */
+    private FutureTask<String> newSnippetTask( final Document doc,
+        final Query query )
+    {
+        FutureTask<String> task = new FutureTask<String>( new Callable<String>()
+        {
+            public String call()
+            {
+                long t = System.currentTimeMillis();
+                try
+                {
+                    // Highlighters has state, so one per snippet
+                    return generateSnippet( doc, newHighlighter( query ) );
+                }
+                finally
+                {
+                    snippetTime.addAndGet( System.currentTimeMillis() - t );
+                }
+            }
+        } );
+        ExecutorService executor = snippetExecutor;
+        if ( executor != null )
+        {
+            try
+            {
+                executor.execute( task );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                // Shut down, it will be generated when asked for instead
+            }
+        }
+        return task;
+    }
+    
+    private static Predicate<RawQueryResult> OK_RESULT = new Predicate<RawQueryResult>()
+    {
+        public boolean accept( RawQueryResult result )
+        {
+            return result != null && result != SPECIAL_FILTERING_INSTANCE;
+        }
+    };
+    
+    private class ResultIterator extends FilteringIterator<RawQueryResult>
+    {
+        ResultIterator( IndexSearcher searcher, Query query, Filter filter,
+            int offset, int limit, double minimumScore, int snippetCountLimit )
+            throws IOException
+        {
+            super( new RawResultIterator( searcher, query, filter, offset,
+                limit, minimumScore, snippetCountLimit ), OK_RESULT );
+        }
+    }
+    
+    /**
+     * Marks the hits of a query in a bit set, without scoring or sorting
+     * them.
+     */
+    private static class BitSetCollector extends Collector
+    {
+        private final OpenBitSet hits;
+        private int docBase;
+        
+        BitSetCollector( OpenBitSet hits )
+        {
+            this.hits = hits;
+        }
+        
+        @Override
+        public void setScorer( Scorer scorer )
+        {
+        }
+        
+        @Override
+        public void setNextReader( IndexReader reader, int docBase )
+        {
+            this.docBase = docBase;
+        }
+        
+        @Override
+        public void collect( int doc )
+        {
+            hits.fastSet( docBase + doc );
+        }
+        
+        @Override
+        public boolean acceptsDocsOutOfOrder()
+        {
+            return true;
+        }
+    }
+    
+    private static final RawQueryResult SPECIAL_FILTERING_INSTANCE =
+        new RawQueryResult( null, 0, ( String ) null );
+    
+    /**
+     * Iterates over the hits of a query. Like the old
+     * {@link org.apache.lucene.search.Hits} only the top hits are collected
+     * at first and the query is run again for twice as many when they have
+     * been iterated through, so that a query doesn't cost more than the
+     * hits which are looked at. The documents of the hits are loaded when
+     * they are collected. Scores are normalized so that the best hit for
+     * the query has a score of (at most) 1. Snippets are generated lazily,
+     * see {@link #newSnippetTask}.
+     * 
+     * If no searcher is given one is acquired from the
+     * {@link SearcherManager} each time hits are collected and given back
+     * right after, so that an iterator which isn't iterated to the end
+     * doesn't keep an old reader open. The index may have changed when more
+     * hits are collected, so hits may then be skipped or seen again, the
+     * ones seen again are left out.
+     */
+    private class RawResultIterator extends PrefetchingIterator<RawQueryResult>
+    {
+        private IndexSearcher searcher;
+        private Query query;
+        private Filter filter;
+        private ScoreDoc[] hits;
+        private Document[] documents;
+        private long generation;
+        private int totalHits;
+        private float scoreNormalization;
+        private double minimumScore;
+        private int offset;
+        private int end;
+        private int snippetCountLimit;
+        private int counter;
+        private boolean done;
+        private Map<Long, Long> ids = new HashMap<Long, Long>();
+        
+        /**
+         * @param searcher the searcher to use, it's not given back by the
+         * iterator, or {@code null} to acquire one each time hits are
+         * collected.
+         * @param limit the max number of hits after {@code offset}, or -1
+         * for all of them.
+         */
+        RawResultIterator( IndexSearcher searcher, Query query, Filter filter,
+            int offset, int limit, double minimumScore, int snippetCountLimit )
+            throws IOException
+        {
+            this.searcher = searcher;
+            this.query = query;
+            this.filter = filter;
+            this.offset = offset;
+            this.end = limit == -1 ? Integer.MAX_VALUE : offset + limit;
+            this.minimumScore = minimumScore;
+            this.snippetCountLimit = snippetCountLimit;
+            this.counter = offset;
+            collect( Math.min( end, offset + INITIAL_HITS_TO_COLLECT ) );
+        }
+        
+        private void collect( int n ) throws IOException
+        {
+            IndexSearcher searcher = this.searcher != null ? this.searcher :
+                getSearcher();
+            try
+            {
+                TopDocs topDocs = searcher.search( query, filter,
+                    Math.max( 1, n ) );
+                if ( hits == null )
+                {
+                    scoreNormalization = Math.max( 1f, topDocs.getMaxScore() );
+                }
+                ScoreDoc[] newHits = topDocs.scoreDocs;
+                Document[] newDocuments = new Document[ newHits.length ];
+                for ( int i = counter; i < newHits.length; i++ )
+                {
+                    if ( newHits[ i ].score / scoreNormalization <
+                        minimumScore )
+                    {
+                        // Sorted by score, so the rest won't be returned
+                        break;
+                    }
+                    long t = System.currentTimeMillis();
+                    newDocuments[ i ] = searcher.doc( newHits[ i ].doc );
+                    documentLoadTime.addAndGet(
+                        System.currentTimeMillis() - t );
+                }
+                hits = newHits;
+                documents = newDocuments;
+                totalHits = topDocs.totalHits;
+                generation = searcher.getIndexReader().getVersion();
+            }
+            finally
+            {
+                if ( this.searcher == null )
+                {
+                    leaveSearcher( searcher );
+                }
+            }
+        }
+        
+        /**
+         * Collects more hits if {@code docNum} is past the ones collected
+         * so far and there are more of them.
+         * @return whether or not there's a hit at {@code docNum}.
+         */
+        private boolean collectUpTo( int docNum ) throws IOException
+        {
+            if ( docNum >= end )
+            {
+                return false;
+            }
+            if ( docNum >= hits.length && hits.length < totalHits )
+            {
+                collect( ( int ) Math.min( end,
+                    Math.max( docNum + 1L, hits.length * 2L ) ) );
+            }
+            return docNum < hits.length;
+        }
+        
+        int totalHits()
+        {
+            return this.totalHits;
+        }
+        
+        /**
+         * @return the document id of the hit last returned if it got a
+         * snippet, otherwise -1.
+         */
+        int lastSnippetDocId()
+        {
+            int docNum = counter - 1;
+            return docNum - offset < snippetCountLimit ?
+                hits[ docNum ].doc : -1;
+        }
+        
+        @Override
+        protected RawQueryResult fetchNextOrNull()
+        {
+            int docNum = counter;
+            try
+            {
+                if ( done || !collectUpTo( docNum ) ||
+                    hits[ docNum ].score / scoreNormalization < minimumScore )
+                {
+                    // Hits are sorted by score, so there's no more to return
+                    done = true;
+                    return null;
+                }
+            }
+            catch ( IOException e )
+            {
+                throw new RuntimeException( e );
+            }
+            
+            counter++;
+            float score = hits[ docNum ].score / scoreNormalization;
+            Document doc = documents[ docNum ];
+            long id = Long.parseLong( doc.get( KEY_ID ) );
+            Long seenIn = ids.put( id, generation );
+            if ( seenIn != null )
+            {
+                if ( seenIn == generation )
+                {
+                    // It's a duplicate here, probably after a crash or
+                    // something
+                    removeDuplicate( doc );
+                }
+                return SPECIAL_FILTERING_INSTANCE;
+            }
+            
+            try
+            {
+                long t = System.currentTimeMillis();
+                Node node = graphDb.getNodeById( id );
+                nodeLookupTime.addAndGet( System.currentTimeMillis() - t );
+                return docNum - offset < snippetCountLimit ?
+                    new RawQueryResult( node, score,
+                        newSnippetTask( doc, query ) ) :
+                    new RawQueryResult( node, score, ( String ) null );
+            }
+            catch ( NotFoundException e )
+            {
+                // Ok, probably index lagging a bit behind, that's all.
+                // This also effectively hides many bugs, which is a
+                // BAAD thing.
+                return SPECIAL_FILTERING_INSTANCE;
+            }
+        }
+    }
+    
+    private void removeDuplicate( Document doc )
+    {
+        long nodeId = Long.parseLong( doc.get( KEY_ID ) );
+        String predicate = doc.get( KEY_PREDICATE );
+        String literal = doc.get( KEY_INDEX_SOURCE );
+        removeIndex( nodeId, predicate, literal );
+        index( nodeId, predicate, literal );
+    }
+    
+    private String generateSnippet( Document doc, Highlighter highlighter )
+    {
+        StringBuffer snippet = new StringBuffer();
+        for ( Field field : doc.getFields( KEY_INDEX ) )
+        {
+            String text = field.stringValue();
+            TokenStream tokenStream = analyzer.tokenStream( KEY_INDEX,
+                new StringReader( text ) );
+            try
+            {
+                String fragment = highlighter.getBestFragments(
+                    tokenStream, text, 2, SNIPPET_DELIMITER );
+                if ( snippet.length() > 0 )
+                {
+                    snippet.append( SNIPPET_DELIMITER );
+                }
+                snippet.append( fragment );
+            }
+            catch ( IOException e )
+            {
+                // TODO
+                continue;
+            }
+            catch ( InvalidTokenOffsetsException e )
+            {
+                // TODO
+                continue;
+            }
+        }
+        return snippet.toString();
+    }
+    
+    public boolean verify( VerificationHook hook, String queryOrNullForAll )
+    {
+        IndexSearcher searcher = null;
+        try
+        {
+            searcher = new IndexSearcher( getDir() );
+            Map<Status, MutableInteger> counts =
+                new HashMap<Status, MutableInteger>();
+            int maxDoc = 0;
+            final IndexReader reader = searcher.getIndexReader();
+            Iterator<Integer> hitsIterator = null;
+            if ( queryOrNullForAll == null )
+            {
+                maxDoc = reader.maxDoc();
+                hitsIterator = new PrefetchingIterator<Integer>()
+                {
+                    private int limit = reader.maxDoc();
+                    private int counter;
+                    
+                    @Override
+                    protected Integer fetchNextOrNull()
+                    {
+                        int c = counter++;
+                        return c < limit ? c : null;
+                    }
+                };
+            }
+            else
+            {
+                final OpenBitSet hits = new OpenBitSet( reader.maxDoc() );
+                searcher.search( parseQuery( queryOrNullForAll ),
+                    new BitSetCollector( hits ) );
+                maxDoc = ( int ) hits.cardinality();
+                hitsIterator = new PrefetchingIterator<Integer>()
+                {
+                    private int doc = -1;
+                    
+                    @Override
+                    protected Integer fetchNextOrNull()
+                    {
+                        doc = hits.nextSetBit( doc + 1 );
+                        return doc == -1 ? null : doc;
+                    }
+                };
+            }
+            
+            hook.verificationStarting( maxDoc );
+            while ( hitsIterator.hasNext() )
+            {
+                int docId = hitsIterator.next();
+                if ( reader.isDeleted( docId ) )
+                {
+                    hook.oneWasSkipped();
+                    continue;
+                }
+                
+                Document doc = reader.document( docId );
+                long nodeId = Long.parseLong( doc.get( KEY_ID ) );
+                Status status = hook.verify( nodeId,
+                    doc.get( KEY_PREDICATE ), doc.get( KEY_INDEX_SOURCE ) );
+                MutableInteger count = counts.get( status );
+                if ( count == null )
+                {
+                    count = new MutableInteger();
+                    counts.put( status, count );
+                }
+                count.value++;
+            }
+            
+            Map<Status, Integer> resultCounts = new HashMap<Status, Integer>();
+            int errors = 0;
+            for ( Map.Entry<Status, MutableInteger> count :
+                counts.entrySet() )
+            {
+                resultCounts.put( count.getKey(), count.getValue().value );
+                errors += ( count.getKey() == Status.OK ? 0 :
+                    count.getValue().value );
+            }
+            hook.verificationCompleted( resultCounts );
+            return errors == 0;
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        finally
+        {
+            safeClose( searcher );
+        }
+    }
+    
+    private static class MutableInteger
+    {
+        private int value;
+    }
+    
+    public LiteralReader getLiteralReader()
+    {
+        return this.literalReader;
+    }
+    
+    public void setLiteralReader( LiteralReader reader )
     {
         this.literalReader = reader;
     }
     
+    public ContextReader getContextReader()
+    {
+        return this.contextReader;
+    }
+    
+    /**
+     * Sets the hook which tells which contexts a literal is in, so that
+     * they are indexed with it. Literals indexed before there was a
+     * context reader has no contexts until they are indexed again.
+     * @param reader the {@link ContextReader} to use.
+     */
+    public void setContextReader( ContextReader reader )
+    {
+        this.contextReader = reader;
+    }
+    
+    /**
+     * Sets how much RAM the {@link IndexWriter} may use for buffering
+     * documents before flushing them to a new segment. Takes effect the
+     * next time the writer is opened, f.ex. after {@link #clear()}.
+     * @param ramBufferSizeMb the buffer size in megabytes.
+     */
+    public void setRamBufferSizeMb( double ramBufferSizeMb )
+    {
+        this.ramBufferSizeMb = ramBufferSizeMb;
+    }
+    
+    public double getRamBufferSizeMb()
+    {
+        return this.ramBufferSizeMb;
+    }
+    
+    /**
+     * @param commitBatchSize the maximum number of queue entries to
+     * index between commits.
+     */
+    public void setCommitBatchSize( int commitBatchSize )
+    {
+        this.commitBatchSize = commitBatchSize;
+    }
+    
+    public int getCommitBatchSize()
+    {
+        return this.commitBatchSize;
+    }
+    
+    /**
+     * @param commitInterval the maximum time in milliseconds between
+     * commits while there are uncommitted entries, i.e. how far behind
+     * searches may lag under sustained load.
+     */
+    public void setCommitInterval( long commitInterval )
+    {
+        this.commitInterval = commitInterval;
+    }
+    
+    public long getCommitInterval()
+    {
+        return this.commitInterval;
+    }
+    
+    /**
+     * Sets whether or not the indexing queue appends entries into memory
+     * mapped segments, see {@link PersistentQueue}. Takes effect the next
+     * time the queue is opened, f.ex. after {@link #clear()}.
+     * @param memoryMappedQueue whether or not to memory map the queue.
+     */
+    public void setMemoryMappedQueue( boolean memoryMappedQueue )
+    {
+        this.memoryMappedQueue = memoryMappedQueue;
+    }
+    
+    public boolean getMemoryMappedQueue()
+    {
+        return this.memoryMappedQueue;
+    }
+    
+    /**
+     * Sets the number of worker threads which reads literals and builds
+     * documents for the indexing thread. One means that the indexing thread
+     * does it all by itself. Takes effect the next time the queue has been
+     * drained.
+     * @param indexingWorkers the number of document building workers.
+     */
+    public void setIndexingWorkers( int indexingWorkers )
+    {
+        if ( indexingWorkers < 1 )
+        {
+            throw new IllegalArgumentException( "At least one worker needed, " +
+                "not " + indexingWorkers );
+        }
+        this.indexingWorkers = indexingWorkers;
+    }
+    
+    public int getIndexingWorkers()
+    {
+        return this.indexingWorkers;
+    }
+    
+    /**
+     * Sets the maximum number of pages of hits to cache for
+     * {@link #search(String, SearchOptions)}. The cache is cleared each
+     * time the indexing thread commits. Zero means no cache.
+     * @param resultCacheSize the maximum number of cached pages.
+     */
+    public void setResultCacheSize( int resultCacheSize )
+    {
+        if ( resultCacheSize < 0 )
+        {
+            throw new IllegalArgumentException( "Negative result cache " +
+                "size " + resultCacheSize );
+        }
+        this.resultCacheSize = resultCacheSize;
+        this.resultCache = resultCacheSize == 0 ? null :
+            new ResultCache( resultCacheSize );
+    }
+    
+    public int getResultCacheSize()
+    {
+        return this.resultCacheSize;
+    }
+    
+    private void clearResultCache()
+    {
+        ResultCache cache = resultCache;
+        if ( cache != null )
+        {
+            cache.clear();
+        }
+    }
+    
+    /**
+     * Sets the number of threads which generates the snippets of the hits
+     * in a search in parallel, as soon as the hits are found. Zero means
+     * that each snippet is generated the first time it's asked for, by the
+     * thread asking for it.
+     * @param snippetThreads the number of snippet threads.
+     */
+    public synchronized void setSnippetThreads( int snippetThreads )
+    {
+        if ( snippetThreads < 0 )
+        {
+            throw new IllegalArgumentException( "Negative number of " +
+                "snippet threads " + snippetThreads );
+        }
+        if ( snippetExecutor != null )
+        {
+            snippetExecutor.shutdown();
+            snippetExecutor = null;
+        }
+        this.snippetThreads = snippetThreads;
+        if ( snippetThreads > 0 )
+        {
+            snippetExecutor = Executors.newFixedThreadPool( snippetThreads,
+                new ThreadFactory()
+                {
+                    public Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable,
+                            "Fulltext snippet worker" );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                } );
+        }
+    }
+    
+    public int getSnippetThreads()
+    {
+        return this.snippetThreads;
+    }
+    
+    /**
+     * @return the total time, in milliseconds, searches has spent loading
+     * documents of hits.
+     */
+    public long getDocumentLoadTime()
+    {
+        return documentLoadTime.get();
+    }
+    
+    /**
+     * @return the total time, in milliseconds, spent generating snippets,
+     * by the snippet threads or by the threads asking for them.
+     */
+    public long getSnippetTime()
+    {
+        return snippetTime.get();
+    }
+    
+    /**
+     * @return the total time, in milliseconds, searches has spent looking
+     * up the nodes of hits.
+     */
+    public long getNodeLookupTime()
+    {
+        return nodeLookupTime.get();
+    }
+    
     public void end( boolean commit )
     {
         try
@@ -674,11 +1415,138 @@ public class SimpleFulltextIndex implements FulltextIndex
             return;
         }
         
-        for ( Object[] command : commands )
+        // Enqueued to both under the lock, so that a swap sees either
+        // both or neither, see swapIn
+        synchronized ( mirrorLock )
+        {
+            enqueueAll( commands );
+            if ( mirror != null )
+            {
+                mirror.enqueueAll( commands );
+            }
+        }
+    }
+    
+    void enqueueAll( Collection<Object[]> commands )
+    {
+        this.indexingQueue.addAll( commands );
+        this.indexingThread.hasItems = true;
+    }
+    
+    /**
+     * Creates an index next to this one (at the same path plus "-rebuild")
+     * with the same settings, to be rebuilt while this one is in use and
+     * then swapped in with {@link #swapIn(SimpleFulltextIndex)}. An existing
+     * side index is opened as it is, it's up to the caller to clear it.
+     * @return the side index.
+     */
+    public SimpleFulltextIndex createSideIndex()
+    {
+        SimpleFulltextIndex sideIndex = new SimpleFulltextIndex( graphDb,
+            new File( directoryPath + "-rebuild" ) );
+        sideIndex.highlightFormatter = highlightFormatter;
+        sideIndex.predicateFilter = predicateFilter;
+        sideIndex.literalReader = literalReader;
+        sideIndex.contextReader = contextReader;
+        sideIndex.ramBufferSizeMb = ramBufferSizeMb;
+        sideIndex.commitBatchSize = commitBatchSize;
+        sideIndex.commitInterval = commitInterval;
+        sideIndex.indexingWorkers = indexingWorkers;
+        return sideIndex;
+    }
+    
+    /**
+     * Makes all changes committed to this index from now on go to another
+     * index as well, f.ex. a side index being rebuilt so that it won't miss
+     * changes made during the rebuild.
+     * @param mirror the index to also send changes to, or <code>null</code>
+     * to stop mirroring.
+     */
+    public void setMirror( SimpleFulltextIndex mirror )
+    {
+        // Once this returns no more changes are sent to the old mirror
+        synchronized ( mirrorLock )
+        {
+            this.mirror = mirror;
+        }
+    }
+    
+    /**
+     * Replaces the contents of this index with those of a side index. This
+     * index waits until the side index has indexed everything in its queue,
+     * stops mirroring to it and then shuts it down and moves its files in
+     * place of this index's. Searches in progress continue with the old
+     * contents and new searches see the new contents.
+     *
+     * Changes committed meanwhile wait for the swap to complete. What's
+     * left in the queue of this index is thrown away with its old contents,
+     * since all of it was either mirrored to the side index or committed
+     * before the mirroring started, in which case the rebuild of the side
+     * index read it from the graph.
+     * @param sideIndex the index created with {@link #createSideIndex()}
+     * and mirrored to since before it was rebuilt.
+     */
+    public void swapIn( SimpleFulltextIndex sideIndex )
+    {
+        // Catch up first so that the changes wait as short as possible
+        sideIndex.waitUntilQueueIsEmpty();
+        synchronized ( mirrorLock )
+        {
+            sideIndex.waitUntilQueueIsEmpty();
+            if ( mirror == sideIndex )
+            {
+                mirror = null;
+            }
+            sideIndex.shutDown();
+            indexingThread.halt();
+            try
+            {
+                indexingThread.join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            swapInDirectory( sideIndex );
+        }
+    }
+    
+    private void swapInDirectory( SimpleFulltextIndex sideIndex )
+    {
+        File liveDir = new File( directoryPath );
+        File oldDir = new File( directoryPath + "-old" );
+        deleteDir( oldDir );
+        if ( !liveDir.renameTo( oldDir ) ||
+            !new File( sideIndex.directoryPath ).renameTo( liveDir ) )
+        {
+            throw new RuntimeException( "Couldn't move " +
+                sideIndex.directoryPath + " to " + directoryPath );
+        }
+        PersistentQueue.delete( new File( sideIndex.queuePath ) );
+        indexingQueue.close();
+        PersistentQueue.delete( new File( queuePath ) );
+        indexingQueue = new PersistentQueue( new File( queuePath ),
+            memoryMappedQueue );
+        indexingQueue.setAutoCompleteEntries( false );
+        
+        SearcherManager oldSearcherManager = searcherManager;
+        Directory oldDirectory = directory;
+        try
+        {
+            createLuceneDirectory();
+            searcherManager = new SearcherManager( directory );
+            clearResultCache();
+            oldSearcherManager.close();
+            oldDirectory.close();
+        }
+        catch ( IOException e )
         {
-            this.indexingQueue.add( command );
-            this.indexingThread.hasItems = true;
+            throw new RuntimeException( e );
         }
+        deleteDir( oldDir );
+        
+        this.indexingThread = new IndexingThread();
+        this.indexingThread.start();
     }
     
     public boolean queueIsEmpty()
@@ -686,10 +1554,28 @@ public class SimpleFulltextIndex implements FulltextIndex
         return !this.indexingThread.hasItems;
     }
     
+    private void waitUntilQueueIsEmpty()
+    {
+        while ( !queueIsEmpty() )
+        {
+            try
+            {
+                Thread.sleep( 100 );
+            }
+            catch ( InterruptedException e )
+            {
+                // The rest of the queue would be lost with the swap
+                Thread.currentThread().interrupt();
+                throw new RuntimeException( e );
+            }
+        }
+    }
+    
     public void shutDown()
     {
 //        TemporaryLogger.getLogger().info( getClass().getName() +
 //            " shutDown called", new Exception() );
+        setSnippetThreads( 0 );
         internalShutDown();
     }
     
@@ -706,6 +1592,7 @@ public class SimpleFulltextIndex implements FulltextIndex
         }
         
         indexingQueue.close();
+        searcherManager.close();
         try
         {
             directory.close();
@@ -714,8 +1601,35 @@ public class SimpleFulltextIndex implements FulltextIndex
         {
             throw new RuntimeException( e );
         }
-        safeClose( this.indexSearcher );
-        this.indexSearcher = null;
+    }
+    
+    /**
+     * A queue entry on its way through the indexing pipeline. For an index
+     * command the document is built when the task is run, either by one
+     * of the workers or by the indexing thread itself if no worker has
+     * gotten to it yet.
+     */
+    private class IndexingTask extends FutureTask<Document>
+    {
+        private final Entry entry;
+        
+        IndexingTask( final Entry entry )
+        {
+            super( new Callable<Document>()
+            {
+                public Document call()
+                {
+                    Object[] data = entry.data();
+                    if ( !( Boolean ) data[ 0 ] )
+                    {
+                        return null;
+                    }
+                    return newDocument( ( Long ) data[ 1 ],
+                        ( String ) data[ 2 ], data[ 3 ] );
+                }
+            } );
+            this.entry = entry;
+        }
     }
     
     private class IndexingThread extends Thread
@@ -723,7 +1637,13 @@ public class SimpleFulltextIndex implements FulltextIndex
         private boolean halted;
         private boolean hasItems;
         private IndexWriter writer;
-        private Collection<Entry> entriesToComplete = new ArrayList<Entry>();
+        private List<IndexingTask> tasksToComplete =
+            new ArrayList<IndexingTask>();
+        private long firstUncommittedTime;
+        private LinkedList<IndexingTask> tasksInFlight =
+            new LinkedList<IndexingTask>();
+        private ExecutorService workers;
+        private int numberOfWorkers = 1;
         
         private void halt()
         {
@@ -737,34 +1657,30 @@ public class SimpleFulltextIndex implements FulltextIndex
             {
                 try
                 {
-                    hasItems = indexingQueue.hasNext();
+                    adjustWorkers();
+                    hasItems = hasMoreTasks();
                     while ( !halted && hasItems )
                     {
-                        Entry entry = indexingQueue.next();
-                        Object[] data = entry.data();
-                        ensureWriters();
-                        if ( ( Boolean ) data[ 0 ] )
+                        fillPipeline();
+                        IndexingTask task = tasksInFlight.removeFirst();
+                        apply( task );
+                        if ( tasksToComplete.isEmpty() )
                         {
-                            doIndex( writer, ( Long ) data[ 1 ],
-                                ( String ) data[ 2 ], data[ 3 ] );
+                            firstUncommittedTime = System.currentTimeMillis();
                         }
-                        else
-                        {
-                            doRemoveIndex( writer, ( Long ) data[ 1 ],
-                                ( String ) data[ 2 ], data[ 3 ] );
-                        }
-                        entriesToComplete.add( entry );
+                        tasksToComplete.add( task );
                         
-                        if ( entriesToComplete.size() >= BATCH_SIZE ||
-                            !indexingQueue.hasNext() )
+                        if ( tasksToComplete.size() >= commitBatchSize ||
+                            System.currentTimeMillis() - firstUncommittedTime >=
+                                commitInterval || !hasMoreTasks() )
                         {
-                            flushEntries();
+                            commitEntries();
                         }
-                        hasItems = indexingQueue.hasNext();
+                        hasItems = hasMoreTasks();
                     }
                     
-                    // This is so that it flushes if the indexer gets halted.
-                    flushEntries();
+                    // This is so that it commits if the indexer gets halted.
+                    commitEntries();
                     
                     try
                     {
@@ -772,7 +1688,7 @@ public class SimpleFulltextIndex implements FulltextIndex
                         while ( !halted &&
                             System.currentTimeMillis() - time < 100 )
                         {
-                            hasItems = indexingQueue.hasNext();
+                            hasItems = hasMoreTasks();
                             Thread.sleep( 20 );
                         }
                     }
@@ -786,49 +1702,194 @@ public class SimpleFulltextIndex implements FulltextIndex
                     t.printStackTrace();
                 }
             }
+            
+            // Entries still in the pipeline aren't completed so they'll be
+            // indexed the next time the queue is opened.
+            tasksInFlight.clear();
+            if ( workers != null )
+            {
+                workers.shutdownNow();
+            }
+            safeClose( writer );
+            writer = null;
+        }
+        
+        private boolean hasMoreTasks()
+        {
+            return !tasksInFlight.isEmpty() || indexingQueue.hasNext();
+        }
+        
+        private void adjustWorkers()
+        {
+            if ( numberOfWorkers == indexingWorkers )
+            {
+                return;
+            }
+            if ( workers != null )
+            {
+                workers.shutdown();
+                workers = null;
+            }
+            numberOfWorkers = indexingWorkers;
+            if ( numberOfWorkers > 1 )
+            {
+                workers = Executors.newFixedThreadPool( numberOfWorkers,
+                    new ThreadFactory()
+                    {
+                        public Thread newThread( Runnable runnable )
+                        {
+                            Thread thread = new Thread( runnable,
+                                "Fulltext indexing worker" );
+                            thread.setDaemon( true );
+                            return thread;
+                        }
+                    } );
+            }
+        }
+        
+        private void fillPipeline()
+        {
+            int maxTasksInFlight = workers == null ? 1 :
+                numberOfWorkers * TASKS_IN_FLIGHT_PER_WORKER;
+            while ( tasksInFlight.size() < maxTasksInFlight &&
+                indexingQueue.hasNext() )
+            {
+                IndexingTask task = new IndexingTask( indexingQueue.next() );
+                if ( workers != null )
+                {
+                    workers.execute( task );
+                }
+                tasksInFlight.add( task );
+            }
+        }
+        
+        private void apply( IndexingTask task ) throws IOException,
+            InterruptedException
+        {
+            // Does nothing if a worker already has started on it
+            task.run();
+            Document document;
+            try
+            {
+                document = task.get();
+            }
+            catch ( ExecutionException e )
+            {
+                throw new RuntimeException( e.getCause() );
+            }
+            
+            ensureWriter();
+            if ( document != null )
+            {
+                writer.addDocument( document );
+            }
+            else
+            {
+                Object[] data = task.entry.data();
+                if ( data.length == 2 )
+                {
+                    writer.deleteDocuments(
+                        new Term( KEY_CONTEXT, ( String ) data[ 1 ] ) );
+                }
+                else
+                {
+                    doRemoveIndex( writer, ( Long ) data[ 1 ],
+                        ( String ) data[ 2 ], data[ 3 ] );
+                }
+            }
         }
         
-        private void ensureWriters() throws Exception
+        private void ensureWriter() throws IOException
         {
             if ( writer == null )
             {
                 writer = getWriter( false );
-                writer.setMaxBufferedDocs( BATCH_SIZE * 2 );
-                writer.setMaxBufferedDeleteTerms( BATCH_SIZE * 2 );
+                writer.setRAMBufferSizeMB( ramBufferSizeMb );
             }
         }
         
-        private void flushEntries()
+        private void commitEntries()
         {
-            if ( writer == null )
+            if ( writer == null || tasksToComplete.isEmpty() )
             {
                 return;
             }
             
-            safeClose( writer );
+            try
+            {
+                writer.commit();
+            }
+            catch ( IOException e )
+            {
+                // The changes are applied again, see rollbackAndRetry
+                e.printStackTrace();
+                rollbackAndRetry();
+                return;
+            }
+            Entry[] entries = new Entry[ tasksToComplete.size() ];
+            for ( int i = 0; i < entries.length; i++ )
+            {
+                entries[ i ] = tasksToComplete.get( i ).entry;
+            }
+            indexingQueue.markAsCompleted( entries );
+            tasksToComplete.clear();
+            refreshSearcher();
+        }
+        
+        /**
+         * Throws away the uncommitted changes, closing the writer without
+         * committing them, and puts their tasks first in the pipeline so
+         * that they are applied again to a new writer. The entries aren't
+         * marked as completed until that has been committed.
+         */
+        private void rollbackAndRetry()
+        {
+            try
+            {
+                writer.rollback();
+            }
+            catch ( IOException e )
+            {
+                e.printStackTrace();
+            }
             writer = null;
-//            try
-//            {
-//                writer.commit();
-//                
-//            }
-//            catch ( IOException e )
-//            {
-//                TemporaryLogger.getLogger().info(
-//                    "Couldn't commit fulltext index writer ", e );
-//                safeClose( writer );
-//                writer = null;
-//            }
-            indexingQueue.markAsCompleted( entriesToComplete.toArray(
-                new Entry[ entriesToComplete.size() ] ) );
-            entriesToComplete.clear();
+            tasksInFlight.addAll( 0, tasksToComplete );
+            tasksToComplete.clear();
+            if ( halted )
+            {
+                return;
+            }
+            try
+            {
+                Thread.sleep( COMMIT_RETRY_DELAY );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        private void refreshSearcher()
+        {
+            try
+            {
+                if ( searcherManager.maybeRefresh() )
+                {
+                    clearResultCache();
+                }
+            }
+            catch ( IOException e )
+            {
+                // Searches will see the changes after the next commit
+                e.printStackTrace();
+            }
         }
     }
     
     private void delete()
     {
         deleteDir( new File( directoryPath ) );
-        new File( queuePath ).delete();
+        PersistentQueue.delete( new File( queuePath ) );
     }
     
     protected void deleteDir( File dir )
@@ -0,0 +1,328 @@
+package org.neo4j.rdf.load;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.index.lucene.LuceneIndexBatchInserter;
+import org.neo4j.index.lucene.LuceneIndexBatchInserterImpl;
+import org.neo4j.kernel.impl.batchinsert.BatchInserter;
+import org.neo4j.kernel.impl.batchinsert.BatchInserterImpl;
+import org.neo4j.rdf.model.CompleteStatement;
+import org.neo4j.rdf.model.Literal;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Value;
+import org.neo4j.rdf.store.VerboseQuadStore;
+import org.neo4j.rdf.store.representation.standard.AbstractUriBasedExecutor;
+import org.neo4j.rdf.store.representation.standard.VerboseQuadExecutor;
+import org.neo4j.rdf.store.representation.standard.VerboseQuadStrategy;
+
+/**
+ * Offline import of statements into an empty store, writing the same layout
+ * as the {@link VerboseQuadStrategy} does, but through a {@link BatchInserter}
+ * and a {@link LuceneIndexBatchInserter}. There are no transactions and no
+ * index lookups, URIs are resolved via an in-memory map instead, so the
+ * heap must be big enough to hold every distinct URI of the import.
+ *
+ * When {@link #shutdown()} has been called the store can be opened with a
+ * {@link VerboseQuadStore} as usual. The fulltext index isn't populated by
+ * the import, use {@link VerboseQuadStore#reindexFulltextIndex()} afterwards
+ * if one is used.
+ */
+public class BatchQuadImporter
+{
+    private static final Map<String, Object> NO_PROPERTIES =
+        new HashMap<String, Object>();
+
+    private final BatchInserter inserter;
+    private final LuceneIndexBatchInserter index;
+    private final long contextsReferenceNode;
+    private final Map<String, Long> uriToNode = new HashMap<String, Long>();
+    private final Map<Long, Integer> contextCounts =
+        new HashMap<Long, Integer>();
+    private final Map<String, Long> statementToMiddleNode =
+        new HashMap<String, Long>();
+    private final Set<String> middleNodeContexts = new HashSet<String>();
+    private final Map<String, RelationshipType> relationshipTypes =
+        new HashMap<String, RelationshipType>();
+    private boolean deduplicateStatements = true;
+    private long statementCount;
+
+    public BatchQuadImporter( String storeDir )
+    {
+        this( storeDir, new HashMap<String, String>() );
+    }
+
+    /**
+     * @param storeDir the directory of the store to create.
+     * @param config configuration for the {@link BatchInserter}, f.ex.
+     * memory mapping settings.
+     */
+    public BatchQuadImporter( String storeDir, Map<String, String> config )
+    {
+        this.inserter = new BatchInserterImpl( storeDir, config );
+        if ( inserter.getRelationships(
+            inserter.getReferenceNode() ).iterator().hasNext() )
+        {
+            inserter.shutdown();
+            throw new IllegalStateException( "The store at " + storeDir +
+                " isn't empty, the batch import only works on new stores" );
+        }
+        this.index = new LuceneIndexBatchInserterImpl( inserter );
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put( VerboseQuadExecutor.HAS_PREDICATE_INDEX_KEY, true );
+        this.contextsReferenceNode = inserter.createNode( properties );
+        inserter.createRelationship( inserter.getReferenceNode(),
+            contextsReferenceNode, VerboseQuadExecutor.RelTypes.REF_CONTEXTS,
+            NO_PROPERTIES );
+    }
+
+    /**
+     * Duplicate statements (the same subject, predicate, object and context)
+     * are detected via an in-memory map of all statements, which costs
+     * memory. If the input is known to be free from duplicates it can be
+     * turned off.
+     * @param deduplicate whether to look for duplicate statements.
+     */
+    public void setDeduplicateStatements( boolean deduplicate )
+    {
+        this.deduplicateStatements = deduplicate;
+    }
+
+    /**
+     * @return the number of statements added so far, duplicates included.
+     */
+    public long getStatementCount()
+    {
+        return this.statementCount;
+    }
+
+    /**
+     * Adds a statement to the store.
+     * @param statement the statement to add.
+     */
+    public void add( CompleteStatement statement )
+    {
+        long subjectNode = getOrCreateUriNode( statement.getSubject() );
+        String predicate = statement.getPredicate().getUriAsString();
+        long contextNode = getOrCreateContextNode( statement.getContext() );
+
+        Long middleNode = null;
+        Long objectNode = null;
+        String statementKey = null;
+        if ( statement.getObject() instanceof Literal )
+        {
+            Object value = ( ( Literal ) statement.getObject() ).getValue();
+            statementKey = subjectNode + " " + predicate + " L" +
+                value.getClass().getSimpleName() + ":" + value;
+        }
+        else
+        {
+            objectNode = getOrCreateUriNode( statement.getObject() );
+            statementKey = subjectNode + " " + predicate + " " + objectNode;
+        }
+
+        if ( deduplicateStatements )
+        {
+            middleNode = statementToMiddleNode.get( statementKey );
+        }
+        if ( middleNode == null )
+        {
+            if ( objectNode == null )
+            {
+                objectNode = createLiteralNode(
+                    ( Literal ) statement.getObject() );
+            }
+            middleNode = inserter.createNode( NO_PROPERTIES );
+            RelationshipType type = relationshipType( predicate );
+            inserter.createRelationship( subjectNode, middleNode, type,
+                NO_PROPERTIES );
+            inserter.createRelationship( middleNode, objectNode, type,
+                NO_PROPERTIES );
+            index.index( middleNode,
+                VerboseQuadExecutor.MIDDLE_NODE_PREDICATE_KEY, predicate );
+            if ( deduplicateStatements )
+            {
+                statementToMiddleNode.put( statementKey, middleNode );
+            }
+        }
+
+        if ( !deduplicateStatements ||
+            middleNodeContexts.add( middleNode + " " + contextNode ) )
+        {
+            inserter.createRelationship( middleNode, contextNode,
+                VerboseQuadStrategy.RelTypes.IN_CONTEXT, NO_PROPERTIES );
+            contextCounts.put( contextNode,
+                contextCounts.get( contextNode ) + 1 );
+        }
+        statementCount++;
+    }
+
+    /**
+     * Adds all statements in an N-Quads stream, see {@link NQuadsParser}.
+     * @param in the stream to read from.
+     * @return the number of statements read from the stream.
+     */
+    public long importNQuads( InputStream in ) throws IOException
+    {
+        NQuadsParser parser = new NQuadsParser();
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader( in, "UTF-8" ), 64 * 1024 );
+        long lineNumber = 0;
+        long count = 0;
+        String line = null;
+        while ( ( line = reader.readLine() ) != null )
+        {
+            lineNumber++;
+            CompleteStatement statement = null;
+            try
+            {
+                statement = parser.parse( line );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                throw new IllegalArgumentException( "Line " + lineNumber +
+                    ": " + e.getMessage(), e );
+            }
+            if ( statement != null )
+            {
+                add( statement );
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private long getOrCreateUriNode( Value resource )
+    {
+        if ( !( resource instanceof Uri ) )
+        {
+            throw new UnsupportedOperationException( "Only URI resources " +
+                "can be imported, not " + resource );
+        }
+        String uri = ( ( Uri ) resource ).getUriAsString();
+        Long node = uriToNode.get( uri );
+        if ( node == null )
+        {
+            Map<String, Object> properties = new HashMap<String, Object>();
+            properties.put( AbstractUriBasedExecutor.URI_PROPERTY_KEY, uri );
+            node = inserter.createNode( properties );
+            index.index( node, AbstractUriBasedExecutor.URI_PROPERTY_KEY, uri );
+            uriToNode.put( uri, node );
+        }
+        return node;
+    }
+
+    private long getOrCreateContextNode( Uri context )
+    {
+        long node = getOrCreateUriNode( context );
+        if ( !contextCounts.containsKey( node ) )
+        {
+            inserter.createRelationship( contextsReferenceNode, node,
+                VerboseQuadExecutor.RelTypes.IS_A_CONTEXT, NO_PROPERTIES );
+            contextCounts.put( node, 0 );
+        }
+        return node;
+    }
+
+    private long createLiteralNode( Literal literal )
+    {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put( AbstractUriBasedExecutor.LITERAL_VALUE_KEY,
+            literal.getValue() );
+        if ( literal.getDatatype() != null )
+        {
+            properties.put( VerboseQuadExecutor.LITERAL_DATATYPE_KEY,
+                literal.getDatatype().getUriAsString() );
+        }
+        if ( literal.getLanguage() != null )
+        {
+            properties.put( VerboseQuadExecutor.LITERAL_LANGUAGE_KEY,
+                literal.getLanguage() );
+        }
+        long node = inserter.createNode( properties );
+        index.index( node, AbstractUriBasedExecutor.LITERAL_VALUE_KEY,
+            literal.getValue() );
+        return node;
+    }
+
+    private RelationshipType relationshipType( String predicate )
+    {
+        RelationshipType type = relationshipTypes.get( predicate );
+        if ( type == null )
+        {
+            type = DynamicRelationshipType.withName( predicate );
+            relationshipTypes.put( predicate, type );
+        }
+        return type;
+    }
+
+    /**
+     * Writes the context statement counts, optimizes the index and shuts
+     * down the batch inserter. The store can't be written to after this.
+     */
+    public void shutdown()
+    {
+        for ( Map.Entry<Long, Integer> entry : contextCounts.entrySet() )
+        {
+            long contextNode = entry.getKey();
+            Map<String, Object> properties =
+                inserter.getNodeProperties( contextNode );
+            properties.put( VerboseQuadExecutor.IS_CONTEXT_KEY, true );
+            properties.put( VerboseQuadExecutor.STATEMENT_COUNT,
+                entry.getValue() );
+            inserter.setNodeProperties( contextNode, properties );
+        }
+        index.optimize();
+        index.shutdown();
+        inserter.shutdown();
+    }
+
+    /**
+     * Imports N-Quads files into a new store.
+     * @param args the store directory followed by one or more files.
+     */
+    public static void main( String[] args ) throws IOException
+    {
+        if ( args.length < 2 )
+        {
+            System.out.println( "Usage: " +
+                BatchQuadImporter.class.getSimpleName() +
+                " <store dir> <n-quads file>..." );
+            System.exit( 1 );
+        }
+
+        BatchQuadImporter importer = new BatchQuadImporter( args[ 0 ] );
+        try
+        {
+            for ( int i = 1; i < args.length; i++ )
+            {
+                long time = System.currentTimeMillis();
+                InputStream in = new FileInputStream( args[ i ] );
+                try
+                {
+                    long count = importer.importNQuads( in );
+                    System.out.println( args[ i ] + ": " + count +
+                        " statements in " +
+                        ( System.currentTimeMillis() - time ) + "ms" );
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+        }
+        finally
+        {
+            importer.shutdown();
+        }
+    }
+}
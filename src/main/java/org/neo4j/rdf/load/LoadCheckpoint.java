@@ -0,0 +1,159 @@
+package org.neo4j.rdf.load;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * The position in an N-Quads stream up to which everything has been
+ * committed, i.e. the byte offset and line number of the first line which
+ * hasn't been loaded yet. A failed load can be continued from here instead
+ * of starting over.
+ */
+public class LoadCheckpoint
+{
+    private static final String KEY_BYTE_OFFSET = "byte_offset";
+    private static final String KEY_LINE_NUMBER = "line_number";
+    private static final String KEY_STATEMENT_COUNT = "statement_count";
+
+    private final long byteOffset;
+    private final long lineNumber;
+    private final long statementCount;
+
+    public LoadCheckpoint( long byteOffset, long lineNumber,
+        long statementCount )
+    {
+        this.byteOffset = byteOffset;
+        this.lineNumber = lineNumber;
+        this.statementCount = statementCount;
+    }
+
+    /**
+     * @return the number of bytes of the stream which have been loaded.
+     */
+    public long getByteOffset()
+    {
+        return this.byteOffset;
+    }
+
+    /**
+     * @return the number of lines of the stream which have been loaded.
+     */
+    public long getLineNumber()
+    {
+        return this.lineNumber;
+    }
+
+    /**
+     * @return the number of statements which have been loaded.
+     */
+    public long getStatementCount()
+    {
+        return this.statementCount;
+    }
+
+    /**
+     * Writes this checkpoint to {@code file}. A temporary file is written
+     * and then renamed so that a crash in the middle of the write leaves
+     * the previous checkpoint intact.
+     * @param file the file to write to.
+     */
+    public void writeTo( File file )
+    {
+        Properties properties = new Properties();
+        properties.setProperty( KEY_BYTE_OFFSET, String.valueOf( byteOffset ) );
+        properties.setProperty( KEY_LINE_NUMBER, String.valueOf( lineNumber ) );
+        properties.setProperty( KEY_STATEMENT_COUNT,
+            String.valueOf( statementCount ) );
+        File tempFile = new File( file.getAbsolutePath() + ".tmp" );
+        OutputStream out = null;
+        try
+        {
+            out = new FileOutputStream( tempFile );
+            properties.store( out, "N-Quads load checkpoint" );
+            out.close();
+            out = null;
+            if ( file.exists() && !file.delete() )
+            {
+                throw new IOException( "Couldn't delete old checkpoint " +
+                    file );
+            }
+            if ( !tempFile.renameTo( file ) )
+            {
+                throw new IOException( "Couldn't rename " + tempFile +
+                    " to " + file );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        finally
+        {
+            safeClose( out );
+        }
+    }
+
+    /**
+     * @param file the file to read a checkpoint from.
+     * @return the checkpoint in {@code file} or {@code null} if there's no
+     * such file.
+     */
+    public static LoadCheckpoint readFrom( File file )
+    {
+        if ( !file.exists() )
+        {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( file );
+            properties.load( in );
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        finally
+        {
+            safeClose( in );
+        }
+        return new LoadCheckpoint(
+            Long.parseLong( properties.getProperty( KEY_BYTE_OFFSET ) ),
+            Long.parseLong( properties.getProperty( KEY_LINE_NUMBER ) ),
+            Long.parseLong( properties.getProperty( KEY_STATEMENT_COUNT ) ) );
+    }
+
+    private static void safeClose( Object stream )
+    {
+        try
+        {
+            if ( stream instanceof InputStream )
+            {
+                ( ( InputStream ) stream ).close();
+            }
+            else if ( stream instanceof OutputStream )
+            {
+                ( ( OutputStream ) stream ).close();
+            }
+        }
+        catch ( IOException e )
+        {
+            // It's ok
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LoadCheckpoint[offset=" + byteOffset + ", line=" +
+            lineNumber + ", statements=" + statementCount + "]";
+    }
+}
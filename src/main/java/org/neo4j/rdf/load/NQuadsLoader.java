@@ -0,0 +1,323 @@
+package org.neo4j.rdf.load;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import javax.transaction.SystemException;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.rdf.fulltext.FulltextIndex;
+import org.neo4j.rdf.model.CompleteStatement;
+import org.neo4j.rdf.store.VerboseQuadStore;
+import org.neo4j.rdf.store.representation.AbstractRepresentation;
+import org.neo4j.rdf.store.representation.standard.VerboseQuadExecutor;
+import org.neo4j.util.GraphDatabaseUtil;
+
+/**
+ * Streams N-Triples/N-Quads from an {@link InputStream} into a
+ * {@link VerboseQuadStore}. Statements are parsed one line at a time and
+ * handed as a batch to {@link VerboseQuadExecutor#addToNodeSpace(Collection)}
+ * in transactions of {@link #setCommitInterval(int)} statements each, so
+ * that no more than one transaction of the input is materialized.
+ *
+ * After each committed transaction a {@link LoadCheckpoint} is written to
+ * the checkpoint file (if one is set). If a load fails it can be continued
+ * by calling {@link #load(InputStream)} again with the same checkpoint file
+ * and a stream positioned at the start of the same data.
+ */
+public class NQuadsLoader
+{
+    public static final int DEFAULT_COMMIT_INTERVAL = 10000;
+
+    private final GraphDatabaseService graphDb;
+    private final VerboseQuadStore store;
+    private final GraphDatabaseUtil graphDbUtil;
+    private final NQuadsParser parser = new NQuadsParser();
+    private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+    private File checkpointFile;
+    private PrintStream progressOutput;
+    private long startTime;
+    private long statementsThisLoad;
+
+    public NQuadsLoader( GraphDatabaseService graphDb, VerboseQuadStore store )
+    {
+        this.graphDb = graphDb;
+        this.store = store;
+        this.graphDbUtil = new GraphDatabaseUtil( graphDb );
+    }
+
+    /**
+     * @param statements the number of statements to add in each transaction.
+     */
+    public void setCommitInterval( int statements )
+    {
+        if ( statements < 1 )
+        {
+            throw new IllegalArgumentException( "Commit interval must be " +
+                "at least 1, not " + statements );
+        }
+        this.commitInterval = statements;
+    }
+
+    /**
+     * @param file where to keep the {@link LoadCheckpoint} of the load.
+     * The file is read at the start of {@link #load(InputStream)} to see
+     * if there's a load to continue and rewritten after each commit.
+     */
+    public void setCheckpointFile( File file )
+    {
+        this.checkpointFile = file;
+    }
+
+    /**
+     * @param output where to print throughput after each commit,
+     * or {@code null} for no output.
+     */
+    public void setProgressOutput( PrintStream output )
+    {
+        this.progressOutput = output;
+    }
+
+    public NQuadsParser getParser()
+    {
+        return this.parser;
+    }
+
+    /**
+     * Loads the statements in {@code in}, continuing from the checkpoint
+     * in the checkpoint file if there is one.
+     * @param in the stream to read N-Quads from, positioned at its start.
+     * @return the checkpoint after the last line in the stream.
+     */
+    public LoadCheckpoint load( InputStream in )
+    {
+        return load( in, checkpointFile != null ?
+            LoadCheckpoint.readFrom( checkpointFile ) : null );
+    }
+
+    /**
+     * Loads the statements in {@code in}.
+     * @param in the stream to read N-Quads from, positioned at its start.
+     * @param resumeFromOrNull the checkpoint to continue from or {@code null}
+     * to load the entire stream.
+     * @return the checkpoint after the last line in the stream.
+     */
+    public LoadCheckpoint load( InputStream in,
+        LoadCheckpoint resumeFromOrNull )
+    {
+        LoadCheckpoint checkpoint = resumeFromOrNull != null ?
+            resumeFromOrNull : new LoadCheckpoint( 0, 0, 0 );
+        LineReader reader = new LineReader( in );
+        try
+        {
+            reader.skip( checkpoint.getByteOffset() );
+            startTime = System.currentTimeMillis();
+            statementsThisLoad = 0;
+            long lineNumber = checkpoint.getLineNumber();
+            long statementCount = checkpoint.getStatementCount();
+            boolean endOfStream = false;
+            while ( !endOfStream )
+            {
+                int statementsInTx = 0;
+                Collection<AbstractRepresentation> batch =
+                    new ArrayList<AbstractRepresentation>();
+                Transaction tx = graphDb.beginTx();
+                int txId = currentTransactionId();
+                boolean committed = false;
+                try
+                {
+                    try
+                    {
+                        while ( statementsInTx < commitInterval )
+                        {
+                            String line = reader.readLine();
+                            if ( line == null )
+                            {
+                                endOfStream = true;
+                                break;
+                            }
+                            lineNumber++;
+                            CompleteStatement statement = parse( line,
+                                lineNumber );
+                            if ( statement != null )
+                            {
+                                batch.add( getRepresentation( statement ) );
+                                statementsInTx++;
+                            }
+                        }
+                        store.getRepresentationStrategy().getExecutor()
+                            .addToNodeSpace( batch );
+                        tx.success();
+                    }
+                    finally
+                    {
+                        tx.finish();
+                    }
+                    committed = true;
+                }
+                finally
+                {
+                    // The literals are only indexed if the graph changes
+                    // are committed. Rolling back only forgets them, so it
+                    // won't hide the exception which caused it.
+                    endFulltextTransaction( txId, committed );
+                }
+
+                statementCount += statementsInTx;
+                statementsThisLoad += statementsInTx;
+                checkpoint = new LoadCheckpoint( reader.getByteOffset(),
+                    lineNumber, statementCount );
+                if ( checkpointFile != null )
+                {
+                    checkpoint.writeTo( checkpointFile );
+                }
+                reportProgress( checkpoint );
+            }
+            return checkpoint;
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Load failed after " + checkpoint, e );
+        }
+    }
+
+    private CompleteStatement parse( String line, long lineNumber )
+    {
+        try
+        {
+            return parser.parse( line );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new IllegalArgumentException( "Line " + lineNumber + ": " +
+                e.getMessage(), e );
+        }
+    }
+
+    private AbstractRepresentation getRepresentation(
+        CompleteStatement statement )
+    {
+        return store.getRepresentationStrategy().getAbstractRepresentation(
+            statement, new AbstractRepresentation() );
+    }
+
+    private int currentTransactionId()
+    {
+        try
+        {
+            return graphDbUtil.getTransactionManager().getTransaction().
+                hashCode();
+        }
+        catch ( SystemException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private void endFulltextTransaction( int txId, boolean commit )
+    {
+        FulltextIndex fulltextIndex = store.getFulltextIndex();
+        if ( fulltextIndex != null )
+        {
+            fulltextIndex.end( txId, commit );
+        }
+    }
+
+    /**
+     * @return the average number of statements per second added during the
+     * latest call to {@link #load(InputStream)}.
+     */
+    public double getStatementsPerSecond()
+    {
+        long time = System.currentTimeMillis() - startTime;
+        return time == 0 ? 0 : statementsThisLoad * 1000d / time;
+    }
+
+    private void reportProgress( LoadCheckpoint checkpoint )
+    {
+        if ( progressOutput != null )
+        {
+            progressOutput.println( checkpoint.getStatementCount() +
+                " statements, line " + checkpoint.getLineNumber() + ", byte " +
+                checkpoint.getByteOffset() + " (" +
+                ( long ) getStatementsPerSecond() + " statements/s)" );
+        }
+    }
+
+    /**
+     * Reads UTF-8 lines and keeps track of the byte offset of the next line,
+     * something a {@link java.io.BufferedReader} can't tell.
+     */
+    private static class LineReader
+    {
+        private final InputStream in;
+        private byte[] lineBuffer = new byte[ 256 ];
+        private long byteOffset;
+
+        LineReader( InputStream in )
+        {
+            this.in = in instanceof BufferedInputStream ? in :
+                new BufferedInputStream( in, 64 * 1024 );
+        }
+
+        void skip( long bytes ) throws IOException
+        {
+            while ( byteOffset < bytes )
+            {
+                long skipped = in.skip( bytes - byteOffset );
+                if ( skipped <= 0 )
+                {
+                    if ( in.read() == -1 )
+                    {
+                        throw new IOException( "Stream ended at " +
+                            byteOffset + " before checkpoint offset " + bytes );
+                    }
+                    skipped = 1;
+                }
+                byteOffset += skipped;
+            }
+        }
+
+        String readLine() throws IOException
+        {
+            int length = 0;
+            int b = in.read();
+            if ( b == -1 )
+            {
+                return null;
+            }
+            while ( b != -1 && b != '\n' )
+            {
+                byteOffset++;
+                if ( length == lineBuffer.length )
+                {
+                    byte[] newBuffer = new byte[ lineBuffer.length * 2 ];
+                    System.arraycopy( lineBuffer, 0, newBuffer, 0, length );
+                    lineBuffer = newBuffer;
+                }
+                lineBuffer[ length++ ] = ( byte ) b;
+                b = in.read();
+            }
+            if ( b == '\n' )
+            {
+                byteOffset++;
+            }
+            if ( length > 0 && lineBuffer[ length - 1 ] == '\r' )
+            {
+                length--;
+            }
+            return new String( lineBuffer, 0, length, "UTF-8" );
+        }
+
+        long getByteOffset()
+        {
+            return this.byteOffset;
+        }
+    }
+}
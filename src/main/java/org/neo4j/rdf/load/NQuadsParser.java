@@ -0,0 +1,257 @@
+package org.neo4j.rdf.load;
+
+import org.neo4j.rdf.model.CompleteStatement;
+import org.neo4j.rdf.model.Context;
+import org.neo4j.rdf.model.Literal;
+import org.neo4j.rdf.model.Resource;
+import org.neo4j.rdf.model.Uri;
+
+/**
+ * Parses single lines of N-Triples or N-Quads into {@link CompleteStatement}s.
+ * A line without a graph label becomes a statement in {@link Context#NULL}.
+ *
+ * Blank nodes are returned as {@link Uri}s of the form "_:label" since the
+ * stores look up every resource via its URI. Labels are not made unique
+ * across files, so pick a prefix with {@link #setBlankNodePrefix(String)}
+ * if several files are loaded into the same store.
+ */
+public class NQuadsParser
+{
+    private String blankNodePrefix = "_:";
+
+    public void setBlankNodePrefix( String prefix )
+    {
+        this.blankNodePrefix = prefix;
+    }
+
+    /**
+     * Parses one line.
+     * @param line the line, without the line terminator.
+     * @return the statement on that line, or {@code null} if the line is
+     * empty or a comment.
+     * @throws IllegalArgumentException if the line isn't valid N-Quads.
+     */
+    public CompleteStatement parse( String line )
+    {
+        Cursor cursor = new Cursor( line );
+        cursor.skipWhitespace();
+        if ( cursor.atEnd() || cursor.peek() == '#' )
+        {
+            return null;
+        }
+
+        Resource subject = parseResource( cursor );
+        cursor.skipWhitespace();
+        Uri predicate = parseIri( cursor );
+        cursor.skipWhitespace();
+        Object object = cursor.peek() == '"' ? parseLiteral( cursor ) :
+            parseResource( cursor );
+        cursor.skipWhitespace();
+        Context context = Context.NULL;
+        if ( cursor.peek() != '.' )
+        {
+            Resource graph = parseResource( cursor );
+            context = new Context( ( ( Uri ) graph ).getUriAsString() );
+            cursor.skipWhitespace();
+        }
+        cursor.expect( '.' );
+        cursor.skipWhitespace();
+        if ( !cursor.atEnd() && cursor.peek() != '#' )
+        {
+            throw cursor.error( "Unexpected trailing characters" );
+        }
+
+        return object instanceof Literal ?
+            new CompleteStatement( subject, predicate, ( Literal ) object,
+                context ) :
+            new CompleteStatement( subject, predicate, ( Resource ) object,
+                context );
+    }
+
+    private Resource parseResource( Cursor cursor )
+    {
+        if ( cursor.peek() == '_' )
+        {
+            cursor.expect( '_' );
+            cursor.expect( ':' );
+            int start = cursor.position;
+            while ( !cursor.atEnd() && !isWhitespace( cursor.peek() ) &&
+                cursor.peek() != '.' )
+            {
+                cursor.position++;
+            }
+            if ( cursor.position == start )
+            {
+                throw cursor.error( "Empty blank node label" );
+            }
+            return new Uri( blankNodePrefix +
+                cursor.line.substring( start, cursor.position ) );
+        }
+        return parseIri( cursor );
+    }
+
+    private Uri parseIri( Cursor cursor )
+    {
+        cursor.expect( '<' );
+        StringBuilder iri = new StringBuilder();
+        while ( true )
+        {
+            char ch = cursor.next();
+            if ( ch == '>' )
+            {
+                break;
+            }
+            else if ( ch == '\\' )
+            {
+                iri.append( parseEscape( cursor ) );
+            }
+            else
+            {
+                iri.append( ch );
+            }
+        }
+        return new Uri( iri.toString() );
+    }
+
+    private Literal parseLiteral( Cursor cursor )
+    {
+        cursor.expect( '"' );
+        StringBuilder value = new StringBuilder();
+        while ( true )
+        {
+            char ch = cursor.next();
+            if ( ch == '"' )
+            {
+                break;
+            }
+            else if ( ch == '\\' )
+            {
+                value.append( parseEscape( cursor ) );
+            }
+            else
+            {
+                value.append( ch );
+            }
+        }
+
+        if ( !cursor.atEnd() && cursor.peek() == '@' )
+        {
+            cursor.position++;
+            int start = cursor.position;
+            while ( !cursor.atEnd() && !isWhitespace( cursor.peek() ) &&
+                cursor.peek() != '.' )
+            {
+                cursor.position++;
+            }
+            return new Literal( value.toString(), null,
+                cursor.line.substring( start, cursor.position ) );
+        }
+        else if ( !cursor.atEnd() && cursor.peek() == '^' )
+        {
+            cursor.expect( '^' );
+            cursor.expect( '^' );
+            return new Literal( value.toString(), parseIri( cursor ) );
+        }
+        return new Literal( value.toString() );
+    }
+
+    private String parseEscape( Cursor cursor )
+    {
+        char ch = cursor.next();
+        switch ( ch )
+        {
+        case 't': return "\t";
+        case 'b': return "\b";
+        case 'n': return "\n";
+        case 'r': return "\r";
+        case 'f': return "\f";
+        case '"': return "\"";
+        case '\'': return "'";
+        case '\\': return "\\";
+        case '>': return ">";
+        case 'u': return codePoint( cursor, 4 );
+        case 'U': return codePoint( cursor, 8 );
+        default: throw cursor.error( "Invalid escape sequence \\" + ch );
+        }
+    }
+
+    private String codePoint( Cursor cursor, int digits )
+    {
+        if ( cursor.position + digits > cursor.line.length() )
+        {
+            throw cursor.error( "Truncated unicode escape" );
+        }
+        String hex = cursor.line.substring( cursor.position,
+            cursor.position + digits );
+        cursor.position += digits;
+        try
+        {
+            return new String( Character.toChars(
+                Integer.parseInt( hex, 16 ) ) );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw cursor.error( "Invalid unicode escape " + hex );
+        }
+    }
+
+    private static boolean isWhitespace( char ch )
+    {
+        return ch == ' ' || ch == '\t';
+    }
+
+    private static class Cursor
+    {
+        private final String line;
+        private int position;
+
+        private Cursor( String line )
+        {
+            this.line = line;
+        }
+
+        private boolean atEnd()
+        {
+            return position >= line.length();
+        }
+
+        private char peek()
+        {
+            if ( atEnd() )
+            {
+                throw error( "Unexpected end of line" );
+            }
+            return line.charAt( position );
+        }
+
+        private char next()
+        {
+            char ch = peek();
+            position++;
+            return ch;
+        }
+
+        private void expect( char ch )
+        {
+            if ( next() != ch )
+            {
+                position--;
+                throw error( "Expected '" + ch + "'" );
+            }
+        }
+
+        private void skipWhitespace()
+        {
+            while ( !atEnd() && isWhitespace( line.charAt( position ) ) )
+            {
+                position++;
+            }
+        }
+
+        private IllegalArgumentException error( String message )
+        {
+            return new IllegalArgumentException( message + " at column " +
+                ( position + 1 ) + " in '" + line + "'" );
+        }
+    }
+}
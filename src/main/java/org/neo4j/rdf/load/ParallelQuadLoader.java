@@ -0,0 +1,488 @@
+package org.neo4j.rdf.load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.transaction.SystemException;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.rdf.fulltext.FulltextIndex;
+import org.neo4j.rdf.model.CompleteStatement;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.store.VerboseQuadStore;
+import org.neo4j.rdf.store.representation.AbstractNode;
+import org.neo4j.rdf.store.representation.AbstractRepresentation;
+import org.neo4j.rdf.store.representation.standard.VerboseQuadExecutor;
+import org.neo4j.util.GraphDatabaseUtil;
+
+/**
+ * Loads N-Triples/N-Quads into a {@link VerboseQuadStore} with several
+ * threads. The input is parsed by the calling thread and the statements
+ * are partitioned by the hash of their subject over
+ * {@link #setNumberOfThreads(int)} workers, so that all statements about
+ * a subject are added by the same worker. Each worker adds its statements
+ * in transactions of {@link #setCommitInterval(int)} statements.
+ *
+ * Objects and contexts are shared between the workers. Two transactions
+ * creating the node for the same URI would both create one, since neither
+ * sees the other's node before it's committed, so the URIs which don't
+ * have a node yet are locked by the worker for the duration of the
+ * transaction. The URIs are mapped to a fixed number of striped locks
+ * which are always taken in the same order. Existing nodes aren't locked
+ * up front, a worker only waits for the nodes it actually changes. Two
+ * workers may deadlock on them, f.ex. on an object and a context which
+ * they both add statements with, and the transaction which gets the
+ * deadlock is then rolled back and retried up to
+ * {@link #setMaxRetries(int)} times.
+ *
+ * Adding a statement to a context creates a relationship to the context
+ * node, which write locks it until the transaction is committed. Workers
+ * adding to the same context take turns committing their transactions,
+ * the parsing and the lookups are still done in parallel.
+ *
+ * As opposed to {@link NQuadsLoader} a load can't be resumed, since the
+ * workers commit their transactions independently of each other.
+ */
+public class ParallelQuadLoader
+{
+    public static final int DEFAULT_COMMIT_INTERVAL = 5000;
+    public static final int DEFAULT_MAX_RETRIES = 10;
+    private static final int NUMBER_OF_URI_LOCKS = 1024;
+    private static final List<CompleteStatement> END_OF_INPUT =
+        Collections.emptyList();
+
+    private final GraphDatabaseService graphDb;
+    private final VerboseQuadStore store;
+    private final GraphDatabaseUtil graphDbUtil;
+    private final NQuadsParser parser = new NQuadsParser();
+    private final ReentrantLock[] uriLocks =
+        new ReentrantLock[ NUMBER_OF_URI_LOCKS ];
+    private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+    private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private final AtomicLong statementsAdded = new AtomicLong();
+    private long[] statementsAddedPerWorker = new long[ 0 ];
+    private final AtomicLong retries = new AtomicLong();
+    private volatile boolean halted;
+
+    public ParallelQuadLoader( GraphDatabaseService graphDb,
+        VerboseQuadStore store )
+    {
+        this.graphDb = graphDb;
+        this.store = store;
+        this.graphDbUtil = new GraphDatabaseUtil( graphDb );
+        for ( int i = 0; i < uriLocks.length; i++ )
+        {
+            uriLocks[ i ] = new ReentrantLock();
+        }
+    }
+
+    public void setNumberOfThreads( int numberOfThreads )
+    {
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * @param statements the number of statements each worker adds in
+     * each transaction.
+     */
+    public void setCommitInterval( int statements )
+    {
+        if ( statements < 1 )
+        {
+            throw new IllegalArgumentException( "Commit interval must be " +
+                "at least 1, not " + statements );
+        }
+        this.commitInterval = statements;
+    }
+
+    /**
+     * @param maxRetries the number of times a transaction which deadlocked
+     * is retried before the load fails.
+     */
+    public void setMaxRetries( int maxRetries )
+    {
+        this.maxRetries = maxRetries;
+    }
+
+    public NQuadsParser getParser()
+    {
+        return this.parser;
+    }
+
+    /**
+     * @return the number of statements added by the latest
+     * {@link #load(InputStream)}.
+     */
+    public long getStatementsAdded()
+    {
+        return statementsAdded.get();
+    }
+
+    /**
+     * @return the number of statements added by each of the workers during
+     * the latest {@link #load(InputStream)}.
+     */
+    public synchronized long[] getStatementsAddedPerWorker()
+    {
+        return this.statementsAddedPerWorker.clone();
+    }
+
+    /**
+     * @return the number of transactions which were retried because of
+     * deadlocks during the latest {@link #load(InputStream)}.
+     */
+    public long getRetries()
+    {
+        return retries.get();
+    }
+
+    /**
+     * Loads the statements in {@code in}, returning when all of them are
+     * committed.
+     * @param in the stream to read N-Quads from.
+     * @return the number of statements added.
+     */
+    public long load( InputStream in )
+    {
+        statementsAdded.set( 0 );
+        retries.set( 0 );
+        halted = false;
+        int workers = Math.max( 1, numberOfThreads );
+        synchronized ( this )
+        {
+            statementsAddedPerWorker = new long[ workers ];
+        }
+        List<BlockingQueue<List<CompleteStatement>>> queues =
+            new ArrayList<BlockingQueue<List<CompleteStatement>>>();
+        ExecutorService executor = Executors.newFixedThreadPool( workers );
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        try
+        {
+            // Created and committed in a transaction of its own first, so
+            // that the workers won't race to create it
+            executor.submit( new Callable<Object>()
+            {
+                public Object call()
+                {
+                    createContextsReferenceNode();
+                    return null;
+                }
+            } ).get();
+            for ( int i = 0; i < workers; i++ )
+            {
+                final BlockingQueue<List<CompleteStatement>> queue =
+                    new ArrayBlockingQueue<List<CompleteStatement>>( 2 );
+                final int worker = i;
+                queues.add( queue );
+                futures.add( executor.submit( new Callable<Object>()
+                {
+                    public Object call() throws InterruptedException
+                    {
+                        work( worker, queue );
+                        return null;
+                    }
+                } ) );
+            }
+
+            readInput( in, queues, futures );
+            for ( BlockingQueue<List<CompleteStatement>> queue : queues )
+            {
+                put( queue, END_OF_INPUT, futures );
+            }
+            for ( Future<Object> future : futures )
+            {
+                future.get();
+            }
+            return statementsAdded.get();
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new RuntimeException( "Load failed after " +
+                statementsAdded.get() + " statements", e.getCause() );
+        }
+        finally
+        {
+            halted = true;
+            executor.shutdownNow();
+        }
+    }
+
+    private void createContextsReferenceNode()
+    {
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            store.getRepresentationStrategy().getExecutor()
+                .getContextsReferenceNode();
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private void readInput( InputStream in,
+        List<BlockingQueue<List<CompleteStatement>>> queues,
+        List<Future<Object>> futures )
+        throws IOException, InterruptedException, ExecutionException
+    {
+        List<List<CompleteStatement>> partitions =
+            new ArrayList<List<CompleteStatement>>();
+        for ( int i = 0; i < queues.size(); i++ )
+        {
+            partitions.add( new ArrayList<CompleteStatement>() );
+        }
+
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader( in, "UTF-8" ), 64 * 1024 );
+        long lineNumber = 0;
+        String line = null;
+        while ( ( line = reader.readLine() ) != null )
+        {
+            lineNumber++;
+            CompleteStatement statement = parse( line, lineNumber );
+            if ( statement == null )
+            {
+                continue;
+            }
+
+            int partition = ( statement.getSubject().hashCode() &
+                Integer.MAX_VALUE ) % partitions.size();
+            List<CompleteStatement> statements = partitions.get( partition );
+            statements.add( statement );
+            if ( statements.size() >= commitInterval )
+            {
+                put( queues.get( partition ), statements, futures );
+                partitions.set( partition, new ArrayList<CompleteStatement>() );
+            }
+        }
+        for ( int i = 0; i < partitions.size(); i++ )
+        {
+            if ( !partitions.get( i ).isEmpty() )
+            {
+                put( queues.get( i ), partitions.get( i ), futures );
+            }
+        }
+    }
+
+    private CompleteStatement parse( String line, long lineNumber )
+    {
+        try
+        {
+            return parser.parse( line );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new IllegalArgumentException( "Line " + lineNumber + ": " +
+                e.getMessage(), e );
+        }
+    }
+
+    /**
+     * Hands statements to a worker, failing with the worker's exception
+     * instead of waiting forever if any of the workers has failed.
+     */
+    private void put( BlockingQueue<List<CompleteStatement>> queue,
+        List<CompleteStatement> statements, List<Future<Object>> futures )
+        throws InterruptedException, ExecutionException
+    {
+        while ( !queue.offer( statements, 100,
+            TimeUnit.MILLISECONDS ) )
+        {
+            for ( Future<Object> future : futures )
+            {
+                if ( future.isDone() )
+                {
+                    future.get();
+                }
+            }
+        }
+    }
+
+    private void work( int worker,
+        BlockingQueue<List<CompleteStatement>> queue )
+        throws InterruptedException
+    {
+        while ( !halted )
+        {
+            List<CompleteStatement> statements = queue.take();
+            if ( statements == END_OF_INPUT )
+            {
+                return;
+            }
+            add( statements );
+            synchronized ( this )
+            {
+                statementsAddedPerWorker[ worker ] += statements.size();
+            }
+        }
+    }
+
+    private void add( List<CompleteStatement> statements )
+        throws InterruptedException
+    {
+        Collection<AbstractRepresentation> batch =
+            new ArrayList<AbstractRepresentation>();
+        SortedSet<String> uris = new TreeSet<String>();
+        for ( CompleteStatement statement : statements )
+        {
+            AbstractRepresentation representation =
+                store.getRepresentationStrategy().getAbstractRepresentation(
+                    statement, new AbstractRepresentation() );
+            batch.add( representation );
+            for ( AbstractNode node : representation.nodes() )
+            {
+                Uri uri = node.getUriOrNull();
+                if ( uri != null )
+                {
+                    uris.add( uri.getUriAsString() );
+                }
+            }
+        }
+
+        for ( int attempt = 0; ; attempt++ )
+        {
+            try
+            {
+                addInTransaction( batch, uris );
+                statementsAdded.addAndGet( statements.size() );
+                return;
+            }
+            catch ( RuntimeException e )
+            {
+                if ( !isDeadlock( e ) || attempt >= maxRetries || halted )
+                {
+                    throw e;
+                }
+                retries.incrementAndGet();
+                Thread.sleep( 10 * ( attempt + 1 ) );
+            }
+        }
+    }
+
+    private void addInTransaction( Collection<AbstractRepresentation> batch,
+        Collection<String> uris )
+    {
+        VerboseQuadExecutor executor =
+            store.getRepresentationStrategy().getExecutor();
+        SortedSet<Integer> lockIndexes = new TreeSet<Integer>();
+        for ( String uri : uris )
+        {
+            if ( executor.lookupNode( new AbstractNode(
+                new Uri( uri ) ) ) == null )
+            {
+                lockIndexes.add( ( uri.hashCode() & Integer.MAX_VALUE ) %
+                    uriLocks.length );
+            }
+        }
+
+        List<ReentrantLock> locks = new ArrayList<ReentrantLock>();
+        try
+        {
+            for ( int lockIndex : lockIndexes )
+            {
+                ReentrantLock lock = uriLocks[ lockIndex ];
+                lock.lock();
+                locks.add( lock );
+            }
+
+            Transaction tx = graphDb.beginTx();
+            int txId = currentTransactionId();
+            boolean committed = false;
+            try
+            {
+                try
+                {
+                    executor.addToNodeSpace( batch );
+                    tx.success();
+                }
+                finally
+                {
+                    tx.finish();
+                }
+                committed = true;
+            }
+            finally
+            {
+                endFulltextTransaction( txId, committed );
+            }
+        }
+        finally
+        {
+            Collections.reverse( locks );
+            for ( ReentrantLock lock : locks )
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    private int currentTransactionId()
+    {
+        try
+        {
+            return graphDbUtil.getTransactionManager().getTransaction().
+                hashCode();
+        }
+        catch ( SystemException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private void endFulltextTransaction( int txId, boolean commit )
+    {
+        FulltextIndex fulltextIndex = store.getFulltextIndex();
+        if ( fulltextIndex != null )
+        {
+            fulltextIndex.end( txId, commit );
+        }
+    }
+
+    /**
+     * The kernel's deadlock exception may be wrapped, f.ex. by a failed
+     * commit.
+     */
+    private static boolean isDeadlock( Throwable e )
+    {
+        for ( Throwable cause = e; cause != null; cause = cause.getCause() )
+        {
+            if ( cause instanceof DeadlockDetectedException )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,278 @@
+package org.neo4j.rdf.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.helpers.collection.NestingIterator;
+import org.neo4j.rdf.model.Wildcard;
+import org.neo4j.rdf.model.WildcardStatement;
+import org.neo4j.rdf.store.VerboseQuadStore;
+
+/**
+ * Evaluates basic graph patterns, i.e. a set of {@link WildcardStatement}s
+ * where {@link Wildcard}s with the same name are the same variable, over
+ * the node space of a {@link VerboseQuadStore}.
+ *
+ * The patterns are ordered greedily by estimated selectivity, each time
+ * picking the cheapest pattern which shares a variable with the ones
+ * already picked. A pattern which can start from a node bound by earlier
+ * patterns (its subject, object or context) is evaluated once per row
+ * (an index nested loop join), others are evaluated once and hash joined
+ * with the rows. Results are produced lazily as they are iterated.
+ *
+ * Iterate the results within a transaction, as with
+ * {@link VerboseQuadStore#getStatements(WildcardStatement, boolean)}.
+ */
+public class BasicGraphPatternEvaluator
+{
+    private final VerboseQuadStore store;
+
+    public BasicGraphPatternEvaluator( VerboseQuadStore store )
+    {
+        this.store = store;
+    }
+
+    public Iterable<BindingRow> evaluate( WildcardStatement... patterns )
+    {
+        return evaluate( Arrays.asList( patterns ) );
+    }
+
+    public Iterable<BindingRow> evaluate( List<WildcardStatement> patterns )
+    {
+        return evaluate( patterns, BindingRow.EMPTY );
+    }
+
+    /**
+     * @param patterns the patterns which all must match.
+     * @param initialBindings variables which are already bound.
+     * @return each combination of bindings for which all patterns match,
+     * each row including the initial bindings.
+     */
+    public Iterable<BindingRow> evaluate( List<WildcardStatement> patterns,
+        final BindingRow initialBindings )
+    {
+        final List<Step> plan = plan( compile( patterns ),
+            initialBindings.getVariableNames() );
+        return new Iterable<BindingRow>()
+        {
+            public Iterator<BindingRow> iterator()
+            {
+                Iterator<BindingRow> rows = Collections.singletonList(
+                    initialBindings ).iterator();
+                for ( Step step : plan )
+                {
+                    rows = step.join( rows, initialBindings );
+                }
+                return rows;
+            }
+        };
+    }
+
+    /**
+     * @param patterns the patterns to plan.
+     * @return a description of how {@code patterns} would be evaluated,
+     * one line per pattern in the order they're evaluated.
+     */
+    public List<String> explain( List<WildcardStatement> patterns )
+    {
+        List<String> result = new ArrayList<String>();
+        for ( Step step : plan( compile( patterns ),
+            Collections.<String>emptyList() ) )
+        {
+            result.add( step.toString() );
+        }
+        return result;
+    }
+
+    private List<QuadPattern> compile( List<WildcardStatement> patterns )
+    {
+        List<QuadPattern> result = new ArrayList<QuadPattern>();
+        for ( WildcardStatement pattern : patterns )
+        {
+            result.add( new QuadPattern( store, pattern ) );
+        }
+        return result;
+    }
+
+    private List<Step> plan( List<QuadPattern> patterns,
+        Collection<String> initiallyBound )
+    {
+        List<QuadPattern> remaining = new ArrayList<QuadPattern>( patterns );
+        Set<String> bound = new HashSet<String>( initiallyBound );
+        List<Step> plan = new ArrayList<Step>();
+        while ( !remaining.isEmpty() )
+        {
+            QuadPattern best = null;
+            long bestCost = 0;
+            boolean bestIsConnected = false;
+            for ( QuadPattern pattern : remaining )
+            {
+                boolean connected = bound.isEmpty() ||
+                    !Collections.disjoint( bound, pattern.getVariables() );
+                long cost = pattern.estimate( bound );
+                if ( best == null || ( connected && !bestIsConnected ) ||
+                    ( connected == bestIsConnected && cost < bestCost ) )
+                {
+                    best = pattern;
+                    bestCost = cost;
+                    bestIsConnected = connected;
+                }
+            }
+
+            remaining.remove( best );
+            Collection<String> joinVariables = new ArrayList<String>(
+                best.getVariables() );
+            joinVariables.retainAll( bound );
+            boolean hashJoin = !plan.isEmpty() && !best.hasAccessPath( bound );
+            plan.add( new Step( best, joinVariables, hashJoin, bestCost ) );
+            bound.addAll( best.getVariables() );
+        }
+        return plan;
+    }
+
+    private static class Step
+    {
+        private final QuadPattern pattern;
+        private final Collection<String> joinVariables;
+        private final boolean hashJoin;
+        private final long estimate;
+
+        Step( QuadPattern pattern, Collection<String> joinVariables,
+            boolean hashJoin, long estimate )
+        {
+            this.pattern = pattern;
+            this.joinVariables = joinVariables;
+            this.hashJoin = hashJoin;
+            this.estimate = estimate;
+        }
+
+        Iterator<BindingRow> join( Iterator<BindingRow> rows,
+            BindingRow initialBindings )
+        {
+            if ( hashJoin )
+            {
+                return new HashJoinIterator( rows, pattern, joinVariables,
+                    initialBindings );
+            }
+            return new NestingIterator<BindingRow, BindingRow>( rows )
+            {
+                @Override
+                protected Iterator<BindingRow> createNestedIterator(
+                    BindingRow row )
+                {
+                    return pattern.match( row );
+                }
+            };
+        }
+
+        @Override
+        public String toString()
+        {
+            return ( hashJoin ? "HASH JOIN on " + joinVariables :
+                "NESTED LOOP" ) + " " + pattern + " (estimate " +
+                ( estimate == QuadPattern.ALL_STATEMENTS ? "all" :
+                    "" + estimate ) + ")";
+        }
+    }
+
+    /**
+     * Evaluates the pattern once, the first time it's needed, into a hash
+     * table on the join variables and then looks up each incoming row in it.
+     */
+    private static class HashJoinIterator
+        extends NestingIterator<BindingRow, BindingRow>
+    {
+        private final QuadPattern pattern;
+        private final Collection<String> joinVariables;
+        private final BindingRow initialBindings;
+        private Map<List<Object>, List<BindingRow>> table;
+
+        HashJoinIterator( Iterator<BindingRow> rows, QuadPattern pattern,
+            Collection<String> joinVariables, BindingRow initialBindings )
+        {
+            super( rows );
+            this.pattern = pattern;
+            this.joinVariables = joinVariables;
+            this.initialBindings = initialBindings;
+        }
+
+        private List<Object> key( BindingRow row )
+        {
+            List<Object> key = new ArrayList<Object>( joinVariables.size() );
+            for ( String variable : joinVariables )
+            {
+                key.add( Terms.joinKey( row.getTerm( variable ) ) );
+            }
+            return key;
+        }
+
+        private void buildTable()
+        {
+            table = new HashMap<List<Object>, List<BindingRow>>();
+            Iterator<BindingRow> rows = pattern.match( initialBindings );
+            while ( rows.hasNext() )
+            {
+                BindingRow row = rows.next();
+                List<Object> key = key( row );
+                List<BindingRow> bucket = table.get( key );
+                if ( bucket == null )
+                {
+                    bucket = new ArrayList<BindingRow>( 2 );
+                    table.put( key, bucket );
+                }
+                bucket.add( row );
+            }
+        }
+
+        @Override
+        protected Iterator<BindingRow> createNestedIterator(
+            final BindingRow row )
+        {
+            if ( table == null )
+            {
+                buildTable();
+            }
+            List<BindingRow> bucket = table.get( key( row ) );
+            if ( bucket == null )
+            {
+                return Collections.<BindingRow>emptyList().iterator();
+            }
+            final Iterator<BindingRow> matches = bucket.iterator();
+            return new Iterator<BindingRow>()
+            {
+                public boolean hasNext()
+                {
+                    return matches.hasNext();
+                }
+
+                public BindingRow next()
+                {
+                    BindingRow match = matches.next();
+                    BindingRow result = row;
+                    for ( String variable : pattern.getVariables() )
+                    {
+                        if ( !joinVariables.contains( variable ) )
+                        {
+                            result = result.bind( variable,
+                                match.getTerm( variable ) );
+                        }
+                    }
+                    return result;
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
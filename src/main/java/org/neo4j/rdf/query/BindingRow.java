@@ -0,0 +1,128 @@
+package org.neo4j.rdf.query;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.rdf.model.Value;
+
+/**
+ * One solution of a query, i.e. values bound to variable names. Values are
+ * kept as nodes (or predicate URI strings) while the query is evaluated and
+ * only decoded into {@link Value}s when asked for with
+ * {@link #getValue(String)}, so variables which are never read costs no
+ * property lookups.
+ *
+ * A row is immutable, binding a variable creates a new row which shares
+ * the bindings of the one it was created from.
+ */
+public class BindingRow
+{
+    /**
+     * A row without any bindings.
+     */
+    public static final BindingRow EMPTY = new BindingRow( null, null, null );
+
+    private final BindingRow parent;
+    private final String variable;
+    private final Object term;
+
+    private BindingRow( BindingRow parent, String variable, Object term )
+    {
+        this.parent = parent;
+        this.variable = variable;
+        this.term = term;
+    }
+
+    /**
+     * @param variable the variable name.
+     * @param term the node, literal or predicate string to bind to it.
+     * @return a new row with the bindings of this row plus the new one.
+     */
+    BindingRow bind( String variable, Object term )
+    {
+        return new BindingRow( this, variable, term );
+    }
+
+    Object getTerm( String variable )
+    {
+        for ( BindingRow row = this; row.variable != null; row = row.parent )
+        {
+            if ( row.variable.equals( variable ) )
+            {
+                return row.term;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param variable the variable name.
+     * @return whether or not {@code variable} has a value in this row.
+     */
+    public boolean isBound( String variable )
+    {
+        return getTerm( variable ) != null;
+    }
+
+    /**
+     * @param variable the variable name.
+     * @return the value of {@code variable}, a {@link org.neo4j.rdf.model.Uri}
+     * or a {@link org.neo4j.rdf.model.Literal}, or {@code null} if it isn't
+     * bound.
+     */
+    public Value getValue( String variable )
+    {
+        Object term = getTerm( variable );
+        return term == null ? null : Terms.toValue( term );
+    }
+
+    /**
+     * @param variable the variable name.
+     * @return the node bound to {@code variable} or {@code null} if it isn't
+     * bound or is bound to a predicate.
+     */
+    public Node getNode( String variable )
+    {
+        Object term = getTerm( variable );
+        return term instanceof Node ? ( Node ) term : null;
+    }
+
+    /**
+     * @return the names of the bound variables in the order they were bound.
+     */
+    public List<String> getVariableNames()
+    {
+        LinkedList<String> names = new LinkedList<String>();
+        for ( BindingRow row = this; row.variable != null; row = row.parent )
+        {
+            if ( !names.contains( row.variable ) )
+            {
+                names.addFirst( row.variable );
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Decodes all bindings of this row.
+     * @return a map from variable name to value.
+     */
+    public Map<String, Value> toMap()
+    {
+        Map<String, Value> map = new LinkedHashMap<String, Value>();
+        for ( String name : getVariableNames() )
+        {
+            map.put( name, getValue( name ) );
+        }
+        return map;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toMap().toString();
+    }
+}
@@ -0,0 +1,359 @@
+package org.neo4j.rdf.query;
+
+import java.util.regex.Pattern;
+
+import org.neo4j.rdf.model.Literal;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Value;
+
+/**
+ * A FILTER expression. Evaluation gives a {@link Value}, a {@link Boolean},
+ * a {@link String} or a {@link Number}, or {@code null} for an error (f.ex.
+ * an unbound variable or comparing things which can't be compared), which
+ * makes the filter reject the row.
+ */
+abstract class Expression
+{
+    abstract Object evaluate( BindingRow row );
+
+    boolean accept( BindingRow row )
+    {
+        Boolean result = effectiveBooleanValue( evaluate( row ) );
+        return result != null && result;
+    }
+
+    /**
+     * @return the name of the variable if this expression is just a
+     * variable, otherwise {@code null}.
+     */
+    String getVariableOrNull()
+    {
+        return null;
+    }
+
+    /**
+     * @return the constant if this expression is a constant,
+     * otherwise {@code null}.
+     */
+    Value getConstantOrNull()
+    {
+        return null;
+    }
+
+    static Object unwrap( Object value )
+    {
+        if ( value instanceof Literal )
+        {
+            return ( ( Literal ) value ).getValue();
+        }
+        if ( value instanceof Uri )
+        {
+            return ( ( Uri ) value ).getUriAsString();
+        }
+        return value;
+    }
+
+    static Boolean effectiveBooleanValue( Object value )
+    {
+        value = value instanceof Literal ? unwrap( value ) : value;
+        if ( value instanceof Boolean )
+        {
+            return ( Boolean ) value;
+        }
+        if ( value instanceof String )
+        {
+            return ( ( String ) value ).length() > 0;
+        }
+        if ( value instanceof Number )
+        {
+            return ( ( Number ) value ).doubleValue() != 0;
+        }
+        return null;
+    }
+
+    /**
+     * @return a negative number, zero or a positive number as with
+     * {@link Comparable}, or {@code null} if the values can't be compared.
+     */
+    @SuppressWarnings( "unchecked" )
+    static Integer compare( Object value1, Object value2 )
+    {
+        if ( value1 == null || value2 == null ||
+            ( value1 instanceof Uri ) != ( value2 instanceof Uri ) )
+        {
+            return null;
+        }
+        Object raw1 = unwrap( value1 );
+        Object raw2 = unwrap( value2 );
+        if ( raw1 instanceof Number && raw2 instanceof Number )
+        {
+            return Double.compare( ( ( Number ) raw1 ).doubleValue(),
+                ( ( Number ) raw2 ).doubleValue() );
+        }
+        if ( raw1 instanceof Number || raw2 instanceof Number )
+        {
+            // Typed literals are often stored as strings
+            try
+            {
+                return Double.compare( Double.parseDouble( raw1.toString() ),
+                    Double.parseDouble( raw2.toString() ) );
+            }
+            catch ( NumberFormatException e )
+            {
+                return null;
+            }
+        }
+        if ( raw1 instanceof Comparable && raw1.getClass().equals(
+            raw2.getClass() ) )
+        {
+            return ( ( Comparable<Object> ) raw1 ).compareTo( raw2 );
+        }
+        return raw1.equals( raw2 ) ? 0 : null;
+    }
+
+    static class Variable extends Expression
+    {
+        private final String name;
+
+        Variable( String name )
+        {
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate( BindingRow row )
+        {
+            return row.getValue( name );
+        }
+
+        @Override
+        String getVariableOrNull()
+        {
+            return name;
+        }
+    }
+
+    static class Constant extends Expression
+    {
+        private final Value value;
+
+        Constant( Value value )
+        {
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate( BindingRow row )
+        {
+            return value;
+        }
+
+        @Override
+        Value getConstantOrNull()
+        {
+            return value;
+        }
+    }
+
+    static class Or extends Expression
+    {
+        private final Expression left, right;
+
+        Or( Expression left, Expression right )
+        {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate( BindingRow row )
+        {
+            return left.accept( row ) || right.accept( row );
+        }
+    }
+
+    static class And extends Expression
+    {
+        private final Expression left, right;
+
+        And( Expression left, Expression right )
+        {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate( BindingRow row )
+        {
+            return left.accept( row ) && right.accept( row );
+        }
+    }
+
+    static class Not extends Expression
+    {
+        private final Expression expression;
+
+        Not( Expression expression )
+        {
+            this.expression = expression;
+        }
+
+        @Override
+        Object evaluate( BindingRow row )
+        {
+            Boolean value = effectiveBooleanValue(
+                expression.evaluate( row ) );
+            return value == null ? null : !value;
+        }
+    }
+
+    static class Comparison extends Expression
+    {
+        private final String operator;
+        private final Expression left, right;
+
+        Comparison( String operator, Expression left, Expression right )
+        {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        Expression getLeft()
+        {
+            return this.left;
+        }
+
+        Expression getRight()
+        {
+            return this.right;
+        }
+
+        boolean isEquality()
+        {
+            return operator.equals( "=" );
+        }
+
+        @Override
+        Object evaluate( BindingRow row )
+        {
+            Integer comparison = compare( left.evaluate( row ),
+                right.evaluate( row ) );
+            if ( operator.equals( "!=" ) )
+            {
+                return comparison == null || comparison != 0;
+            }
+            if ( comparison == null )
+            {
+                return null;
+            }
+            if ( operator.equals( "=" ) )
+            {
+                return comparison == 0;
+            }
+            if ( operator.equals( "<" ) )
+            {
+                return comparison < 0;
+            }
+            if ( operator.equals( "<=" ) )
+            {
+                return comparison <= 0;
+            }
+            if ( operator.equals( ">" ) )
+            {
+                return comparison > 0;
+            }
+            return comparison >= 0;
+        }
+    }
+
+    static class Regex extends Expression
+    {
+        private final Expression text;
+        private final Pattern pattern;
+
+        Regex( Expression text, String pattern, String flagsOrNull )
+        {
+            this.text = text;
+            int flags = 0;
+            if ( flagsOrNull != null && flagsOrNull.indexOf( 'i' ) != -1 )
+            {
+                flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            }
+            if ( flagsOrNull != null && flagsOrNull.indexOf( 's' ) != -1 )
+            {
+                flags |= Pattern.DOTALL;
+            }
+            if ( flagsOrNull != null && flagsOrNull.indexOf( 'm' ) != -1 )
+            {
+                flags |= Pattern.MULTILINE;
+            }
+            this.pattern = Pattern.compile( pattern, flags );
+        }
+
+        @Override
+        Object evaluate( BindingRow row )
+        {
+            Object value = text.evaluate( row );
+            if ( !( value instanceof Literal || value instanceof String ) )
+            {
+                return null;
+            }
+            return pattern.matcher( unwrap( value ).toString() ).find();
+        }
+    }
+
+    static class Function extends Expression
+    {
+        private final String name;
+        private final Expression argument;
+
+        Function( String name, Expression argument )
+        {
+            this.name = name;
+            this.argument = argument;
+        }
+
+        @Override
+        Object evaluate( BindingRow row )
+        {
+            if ( name.equals( "bound" ) )
+            {
+                return row.isBound( argument.getVariableOrNull() );
+            }
+            Object value = argument.evaluate( row );
+            if ( value == null )
+            {
+                return null;
+            }
+            if ( name.equals( "isiri" ) || name.equals( "isuri" ) )
+            {
+                return value instanceof Uri;
+            }
+            if ( name.equals( "isliteral" ) )
+            {
+                return value instanceof Literal;
+            }
+            if ( name.equals( "isblank" ) )
+            {
+                return false;
+            }
+            if ( name.equals( "str" ) )
+            {
+                return unwrap( value ).toString();
+            }
+            if ( !( value instanceof Literal ) )
+            {
+                return null;
+            }
+            Literal literal = ( Literal ) value;
+            if ( name.equals( "lang" ) )
+            {
+                return literal.getLanguage() == null ? "" :
+                    literal.getLanguage();
+            }
+            // datatype
+            return literal.getDatatype();
+        }
+    }
+}
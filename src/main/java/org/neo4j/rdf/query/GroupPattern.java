@@ -0,0 +1,43 @@
+package org.neo4j.rdf.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.neo4j.rdf.model.Wildcard;
+import org.neo4j.rdf.model.WildcardStatement;
+
+/**
+ * A parsed group graph pattern, i.e. what's within { and } in a query:
+ * the patterns which all must match, FILTERs and OPTIONAL groups.
+ */
+class GroupPattern
+{
+    final List<WildcardStatement> patterns = new ArrayList<WildcardStatement>();
+    final List<Expression> filters = new ArrayList<Expression>();
+    final List<GroupPattern> optionals = new ArrayList<GroupPattern>();
+
+    /**
+     * @return whether or not {@code variable} is used in one of the
+     * (required) patterns of this group.
+     */
+    boolean hasRequiredVariable( String variable )
+    {
+        for ( WildcardStatement pattern : patterns )
+        {
+            if ( isVariable( pattern.getSubject(), variable ) ||
+                isVariable( pattern.getPredicate(), variable ) ||
+                isVariable( pattern.getObject(), variable ) ||
+                isVariable( pattern.getContext(), variable ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isVariable( Object value, String variable )
+    {
+        return value instanceof Wildcard && variable.equals(
+            ( ( Wildcard ) value ).getVariableName() );
+    }
+}
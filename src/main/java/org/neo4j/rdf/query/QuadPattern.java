@@ -0,0 +1,533 @@
+package org.neo4j.rdf.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.helpers.collection.NestingIterator;
+import org.neo4j.helpers.collection.PrefetchingIterator;
+import org.neo4j.rdf.model.Literal;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Value;
+import org.neo4j.rdf.model.Wildcard;
+import org.neo4j.rdf.model.WildcardStatement;
+import org.neo4j.rdf.store.VerboseQuadStore;
+import org.neo4j.rdf.store.representation.AbstractNode;
+import org.neo4j.rdf.store.representation.standard.VerboseQuadExecutor;
+import org.neo4j.rdf.store.representation.standard.VerboseQuadStrategy;
+
+/**
+ * A {@link WildcardStatement} compiled against the node space of a
+ * {@link VerboseQuadStore}: constant URIs are looked up to their nodes once
+ * and matching is done by walking relationships from whichever node is
+ * known (subject, object, literal index, context or predicate index),
+ * given the bindings so far.
+ */
+class QuadPattern
+{
+    static final int SUBJECT = 0;
+    static final int PREDICATE = 1;
+    static final int OBJECT = 2;
+    static final int CONTEXT = 3;
+
+    /**
+     * The estimate used when there's nothing to go from but all the
+     * statements in the store.
+     */
+    static final long ALL_STATEMENTS = Long.MAX_VALUE / 2;
+
+    private static final Iterator<BindingRow> NO_ROWS =
+        Collections.<BindingRow>emptyList().iterator();
+
+    private final WildcardStatement statement;
+    private final VerboseQuadExecutor executor;
+    private final String[] variables = new String[ 4 ];
+    private final Object[] constants = new Object[ 4 ];
+    private boolean impossible;
+    private Long predicateSize;
+
+    QuadPattern( VerboseQuadStore store, WildcardStatement statement )
+    {
+        this.statement = statement;
+        this.executor = store.getRepresentationStrategy().getExecutor();
+        Value[] values = { statement.getSubject(), statement.getPredicate(),
+            statement.getObject(), statement.getContext() };
+        for ( int i = 0; i < values.length; i++ )
+        {
+            Value value = values[ i ];
+            if ( value instanceof Wildcard )
+            {
+                variables[ i ] = ( ( Wildcard ) value ).getVariableName();
+            }
+            else if ( i == PREDICATE )
+            {
+                constants[ i ] = ( ( Uri ) value ).getUriAsString();
+            }
+            else if ( value instanceof Literal )
+            {
+                if ( i != OBJECT )
+                {
+                    impossible = true;
+                }
+                constants[ i ] = value;
+            }
+            else
+            {
+                Node node = executor.lookupNode( new AbstractNode( value ) );
+                if ( node == null )
+                {
+                    impossible = true;
+                }
+                constants[ i ] = node;
+            }
+        }
+    }
+
+    WildcardStatement getStatement()
+    {
+        return this.statement;
+    }
+
+    /**
+     * @return the names of the variables in this pattern.
+     */
+    Collection<String> getVariables()
+    {
+        Collection<String> result = new ArrayList<String>();
+        for ( String variable : variables )
+        {
+            if ( variable != null && !result.contains( variable ) )
+            {
+                result.add( variable );
+            }
+        }
+        return result;
+    }
+
+    private boolean isKnown( int position, Collection<String> boundVariables )
+    {
+        return constants[ position ] != null || ( variables[ position ] != null &&
+            boundVariables.contains( variables[ position ] ) );
+    }
+
+    /**
+     * @return whether or not there's a subject, object or context to start
+     * from when {@code boundVariables} are bound, i.e. if an index nested
+     * loop join makes sense.
+     */
+    boolean hasAccessPath( Collection<String> boundVariables )
+    {
+        return isKnown( SUBJECT, boundVariables ) ||
+            isKnown( OBJECT, boundVariables ) ||
+            isKnown( CONTEXT, boundVariables );
+    }
+
+    /**
+     * A rough estimate of the number of middle nodes to look at for one
+     * row when {@code boundVariables} are bound. The subject and object
+     * estimates are just guesses of typical fan-out, the context and
+     * predicate estimates are the real counts.
+     */
+    long estimate( Collection<String> boundVariables )
+    {
+        if ( impossible )
+        {
+            return 0;
+        }
+        if ( isKnown( SUBJECT, boundVariables ) )
+        {
+            return 10;
+        }
+        if ( isKnown( OBJECT, boundVariables ) )
+        {
+            Object constant = constants[ OBJECT ];
+            return constant instanceof Literal ? 5 : constant != null ? 50 : 20;
+        }
+
+        long best = ALL_STATEMENTS;
+        if ( isKnown( CONTEXT, boundVariables ) )
+        {
+            Node contextNode = ( Node ) constants[ CONTEXT ];
+            best = contextNode != null ?
+                executor.getStatementCount( contextNode ) : 1000;
+        }
+        if ( constants[ PREDICATE ] != null &&
+            executor.hasCompletePredicateIndex() )
+        {
+            best = Math.min( best, getPredicateSize() );
+        }
+        return best;
+    }
+
+    private long getPredicateSize()
+    {
+        if ( predicateSize == null )
+        {
+            predicateSize = ( long ) executor.findMiddleNodes(
+                ( String ) constants[ PREDICATE ] ).size();
+        }
+        return predicateSize;
+    }
+
+    /**
+     * @param row the bindings so far.
+     * @return the rows matching this pattern, each one {@code row} plus the
+     * bindings of this pattern.
+     */
+    Iterator<BindingRow> match( BindingRow row )
+    {
+        if ( impossible )
+        {
+            return NO_ROWS;
+        }
+
+        Node subjectNode = null;
+        Object subject = resolve( SUBJECT, row );
+        if ( subject != null )
+        {
+            subjectNode = asResourceNode( subject );
+            if ( subjectNode == null )
+            {
+                return NO_ROWS;
+            }
+        }
+        String predicate = null;
+        Object predicateTerm = resolve( PREDICATE, row );
+        if ( predicateTerm != null )
+        {
+            predicate = Terms.getUriOrNull( predicateTerm );
+            if ( predicate == null )
+            {
+                return NO_ROWS;
+            }
+        }
+        Object object = resolve( OBJECT, row );
+        if ( object instanceof String || object instanceof Uri )
+        {
+            object = asResourceNode( object );
+            if ( object == null )
+            {
+                return NO_ROWS;
+            }
+        }
+        else if ( object instanceof Node &&
+            !Terms.isResourceNode( ( Node ) object ) )
+        {
+            // A literal node bound by another pattern, other statements
+            // with the same literal has literal nodes of their own.
+            object = Terms.toLiteral( ( Node ) object );
+        }
+        Node contextNode = null;
+        Object context = resolve( CONTEXT, row );
+        if ( context != null )
+        {
+            contextNode = asResourceNode( context );
+            if ( contextNode == null )
+            {
+                return NO_ROWS;
+            }
+        }
+
+        Iterator<Node> middleNodes = findMiddleNodes( subjectNode, predicate,
+            object, contextNode );
+        return new MatchIterator( row, middleNodes, subjectNode, predicate,
+            object, contextNode );
+    }
+
+    private Object resolve( int position, BindingRow row )
+    {
+        if ( constants[ position ] != null )
+        {
+            return constants[ position ];
+        }
+        return variables[ position ] != null ?
+            row.getTerm( variables[ position ] ) : null;
+    }
+
+    private Node asResourceNode( Object term )
+    {
+        if ( term instanceof Node )
+        {
+            Node node = ( Node ) term;
+            return Terms.isResourceNode( node ) ? node : null;
+        }
+        String uri = Terms.getUriOrNull( term );
+        return uri == null ? null :
+            executor.lookupNode( new AbstractNode( new Uri( uri ) ) );
+    }
+
+    private Iterator<Node> findMiddleNodes( Node subjectNode, String predicate,
+        Object object, Node contextNode )
+    {
+        RelationshipType type = predicate != null ?
+            DynamicRelationshipType.withName( predicate ) : null;
+        if ( subjectNode != null )
+        {
+            return new OtherNodes( subjectNode, type == null ?
+                subjectNode.getRelationships( Direction.OUTGOING ) :
+                subjectNode.getRelationships( type, Direction.OUTGOING ),
+                true );
+        }
+        if ( object instanceof Node )
+        {
+            Node objectNode = ( Node ) object;
+            return new OtherNodes( objectNode, type == null ?
+                objectNode.getRelationships( Direction.INCOMING ) :
+                objectNode.getRelationships( type, Direction.INCOMING ),
+                true );
+        }
+        if ( object instanceof Literal )
+        {
+            Iterator<Node> literalNodes = executor.findLiteralNodes(
+                ( ( Literal ) object ).getValue() ).iterator();
+            return new NestingIterator<Node, Node>( literalNodes )
+            {
+                @Override
+                protected Iterator<Node> createNestedIterator( Node literal )
+                {
+                    return new OtherNodes( literal, literal.getRelationships(
+                        Direction.INCOMING ), true );
+                }
+            };
+        }
+        if ( contextNode != null && ( predicate == null ||
+            !executor.hasCompletePredicateIndex() || getPredicateSize(
+                predicate ) > executor.getStatementCount( contextNode ) ) )
+        {
+            return new OtherNodes( contextNode, contextNode.getRelationships(
+                VerboseQuadStrategy.RelTypes.IN_CONTEXT, Direction.INCOMING ),
+                false );
+        }
+        if ( predicate != null && executor.hasCompletePredicateIndex() )
+        {
+            return executor.findMiddleNodes( predicate );
+        }
+        return allMiddleNodes();
+    }
+
+    private long getPredicateSize( String predicate )
+    {
+        return predicate.equals( constants[ PREDICATE ] ) ? getPredicateSize() :
+            executor.findMiddleNodes( predicate ).size();
+    }
+
+    private Iterator<Node> allMiddleNodes()
+    {
+        Node contextsRefNode = executor.getContextsReferenceNode();
+        Iterator<Node> contexts = new OtherNodes( contextsRefNode,
+            contextsRefNode.getRelationships(
+                VerboseQuadExecutor.RelTypes.IS_A_CONTEXT,
+                Direction.OUTGOING ), false );
+        final Set<Long> seen = new HashSet<Long>();
+        return new NestingIterator<Node, Node>( contexts )
+        {
+            @Override
+            protected Iterator<Node> createNestedIterator( Node contextNode )
+            {
+                return new OtherNodes( contextNode,
+                    contextNode.getRelationships(
+                        VerboseQuadStrategy.RelTypes.IN_CONTEXT,
+                        Direction.INCOMING ), false )
+                {
+                    @Override
+                    protected boolean accept( Relationship relationship )
+                    {
+                        return seen.add( relationship.getStartNode().getId() );
+                    }
+                };
+            }
+        };
+    }
+
+    private static boolean isStructuralType( RelationshipType type )
+    {
+        String name = type.name();
+        return name.equals( VerboseQuadStrategy.RelTypes.IN_CONTEXT.name() ) ||
+            name.equals( VerboseQuadExecutor.RelTypes.IS_A_CONTEXT.name() ) ||
+            name.equals( VerboseQuadExecutor.RelTypes.REF_CONTEXTS.name() );
+    }
+
+    private static BindingRow bind( BindingRow row, String variable,
+        Object term )
+    {
+        if ( row == null || variable == null )
+        {
+            return row;
+        }
+        Object existing = row.getTerm( variable );
+        if ( existing != null )
+        {
+            return Terms.equal( existing, term ) ? row : null;
+        }
+        return row.bind( variable, term );
+    }
+
+    private static boolean objectMatches( Object object, Node objectNode )
+    {
+        if ( object instanceof Node )
+        {
+            return Terms.equal( object, objectNode );
+        }
+        return !Terms.isResourceNode( objectNode ) &&
+            Terms.toLiteral( objectNode ).equals( object );
+    }
+
+    @Override
+    public String toString()
+    {
+        return statement.toString();
+    }
+
+    /**
+     * The other nodes of relationships, optionally skipping the
+     * relationships which are part of the store structure rather than
+     * statements.
+     */
+    private static class OtherNodes extends PrefetchingIterator<Node>
+    {
+        private final Node node;
+        private final Iterator<Relationship> relationships;
+        private final boolean statementsOnly;
+
+        OtherNodes( Node node, Iterable<Relationship> relationships,
+            boolean statementsOnly )
+        {
+            this.node = node;
+            this.relationships = relationships.iterator();
+            this.statementsOnly = statementsOnly;
+        }
+
+        protected boolean accept( Relationship relationship )
+        {
+            return true;
+        }
+
+        @Override
+        protected Node fetchNextOrNull()
+        {
+            while ( relationships.hasNext() )
+            {
+                Relationship relationship = relationships.next();
+                if ( statementsOnly &&
+                    isStructuralType( relationship.getType() ) )
+                {
+                    continue;
+                }
+                if ( accept( relationship ) )
+                {
+                    return relationship.getOtherNode( node );
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Goes through middle nodes and, for those matching the subject,
+     * predicate and object, through their contexts.
+     */
+    private class MatchIterator extends PrefetchingIterator<BindingRow>
+    {
+        private final BindingRow row;
+        private final Iterator<Node> middleNodes;
+        private final Node subjectNode;
+        private final String predicate;
+        private final Object object;
+        private final Node contextNode;
+        private BindingRow currentRow;
+        private Iterator<Relationship> contextRelationships;
+
+        MatchIterator( BindingRow row, Iterator<Node> middleNodes,
+            Node subjectNode, String predicate, Object object,
+            Node contextNode )
+        {
+            this.row = row;
+            this.middleNodes = middleNodes;
+            this.subjectNode = subjectNode;
+            this.predicate = predicate;
+            this.object = object;
+            this.contextNode = contextNode;
+        }
+
+        @Override
+        protected BindingRow fetchNextOrNull()
+        {
+            while ( true )
+            {
+                if ( contextRelationships != null &&
+                    contextRelationships.hasNext() )
+                {
+                    Node aContextNode =
+                        contextRelationships.next().getEndNode();
+                    if ( contextNode != null &&
+                        !aContextNode.equals( contextNode ) )
+                    {
+                        continue;
+                    }
+                    BindingRow result = bind( currentRow, variables[ CONTEXT ],
+                        aContextNode );
+                    if ( result != null )
+                    {
+                        return result;
+                    }
+                    continue;
+                }
+
+                if ( !middleNodes.hasNext() )
+                {
+                    return null;
+                }
+                Node middleNode = middleNodes.next();
+                currentRow = matchMiddleNode( middleNode );
+                contextRelationships = currentRow == null ? null :
+                    middleNode.getRelationships(
+                        VerboseQuadStrategy.RelTypes.IN_CONTEXT,
+                        Direction.OUTGOING ).iterator();
+            }
+        }
+
+        private BindingRow matchMiddleNode( Node middleNode )
+        {
+            Iterator<Relationship> subjectRelationships =
+                middleNode.getRelationships( Direction.INCOMING ).iterator();
+            if ( !subjectRelationships.hasNext() )
+            {
+                return null;
+            }
+            Relationship subjectRelationship = subjectRelationships.next();
+            Node aSubjectNode = subjectRelationship.getStartNode();
+            if ( subjectNode != null && !aSubjectNode.equals( subjectNode ) )
+            {
+                return null;
+            }
+            String aPredicate = subjectRelationship.getType().name();
+            if ( predicate != null && !aPredicate.equals( predicate ) )
+            {
+                return null;
+            }
+            Relationship objectRelationship = middleNode.getSingleRelationship(
+                subjectRelationship.getType(), Direction.OUTGOING );
+            if ( objectRelationship == null )
+            {
+                return null;
+            }
+            Node anObjectNode = objectRelationship.getEndNode();
+            if ( object != null && !objectMatches( object, anObjectNode ) )
+            {
+                return null;
+            }
+
+            BindingRow result = bind( row, variables[ SUBJECT ], aSubjectNode );
+            result = bind( result, variables[ PREDICATE ], aPredicate );
+            return bind( result, variables[ OBJECT ], anObjectNode );
+        }
+    }
+}
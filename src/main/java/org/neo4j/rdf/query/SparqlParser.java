@@ -0,0 +1,751 @@
+package org.neo4j.rdf.query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.neo4j.rdf.model.Context;
+import org.neo4j.rdf.model.Literal;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Value;
+import org.neo4j.rdf.model.Wildcard;
+import org.neo4j.rdf.model.WildcardStatement;
+import org.neo4j.rdf.store.representation.standard.AbstractUriBasedExecutor;
+
+/**
+ * Parses the subset of SPARQL which {@link SparqlQueryEngine} supports:
+ * PREFIX/BASE, SELECT [DISTINCT|REDUCED] with a list of variables or *,
+ * group graph patterns with triples, FILTER, OPTIONAL and GRAPH, and
+ * LIMIT/OFFSET. Blank nodes in patterns are treated as variables which
+ * aren't selected.
+ *
+ * Triples outside of a GRAPH clause matches statements in any context.
+ * Errors are reported as {@link IllegalArgumentException}s.
+ */
+class SparqlParser
+{
+    private static final Pattern IRI_PATTERN =
+        Pattern.compile( "<([^<>\"{}|^`\\\\\\s]*)>" );
+    private static final String PUNCTUATION = "{}().;,*";
+
+    private static enum Type
+    {
+        IRI, PNAME, VAR, STRING, NUMBER, NAME, LANG, DATATYPE, BNODE, ANON,
+        OPERATOR, END
+    }
+
+    private static class Token
+    {
+        final Type type;
+        final String text;
+        final int position;
+
+        Token( Type type, String text, int position )
+        {
+            this.type = type;
+            this.text = text;
+            this.position = position;
+        }
+
+        boolean is( String text )
+        {
+            return ( type == Type.OPERATOR || type == Type.NAME ) &&
+                this.text.equalsIgnoreCase( text );
+        }
+
+        @Override
+        public String toString()
+        {
+            return type == Type.END ? "end of query" : "'" + text + "'";
+        }
+    }
+
+    private final String query;
+    private final List<Token> tokens = new ArrayList<Token>();
+    private final Map<String, String> prefixes = new HashMap<String, String>();
+    private final List<String> visibleVariables = new ArrayList<String>();
+    private String base = "";
+    private int index;
+    private int anonymousCounter;
+
+    SparqlParser( String query )
+    {
+        this.query = query;
+        tokenize();
+    }
+
+    SparqlQuery parse()
+    {
+        parsePrologue();
+        expect( "SELECT" );
+        boolean distinct = false;
+        if ( peek().is( "DISTINCT" ) || peek().is( "REDUCED" ) )
+        {
+            distinct = next().is( "DISTINCT" );
+        }
+        List<String> variables = null;
+        if ( peek().is( "*" ) )
+        {
+            next();
+        }
+        else
+        {
+            variables = new ArrayList<String>();
+            while ( peek().type == Type.VAR )
+            {
+                variables.add( next().text );
+            }
+            if ( variables.isEmpty() )
+            {
+                throw error( peek(), "Expected variables or '*'" );
+            }
+        }
+        if ( peek().is( "FROM" ) )
+        {
+            throw error( peek(), "FROM isn't supported, use GRAPH" );
+        }
+        if ( peek().is( "WHERE" ) )
+        {
+            next();
+        }
+        GroupPattern where = new GroupPattern();
+        parseGroup( where, new Wildcard( null ) );
+
+        long offset = 0;
+        long limit = -1;
+        while ( peek().type != Type.END )
+        {
+            Token token = next();
+            if ( token.is( "LIMIT" ) )
+            {
+                limit = parseInteger();
+            }
+            else if ( token.is( "OFFSET" ) )
+            {
+                offset = parseInteger();
+            }
+            else
+            {
+                throw error( token, "Unsupported " + token );
+            }
+        }
+        return new SparqlQuery( variables != null ? variables :
+            visibleVariables, distinct, offset, limit, where );
+    }
+
+    private void parsePrologue()
+    {
+        while ( true )
+        {
+            if ( peek().is( "BASE" ) )
+            {
+                next();
+                base = expect( Type.IRI ).text;
+            }
+            else if ( peek().is( "PREFIX" ) )
+            {
+                next();
+                Token prefix = expect( Type.PNAME );
+                if ( !prefix.text.endsWith( ":" ) )
+                {
+                    throw error( prefix, "Expected a prefix ending with ':'" );
+                }
+                prefixes.put( prefix.text.substring( 0,
+                    prefix.text.length() - 1 ), iri( expect( Type.IRI ) ) );
+            }
+            else
+            {
+                return;
+            }
+        }
+    }
+
+    private long parseInteger()
+    {
+        Token token = expect( Type.NUMBER );
+        try
+        {
+            return Long.parseLong( token.text );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw error( token, "Expected an integer" );
+        }
+    }
+
+    private void parseGroup( GroupPattern group, Value graph )
+    {
+        expect( "{" );
+        while ( !peek().is( "}" ) )
+        {
+            Token token = peek();
+            if ( token.is( "." ) )
+            {
+                next();
+            }
+            else if ( token.is( "{" ) )
+            {
+                parseGroup( group, graph );
+            }
+            else if ( token.is( "OPTIONAL" ) )
+            {
+                next();
+                GroupPattern optional = new GroupPattern();
+                parseGroup( optional, graph );
+                group.optionals.add( optional );
+            }
+            else if ( token.is( "GRAPH" ) )
+            {
+                next();
+                Token graphToken = next();
+                Value graphValue = null;
+                if ( graphToken.type == Type.VAR )
+                {
+                    graphValue = variable( graphToken.text );
+                }
+                else
+                {
+                    graphValue = new Context( resource( graphToken ) );
+                }
+                parseGroup( group, graphValue );
+            }
+            else if ( token.is( "FILTER" ) )
+            {
+                next();
+                group.filters.add( peek().is( "(" ) ? parseBracketted() :
+                    parsePrimary() );
+            }
+            else if ( token.is( "UNION" ) || token.is( "MINUS" ) )
+            {
+                throw error( token, token.text + " isn't supported" );
+            }
+            else
+            {
+                parseTriples( group, graph );
+            }
+        }
+        expect( "}" );
+    }
+
+    private void parseTriples( GroupPattern group, Value graph )
+    {
+        Value subject = parseTerm( false );
+        while ( true )
+        {
+            Token verbToken = next();
+            Value predicate = null;
+            if ( verbToken.type == Type.VAR )
+            {
+                predicate = variable( verbToken.text );
+            }
+            else if ( verbToken.is( "a" ) )
+            {
+                predicate = new Uri( AbstractUriBasedExecutor.RDF_TYPE_URI );
+            }
+            else
+            {
+                predicate = new Uri( resource( verbToken ) );
+            }
+
+            while ( true )
+            {
+                Value object = parseTerm( true );
+                group.patterns.add( new WildcardStatement( subject, predicate,
+                    object, graph ) );
+                if ( !peek().is( "," ) )
+                {
+                    break;
+                }
+                next();
+            }
+
+            if ( !peek().is( ";" ) )
+            {
+                break;
+            }
+            while ( peek().is( ";" ) )
+            {
+                next();
+            }
+            if ( peek().is( "." ) || peek().is( "}" ) )
+            {
+                break;
+            }
+        }
+    }
+
+    private Value parseTerm( boolean allowLiteral )
+    {
+        Token token = next();
+        switch ( token.type )
+        {
+        case VAR:
+            return variable( token.text );
+        case BNODE:
+            return new Wildcard( token.text );
+        case ANON:
+            return new Wildcard( "_:anon" + ( ++anonymousCounter ) );
+        case IRI:
+        case PNAME:
+            return new Uri( resource( token ) );
+        default:
+            if ( allowLiteral )
+            {
+                Value literal = literalOrNull( token );
+                if ( literal != null )
+                {
+                    return literal;
+                }
+            }
+            throw error( token, "Unexpected " + token );
+        }
+    }
+
+    private Value literalOrNull( Token token )
+    {
+        if ( token.type == Type.STRING )
+        {
+            if ( peek().type == Type.LANG )
+            {
+                return new Literal( token.text, null, next().text );
+            }
+            if ( peek().type == Type.DATATYPE )
+            {
+                next();
+                return new Literal( token.text, new Uri( resource( next() ) ) );
+            }
+            return new Literal( token.text );
+        }
+        if ( token.type == Type.NUMBER )
+        {
+            return new Literal( parseNumber( token ) );
+        }
+        if ( token.is( "true" ) || token.is( "false" ) )
+        {
+            return new Literal( Boolean.valueOf( token.text.toLowerCase() ) );
+        }
+        return null;
+    }
+
+    private Object parseNumber( Token token )
+    {
+        String text = token.text.startsWith( "+" ) ?
+            token.text.substring( 1 ) : token.text;
+        if ( text.indexOf( '.' ) == -1 && text.indexOf( 'e' ) == -1 &&
+            text.indexOf( 'E' ) == -1 )
+        {
+            long value = Long.parseLong( text );
+            if ( value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE )
+            {
+                return ( int ) value;
+            }
+            return value;
+        }
+        return Double.parseDouble( text );
+    }
+
+    private Expression parseBracketted()
+    {
+        expect( "(" );
+        Expression expression = parseOr();
+        expect( ")" );
+        return expression;
+    }
+
+    private Expression parseOr()
+    {
+        Expression expression = parseAnd();
+        while ( peek().is( "||" ) )
+        {
+            next();
+            expression = new Expression.Or( expression, parseAnd() );
+        }
+        return expression;
+    }
+
+    private Expression parseAnd()
+    {
+        Expression expression = parseRelational();
+        while ( peek().is( "&&" ) )
+        {
+            next();
+            expression = new Expression.And( expression, parseRelational() );
+        }
+        return expression;
+    }
+
+    private Expression parseRelational()
+    {
+        Expression expression = parseUnary();
+        Token token = peek();
+        if ( token.type == Type.OPERATOR && ( token.is( "=" ) ||
+            token.is( "!=" ) || token.is( "<" ) || token.is( "<=" ) ||
+            token.is( ">" ) || token.is( ">=" ) ) )
+        {
+            next();
+            expression = new Expression.Comparison( token.text, expression,
+                parseUnary() );
+        }
+        return expression;
+    }
+
+    private Expression parseUnary()
+    {
+        if ( peek().is( "!" ) )
+        {
+            next();
+            return new Expression.Not( parseUnary() );
+        }
+        return parsePrimary();
+    }
+
+    private Expression parsePrimary()
+    {
+        Token token = peek();
+        if ( token.is( "(" ) )
+        {
+            return parseBracketted();
+        }
+        next();
+        if ( token.type == Type.VAR )
+        {
+            return new Expression.Variable( token.text );
+        }
+        if ( token.type == Type.IRI || ( token.type == Type.PNAME ) )
+        {
+            return new Expression.Constant( new Uri( resource( token ) ) );
+        }
+        Value literal = literalOrNull( token );
+        if ( literal != null )
+        {
+            return new Expression.Constant( literal );
+        }
+        if ( token.type == Type.NAME && peek().is( "(" ) )
+        {
+            return parseFunction( token );
+        }
+        throw error( token, "Unexpected " + token );
+    }
+
+    private Expression parseFunction( Token nameToken )
+    {
+        String name = nameToken.text.toLowerCase();
+        expect( "(" );
+        Expression result = null;
+        if ( name.equals( "regex" ) )
+        {
+            Expression text = parseOr();
+            expect( "," );
+            String pattern = expect( Type.STRING ).text;
+            String flags = null;
+            if ( peek().is( "," ) )
+            {
+                next();
+                flags = expect( Type.STRING ).text;
+            }
+            result = new Expression.Regex( text, pattern, flags );
+        }
+        else if ( name.equals( "bound" ) )
+        {
+            result = new Expression.Function( name,
+                new Expression.Variable( expect( Type.VAR ).text ) );
+        }
+        else if ( name.equals( "isiri" ) || name.equals( "isuri" ) ||
+            name.equals( "isliteral" ) || name.equals( "isblank" ) ||
+            name.equals( "str" ) || name.equals( "lang" ) ||
+            name.equals( "datatype" ) )
+        {
+            result = new Expression.Function( name, parseOr() );
+        }
+        else
+        {
+            throw error( nameToken, "Unsupported function " + nameToken );
+        }
+        expect( ")" );
+        return result;
+    }
+
+    private Wildcard variable( String name )
+    {
+        if ( !visibleVariables.contains( name ) )
+        {
+            visibleVariables.add( name );
+        }
+        return new Wildcard( name );
+    }
+
+    private String iri( Token token )
+    {
+        String iri = token.text;
+        return iri.indexOf( ':' ) == -1 ? base + iri : iri;
+    }
+
+    private String resource( Token token )
+    {
+        if ( token.type == Type.IRI )
+        {
+            return iri( token );
+        }
+        if ( token.type == Type.PNAME )
+        {
+            int colon = token.text.indexOf( ':' );
+            String namespace = prefixes.get( token.text.substring( 0, colon ) );
+            if ( namespace == null )
+            {
+                throw error( token, "Unknown prefix in " + token );
+            }
+            return namespace + token.text.substring( colon + 1 );
+        }
+        throw error( token, "Expected an IRI, not " + token );
+    }
+
+    private Token peek()
+    {
+        return tokens.get( index );
+    }
+
+    private Token next()
+    {
+        Token token = tokens.get( index );
+        if ( token.type != Type.END )
+        {
+            index++;
+        }
+        return token;
+    }
+
+    private Token expect( String text )
+    {
+        Token token = next();
+        if ( !token.is( text ) )
+        {
+            throw error( token, "Expected '" + text + "', not " + token );
+        }
+        return token;
+    }
+
+    private Token expect( Type type )
+    {
+        Token token = next();
+        if ( token.type != type )
+        {
+            throw error( token, "Expected " + type.name().toLowerCase() +
+                ", not " + token );
+        }
+        return token;
+    }
+
+    private IllegalArgumentException error( Token token, String message )
+    {
+        return error( token.position, message );
+    }
+
+    private IllegalArgumentException error( int position, String message )
+    {
+        return new IllegalArgumentException( message + " at position " +
+            position + " in query" );
+    }
+
+    private void tokenize()
+    {
+        int length = query.length();
+        int i = 0;
+        while ( i < length )
+        {
+            char c = query.charAt( i );
+            int start = i;
+            if ( Character.isWhitespace( c ) )
+            {
+                i++;
+            }
+            else if ( c == '#' )
+            {
+                while ( i < length && query.charAt( i ) != '\n' )
+                {
+                    i++;
+                }
+            }
+            else if ( c == '<' && iriAt( i ) != null )
+            {
+                Matcher matcher = iriAt( i );
+                tokens.add( new Token( Type.IRI, matcher.group( 1 ), start ) );
+                i = matcher.end();
+            }
+            else if ( ( c == '?' || c == '$' ) && i + 1 < length &&
+                isNameChar( query.charAt( i + 1 ) ) )
+            {
+                i++;
+                while ( i < length && isNameChar( query.charAt( i ) ) )
+                {
+                    i++;
+                }
+                tokens.add( new Token( Type.VAR, query.substring( start + 1, i ),
+                    start ) );
+            }
+            else if ( c == '"' || c == '\'' )
+            {
+                i = readString( i );
+            }
+            else if ( c == '@' )
+            {
+                i++;
+                while ( i < length && ( Character.isLetterOrDigit(
+                    query.charAt( i ) ) || query.charAt( i ) == '-' ) )
+                {
+                    i++;
+                }
+                tokens.add( new Token( Type.LANG, query.substring( start + 1, i ),
+                    start ) );
+            }
+            else if ( query.startsWith( "^^", i ) )
+            {
+                i += 2;
+                tokens.add( new Token( Type.DATATYPE, "^^", start ) );
+            }
+            else if ( Character.isDigit( c ) || ( ( c == '-' || c == '+' ||
+                c == '.' ) && i + 1 < length &&
+                Character.isDigit( query.charAt( i + 1 ) ) ) )
+            {
+                i++;
+                while ( i < length && ( Character.isDigit( query.charAt( i ) ) ||
+                    "eE".indexOf( query.charAt( i ) ) != -1 ||
+                    ( query.charAt( i ) == '.' && i + 1 < length &&
+                        Character.isDigit( query.charAt( i + 1 ) ) ) ||
+                    ( "+-".indexOf( query.charAt( i ) ) != -1 &&
+                        "eE".indexOf( query.charAt( i - 1 ) ) != -1 ) ) )
+                {
+                    i++;
+                }
+                tokens.add( new Token( Type.NUMBER, query.substring( start, i ),
+                    start ) );
+            }
+            else if ( query.startsWith( "_:", i ) )
+            {
+                i += 2;
+                while ( i < length && isNameChar( query.charAt( i ) ) )
+                {
+                    i++;
+                }
+                tokens.add( new Token( Type.BNODE, query.substring( start, i ),
+                    start ) );
+            }
+            else if ( c == '[' )
+            {
+                i++;
+                while ( i < length && Character.isWhitespace(
+                    query.charAt( i ) ) )
+                {
+                    i++;
+                }
+                if ( i >= length || query.charAt( i ) != ']' )
+                {
+                    throw error( start, "Only empty [] blank nodes are " +
+                        "supported" );
+                }
+                i++;
+                tokens.add( new Token( Type.ANON, "[]", start ) );
+            }
+            else if ( Character.isLetter( c ) || c == ':' )
+            {
+                while ( i < length && ( isNameChar( query.charAt( i ) ) ||
+                    "-.:".indexOf( query.charAt( i ) ) != -1 ) )
+                {
+                    i++;
+                }
+                while ( query.charAt( i - 1 ) == '.' )
+                {
+                    i--;
+                }
+                String text = query.substring( start, i );
+                tokens.add( new Token( text.indexOf( ':' ) != -1 ? Type.PNAME :
+                    Type.NAME, text, start ) );
+            }
+            else
+            {
+                String operator = null;
+                for ( String candidate : new String[] { "&&", "||", "!=", "<=",
+                    ">=", "=", "<", ">", "!" } )
+                {
+                    if ( query.startsWith( candidate, i ) )
+                    {
+                        operator = candidate;
+                        break;
+                    }
+                }
+                if ( operator == null && PUNCTUATION.indexOf( c ) != -1 )
+                {
+                    operator = String.valueOf( c );
+                }
+                if ( operator == null )
+                {
+                    throw error( start, "Unexpected character '" + c + "'" );
+                }
+                i += operator.length();
+                tokens.add( new Token( Type.OPERATOR, operator, start ) );
+            }
+        }
+        tokens.add( new Token( Type.END, "", length ) );
+    }
+
+    private Matcher iriAt( int position )
+    {
+        Matcher matcher = IRI_PATTERN.matcher( query );
+        matcher.region( position, query.length() );
+        return matcher.lookingAt() ? matcher : null;
+    }
+
+    private static boolean isNameChar( char c )
+    {
+        return Character.isLetterOrDigit( c ) || c == '_';
+    }
+
+    private int readString( int start )
+    {
+        char quote = query.charAt( start );
+        StringBuilder builder = new StringBuilder();
+        int i = start + 1;
+        while ( true )
+        {
+            if ( i >= query.length() )
+            {
+                throw error( start, "Unterminated string" );
+            }
+            char c = query.charAt( i++ );
+            if ( c == quote )
+            {
+                break;
+            }
+            if ( c == '\\' )
+            {
+                if ( i >= query.length() )
+                {
+                    throw error( start, "Unterminated string" );
+                }
+                char escaped = query.charAt( i++ );
+                switch ( escaped )
+                {
+                case 't': builder.append( '\t' ); break;
+                case 'n': builder.append( '\n' ); break;
+                case 'r': builder.append( '\r' ); break;
+                case 'b': builder.append( '\b' ); break;
+                case 'f': builder.append( '\f' ); break;
+                case 'u':
+                    builder.append( ( char ) Integer.parseInt(
+                        query.substring( i, i + 4 ), 16 ) );
+                    i += 4;
+                    break;
+                default: builder.append( escaped ); break;
+                }
+            }
+            else
+            {
+                builder.append( c );
+            }
+        }
+        tokens.add( new Token( Type.STRING, builder.toString(), start ) );
+        return i;
+    }
+}
@@ -0,0 +1,58 @@
+package org.neo4j.rdf.query;
+
+import java.util.List;
+
+/**
+ * A parsed SPARQL SELECT query, see {@link SparqlQueryEngine#prepare(String)}.
+ * It can be executed any number of times.
+ */
+public class SparqlQuery
+{
+    private final List<String> variables;
+    private final boolean distinct;
+    private final long offset;
+    private final long limit;
+    private final GroupPattern where;
+
+    SparqlQuery( List<String> variables, boolean distinct, long offset,
+        long limit, GroupPattern where )
+    {
+        this.variables = variables;
+        this.distinct = distinct;
+        this.offset = offset;
+        this.limit = limit;
+        this.where = where;
+    }
+
+    /**
+     * @return the selected variables, for SELECT * all variables in the
+     * order they appear in the query.
+     */
+    public List<String> getVariables()
+    {
+        return this.variables;
+    }
+
+    public boolean isDistinct()
+    {
+        return this.distinct;
+    }
+
+    public long getOffset()
+    {
+        return this.offset;
+    }
+
+    /**
+     * @return the LIMIT or -1 if there's no limit.
+     */
+    public long getLimit()
+    {
+        return this.limit;
+    }
+
+    GroupPattern getWhere()
+    {
+        return this.where;
+    }
+}
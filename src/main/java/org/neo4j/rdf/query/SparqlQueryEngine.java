@@ -0,0 +1,154 @@
+package org.neo4j.rdf.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.neo4j.helpers.Predicate;
+import org.neo4j.helpers.collection.FilteringIterator;
+import org.neo4j.helpers.collection.NestingIterator;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Value;
+import org.neo4j.rdf.store.VerboseQuadStore;
+
+/**
+ * Executes SPARQL SELECT queries directly against the node space of a
+ * {@link VerboseQuadStore}, with a {@link BasicGraphPatternEvaluator}
+ * evaluating the triple patterns of each group.
+ *
+ * Supported is PREFIX/BASE, SELECT [DISTINCT|REDUCED] with a list of
+ * variables or *, triple patterns (with ; and , abbreviations), FILTER,
+ * OPTIONAL, GRAPH and LIMIT/OFFSET. A FILTER which compares a variable
+ * with an IRI for equality is turned into a binding of that variable
+ * before the patterns are evaluated, so that it can be used as an access
+ * path instead of filtering afterwards. ORDER BY, UNION, FROM and other
+ * query forms than SELECT aren't supported.
+ *
+ * The result is produced lazily as it's iterated, which must be done
+ * within a transaction.
+ */
+public class SparqlQueryEngine
+{
+    private final BasicGraphPatternEvaluator evaluator;
+
+    public SparqlQueryEngine( VerboseQuadStore store )
+    {
+        this.evaluator = new BasicGraphPatternEvaluator( store );
+    }
+
+    /**
+     * Parses a query so that it can be executed several times.
+     * @param query the SPARQL query.
+     * @return the parsed query.
+     * @throws IllegalArgumentException if the query can't be parsed or
+     * uses something which isn't supported.
+     */
+    public SparqlQuery prepare( String query )
+    {
+        return new SparqlParser( query ).parse();
+    }
+
+    public SparqlResult execute( String query )
+    {
+        return execute( prepare( query ) );
+    }
+
+    public SparqlResult execute( final SparqlQuery query )
+    {
+        return new SparqlResult( query, new Iterable<BindingRow>()
+        {
+            public Iterator<BindingRow> iterator()
+            {
+                return evaluateGroup( query.getWhere(), BindingRow.EMPTY );
+            }
+        } );
+    }
+
+    private Iterator<BindingRow> evaluateGroup( GroupPattern group,
+        BindingRow row )
+    {
+        final List<Expression> filters = new ArrayList<Expression>(
+            group.filters );
+        for ( Iterator<Expression> iterator = filters.iterator();
+            iterator.hasNext(); )
+        {
+            BindingRow boundRow = pushDownOrNull( group, iterator.next(), row );
+            if ( boundRow != null )
+            {
+                row = boundRow;
+                iterator.remove();
+            }
+        }
+
+        Iterator<BindingRow> rows =
+            evaluator.evaluate( group.patterns, row ).iterator();
+        for ( final GroupPattern optional : group.optionals )
+        {
+            rows = new NestingIterator<BindingRow, BindingRow>( rows )
+            {
+                @Override
+                protected Iterator<BindingRow> createNestedIterator(
+                    BindingRow row )
+                {
+                    Iterator<BindingRow> matches =
+                        evaluateGroup( optional, row );
+                    return matches.hasNext() ? matches :
+                        Collections.singletonList( row ).iterator();
+                }
+            };
+        }
+        if ( !filters.isEmpty() )
+        {
+            rows = new FilteringIterator<BindingRow>( rows,
+                new Predicate<BindingRow>()
+                {
+                    public boolean accept( BindingRow row )
+                    {
+                        for ( Expression filter : filters )
+                        {
+                            if ( !filter.accept( row ) )
+                            {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                } );
+        }
+        return rows;
+    }
+
+    /**
+     * @return {@code row} with a variable bound if {@code filter} is
+     * f.ex. ?x = <http://...> and ?x is a variable in the patterns of
+     * {@code group} which isn't bound already, otherwise {@code null}.
+     */
+    private BindingRow pushDownOrNull( GroupPattern group, Expression filter,
+        BindingRow row )
+    {
+        if ( !( filter instanceof Expression.Comparison ) ||
+            !( ( Expression.Comparison ) filter ).isEquality() )
+        {
+            return null;
+        }
+        Expression left = ( ( Expression.Comparison ) filter ).getLeft();
+        Expression right = ( ( Expression.Comparison ) filter ).getRight();
+        String variable = left.getVariableOrNull();
+        Value constant = right.getConstantOrNull();
+        if ( variable == null )
+        {
+            variable = right.getVariableOrNull();
+            constant = left.getConstantOrNull();
+        }
+
+        // Only IRIs, since literals compare by value in filters
+        // (f.ex. 1 = 1.0) but by their exact representation in the store.
+        if ( variable == null || !( constant instanceof Uri ) ||
+            row.isBound( variable ) || !group.hasRequiredVariable( variable ) )
+        {
+            return null;
+        }
+        return row.bind( variable, constant );
+    }
+}
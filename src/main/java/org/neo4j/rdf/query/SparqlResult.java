@@ -0,0 +1,97 @@
+package org.neo4j.rdf.query;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.neo4j.helpers.collection.PrefetchingIterator;
+
+/**
+ * The result of a {@link SparqlQueryEngine#execute(SparqlQuery)}. Rows are
+ * produced lazily as it's iterated and contains the selected variables
+ * (unbound ones in the case of OPTIONAL). Each call to {@link #iterator()}
+ * evaluates the query again.
+ */
+public class SparqlResult implements Iterable<BindingRow>
+{
+    private final SparqlQuery query;
+    private final Iterable<BindingRow> rows;
+
+    SparqlResult( SparqlQuery query, Iterable<BindingRow> rows )
+    {
+        this.query = query;
+        this.rows = rows;
+    }
+
+    /**
+     * @return the names of the selected variables, in the order they were
+     * selected (or appears in the query for SELECT *).
+     */
+    public List<String> getVariableNames()
+    {
+        return query.getVariables();
+    }
+
+    public Iterator<BindingRow> iterator()
+    {
+        final Iterator<BindingRow> source = rows.iterator();
+        return new PrefetchingIterator<BindingRow>()
+        {
+            private final Set<List<Object>> seen = query.isDistinct() ?
+                new HashSet<List<Object>>() : null;
+            private long skipped;
+            private long returned;
+
+            @Override
+            protected BindingRow fetchNextOrNull()
+            {
+                if ( query.getLimit() != -1 && returned >= query.getLimit() )
+                {
+                    return null;
+                }
+                while ( source.hasNext() )
+                {
+                    BindingRow row = project( source.next() );
+                    if ( seen != null && !seen.add( key( row ) ) )
+                    {
+                        continue;
+                    }
+                    if ( skipped < query.getOffset() )
+                    {
+                        skipped++;
+                        continue;
+                    }
+                    returned++;
+                    return row;
+                }
+                return null;
+            }
+        };
+    }
+
+    private BindingRow project( BindingRow row )
+    {
+        BindingRow result = BindingRow.EMPTY;
+        for ( String variable : query.getVariables() )
+        {
+            Object term = row.getTerm( variable );
+            if ( term != null )
+            {
+                result = result.bind( variable, term );
+            }
+        }
+        return result;
+    }
+
+    private List<Object> key( BindingRow row )
+    {
+        List<Object> key = new ArrayList<Object>();
+        for ( String variable : query.getVariables() )
+        {
+            key.add( Terms.joinKey( row.getTerm( variable ) ) );
+        }
+        return key;
+    }
+}
@@ -0,0 +1,103 @@
+package org.neo4j.rdf.query;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.rdf.model.Literal;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Value;
+import org.neo4j.rdf.store.representation.standard.AbstractUriBasedExecutor;
+import org.neo4j.rdf.store.representation.standard.VerboseQuadExecutor;
+
+/**
+ * Helpers for the terms bound in a {@link BindingRow}, which are either
+ * a {@link Node} (a resource node or a literal node), a {@link String}
+ * (a predicate URI, since predicates are relationship types and not nodes)
+ * or a {@link Literal} (a literal constant).
+ */
+abstract class Terms
+{
+    private Terms()
+    {
+    }
+
+    static boolean isResourceNode( Node node )
+    {
+        return node.hasProperty( AbstractUriBasedExecutor.URI_PROPERTY_KEY );
+    }
+
+    static String getUriOrNull( Object term )
+    {
+        if ( term instanceof String )
+        {
+            return ( String ) term;
+        }
+        if ( term instanceof Uri )
+        {
+            return ( ( Uri ) term ).getUriAsString();
+        }
+        if ( term instanceof Node )
+        {
+            return ( String ) ( ( Node ) term ).getProperty(
+                AbstractUriBasedExecutor.URI_PROPERTY_KEY, null );
+        }
+        return null;
+    }
+
+    static Literal toLiteral( Node literalNode )
+    {
+        Object value = literalNode.getProperty(
+            AbstractUriBasedExecutor.LITERAL_VALUE_KEY );
+        String datatype = ( String ) literalNode.getProperty(
+            VerboseQuadExecutor.LITERAL_DATATYPE_KEY, null );
+        String language = ( String ) literalNode.getProperty(
+            VerboseQuadExecutor.LITERAL_LANGUAGE_KEY, null );
+        return new Literal( value, datatype == null ? null :
+            new Uri( datatype ), language );
+    }
+
+    static Value toValue( Object term )
+    {
+        if ( term instanceof Value )
+        {
+            return ( Value ) term;
+        }
+        if ( term instanceof String )
+        {
+            return new Uri( ( String ) term );
+        }
+        Node node = ( Node ) term;
+        String uri = ( String ) node.getProperty(
+            AbstractUriBasedExecutor.URI_PROPERTY_KEY, null );
+        return uri != null ? new Uri( uri ) : toLiteral( node );
+    }
+
+    /**
+     * @return whether or not two terms represents the same value. Two
+     * different resource nodes never does, since URIs are unique.
+     */
+    static boolean equal( Object term1, Object term2 )
+    {
+        if ( term1 instanceof Node && term2 instanceof Node )
+        {
+            Node node1 = ( Node ) term1;
+            Node node2 = ( Node ) term2;
+            if ( node1.equals( node2 ) )
+            {
+                return true;
+            }
+            if ( isResourceNode( node1 ) || isResourceNode( node2 ) )
+            {
+                return false;
+            }
+        }
+        return toValue( term1 ).equals( toValue( term2 ) );
+    }
+
+    /**
+     * @return an object with equals/hashCode consistent with
+     * {@link #equal(Object, Object)}, for use in hash joins.
+     */
+    static Object joinKey( Object term )
+    {
+        return term == null ? null : toValue( term );
+    }
+}
@@ -0,0 +1,545 @@
+package org.neo4j.rdf.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.transaction.SystemException;
+
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.rdf.fulltext.Facets;
+import org.neo4j.rdf.fulltext.FulltextIndex;
+import org.neo4j.rdf.fulltext.QueryResult;
+import org.neo4j.rdf.fulltext.ResultWindow;
+import org.neo4j.rdf.fulltext.SearchOptions;
+import org.neo4j.rdf.model.CompleteStatement;
+import org.neo4j.rdf.model.Context;
+import org.neo4j.rdf.model.WildcardStatement;
+import org.neo4j.util.GraphDatabaseUtil;
+
+/**
+ * An {@link RdfStore} which adds statements in the background, so that
+ * many small {@link #addStatements(CompleteStatement...)} calls share one
+ * transaction instead of paying for a commit each. The statements of each
+ * call are put in a buffer of {@link #getBufferSize()} calls and a writer
+ * thread adds what's in the buffer to the wrapped store in one
+ * transaction when there's {@link #setBatchSize(int)} statements, or
+ * {@link #setFlushInterval(long)} milliseconds after the first of them
+ * arrived, whichever comes first. Callers adding statements when the
+ * buffer is full wait until there's room in it.
+ *
+ * {@link #addStatementsAsync(CompleteStatement...)} returns a
+ * {@link Future} which is done when the statements are committed and
+ * {@link #addStatements(CompleteStatement...)} waits for that. If the
+ * transaction of a batch fails each call in it is retried in its own
+ * transaction, so that only the calls which fail by themselves fail.
+ *
+ * Reads go straight to the wrapped store and sees the statements which
+ * are committed, not those in the buffer. {@link #flush()} waits until
+ * all statements added so far are committed and
+ * {@link #removeStatements(WildcardStatement)} flushes before removing.
+ *
+ * {@link #stop()} adds what's in the buffer and stops the writer thread,
+ * adding statements after that fails with an {@link IllegalStateException}.
+ */
+public class AsyncRdfStore implements RdfStore
+{
+    public static final int DEFAULT_BUFFER_SIZE = 10000;
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+    public static final long DEFAULT_FLUSH_INTERVAL = 100;
+    private static final CompleteStatement[] NO_STATEMENTS =
+        new CompleteStatement[ 0 ];
+
+    private final RdfStoreImpl store;
+    private final GraphDatabaseUtil graphDbUtil;
+    private final BlockingQueue<PendingAdd> buffer;
+    private final WriterThread writer;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    
+    // Adds hold the read lock while they check the flag and put in the
+    // buffer, so that nothing is put in it after the stop marker.
+    private final ReadWriteLock stopLock = new ReentrantReadWriteLock();
+    private final PendingAdd stopMarker = new PendingAdd( NO_STATEMENTS );
+    private boolean stopped;
+
+    public AsyncRdfStore( RdfStoreImpl store )
+    {
+        this( store, DEFAULT_BUFFER_SIZE );
+    }
+
+    /**
+     * @param store the store to add the statements to.
+     * @param bufferSize the number of calls to keep in the buffer before
+     * callers have to wait.
+     */
+    public AsyncRdfStore( RdfStoreImpl store, int bufferSize )
+    {
+        this.store = store;
+        this.graphDbUtil = new GraphDatabaseUtil( store.graphDb() );
+        this.buffer = new ArrayBlockingQueue<PendingAdd>( bufferSize );
+        this.writer = new WriterThread();
+        this.writer.start();
+    }
+
+    public RdfStoreImpl getStore()
+    {
+        return this.store;
+    }
+
+    public int getBufferSize()
+    {
+        return this.buffer.size() + this.buffer.remainingCapacity();
+    }
+
+    /**
+     * @param batchSize the number of statements to add in each transaction,
+     * the buffer is flushed as soon as it has this many.
+     */
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize()
+    {
+        return this.batchSize;
+    }
+
+    /**
+     * @param millis the longest time statements are kept in the buffer
+     * before they are added.
+     */
+    public void setFlushInterval( long millis )
+    {
+        this.flushInterval = millis;
+    }
+
+    public long getFlushInterval()
+    {
+        return this.flushInterval;
+    }
+
+    /**
+     * Puts statements in the buffer, waiting for room in it if it's full.
+     * @param statements the statements to add, in the same transaction.
+     * @return a {@link Future} which is done when the statements are
+     * committed, or failed if they couldn't be.
+     */
+    public Future<Object> addStatementsAsync( CompleteStatement... statements )
+    {
+        PendingAdd add = new PendingAdd( statements );
+        enqueue( add );
+        return add;
+    }
+
+    /**
+     * Adds statements through the buffer and waits until they are
+     * committed.
+     */
+    public void addStatements( CompleteStatement... statements )
+    {
+        await( addStatementsAsync( statements ) );
+    }
+
+    /**
+     * Waits until all statements added before this call are committed.
+     */
+    public void flush()
+    {
+        PendingAdd flush = new PendingAdd( NO_STATEMENTS );
+        enqueue( flush );
+        await( flush );
+    }
+
+    private void enqueue( PendingAdd add )
+    {
+        stopLock.readLock().lock();
+        try
+        {
+            if ( stopped )
+            {
+                throw new IllegalStateException( "Store is stopped" );
+            }
+            buffer.put( add );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+        finally
+        {
+            stopLock.readLock().unlock();
+        }
+    }
+
+    private void await( Future<Object> future )
+    {
+        try
+        {
+            future.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw ( RuntimeException ) e.getCause();
+            }
+            throw new RuntimeException( e.getCause() );
+        }
+    }
+
+    private void addInTransaction( List<PendingAdd> batch )
+    {
+        Transaction tx = store.graphDb().beginTx();
+        int txId = currentTransactionId();
+        boolean committed = false;
+        try
+        {
+            try
+            {
+                for ( PendingAdd add : batch )
+                {
+                    if ( add.statements.length > 0 )
+                    {
+                        store.addStatements( add.statements );
+                    }
+                }
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+            committed = true;
+        }
+        finally
+        {
+            // The literals are only indexed if the graph changes are
+            // committed
+            endFulltextTransaction( txId, committed );
+        }
+    }
+
+    private int currentTransactionId()
+    {
+        try
+        {
+            return graphDbUtil.getTransactionManager().getTransaction().
+                hashCode();
+        }
+        catch ( SystemException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private void endFulltextTransaction( int txId, boolean commit )
+    {
+        FulltextIndex fulltextIndex = store.getFulltextIndex();
+        if ( fulltextIndex != null )
+        {
+            fulltextIndex.end( txId, commit );
+        }
+    }
+
+    private void write( List<PendingAdd> batch )
+    {
+        try
+        {
+            addInTransaction( batch );
+            for ( PendingAdd add : batch )
+            {
+                add.done( null );
+            }
+        }
+        catch ( Throwable e )
+        {
+            if ( batch.size() == 1 )
+            {
+                batch.get( 0 ).done( e );
+                return;
+            }
+            // Find out which of them it was
+            for ( PendingAdd add : batch )
+            {
+                List<PendingAdd> single = new ArrayList<PendingAdd>( 1 );
+                single.add( add );
+                write( single );
+            }
+        }
+    }
+
+    public Iterable<CompleteStatement> getStatements(
+        WildcardStatement statement, boolean includeInferredStatements )
+    {
+        return store.getStatements( statement, includeInferredStatements );
+    }
+
+    public long count( WildcardStatement statement )
+    {
+        return store.count( statement );
+    }
+
+    public boolean exists( WildcardStatement statement )
+    {
+        return store.exists( statement );
+    }
+
+    public Iterable<QueryResult> searchFulltext( String query )
+    {
+        return store.searchFulltext( query );
+    }
+
+    public Iterable<QueryResult> searchFulltextWithSnippets( String query,
+        int snippetCountLimit )
+    {
+        return store.searchFulltextWithSnippets( query, snippetCountLimit );
+    }
+
+    public ResultWindow<QueryResult> searchFulltextWithSnippets( String query,
+        SearchOptions options )
+    {
+        return store.searchFulltextWithSnippets( query, options );
+    }
+
+    public Facets searchFulltextFacets( String query, SearchOptions options )
+    {
+        return store.searchFulltextFacets( query, options );
+    }
+
+    public boolean verifyFulltextIndex( String queryOrNullForAll )
+    {
+        return store.verifyFulltextIndex( queryOrNullForAll );
+    }
+
+    /**
+     * Flushes the buffer and then removes the matching statements, so
+     * that statements added before this call are removed too.
+     */
+    public void removeStatements( WildcardStatement statement )
+    {
+        flush();
+        store.removeStatements( statement );
+    }
+
+    public int size( Context... contexts )
+    {
+        return store.size( contexts );
+    }
+
+    /**
+     * Adds the statements in the buffer and stops the writer thread. The
+     * wrapped store is left running.
+     */
+    public void stop()
+    {
+        boolean interrupted = false;
+        stopLock.writeLock().lock();
+        try
+        {
+            if ( !stopped )
+            {
+                stopped = true;
+                // Everything put in the buffer before the marker is added
+                // before the writer stops.
+                while ( true )
+                {
+                    try
+                    {
+                        buffer.put( stopMarker );
+                        break;
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            stopLock.writeLock().unlock();
+        }
+        
+        while ( writer.isAlive() )
+        {
+            try
+            {
+                writer.join();
+            }
+            catch ( InterruptedException e )
+            {
+                interrupted = true;
+            }
+        }
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the writer thread, see {@link #stop()}, and shuts down the
+     * wrapped store.
+     */
+    public void shutDown()
+    {
+        stop();
+        store.shutDown();
+    }
+
+    /**
+     * The statements of one call and the {@link Future} of it.
+     */
+    private static class PendingAdd extends FutureTask<Object>
+    {
+        private static final Callable<Object> NOTHING = new Callable<Object>()
+        {
+            public Object call()
+            {
+                return null;
+            }
+        };
+
+        private final CompleteStatement[] statements;
+
+        PendingAdd( CompleteStatement[] statements )
+        {
+            super( NOTHING );
+            this.statements = statements;
+        }
+
+        void done( Throwable failureOrNull )
+        {
+            if ( failureOrNull == null )
+            {
+                set( null );
+            }
+            else
+            {
+                setException( failureOrNull );
+            }
+        }
+    }
+
+    private class WriterThread extends Thread
+    {
+        WriterThread()
+        {
+            super( "Async RDF store writer" );
+            setDaemon( true );
+        }
+
+        @Override
+        public void run()
+        {
+            boolean stopMarkerTaken = false;
+            while ( !stopMarkerTaken )
+            {
+                List<PendingAdd> batch = new ArrayList<PendingAdd>();
+                try
+                {
+                    stopMarkerTaken = fillBatch( batch );
+                }
+                catch ( InterruptedException e )
+                {
+                    writeBatch( batch );
+                    stopOnInterrupt();
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                writeBatch( batch );
+            }
+        }
+
+        /**
+         * Takes calls from the buffer until there's a batch size of
+         * statements, the flush interval has passed since the first one
+         * or a {@link AsyncRdfStore#flush()} comes along.
+         * @return whether or not the stop marker was taken.
+         */
+        private boolean fillBatch( List<PendingAdd> batch )
+            throws InterruptedException
+        {
+            PendingAdd add = buffer.take();
+            long deadline = System.currentTimeMillis() + flushInterval;
+            int statements = 0;
+            while ( true )
+            {
+                if ( add == stopMarker )
+                {
+                    return true;
+                }
+                batch.add( add );
+                statements += add.statements.length;
+                if ( add.statements.length == 0 || statements >= batchSize )
+                {
+                    return false;
+                }
+                long timeLeft = deadline - System.currentTimeMillis();
+                add = timeLeft > 0 ?
+                    buffer.poll( timeLeft, TimeUnit.MILLISECONDS ) : null;
+                if ( add == null )
+                {
+                    return false;
+                }
+            }
+        }
+
+        private void writeBatch( List<PendingAdd> batch )
+        {
+            batch.remove( stopMarker );
+            if ( !batch.isEmpty() )
+            {
+                write( batch );
+            }
+        }
+
+        /**
+         * The writer is interrupted, which means that it should stop, so
+         * further adds are rejected and the ones in the buffer are added
+         * first, since their callers are waiting for them. Adds waiting for
+         * room in the buffer hold the read lock, so the buffer is emptied
+         * until the write lock can be had.
+         */
+        private void stopOnInterrupt()
+        {
+            while ( !stopLock.writeLock().tryLock() )
+            {
+                writeBuffered();
+                Thread.yield();
+            }
+            try
+            {
+                stopped = true;
+            }
+            finally
+            {
+                stopLock.writeLock().unlock();
+            }
+            writeBuffered();
+        }
+
+        private void writeBuffered()
+        {
+            List<PendingAdd> batch = new ArrayList<PendingAdd>();
+            buffer.drainTo( batch );
+            writeBatch( batch );
+        }
+    }
+}
@@ -7,9 +7,15 @@ import org.neo4j.index.lucene.LuceneIndexService;
 public class CachingLuceneIndexService extends LuceneIndexService
 {
     public CachingLuceneIndexService( GraphDatabaseService graphDb )
+    {
+        this( graphDb, AbstractUriBasedExecutor.DEFAULT_URI_CACHE_SIZE );
+    }
+
+    public CachingLuceneIndexService( GraphDatabaseService graphDb,
+        int uriCacheSize )
     {
         super( graphDb );
         enableCache( AbstractUriBasedExecutor.URI_PROPERTY_KEY,
-            100000 );
+            uriCacheSize );
     }
 }
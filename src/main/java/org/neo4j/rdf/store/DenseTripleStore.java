@@ -70,52 +70,54 @@ public class DenseTripleStore extends RdfStoreImpl
                 "support getStatements() with reasoning enabled" );
             }
             
-            Iterable<CompleteStatement> result = null;
-            if ( wildcardPattern( statement, false, false, true ) )
-            {
-                result = handleSubjectPredicateWildcard( statement );
-            }
-            else if ( wildcardPattern( statement, false, true, true ) )
-            {
-                result = handleSubjectWildcardWildcard( statement );
-            }
-            else if ( wildcardPattern( statement, false, true, false ) )
-            {
-                result = handleSubjectWildcardObject( statement );
-            }
-            else if ( wildcardPattern( statement, true, true, false ) )
-            {
-                result = handleWildcardWildcardObject( statement );
-            }
-            else if ( wildcardPattern( statement, true, false, false ) )
-            {
-                result = handleWildcardPredicateObject( statement );
-            }
-            else if ( wildcardPattern( statement, false, false, false ) )
-            {
-                result = handleSubjectPredicateObject( statement );
-            }
-            else if ( wildcardPattern( statement, true, false, true ) )
-            {
-//                result = handleWildcardPredicateWildcard( statement );
-            }
-            else if ( wildcardPattern( statement, true, true, true ) )
-            {
-//                result = handleWildcardWildcardWildcard( statement );
-            }
-            else
-            {
-                result = super.getStatements( statement,
-                    includeInferredStatements );
-            }
-            
-            if ( result == null )
+            Iterator<Object[]> triples = getTriples( statement );
+            Iterable<CompleteStatement> result = triples != null ?
+                statementIterator( triples ) :
+                new LinkedList<CompleteStatement>();
+            tx.success();
+            return result;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+    
+    /**
+     * Counts the matching triples without instantiating statements, only
+     * literal values are read and only when filtering on the object.
+     */
+    @Override
+    public long count( WildcardStatement statement )
+    {
+        return countMatches( statement, false );
+    }
+    
+    @Override
+    public boolean exists( WildcardStatement statement )
+    {
+        return countMatches( statement, true ) > 0;
+    }
+    
+    private long countMatches( WildcardStatement statement,
+        boolean stopAtFirst )
+    {
+        Transaction tx = graphDb().beginTx();
+        try
+        {
+            long count = 0;
+            Iterator<Object[]> triples = getTriples( statement );
+            while ( triples != null && triples.hasNext() )
             {
-                result = new LinkedList<CompleteStatement>();
+                triples.next();
+                count++;
+                if ( stopAtFirst )
+                {
+                    break;
+                }
             }
-            
             tx.success();
-            return result;
+            return count;
         }
         finally
         {
@@ -123,6 +125,51 @@ public class DenseTripleStore extends RdfStoreImpl
         }
     }
     
+    /**
+     * @return the matching triples as { Node subject, String predicate,
+     * Node object or literal value }, or {@code null} if there can't be
+     * any matches.
+     */
+    private Iterator<Object[]> getTriples( WildcardStatement statement )
+    {
+        if ( wildcardPattern( statement, false, false, true ) )
+        {
+            return handleSubjectPredicateWildcard( statement );
+        }
+        else if ( wildcardPattern( statement, false, true, true ) )
+        {
+            return handleSubjectWildcardWildcard( statement );
+        }
+        else if ( wildcardPattern( statement, false, true, false ) )
+        {
+            return handleSubjectWildcardObject( statement );
+        }
+        else if ( wildcardPattern( statement, true, true, false ) )
+        {
+            return handleWildcardWildcardObject( statement );
+        }
+        else if ( wildcardPattern( statement, true, false, false ) )
+        {
+            return handleWildcardPredicateObject( statement );
+        }
+        else if ( wildcardPattern( statement, false, false, false ) )
+        {
+            return handleSubjectPredicateObject( statement );
+        }
+        else if ( wildcardPattern( statement, true, false, true ) )
+        {
+//            return handleWildcardPredicateWildcard( statement );
+            return null;
+        }
+        else if ( wildcardPattern( statement, true, true, true ) )
+        {
+//            return handleWildcardWildcardWildcard( statement );
+            return null;
+        }
+        throw new UnsupportedOperationException( "We can't handle get() for " +
+            "this statement: " + statement );
+    }
+    
     public boolean verifyFulltextIndex( String queryOrNullForAll )
     {
         throw new UnsupportedOperationException( "Not implemented yet" );
@@ -136,7 +183,7 @@ public class DenseTripleStore extends RdfStoreImpl
         return literalNodes.iterator();
     }
 
-    private Iterable<CompleteStatement> handleSubjectPredicateWildcard(
+    private Iterator<Object[]> handleSubjectPredicateWildcard(
         WildcardStatement statement )
     {
         Node subjectNode = lookupNode( statement.getSubject() );
@@ -148,10 +195,10 @@ public class DenseTripleStore extends RdfStoreImpl
         Iterator<Object[]> triples = new ResourceToTripleIterator( subjectNode,
             ( ( Uri ) statement.getPredicate() ).getUriAsString(),
             Direction.OUTGOING );
-        return statementIterator( triples );
+        return triples;
     }
     
-    private Iterable<CompleteStatement> handleSubjectWildcardWildcard(
+    private Iterator<Object[]> handleSubjectWildcardWildcard(
         WildcardStatement statement )
     {
         Node subjectNode = lookupNode( statement.getSubject() );
@@ -162,10 +209,10 @@ public class DenseTripleStore extends RdfStoreImpl
         
         Iterator<Object[]> triples = new ResourceToTripleIterator( subjectNode,
             null, Direction.OUTGOING );
-        return statementIterator( triples );
+        return triples;
     }
     
-    private Iterable<CompleteStatement> handleSubjectWildcardObject(
+    private Iterator<Object[]> handleSubjectWildcardObject(
         WildcardStatement statement )
     {
         Node subjectNode = lookupNode( statement.getSubject() );
@@ -177,10 +224,10 @@ public class DenseTripleStore extends RdfStoreImpl
         Iterator<Object[]> triples = new ResourceToTripleIterator( subjectNode,
             null, Direction.OUTGOING );
         triples = new ObjectFilteredIterator( triples, statement.getObject() );
-        return statementIterator( triples );
+        return triples;
     }
     
-    private Iterable<CompleteStatement> handleWildcardWildcardObject(
+    private Iterator<Object[]> handleWildcardWildcardObject(
         WildcardStatement statement )
     {
         Iterator<Object[]> triples = null;
@@ -202,10 +249,10 @@ public class DenseTripleStore extends RdfStoreImpl
             triples = new ResourceToTripleIterator( objectNode,
                 null, Direction.INCOMING );
         }
-        return statementIterator( triples );
+        return triples;
     }
     
-    private Iterable<CompleteStatement> handleWildcardPredicateObject(
+    private Iterator<Object[]> handleWildcardPredicateObject(
         WildcardStatement statement )
     {
         Iterator<Object[]> triples = null;
@@ -231,10 +278,10 @@ public class DenseTripleStore extends RdfStoreImpl
                 ( ( Uri ) statement.getPredicate() ).getUriAsString(),
                 Direction.INCOMING );
         }
-        return statementIterator( triples );
+        return triples;
    }
     
-    private Iterable<CompleteStatement> handleSubjectPredicateObject(
+    private Iterator<Object[]> handleSubjectPredicateObject(
         WildcardStatement statement )
     {
         Node subjectNode = lookupNode( statement.getSubject() );
@@ -247,7 +294,7 @@ public class DenseTripleStore extends RdfStoreImpl
             ( ( Uri ) statement.getPredicate() ).getUriAsString(),
             Direction.OUTGOING );
         triples = new ObjectFilteredIterator( triples, statement.getObject() );
-        return statementIterator( triples );
+        return triples;
     }
     
     private Iterable<CompleteStatement> statementIterator(
@@ -0,0 +1,397 @@
+package org.neo4j.rdf.store;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.rdf.fulltext.FulltextIndex;
+import org.neo4j.rdf.fulltext.SimpleFulltextIndex;
+import org.neo4j.rdf.model.Literal;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Value;
+
+/**
+ * Rebuilds the fulltext index of a {@link VerboseQuadStore} from the
+ * literals in the graph. The work is partitioned by context and the
+ * contexts are reindexed by {@link #setNumberOfThreads(int)} threads,
+ * each context in transactions of {@link #setBatchSize(int)} literals.
+ * 
+ * If a progress file is set the uri of each reindexed context is written
+ * to it, so that an interrupted reindex can be resumed by running it again
+ * with the same progress file. The index is only cleared when there's no
+ * progress to resume from, and the progress file is deleted when the
+ * reindex is completed. A resumed reindex removes what's indexed for each
+ * context before reindexing it, since it may have been partly reindexed.
+ * A reindex which stops at {@link #setMaxEntries(Integer)} isn't completed
+ * either and can be resumed the same way.
+ * 
+ * With {@link #setUseSideIndex(boolean)} the index is rebuilt next to the
+ * current one, which must be a {@link SimpleFulltextIndex}, and then swapped
+ * in, so that searches can continue during the rebuild. Changes committed
+ * to the store during the rebuild are mirrored into the side index. Such a
+ * reindex always starts over from an empty side index, since changes
+ * committed while no reindex was running never made it into the side index.
+ */
+public class FulltextReindexer
+{
+    private static final int DEFAULT_BATCH_SIZE = 10000;
+    private static final int PROGRESS_INTERVAL = 1000;
+    
+    private final VerboseQuadStore store;
+    private int numberOfThreads = 1;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private Integer maxEntries;
+    private File progressFile;
+    private boolean useSideIndex;
+    private ReindexProgressListener listener;
+    private final AtomicLong quadsVisited = new AtomicLong();
+    private final AtomicLong literalsIndexed = new AtomicLong();
+    private volatile boolean halted;
+    
+    public FulltextReindexer( VerboseQuadStore store )
+    {
+        this.store = store;
+    }
+    
+    public void setNumberOfThreads( int numberOfThreads )
+    {
+        this.numberOfThreads = numberOfThreads;
+    }
+    
+    /**
+     * @param batchSize the number of literals to index in each transaction.
+     */
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * @param maxEntries stops after about this many literals, or
+     * <code>null</code> to reindex all of them.
+     */
+    public void setMaxEntries( Integer maxEntries )
+    {
+        this.maxEntries = maxEntries;
+    }
+    
+    /**
+     * @param progressFile the file to keep the reindexed contexts in, or
+     * <code>null</code> if the reindex shouldn't be resumable.
+     */
+    public void setProgressFile( File progressFile )
+    {
+        this.progressFile = progressFile;
+    }
+    
+    public void setUseSideIndex( boolean useSideIndex )
+    {
+        this.useSideIndex = useSideIndex;
+    }
+    
+    public void setProgressListener( ReindexProgressListener listener )
+    {
+        this.listener = listener;
+    }
+    
+    public long getQuadsVisited()
+    {
+        return quadsVisited.get();
+    }
+    
+    public long getLiteralsIndexed()
+    {
+        return literalsIndexed.get();
+    }
+    
+    /**
+     * Reindexes the contexts which aren't already done.
+     * @return <code>true</code> if the reindex was completed, or
+     * <code>false</code> if it stopped at the max number of entries.
+     */
+    public boolean reindex()
+    {
+        halted = false;
+        FulltextIndex liveIndex = store.getInitializedFulltextIndex();
+        SimpleFulltextIndex sideIndex = null;
+        FulltextIndex targetIndex = liveIndex;
+        if ( useSideIndex )
+        {
+            if ( !( liveIndex instanceof SimpleFulltextIndex ) )
+            {
+                throw new UnsupportedOperationException( "Reindexing on " +
+                    "the side needs a " + SimpleFulltextIndex.class.getName() );
+            }
+            sideIndex = ( ( SimpleFulltextIndex ) liveIndex ).createSideIndex();
+            targetIndex = sideIndex;
+        }
+        
+        Set<String> done =
+            sideIndex != null ? new HashSet<String>() : readProgress();
+        boolean resumed = true;
+        if ( sideIndex != null || progressFile == null ||
+            !progressFile.exists() )
+        {
+            targetIndex.clear();
+            writeProgress( null );
+            resumed = false;
+        }
+        if ( sideIndex != null )
+        {
+            ( ( SimpleFulltextIndex ) liveIndex ).setMirror( sideIndex );
+        }
+        
+        List<String> contexts = new ArrayList<String>();
+        for ( String contextUri : store.getContextUris() )
+        {
+            if ( !done.contains( contextUri ) )
+            {
+                contexts.add( contextUri );
+            }
+        }
+        if ( listener != null )
+        {
+            listener.reindexStarting( contexts.size(), done.size() );
+        }
+        
+        try
+        {
+            reindexContexts( contexts, targetIndex, resumed );
+        }
+        catch ( RuntimeException e )
+        {
+            if ( sideIndex != null )
+            {
+                ( ( SimpleFulltextIndex ) liveIndex ).setMirror( null );
+                sideIndex.shutDown();
+            }
+            throw e;
+        }
+        
+        if ( halted )
+        {
+            // Stopped at max entries, a partial side index is never swapped
+            // in and the progress is kept so that it can be resumed.
+            if ( sideIndex != null )
+            {
+                ( ( SimpleFulltextIndex ) liveIndex ).setMirror( null );
+                sideIndex.shutDown();
+            }
+            return false;
+        }
+        if ( sideIndex != null )
+        {
+            ( ( SimpleFulltextIndex ) liveIndex ).swapIn( sideIndex );
+        }
+        if ( progressFile != null )
+        {
+            progressFile.delete();
+        }
+        if ( listener != null )
+        {
+            listener.reindexCompleted( literalsIndexed.get() );
+        }
+        return true;
+    }
+    
+    private void reindexContexts( List<String> contexts,
+        final FulltextIndex targetIndex, final boolean resumed )
+    {
+        ExecutorService executor =
+            Executors.newFixedThreadPool( Math.max( 1, numberOfThreads ) );
+        try
+        {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for ( final String contextUri : contexts )
+            {
+                futures.add( executor.submit( new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        reindexContext( contextUri, targetIndex, resumed );
+                        return null;
+                    }
+                } ) );
+            }
+            
+            Throwable failure = null;
+            for ( Future<Object> future : futures )
+            {
+                try
+                {
+                    future.get();
+                }
+                catch ( ExecutionException e )
+                {
+                    halted = true;
+                    if ( failure == null )
+                    {
+                        failure = e.getCause();
+                    }
+                }
+                catch ( InterruptedException e )
+                {
+                    halted = true;
+                    Thread.currentThread().interrupt();
+                    failure = e;
+                }
+            }
+            if ( failure != null )
+            {
+                throw new RuntimeException( "Reindex failed, it can be " +
+                    "resumed if there's a progress file", failure );
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+    
+    private void reindexContext( String contextUri, FulltextIndex targetIndex,
+        boolean resumed )
+    {
+        int counter = 0;
+        Transaction tx = store.graphDb().beginTx();
+        try
+        {
+            if ( resumed )
+            {
+                // It may have been partly reindexed by the interrupted run
+                targetIndex.removeContext( contextUri );
+            }
+            for ( Object[] quad : store.getQuadsInContext( contextUri ) )
+            {
+                if ( halted )
+                {
+                    break;
+                }
+                
+                String predicate = ( String ) quad[ 1 ];
+                Node objectNode = ( Node ) quad[ 2 ];
+                Value objectValue =
+                    store.getValueForObjectNode( predicate, objectNode );
+                if ( objectValue instanceof Literal )
+                {
+                    targetIndex.index( objectNode, new Uri( predicate ),
+                        ( ( Literal ) objectValue ).getValue() );
+                    long total = literalsIndexed.incrementAndGet();
+                    if ( ++counter % batchSize == 0 )
+                    {
+                        targetIndex.end( true );
+                        tx.success();
+                        tx.finish();
+                        tx = store.graphDb().beginTx();
+                    }
+                    if ( maxEntries != null && total > maxEntries )
+                    {
+                        halted = true;
+                    }
+                }
+                
+                long visited = quadsVisited.incrementAndGet();
+                if ( visited % PROGRESS_INTERVAL == 0 && listener != null )
+                {
+                    listener.progress( visited, literalsIndexed.get() );
+                }
+            }
+            targetIndex.end( true );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        
+        if ( halted )
+        {
+            // Not all of it was reindexed, it's done again if resumed
+            return;
+        }
+        writeProgress( contextUri );
+        if ( listener != null )
+        {
+            listener.contextReindexed( contextUri, counter );
+        }
+    }
+    
+    private Set<String> readProgress()
+    {
+        Set<String> done = new HashSet<String>();
+        if ( progressFile == null || !progressFile.exists() )
+        {
+            return done;
+        }
+        try
+        {
+            BufferedReader reader =
+                new BufferedReader( new FileReader( progressFile ) );
+            try
+            {
+                String line = null;
+                while ( ( line = reader.readLine() ) != null )
+                {
+                    if ( line.length() > 0 )
+                    {
+                        done.add( line );
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        return done;
+    }
+    
+    /**
+     * Appends a reindexed context to the progress file, or creates an empty
+     * one if the context is <code>null</code>.
+     */
+    private synchronized void writeProgress( String contextUri )
+    {
+        if ( progressFile == null )
+        {
+            return;
+        }
+        try
+        {
+            Writer writer = new FileWriter( progressFile, contextUri != null );
+            try
+            {
+                if ( contextUri != null )
+                {
+                    writer.write( contextUri + "\n" );
+                }
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package org.neo4j.rdf.store;
 
+import org.neo4j.rdf.fulltext.Facets;
 import org.neo4j.rdf.fulltext.FulltextIndex;
 import org.neo4j.rdf.fulltext.QueryResult;
+import org.neo4j.rdf.fulltext.ResultWindow;
+import org.neo4j.rdf.fulltext.SearchOptions;
 import org.neo4j.rdf.model.CompleteStatement;
 import org.neo4j.rdf.model.Context;
 import org.neo4j.rdf.model.Statement;
@@ -29,6 +32,21 @@ public interface RdfStore
     Iterable<CompleteStatement> getStatements( WildcardStatement statement,
         boolean includeInferredStatements );
     
+    /**
+     * Counts the statements matching a pattern, without instantiating
+     * them as with {@link #getStatements(WildcardStatement, boolean)}.
+     * @param statement a statement with optional wildcard members
+     * @return the number of matching statements
+     */
+    long count( WildcardStatement statement );
+    
+    /**
+     * @param statement a statement with optional wildcard members
+     * @return whether or not there's at least one statement matching
+     * {@code statement}
+     */
+    boolean exists( WildcardStatement statement );
+    
     /**
      * Temporary name, search fulltext (literals). The arguments are sure
      * to change over time.
@@ -49,6 +67,29 @@ public interface RdfStore
     Iterable<QueryResult> searchFulltextWithSnippets( String query,
         int snippetCountLimit );
     
+    /**
+     * Search fulltext (literals) for a page of hits, f.ex. the first 20.
+     * Only the hits in the window are looked up, regardless of how many
+     * hits the query has in total.
+     * @param query the query, basically just a string with a word or two.
+     * @param options offset, limit, minimum score and snippets.
+     * @return the statements for the hits in the window together with the
+     * total number of hits. A hit may give more than one statement if its
+     * statement is in several contexts.
+     */
+    ResultWindow<QueryResult> searchFulltextWithSnippets( String query,
+        SearchOptions options );
+    
+    /**
+     * Counts the fulltext hits for a query grouped by predicate and by
+     * context, f.ex. to show how many hits there are in each, without
+     * looking up any statements.
+     * @param query the query, basically just a string with a word or two.
+     * @param options the predicates and contexts to restrict the search to.
+     * @return the number of hits for each predicate and context.
+     */
+    Facets searchFulltextFacets( String query, SearchOptions options );
+    
     boolean verifyFulltextIndex( String queryOrNullForAll );
     
     /**
@@ -2,13 +2,17 @@ package org.neo4j.rdf.store;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.rdf.fulltext.Facets;
 import org.neo4j.rdf.fulltext.FulltextIndex;
 import org.neo4j.rdf.fulltext.QueryResult;
+import org.neo4j.rdf.fulltext.ResultWindow;
+import org.neo4j.rdf.fulltext.SearchOptions;
 import org.neo4j.rdf.model.CompleteStatement;
 import org.neo4j.rdf.model.Context;
 import org.neo4j.rdf.model.Statement;
@@ -21,6 +25,7 @@ import org.neo4j.rdf.store.representation.AbstractRepresentation;
 import org.neo4j.rdf.store.representation.RepresentationExecutor;
 import org.neo4j.rdf.store.representation.RepresentationStrategy;
 import org.neo4j.rdf.store.representation.standard.AbstractUriBasedExecutor;
+import org.neo4j.rdf.store.representation.standard.UriBloomFilter;
 
 /**
  * Default implementation of an {@link RdfStore}.
@@ -67,10 +72,13 @@ public abstract class RdfStoreImpl implements RdfStore
         Transaction tx = graphDb.beginTx();
         try
         {
+            Collection<AbstractRepresentation> representations =
+                new ArrayList<AbstractRepresentation>( statements.length );
             for ( Statement statement : statements )
             {
-                addStatement( statement );
+                representations.add( getRepresentation( statement ) );
             }
+            getExecutor().addToNodeSpace( representations );
             tx.success();
         }
         catch ( RuntimeException e )
@@ -86,10 +94,13 @@ public abstract class RdfStoreImpl implements RdfStore
 
     protected void addStatement( Statement statement )
     {
-        AbstractRepresentation fragment = representationStrategy
-            .getAbstractRepresentation( statement,
-                new AbstractRepresentation() );
-        getExecutor().addToNodeSpace( fragment );
+        getExecutor().addToNodeSpace( getRepresentation( statement ) );
+    }
+
+    private AbstractRepresentation getRepresentation( Statement statement )
+    {
+        return representationStrategy.getAbstractRepresentation( statement,
+            new AbstractRepresentation() );
     }
 
     private RepresentationExecutor getExecutor()
@@ -138,6 +149,24 @@ public abstract class RdfStoreImpl implements RdfStore
             "this statement: " + statement );
     }
 
+    public long count( WildcardStatement statement )
+    {
+        long count = 0;
+        Iterator<CompleteStatement> statements =
+            getStatements( statement, false ).iterator();
+        while ( statements.hasNext() )
+        {
+            statements.next();
+            count++;
+        }
+        return count;
+    }
+    
+    public boolean exists( WildcardStatement statement )
+    {
+        return getStatements( statement, false ).iterator().hasNext();
+    }
+
 //    private boolean weCanHandleStatement( WildcardStatement statement )
 //    {
 //        return false;
@@ -154,6 +183,17 @@ public abstract class RdfStoreImpl implements RdfStore
         throw new UnsupportedOperationException( "No implementation here" );
     }
     
+    public ResultWindow<QueryResult> searchFulltextWithSnippets( String query,
+        SearchOptions options )
+    {
+        throw new UnsupportedOperationException( "No implementation here" );
+    }
+    
+    public Facets searchFulltextFacets( String query, SearchOptions options )
+    {
+        throw new UnsupportedOperationException( "No implementation here" );
+    }
+    
     public int size( Context... contexts )
     {
     	throw new UnsupportedOperationException();
@@ -264,6 +304,13 @@ public abstract class RdfStoreImpl implements RdfStore
             index.shutDown();
         }
         
+        UriBloomFilter bloomFilter = ( ( AbstractUriBasedExecutor )
+            getExecutor() ).getUriBloomFilter();
+        if ( bloomFilter != null )
+        {
+            bloomFilter.save();
+        }
+        
         // Shut down the Neo4j stuff if that flag is set.
         if ( this.shutdownNeo4jInstancesUponShutdown )
         {
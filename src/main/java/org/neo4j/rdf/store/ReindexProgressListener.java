@@ -0,0 +1,27 @@
+package org.neo4j.rdf.store;
+
+/**
+ * Gets notified about the progress of a {@link FulltextReindexer}. The
+ * methods may be called from several threads at the same time.
+ */
+public interface ReindexProgressListener
+{
+    /**
+     * @param numberOfContexts the number of contexts left to reindex.
+     * @param numberOfContextsAlreadyDone the number of contexts which were
+     * reindexed before a resumed reindex was interrupted.
+     */
+    void reindexStarting( int numberOfContexts,
+        int numberOfContextsAlreadyDone );
+    
+    /**
+     * Called regularly during the reindex.
+     * @param quadsVisited the number of quads visited so far.
+     * @param literalsIndexed the number of literals indexed so far.
+     */
+    void progress( long quadsVisited, long literalsIndexed );
+    
+    void contextReindexed( String contextUri, int literalsIndexed );
+    
+    void reindexCompleted( long literalsIndexed );
+}
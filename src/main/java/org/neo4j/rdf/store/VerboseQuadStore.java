@@ -5,9 +5,11 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -24,12 +26,19 @@ import org.neo4j.helpers.collection.IterableWrapper;
 import org.neo4j.helpers.collection.NestingIterable;
 import org.neo4j.helpers.collection.NestingIterator;
 import org.neo4j.helpers.collection.PrefetchingIterator;
+import org.neo4j.index.IndexHits;
 import org.neo4j.index.IndexService;
 import org.neo4j.meta.model.MetaModel;
+import org.neo4j.rdf.fulltext.Facets;
 import org.neo4j.rdf.fulltext.FulltextIndex;
+import org.neo4j.rdf.fulltext.FulltextVerifier;
 import org.neo4j.rdf.fulltext.QueryResult;
 import org.neo4j.rdf.fulltext.RawQueryResult;
-import org.neo4j.rdf.fulltext.VerificationHook;
+import org.neo4j.rdf.fulltext.RepairingVerificationHook;
+import org.neo4j.rdf.fulltext.ResultWindow;
+import org.neo4j.rdf.fulltext.SearchOptions;
+import org.neo4j.rdf.fulltext.SimpleFulltextIndex;
+import org.neo4j.rdf.fulltext.VerificationHook.Status;
 import org.neo4j.rdf.model.CompleteStatement;
 import org.neo4j.rdf.model.Context;
 import org.neo4j.rdf.model.Literal;
@@ -91,6 +100,13 @@ public class VerboseQuadStore extends RdfStoreImpl
         return ( VerboseQuadStrategy ) super.getRepresentationStrategy();
     }
     
+    @Override
+    public void shutDown()
+    {
+        getRepresentationStrategy().getExecutor().shutDown();
+        super.shutDown();
+    }
+    
     @Override
     public Iterable<CompleteStatement> getStatements(
         WildcardStatement statement,
@@ -106,52 +122,69 @@ public class VerboseQuadStore extends RdfStoreImpl
                     "support getStatements() with reasoning enabled" );
             }
             
-            Iterable<CompleteStatement> result = null;
-            if ( wildcardPattern( statement, false, false, true ) )
-            {
-                result = handleSubjectPredicateWildcard( statement );
-            }
-            else if ( wildcardPattern( statement, false, true, true ) )
-            {
-                result = handleSubjectWildcardWildcard( statement );
-            }
-            else if ( wildcardPattern( statement, false, true, false ) )
-            {
-                result = handleSubjectWildcardObject( statement );
-            }
-            else if ( wildcardPattern( statement, true, true, false ) )
-            {
-                result = handleWildcardWildcardObject( statement );
-            }
-            else if ( wildcardPattern( statement, true, false, false ) )
-            {
-                result = handleWildcardPredicateObject( statement );
-            }
-            else if ( wildcardPattern( statement, false, false, false ) )
-            {
-                result = handleSubjectPredicateObject( statement );
-            }
-            else if ( wildcardPattern( statement, true, false, true ) )
-            {
-                result = handleWildcardPredicateWildcard( statement );
-            }
-            else if ( wildcardPattern( statement, true, true, true ) )
+            Iterable<Node> middleNodes = getMiddleNodes( statement );
+            Iterable<CompleteStatement> result = middleNodes != null ?
+                statementIterator( statement, middleNodes ) :
+                new LinkedList<CompleteStatement>();
+            tx.success();
+            return result;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+    
+    /**
+     * Counts the matching quads by walking the middle nodes and their
+     * context relationships, without reading any properties other than
+     * what's needed to filter on a literal object. Patterns with only the
+     * context (or nothing) specified are answered by the statement counts
+     * on the context nodes, see {@link #size(Context...)}.
+     */
+    @Override
+    public long count( WildcardStatement statement )
+    {
+        return countMatches( statement, false );
+    }
+    
+    @Override
+    public boolean exists( WildcardStatement statement )
+    {
+        return countMatches( statement, true ) > 0;
+    }
+    
+    private long countMatches( WildcardStatement statement,
+        boolean stopAtFirst )
+    {
+        if ( wildcardPattern( statement, true, true, true ) )
+        {
+            if ( statement.getContext().isWildcard() )
             {
-                result = handleWildcardWildcardWildcard( statement );
+                return size();
             }
-            else
+            String contextUri =
+                ( ( Uri ) statement.getContext() ).getUriAsString();
+            return size( new Context( contextUri ) );
+        }
+        
+        Transaction tx = graphDb().beginTx();
+        try
+        {
+            long count = 0;
+            Iterable<Node> middleNodes = getMiddleNodes( statement );
+            Node contextNode = null;
+            if ( middleNodes != null && !statement.getContext().isWildcard() )
             {
-                result = super.getStatements( statement,
-                    includeInferredStatements );
+                contextNode = lookupNode( statement.getContext() );
+                middleNodes = contextNode != null ? middleNodes : null;
             }
-            
-            if ( result == null )
+            if ( middleNodes != null )
             {
-                result = new LinkedList<CompleteStatement>();
+                count = countQuads( middleNodes, contextNode, stopAtFirst );
             }
-            
             tx.success();
-            return result;
+            return count;
         }
         finally
         {
@@ -159,55 +192,161 @@ public class VerboseQuadStore extends RdfStoreImpl
         }
     }
     
+    private long countQuads( Iterable<Node> middleNodes, Node contextNodeOrNull,
+        boolean stopAtFirst )
+    {
+        long count = 0;
+        for ( Node middleNode : middleNodes )
+        {
+            for ( Relationship relationship : middleNode.getRelationships(
+                VerboseQuadStrategy.RelTypes.IN_CONTEXT, Direction.OUTGOING ) )
+            {
+                if ( contextNodeOrNull == null ||
+                    relationship.getEndNode().equals( contextNodeOrNull ) )
+                {
+                    if ( stopAtFirst )
+                    {
+                        return 1;
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * @return the middle nodes of the statements which may match
+     * {@code statement} (the context isn't filtered on), or {@code null}
+     * if there can't be any matches.
+     */
+    private Iterable<Node> getMiddleNodes( WildcardStatement statement )
+    {
+        if ( wildcardPattern( statement, false, false, true ) )
+        {
+            return handleSubjectPredicateWildcard( statement );
+        }
+        else if ( wildcardPattern( statement, false, true, true ) )
+        {
+            return handleSubjectWildcardWildcard( statement );
+        }
+        else if ( wildcardPattern( statement, false, true, false ) )
+        {
+            return handleSubjectWildcardObject( statement );
+        }
+        else if ( wildcardPattern( statement, true, true, false ) )
+        {
+            return handleWildcardWildcardObject( statement );
+        }
+        else if ( wildcardPattern( statement, true, false, false ) )
+        {
+            return handleWildcardPredicateObject( statement );
+        }
+        else if ( wildcardPattern( statement, false, false, false ) )
+        {
+            return handleSubjectPredicateObject( statement );
+        }
+        else if ( wildcardPattern( statement, true, false, true ) )
+        {
+            return handleWildcardPredicateWildcard( statement );
+        }
+        else if ( wildcardPattern( statement, true, true, true ) )
+        {
+            return handleWildcardWildcardWildcard( statement );
+        }
+        throw new UnsupportedOperationException( "We can't handle get() for " +
+            "this statement: " + statement );
+    }
+    
+    /**
+     * Reindexes the fulltext index in place, see {@link FulltextReindexer}
+     * for resumable, parallel reindexing and reindexing on the side.
+     * @param maxEntries stops after about this many literals, or
+     * <code>null</code> to reindex all of them.
+     */
     public void reindexFulltextIndex( Integer maxEntries )
     {
+        FulltextReindexer reindexer = new FulltextReindexer( this );
+        reindexer.setMaxEntries( maxEntries );
+        reindexer.reindex();
+    }
+    
+    /**
+     * @return the uris of all the contexts in this store.
+     */
+    List<String> getContextUris()
+    {
+        Node contextsRefNode = getRepresentationStrategy().getExecutor().
+            getContextsReferenceNode();
+        List<String> uris = new ArrayList<String>();
+        for ( Node contextNode : new RelationshipToNodeIterable(
+            contextsRefNode, contextsRefNode.getRelationships(
+            VerboseQuadExecutor.RelTypes.IS_A_CONTEXT, Direction.OUTGOING ) ) )
+        {
+            String uri = getNodeUriOrNull( contextNode );
+            if ( uri != null )
+            {
+                uris.add( uri );
+            }
+        }
+        return uris;
+    }
+    
+    /**
+     * @return all quads in the given context as
+     * { subject node, predicate, object node, context node }.
+     */
+    Iterable<Object[]> getQuadsInContext( String contextUri )
+    {
+        WildcardStatement statement = new WildcardStatement(
+            new Wildcard( "s" ), new Wildcard( "p" ), new Wildcard( "o" ),
+            new Context( contextUri ) );
+        Iterable<Node> middleNodes = getMiddleNodes( statement );
+        if ( middleNodes == null )
+        {
+            return new ArrayList<Object[]>();
+        }
+        return new MiddleNodeToQuadIterable( statement, middleNodes );
+    }
+    
+    /**
+     * Indexes all middle nodes with their predicate and marks the
+     * predicate index as complete, so that (?, P, ?) queries goes through
+     * the index. Only needed for stores created before that index existed,
+     * see {@link VerboseQuadExecutor#hasCompletePredicateIndex()}.
+     */
+    public void rebuildPredicateIndex()
+    {
+        VerboseQuadExecutor executor =
+            getRepresentationStrategy().getExecutor();
         Transaction tx = graphDb().beginTx();
         try
         {
-            Iterable<Node> allMiddleNodes = getMiddleNodesFromAllContexts();
-            Iterable<Object[]> allQuads = new MiddleNodeToQuadIterable(
-                new WildcardStatement( new Wildcard( "s" ), new Wildcard( "p" ),
-                    new Wildcard( "o" ), new Wildcard( "g" ) ),
-                    allMiddleNodes );
-            int totalCounter = 0;
             int counter = 0;
-            FulltextIndex fulltextIndex = getFulltextIndex();
-            fulltextIndex.clear();
-            for ( Object[] quad : allQuads )
+            for ( Node middleNode : getMiddleNodesFromAllContexts() )
             {
-                String predicate = ( String ) quad[ 1 ];
-                Node objectNode = ( Node ) quad[ 2 ];
-                Value objectValue =
-                    getValueForObjectNode( predicate, objectNode );
-                if ( objectValue instanceof Literal )
+                Iterator<Relationship> subjectRels = middleNode.getRelationships(
+                    Direction.INCOMING ).iterator();
+                if ( !subjectRels.hasNext() )
                 {
-                    fulltextIndex.index( objectNode, new Uri( predicate ),
-                        ( ( Literal ) objectValue ).getValue() );
-                    if ( ++counter % 10000 == 0 )
-                    {
-                        fulltextIndex.end( true );
-                        tx.success();
-                        tx.finish();
-                        tx = graphDb().beginTx();
-                        if ( maxEntries != null && counter > maxEntries )
-                        {
-                            break;
-                        }
-                    }
+                    continue;
                 }
-                
-                if ( ++totalCounter % 1000 == 0 )
+                executor.reindexMiddleNode( middleNode,
+                    subjectRels.next().getType().name() );
+                if ( ++counter % 10000 == 0 )
                 {
-                    // TODO Notify somehow?
+                    tx.success();
+                    tx.finish();
+                    tx = graphDb().beginTx();
                 }
             }
-            fulltextIndex.end( true );
             tx.success();
         }
         finally
         {
             tx.finish();
         }
+        executor.setPredicateIndexComplete();
     }
     
     @Override
@@ -266,13 +405,58 @@ public class VerboseQuadStore extends RdfStoreImpl
             protected QueryResult underlyingObjectToObject(
                 CompleteStatement object )
             {
-                return new QueryResult( object,
-                    latestQueryResult[ 0 ].getScore(),
-                    latestQueryResult[ 0 ].getSnippet() );
+                return new QueryResult( object, latestQueryResult[ 0 ] );
             }
         };
     }
     
+    @Override
+    public ResultWindow<QueryResult> searchFulltextWithSnippets( String query,
+        SearchOptions options )
+    {
+        ResultWindow<RawQueryResult> rawResult =
+            getInitializedFulltextIndex().search( query, options );
+        Statement fakeWildcardStatement = new WildcardStatement(
+            new Wildcard( "S" ), new Wildcard( "P" ),
+            new Wildcard( "O" ), new Wildcard( "C" ) );
+        Collection<String> contexts = options.getContexts();
+        List<QueryResult> results = new ArrayList<QueryResult>();
+        Transaction tx = graphDb().beginTx();
+        try
+        {
+            for ( RawQueryResult raw : rawResult )
+            {
+                Iterable<Node> middleNodes = new LiteralToMiddleNodeIterable(
+                    Collections.singletonList( raw.getNode() ) );
+                for ( CompleteStatement statement : statementIterator(
+                    fakeWildcardStatement, middleNodes ) )
+                {
+                    // A literal in several contexts is a hit if any of
+                    // them is wanted, only its statements in those are
+                    if ( contexts != null && !contexts.contains(
+                        statement.getContext().getUriAsString() ) )
+                    {
+                        continue;
+                    }
+                    results.add( new QueryResult( statement, raw ) );
+                }
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        return new ResultWindow<QueryResult>( results,
+            rawResult.getTotalHits(), rawResult.getOffset() );
+    }
+    
+    @Override
+    public Facets searchFulltextFacets( String query, SearchOptions options )
+    {
+        return getInitializedFulltextIndex().facets( query, options );
+    }
+    
     public boolean verifyFulltextIndex( String queryOrNullForAll )
     {
         Transaction tx = graphDb().beginTx();
@@ -289,6 +473,42 @@ public class VerboseQuadStore extends RdfStoreImpl
         }
     }
     
+    /**
+     * Verifies the entire fulltext index with several threads, see
+     * {@link FulltextVerifier}. Needs a {@link SimpleFulltextIndex}.
+     * @param numberOfThreads the number of threads to verify with.
+     * @param repair whether or not to remove, or reindex, documents which
+     * doesn't match the graph.
+     * @param reportFileOrNull the file to write a tab separated report of
+     * the mismatches to, or <code>null</code>.
+     * @return {@code true} if the index was completely ok, otherwise
+     * {@code false}.
+     */
+    public boolean verifyFulltextIndex( int numberOfThreads, boolean repair,
+        File reportFileOrNull )
+    {
+        FulltextIndex fulltextIndex = getInitializedFulltextIndex();
+        if ( !( fulltextIndex instanceof SimpleFulltextIndex ) )
+        {
+            throw new UnsupportedOperationException( "Parallel verification " +
+                "needs a " + SimpleFulltextIndex.class.getName() );
+        }
+        FulltextVerifier verifier = new FulltextVerifier(
+            ( SimpleFulltextIndex ) fulltextIndex,
+            new QuadVerificationHook( false ) );
+        verifier.setNumberOfThreads( numberOfThreads );
+        verifier.setRepair( repair );
+        verifier.setReportFile( reportFileOrNull );
+        for ( Map.Entry<Status, Integer> count : verifier.verify().entrySet() )
+        {
+            if ( count.getKey() != Status.OK && count.getValue() > 0 )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     @Override
     public int size( Context... contexts )
     {
@@ -323,8 +543,8 @@ public class VerboseQuadStore extends RdfStoreImpl
             int size = 0;
             for ( Node node : contextNodes )
             {
-                size += ( Integer ) node.getProperty(
-                    VerboseQuadExecutor.STATEMENT_COUNT, 0 );
+                size += getRepresentationStrategy().getExecutor().
+                    getStatementCount( node );
             }
             tx.success();
             return size;
@@ -346,7 +566,7 @@ public class VerboseQuadStore extends RdfStoreImpl
             AbstractUriBasedExecutor.URI_PROPERTY_KEY, null );
     }
     
-    private Value getValueForObjectNode( String predicate, Node objectNode )
+    Value getValueForObjectNode( String predicate, Node objectNode )
     {
         String uri = ( String ) objectNode.getProperty(
             AbstractUriBasedExecutor.URI_PROPERTY_KEY, null );
@@ -415,7 +635,7 @@ public class VerboseQuadStore extends RdfStoreImpl
 //                VerboseQuadStrategy.RelTypes.IN_CONTEXT, Direction.INCOMING );
     }
     
-    private Iterable<CompleteStatement> handleSubjectPredicateWildcard(
+    private Iterable<Node> handleSubjectPredicateWildcard(
         Statement statement )
     {
         Node subjectNode = lookupNode( statement.getSubject() );
@@ -426,10 +646,10 @@ public class VerboseQuadStore extends RdfStoreImpl
         Iterable<Node> middleNodes = new RelationshipToNodeIterable(
             subjectNode, subjectNode.getRelationships( relType( statement ),
                 Direction.OUTGOING ) );
-        return statementIterator( statement, middleNodes );
+        return middleNodes;
     }
     
-    private Iterable<CompleteStatement> handleSubjectWildcardWildcard(
+    private Iterable<Node> handleSubjectWildcardWildcard(
         Statement statement )
     {
         Node subjectNode = lookupNode( statement.getSubject() );
@@ -439,10 +659,10 @@ public class VerboseQuadStore extends RdfStoreImpl
         }
         Iterable<Node> middleNodes = new RelationshipToNodeIterable(
             subjectNode, subjectNode.getRelationships( Direction.OUTGOING ) );
-        return statementIterator( statement, middleNodes );
+        return middleNodes;
     }
     
-    private Iterable<CompleteStatement> handleSubjectWildcardObject(
+    private Iterable<Node> handleSubjectWildcardObject(
         final Statement statement )
     {
         // TODO Optimization: maybe check which has least rels (S or O)
@@ -458,10 +678,10 @@ public class VerboseQuadStore extends RdfStoreImpl
             relationships );
         Iterable<Node> middleNodes = new RelationshipToNodeIterable(
             subjectNode, relationships );
-        return statementIterator( statement, middleNodes );
+        return middleNodes;
     }
     
-    private Iterable<CompleteStatement> handleSubjectPredicateObject(
+    private Iterable<Node> handleSubjectPredicateObject(
         Statement statement )
     {
         Node subjectNode = lookupNode( statement.getSubject() );
@@ -475,10 +695,10 @@ public class VerboseQuadStore extends RdfStoreImpl
             relationships );
         Iterable<Node> middleNodes = new RelationshipToNodeIterable(
             subjectNode, relationships );
-        return statementIterator( statement, middleNodes );
+        return middleNodes;
     }
     
-    private Iterable<CompleteStatement> handleWildcardWildcardObject(
+    private Iterable<Node> handleWildcardWildcardObject(
         Statement statement )
     {
         Iterable<Node> middleNodes = null;
@@ -496,15 +716,28 @@ public class VerboseQuadStore extends RdfStoreImpl
             middleNodes = new RelationshipToNodeIterable(
                 objectNode, objectNode.getRelationships( Direction.INCOMING ) );
         }
-        return statementIterator( statement, middleNodes );
+        return middleNodes;
     }
     
-    private Iterable<CompleteStatement> handleWildcardPredicateWildcard(
+    private Iterable<Node> handleWildcardPredicateWildcard(
         Statement statement )
     {
+        VerboseQuadExecutor executor =
+            getRepresentationStrategy().getExecutor();
+        IndexHits<Node> predicateMiddleNodes = null;
+        if ( executor.hasCompletePredicateIndex() )
+        {
+            predicateMiddleNodes = executor.findMiddleNodes(
+                ( ( Uri ) statement.getPredicate() ).getUriAsString() );
+        }
+        
         Iterable<Node> middleNodes = null;
         if ( statement.getContext().isWildcard() )
         {
+            if ( predicateMiddleNodes != null )
+            {
+                return predicateMiddleNodes;
+            }
             middleNodes = getMiddleNodesFromAllContexts();
         }
         else
@@ -512,18 +745,37 @@ public class VerboseQuadStore extends RdfStoreImpl
             Node contextNode = lookupNode( statement.getContext() );
             if ( contextNode == null )
             {
+                closeHits( predicateMiddleNodes );
                 return null;
             }
+            
+            // Go from whichever is smallest, the predicate or the context.
+            // The quad iterator filters out other contexts.
+            if ( predicateMiddleNodes != null &&
+                predicateMiddleNodes.size() <=
+                executor.getStatementCount( contextNode ) )
+            {
+                return predicateMiddleNodes;
+            }
+            closeHits( predicateMiddleNodes );
             middleNodes = new RelationshipToNodeIterable(
                 contextNode, contextNode.getRelationships(
                     VerboseQuadStrategy.RelTypes.IN_CONTEXT,
                     Direction.INCOMING ) );
         }
         middleNodes = new PredicateFilteredNodes( statement, middleNodes );
-        return statementIterator( statement, middleNodes );
+        return middleNodes;
+    }
+    
+    private static void closeHits( IndexHits<Node> hitsOrNull )
+    {
+        if ( hitsOrNull != null )
+        {
+            hitsOrNull.close();
+        }
     }
     
-    private Iterable<CompleteStatement> handleWildcardPredicateObject(
+    private Iterable<Node> handleWildcardPredicateObject(
         Statement statement )
     {
         Iterable<Node> middleNodes = null;
@@ -543,10 +795,10 @@ public class VerboseQuadStore extends RdfStoreImpl
                 objectNode, objectNode.getRelationships( relType( statement ),
                     Direction.INCOMING ) );
         }
-        return statementIterator( statement, middleNodes );
+        return middleNodes;
     }
     
-    private Iterable<CompleteStatement> handleWildcardWildcardWildcard(
+    private Iterable<Node> handleWildcardWildcardWildcard(
         Statement statement )
     {
         Iterable<Node> middleNodes = null;
@@ -566,7 +818,7 @@ public class VerboseQuadStore extends RdfStoreImpl
                     VerboseQuadStrategy.RelTypes.IN_CONTEXT,
                     Direction.INCOMING ) );
         }
-        return statementIterator( statement, middleNodes );
+        return middleNodes;
     }
     
     private Iterable<CompleteStatement> statementIterator(
@@ -939,13 +1191,28 @@ public class VerboseQuadStore extends RdfStoreImpl
         }
     }
     
-    public class QuadVerificationHook implements VerificationHook
+    public class QuadVerificationHook implements RepairingVerificationHook
     {
         private static final int INTERVAL = 10000;
+        private final boolean writeReport;
         private PrintStream output;
         private int max;
         private int counter;
         
+        public QuadVerificationHook()
+        {
+            this( true );
+        }
+        
+        /**
+         * @param writeReport whether or not to write the mismatches and the
+         * progress to a verify-fulltextindex-&lt;timestamp&gt; file.
+         */
+        public QuadVerificationHook( boolean writeReport )
+        {
+            this.writeReport = writeReport;
+        }
+        
         public Status verify( long id, String predicate, Object literal )
         {
             incrementCounter();
@@ -973,15 +1240,34 @@ public class VerboseQuadStore extends RdfStoreImpl
                 result = Status.MISSING;
             }
             
-            if ( result != Status.OK )
+            if ( result != Status.OK && output != null )
             {
                 output.println( result.name() + " " + id );
             }
             return result;
         }
 
+        public Object getCurrentLiteral( long id, String predicate )
+        {
+            try
+            {
+                Value value = getValueForObjectNode( predicate,
+                    graphDb().getNodeById( id ) );
+                return value instanceof Literal ?
+                    ( ( Literal ) value ).getValue() : null;
+            }
+            catch ( NotFoundException e )
+            {
+                return null;
+            }
+        }
+        
         public void verificationCompleted( Map<Status, Integer> counts )
         {
+            if ( output == null )
+            {
+                return;
+            }
             displayProgress();
             output.println( "\n-----------------\nTotal\n" );
             for ( Map.Entry<Status, Integer> entry : counts.entrySet() )
@@ -993,6 +1279,11 @@ public class VerboseQuadStore extends RdfStoreImpl
 
         public void verificationStarting( int numberOfDocumentsToVerify )
         {
+            this.max = numberOfDocumentsToVerify;
+            if ( !writeReport )
+            {
+                return;
+            }
             try
             {
                 output = new PrintStream( new File( "verify-fulltextindex-" +
@@ -1000,7 +1291,6 @@ public class VerboseQuadStore extends RdfStoreImpl
                 output.println( "Verification starting. We have " +
                     numberOfDocumentsToVerify + " documents ahead of us,\n" +
                     "displaying progress each " + INTERVAL + " records\n" );
-                this.max = numberOfDocumentsToVerify;
             }
             catch ( IOException e )
             {
@@ -1008,7 +1298,7 @@ public class VerboseQuadStore extends RdfStoreImpl
             }
         }
         
-        private void incrementCounter()
+        private synchronized void incrementCounter()
         {
             if ( ++counter % INTERVAL == 0 )
             {
@@ -1018,6 +1308,10 @@ public class VerboseQuadStore extends RdfStoreImpl
         
         private void displayProgress()
         {
+            if ( output == null )
+            {
+                return;
+            }
             double percent = ( double ) counter / ( double ) max;
             percent *= 100d;
             output.println( "---" + counter +
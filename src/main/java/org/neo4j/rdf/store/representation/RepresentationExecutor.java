@@ -1,5 +1,7 @@
 package org.neo4j.rdf.store.representation;
 
+import java.util.Collection;
+
 import org.neo4j.graphdb.Node;
 
 /**
@@ -15,6 +17,16 @@ public interface RepresentationExecutor
      */
     void addToNodeSpace( AbstractRepresentation representation );
     
+    /**
+     * Adds a batch of statement representations to the node space, like
+     * calling {@link #addToNodeSpace(AbstractRepresentation)} for each one
+     * of them in order, but with the possibility to share work between them,
+     * f.ex. looking up each URI only once.
+     * @param representations the representations of what is to be added
+     * to the node space.
+     */
+    void addToNodeSpace( Collection<AbstractRepresentation> representations );
+    
     /**
      * Removes a statement representation from the node space if it exists.
      * @param representation the representation of what is to be removed
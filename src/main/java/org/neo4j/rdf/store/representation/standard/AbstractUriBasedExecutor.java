@@ -3,6 +3,14 @@ package org.neo4j.rdf.store.representation.standard;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.DynamicRelationshipType;
@@ -45,6 +53,10 @@ public abstract class AbstractUriBasedExecutor implements
     private final IndexService index;
     private final MetaModel model;
     private FulltextIndex fulltextIndex;
+    private UriDictionary uriDictionary;
+    private UriBloomFilter uriBloomFilter;
+    private final ThreadLocal<Map<String, Node>> batchNodes =
+            new ThreadLocal<Map<String, Node>>();
 
     public AbstractUriBasedExecutor( GraphDatabaseService graphDb,
             IndexService index, MetaModel optionalModel,
@@ -85,6 +97,42 @@ public abstract class AbstractUriBasedExecutor implements
         return this.fulltextIndex;
     }
 
+    /**
+     * Sets a dictionary to consult before the index when looking up nodes
+     * by URI, see {@link #lookupNode(AbstractNode)}.
+     * @param dictionaryOrNull the dictionary to use or {@code null} to
+     * always go to the index.
+     */
+    public void setUriDictionary( UriDictionary dictionaryOrNull )
+    {
+        this.uriDictionary = dictionaryOrNull;
+    }
+
+    public UriDictionary getUriDictionary()
+    {
+        return this.uriDictionary;
+    }
+
+    /**
+     * Sets a filter which is consulted before the index when looking up
+     * nodes by URI, so that URIs which doesn't exist never reaches the
+     * index. The filter must contain all URIs in the graph, f.ex. by
+     * creating it with
+     * {@link UriBloomFilter#loadOrRebuild(java.io.File, GraphDatabaseService,
+     * double)}. Call {@link UriBloomFilter#save()} before shutdown.
+     * @param filterOrNull the filter to use or {@code null} to always go
+     * to the index.
+     */
+    public void setUriBloomFilter( UriBloomFilter filterOrNull )
+    {
+        this.uriBloomFilter = filterOrNull;
+    }
+
+    public UriBloomFilter getUriBloomFilter()
+    {
+        return this.uriBloomFilter;
+    }
+
     protected GraphDatabaseService graphDB()
     {
         return this.graphDb;
@@ -146,6 +194,48 @@ public abstract class AbstractUriBasedExecutor implements
         return uri == null ? null : uri.getUriAsString();
     }
 
+    /**
+     * Resolves all URIs of the batch once, in sorted order so that the
+     * index is accessed sequentially, and then adds each representation
+     * in order. Nodes looked up or created during the batch are remembered
+     * until the batch is done, so a subject repeated on many statements
+     * is only looked up once.
+     */
+    public void addToNodeSpace(
+            Collection<AbstractRepresentation> representations )
+    {
+        Set<String> uris = new TreeSet<String>();
+        for ( AbstractRepresentation representation : representations )
+        {
+            for ( AbstractNode node : representation.nodes() )
+            {
+                String uri = getNodeUri( node );
+                if ( uri != null )
+                {
+                    uris.add( uri );
+                }
+            }
+        }
+
+        Map<String, Node> nodes = new HashMap<String, Node>();
+        for ( String uri : uris )
+        {
+            nodes.put( uri, lookupNode( uri ) );
+        }
+        batchNodes.set( nodes );
+        try
+        {
+            for ( AbstractRepresentation representation : representations )
+            {
+                addToNodeSpace( representation );
+            }
+        }
+        finally
+        {
+            batchNodes.remove();
+        }
+    }
+
     public Node lookupNode( AbstractNode abstractNode )
     {
         Node result = null;
@@ -159,7 +249,12 @@ public abstract class AbstractUriBasedExecutor implements
         String nodeUri = getNodeUri( abstractNode );
         if ( null != nodeUri )
         {
-            result = index().getSingleNode( URI_PROPERTY_KEY, nodeUri );
+            Map<String, Node> nodes = batchNodes.get();
+            if ( nodes != null && nodes.containsKey( nodeUri ) )
+            {
+                return nodes.get( nodeUri );
+            }
+            result = lookupNode( nodeUri );
         }
         else
         {
@@ -171,6 +266,116 @@ public abstract class AbstractUriBasedExecutor implements
         return result;
     }
 
+    private Node lookupNode( String nodeUri )
+    {
+        Node result = lookupNodeInDictionary( nodeUri );
+        if ( result == null && ( uriBloomFilter == null ||
+            uriBloomFilter.mightContain( nodeUri ) ) )
+        {
+            result = index().getSingleNode( URI_PROPERTY_KEY, nodeUri );
+            if ( result == null && uriBloomFilter != null )
+            {
+                uriBloomFilter.falsePositive();
+            }
+            if ( result != null && uriDictionary != null )
+            {
+                uriDictionary.put( nodeUri, result.getId() );
+            }
+        }
+        return result;
+    }
+
+    private Node lookupNodeInDictionary( String uri )
+    {
+        if ( uriDictionary == null )
+        {
+            return null;
+        }
+        long id = uriDictionary.get( uri );
+        if ( id == UriDictionary.NOT_FOUND )
+        {
+            return null;
+        }
+
+        // The entry may be stale if the node was deleted by someone else
+        // or in a transaction which was rolled back, so verify it.
+        try
+        {
+            Node node = graphDb.getNodeById( id );
+            if ( uri.equals( node.getProperty( URI_PROPERTY_KEY, null ) ) )
+            {
+                return node;
+            }
+        }
+        catch ( NotFoundException e )
+        {
+            // Stale, fall through
+        }
+        uriDictionary.remove( uri );
+        return null;
+    }
+
+    /**
+     * Adds the mapping to the dictionary when (and if) the current
+     * transaction commits, so that nodes from rolled back transactions
+     * never gets there. The bloom filter is told about the commit too, and
+     * resized if it has filled up.
+     */
+    private void addedOnCommit( final String uri, final long nodeId,
+        final int bloomGeneration )
+    {
+        final UriBloomFilter bloomFilter = uriBloomFilter;
+        final UriDictionary dictionary = uriDictionary;
+        try
+        {
+            Transaction tx =
+                graphDbUtil().getTransactionManager().getTransaction();
+            if ( tx == null )
+            {
+                committed( uri, nodeId, bloomGeneration, bloomFilter,
+                    dictionary );
+                return;
+            }
+            tx.registerSynchronization( new Synchronization()
+            {
+                public void beforeCompletion()
+                {
+                }
+
+                public void afterCompletion( int status )
+                {
+                    if ( status == Status.STATUS_COMMITTED )
+                    {
+                        committed( uri, nodeId, bloomGeneration, bloomFilter,
+                            dictionary );
+                    }
+                }
+            } );
+        }
+        catch ( RollbackException e )
+        {
+            // It's rolling back so the node won't be there anyway
+        }
+        catch ( SystemException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private void committed( String uri, long nodeId, int bloomGeneration,
+        UriBloomFilter bloomFilter, UriDictionary dictionary )
+    {
+        if ( dictionary != null )
+        {
+            dictionary.put( uri, nodeId );
+        }
+        if ( bloomFilter != null )
+        {
+            bloomFilter.addCommitted( uri, bloomGeneration );
+            bloomFilter.resizeInBackgroundIfNeeded( graphDb );
+        }
+    }
+
     protected NodeContext lookupOrCreateNode( AbstractNode abstractNode,
             Map<AbstractNode, Node> nodeMapping )
     {
@@ -198,11 +403,25 @@ public abstract class AbstractUriBasedExecutor implements
         node.delete();
         if ( uriOrNull != null )
         {
+            rememberInBatch( uriOrNull.getUriAsString(), null );
+            if ( uriDictionary != null )
+            {
+                uriDictionary.remove( uriOrNull.getUriAsString() );
+            }
             index().removeIndex( node, URI_PROPERTY_KEY,
                     uriOrNull.getUriAsString() );
         }
     }
 
+    private void rememberInBatch( String uri, Node nodeOrNull )
+    {
+        Map<String, Node> nodes = batchNodes.get();
+        if ( nodes != null )
+        {
+            nodes.put( uri, nodeOrNull );
+        }
+    }
+
     protected void deleteNodeIfEmpty( AbstractNode abstractNode, Node node )
     {
         if ( nodeIsEmpty( abstractNode, node, true ) )
@@ -497,6 +716,17 @@ public abstract class AbstractUriBasedExecutor implements
         {
             node.setProperty( URI_PROPERTY_KEY, uri.getUriAsString() );
             index().index( node, URI_PROPERTY_KEY, uri.getUriAsString() );
+            int bloomGeneration = 0;
+            if ( uriBloomFilter != null )
+            {
+                bloomGeneration = uriBloomFilter.add( uri.getUriAsString() );
+            }
+            if ( uriDictionary != null || uriBloomFilter != null )
+            {
+                addedOnCommit( uri.getUriAsString(), node.getId(),
+                    bloomGeneration );
+            }
+            rememberInBatch( uri.getUriAsString(), node );
         }
         applyRepresentation( abstractNode, node );
         // debugCreateNode( node, uri == null ? null : uri.toString() );
@@ -524,7 +754,7 @@ public abstract class AbstractUriBasedExecutor implements
         }
     }
 
-    private LockManager getLockManager()
+    protected LockManager getLockManager()
     {
         return ( (EmbeddedGraphDatabase) graphDb ).getConfig().getLockManager();
     }
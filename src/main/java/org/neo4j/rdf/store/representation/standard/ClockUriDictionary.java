@@ -0,0 +1,196 @@
+package org.neo4j.rdf.store.representation.standard;
+
+/**
+ * A {@link UriDictionary} holding at most a fixed number of mappings in
+ * an open addressing (linear probing) table of parallel primitive arrays,
+ * so there are no entry objects or boxed ids. When the table is full a
+ * mapping is evicted using the CLOCK algorithm, i.e. a hand sweeps over the
+ * slots clearing "referenced" bits and evicts the first mapping which hasn't
+ * been referenced since the hand last passed it.
+ */
+public class ClockUriDictionary implements UriDictionary
+{
+    private final int maxEntries;
+    private final int mask;
+    private final String[] keys;
+    private final int[] hashes;
+    private final long[] ids;
+    private final boolean[] referenced;
+    private int size;
+    private int clockHand;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxEntries the maximum number of mappings to hold.
+     */
+    public ClockUriDictionary( int maxEntries )
+    {
+        if ( maxEntries < 1 )
+        {
+            throw new IllegalArgumentException( "Invalid size " + maxEntries );
+        }
+        this.maxEntries = maxEntries;
+        // Keep the load factor at or below 0.75 to keep the probes short
+        int capacity = Integer.highestOneBit(
+            Math.max( 2, maxEntries + maxEntries / 3 ) - 1 ) << 1;
+        this.mask = capacity - 1;
+        this.keys = new String[ capacity ];
+        this.hashes = new int[ capacity ];
+        this.ids = new long[ capacity ];
+        this.referenced = new boolean[ capacity ];
+    }
+
+    private static int hash( String uri )
+    {
+        // Spread the bits since URIs often share long prefixes
+        int h = uri.hashCode();
+        h ^= ( h >>> 16 );
+        h *= 0x85ebca6b;
+        h ^= ( h >>> 13 );
+        return h;
+    }
+
+    private int indexOf( String uri, int hash )
+    {
+        for ( int i = hash & mask; keys[ i ] != null; i = ( i + 1 ) & mask )
+        {
+            if ( hashes[ i ] == hash && keys[ i ].equals( uri ) )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized long get( String uri )
+    {
+        int index = indexOf( uri, hash( uri ) );
+        if ( index == -1 )
+        {
+            misses++;
+            return NOT_FOUND;
+        }
+        hits++;
+        referenced[ index ] = true;
+        return ids[ index ];
+    }
+
+    public synchronized void put( String uri, long nodeId )
+    {
+        int hash = hash( uri );
+        int index = indexOf( uri, hash );
+        if ( index != -1 )
+        {
+            ids[ index ] = nodeId;
+            referenced[ index ] = true;
+            return;
+        }
+
+        if ( size >= maxEntries )
+        {
+            evict();
+        }
+        int i = hash & mask;
+        while ( keys[ i ] != null )
+        {
+            i = ( i + 1 ) & mask;
+        }
+        keys[ i ] = uri;
+        hashes[ i ] = hash;
+        ids[ i ] = nodeId;
+        // New mappings must prove themselves before surviving a sweep
+        referenced[ i ] = false;
+        size++;
+    }
+
+    private void evict()
+    {
+        while ( true )
+        {
+            int i = clockHand;
+            clockHand = ( clockHand + 1 ) & mask;
+            if ( keys[ i ] == null )
+            {
+                continue;
+            }
+            if ( referenced[ i ] )
+            {
+                referenced[ i ] = false;
+                continue;
+            }
+            removeAt( i );
+            return;
+        }
+    }
+
+    public synchronized void remove( String uri )
+    {
+        int index = indexOf( uri, hash( uri ) );
+        if ( index != -1 )
+        {
+            removeAt( index );
+        }
+    }
+
+    /**
+     * Removes the slot at {@code index} and shifts following entries of the
+     * same probe sequence back, so that no tombstones are needed.
+     */
+    private void removeAt( int index )
+    {
+        int hole = index;
+        keys[ hole ] = null;
+        for ( int i = ( hole + 1 ) & mask; keys[ i ] != null;
+            i = ( i + 1 ) & mask )
+        {
+            int home = hashes[ i ] & mask;
+            boolean homeIsBetweenHoleAndI = hole <= i ?
+                ( home > hole && home <= i ) :
+                ( home > hole || home <= i );
+            if ( !homeIsBetweenHoleAndI )
+            {
+                keys[ hole ] = keys[ i ];
+                hashes[ hole ] = hashes[ i ];
+                ids[ hole ] = ids[ i ];
+                referenced[ hole ] = referenced[ i ];
+                keys[ i ] = null;
+                hole = i;
+            }
+        }
+        size--;
+    }
+
+    public synchronized void clear()
+    {
+        for ( int i = 0; i < keys.length; i++ )
+        {
+            keys[ i ] = null;
+        }
+        size = 0;
+        clockHand = 0;
+    }
+
+    public synchronized int size()
+    {
+        return this.size;
+    }
+
+    public synchronized long getHitCount()
+    {
+        return this.hits;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return this.misses;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + "[size=" + size() + ", max=" +
+            maxEntries + ", hits=" + getHitCount() + ", misses=" +
+            getMissCount() + "]";
+    }
+}
@@ -0,0 +1,570 @@
+package org.neo4j.rdf.store.representation.standard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+
+/**
+ * A Bloom filter over all URIs which have a node in the graph. An
+ * {@link AbstractUriBasedExecutor} consults it before going to the index
+ * so that URIs which definitely doesn't exist (which is the common case
+ * when adding new data) never costs an index lookup.
+ *
+ * URIs are never removed from the filter, a deleted node only means one
+ * more false positive. False positives are counted (via
+ * {@link #falsePositive()}) and if the observed or the expected rate goes
+ * above the target rate the filter is rebuilt with a bigger size, see
+ * {@link #resizeIfNeeded(GraphDatabaseService)}. That's checked when it's
+ * loaded and, by the executor, each time a transaction which added URIs
+ * has committed, so that a filter which fills up as the store grows is
+ * resized in the background, see
+ * {@link #resizeInBackgroundIfNeeded(GraphDatabaseService)}.
+ *
+ * The filter is persisted in a file with {@link #save()}. The file is
+ * deleted when the filter is loaded again, so if the store isn't shut down
+ * properly the filter will be rebuilt from the graph the next time instead
+ * of trusting a filter which may be missing URIs.
+ */
+public class UriBloomFilter
+{
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    public static final long DEFAULT_EXPECTED_URIS = 1000000;
+
+    private static final int MAGIC = 0x55424631;
+
+    private final File fileOrNull;
+    private final long minimumExpectedUris;
+    private final double targetFalsePositiveRate;
+    private volatile Bits bits;
+    private volatile Bits bitsBeingRebuilt;
+    private final AtomicLong falsePositives = new AtomicLong();
+    private final AtomicLong trueNegatives = new AtomicLong();
+    // Adds hold the read lock while they add to the current and the new
+    // bits, so that no add falls between them when the bits are swapped.
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    // Incremented each time the bits are swapped, see addCommitted
+    private volatile int generation;
+    private final AtomicBoolean resizing = new AtomicBoolean();
+
+    /**
+     * Creates a new empty filter.
+     * @param expectedUris the number of URIs the filter is sized for.
+     * @param targetFalsePositiveRate the wanted false positive rate,
+     * f.ex. 0.01 for 1%.
+     * @param fileOrNull the file {@link #save()} writes to, or {@code null}
+     * if the filter isn't persisted.
+     */
+    public UriBloomFilter( long expectedUris, double targetFalsePositiveRate,
+        File fileOrNull )
+    {
+        this( new Bits( expectedUris, targetFalsePositiveRate ), expectedUris,
+            targetFalsePositiveRate, fileOrNull );
+    }
+
+    private UriBloomFilter( Bits bits, long minimumExpectedUris,
+        double targetFalsePositiveRate, File fileOrNull )
+    {
+        if ( targetFalsePositiveRate <= 0 || targetFalsePositiveRate >= 1 )
+        {
+            throw new IllegalArgumentException( "Invalid false positive rate " +
+                targetFalsePositiveRate );
+        }
+        this.bits = bits;
+        this.minimumExpectedUris = minimumExpectedUris;
+        this.targetFalsePositiveRate = targetFalsePositiveRate;
+        this.fileOrNull = fileOrNull;
+    }
+
+    /**
+     * Loads the filter from {@code file} if it's there and was properly
+     * saved, otherwise builds a new filter from all the nodes in the graph.
+     * A loaded filter which has grown above the target false positive rate
+     * is rebuilt with a bigger size.
+     * @param file the file to load from and save to.
+     * @param graphDb the graph to rebuild from if needed.
+     * @param targetFalsePositiveRate the wanted false positive rate.
+     * @return the loaded or rebuilt filter.
+     */
+    public static UriBloomFilter loadOrRebuild( File file,
+        GraphDatabaseService graphDb, double targetFalsePositiveRate )
+    {
+        Bits bits = null;
+        if ( file.exists() )
+        {
+            try
+            {
+                bits = Bits.read( file );
+            }
+            catch ( IOException e )
+            {
+                // Broken, rebuild it below
+            }
+            if ( !file.delete() )
+            {
+                throw new RuntimeException( "Couldn't delete " + file );
+            }
+        }
+
+        UriBloomFilter filter = null;
+        if ( bits != null )
+        {
+            filter = new UriBloomFilter( bits, DEFAULT_EXPECTED_URIS,
+                targetFalsePositiveRate, file );
+            filter.resizeIfNeeded( graphDb );
+        }
+        else
+        {
+            filter = new UriBloomFilter( DEFAULT_EXPECTED_URIS,
+                targetFalsePositiveRate, file );
+            filter.rebuild( graphDb );
+        }
+        return filter;
+    }
+
+    /**
+     * @param uri the URI to check.
+     * @return {@code false} if {@code uri} definitely hasn't been added,
+     * {@code true} if it may have been added.
+     */
+    public boolean mightContain( String uri )
+    {
+        boolean result = bits.mightContain( uri );
+        if ( !result )
+        {
+            trueNegatives.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * @param uri the URI to add.
+     * @return the generation of the filter it was added to, to pass to
+     * {@link #addCommitted(String, int)}.
+     */
+    public int add( String uri )
+    {
+        swapLock.readLock().lock();
+        try
+        {
+            addToBits( uri );
+            return generation;
+        }
+        finally
+        {
+            swapLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Tells the filter that the transaction which added a URI has committed.
+     * A rebuild doesn't see nodes of transactions which aren't committed, so
+     * if the filter has been rebuilt since the URI was added, or is being
+     * rebuilt now, the URI is added again.
+     * @param uri the URI which was added.
+     * @param generationWhenAdded what {@link #add(String)} returned.
+     */
+    public void addCommitted( String uri, int generationWhenAdded )
+    {
+        swapLock.readLock().lock();
+        try
+        {
+            if ( generation != generationWhenAdded ||
+                bitsBeingRebuilt != null )
+            {
+                addToBits( uri );
+            }
+        }
+        finally
+        {
+            swapLock.readLock().unlock();
+        }
+    }
+    
+    private void addToBits( String uri )
+    {
+        bits.add( uri );
+        Bits rebuilding = bitsBeingRebuilt;
+        if ( rebuilding != null )
+        {
+            rebuilding.add( uri );
+        }
+    }
+
+    /**
+     * Tells the filter that {@link #mightContain(String)} returned
+     * {@code true} for a URI which wasn't there.
+     */
+    public void falsePositive()
+    {
+        falsePositives.incrementAndGet();
+    }
+
+    /**
+     * @return the false positive rate seen so far, i.e. the fraction of
+     * the lookups for missing URIs which weren't caught by the filter.
+     */
+    public double getObservedFalsePositiveRate()
+    {
+        long fp = falsePositives.get();
+        long total = fp + trueNegatives.get();
+        return total == 0 ? 0 : ( double ) fp / total;
+    }
+
+    /**
+     * @return the false positive rate to expect given the size of the
+     * filter and the number of URIs added to it.
+     */
+    public double getExpectedFalsePositiveRate()
+    {
+        return bits.expectedFalsePositiveRate();
+    }
+
+    public double getTargetFalsePositiveRate()
+    {
+        return this.targetFalsePositiveRate;
+    }
+
+    /**
+     * @return the number of URIs added to the filter (duplicates included).
+     */
+    public long getAddedCount()
+    {
+        return bits.count.get();
+    }
+
+    /**
+     * @return whether or not the observed or expected false positive rate is
+     * above the target rate.
+     */
+    public boolean needsResize()
+    {
+        // Don't trust the observed rate until there's been some lookups
+        boolean observedIsTooHigh =
+            falsePositives.get() + trueNegatives.get() > 10000 &&
+            getObservedFalsePositiveRate() > targetFalsePositiveRate;
+        return observedIsTooHigh ||
+            getExpectedFalsePositiveRate() > targetFalsePositiveRate;
+    }
+
+    /**
+     * Rebuilds the filter from the graph if {@link #needsResize()}.
+     * @param graphDb the graph to rebuild from.
+     * @return whether or not the filter was rebuilt.
+     */
+    public boolean resizeIfNeeded( GraphDatabaseService graphDb )
+    {
+        if ( !needsResize() )
+        {
+            return false;
+        }
+        rebuild( graphDb );
+        return true;
+    }
+    
+    /**
+     * Starts a rebuild in a thread of its own if {@link #needsResize()} and
+     * there isn't one running already. The filter can be used meanwhile.
+     * @param graphDb the graph to rebuild from.
+     * @return whether or not a rebuild was started.
+     */
+    public boolean resizeInBackgroundIfNeeded(
+        final GraphDatabaseService graphDb )
+    {
+        if ( !needsResize() || !resizing.compareAndSet( false, true ) )
+        {
+            return false;
+        }
+        Thread thread = new Thread( "URI bloom filter resizer" )
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    rebuild( graphDb );
+                }
+                finally
+                {
+                    resizing.set( false );
+                }
+            }
+        };
+        thread.setDaemon( true );
+        thread.start();
+        return true;
+    }
+    
+    /**
+     * @return whether or not a rebuild started by
+     * {@link #resizeInBackgroundIfNeeded(GraphDatabaseService)} is running.
+     */
+    public boolean isResizing()
+    {
+        return resizing.get();
+    }
+
+    /**
+     * Builds the filter from scratch from all the nodes in the graph which
+     * has a URI, sized for twice that number of URIs (but at least for the
+     * number of URIs the filter was created for). URIs added while the
+     * rebuild is running goes into both the old and the new filter, so the
+     * filter can be used during the rebuild. Nodes created by transactions
+     * which are still open when the rebuild starts aren't seen by it, they
+     * are added when their transactions commit, see
+     * {@link #addCommitted(String, int)}.
+     * @param graphDb the graph to rebuild from.
+     */
+    public synchronized void rebuild( GraphDatabaseService graphDb )
+    {
+        long uris = 0;
+        for ( Node node : graphDb.getAllNodes() )
+        {
+            if ( node.hasProperty( AbstractUriBasedExecutor.URI_PROPERTY_KEY ) )
+            {
+                uris++;
+            }
+        }
+
+        Bits newBits = new Bits( Math.max( uris * 2, minimumExpectedUris ),
+            targetFalsePositiveRate );
+        swapLock.writeLock().lock();
+        try
+        {
+            bitsBeingRebuilt = newBits;
+        }
+        finally
+        {
+            swapLock.writeLock().unlock();
+        }
+        
+        boolean success = false;
+        try
+        {
+            for ( Node node : graphDb.getAllNodes() )
+            {
+                Object uri = node.getProperty(
+                    AbstractUriBasedExecutor.URI_PROPERTY_KEY, null );
+                if ( uri != null )
+                {
+                    newBits.add( ( String ) uri );
+                }
+            }
+            success = true;
+        }
+        finally
+        {
+            swapLock.writeLock().lock();
+            try
+            {
+                if ( success )
+                {
+                    bits = newBits;
+                    generation++;
+                    falsePositives.set( 0 );
+                    trueNegatives.set( 0 );
+                }
+                bitsBeingRebuilt = null;
+            }
+            finally
+            {
+                swapLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the filter to its file, if it has one. URIs being added wait
+     * until it's written, and a rebuild which is running completes first.
+     */
+    public synchronized void save()
+    {
+        if ( fileOrNull == null )
+        {
+            return;
+        }
+        swapLock.writeLock().lock();
+        try
+        {
+            bits.write( fileOrNull );
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Couldn't save " + fileOrNull, e );
+        }
+        finally
+        {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    private static class Bits
+    {
+        private final long numBits;
+        private final int numHashes;
+        private final AtomicLongArray words;
+        private final AtomicLong count;
+
+        Bits( long expectedUris, double falsePositiveRate )
+        {
+            double ln2 = Math.log( 2 );
+            long bitCount = ( long ) Math.ceil( -Math.max( expectedUris, 1 ) *
+                Math.log( falsePositiveRate ) / ( ln2 * ln2 ) );
+            int words = ( int ) Math.min( Integer.MAX_VALUE,
+                Math.max( 1, ( bitCount + 63 ) / 64 ) );
+            this.numBits = words * 64L;
+            this.numHashes = Math.max( 1, ( int ) Math.round(
+                ( double ) numBits / Math.max( expectedUris, 1 ) * ln2 ) );
+            this.words = new AtomicLongArray( words );
+            this.count = new AtomicLong();
+        }
+
+        private Bits( long numBits, int numHashes, long count,
+            AtomicLongArray words )
+        {
+            this.numBits = numBits;
+            this.numHashes = numHashes;
+            this.count = new AtomicLong( count );
+            this.words = words;
+        }
+
+        private static long hash1( String uri )
+        {
+            long h = uri.hashCode();
+            h ^= ( h >>> 33 );
+            h *= 0xff51afd7ed558ccdL;
+            h ^= ( h >>> 33 );
+            return h;
+        }
+
+        private static long hash2( String uri )
+        {
+            // FNV-1a, independent enough of String.hashCode()
+            long h = 0xcbf29ce484222325L;
+            for ( int i = 0; i < uri.length(); i++ )
+            {
+                h ^= uri.charAt( i );
+                h *= 0x100000001b3L;
+            }
+            return h | 1;
+        }
+
+        private long bitIndex( long h1, long h2, int i )
+        {
+            long combined = h1 + i * h2;
+            return ( combined & Long.MAX_VALUE ) % numBits;
+        }
+
+        boolean mightContain( String uri )
+        {
+            long h1 = hash1( uri );
+            long h2 = hash2( uri );
+            for ( int i = 0; i < numHashes; i++ )
+            {
+                long bit = bitIndex( h1, h2, i );
+                if ( ( words.get( ( int ) ( bit >>> 6 ) ) &
+                    ( 1L << bit ) ) == 0 )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add( String uri )
+        {
+            long h1 = hash1( uri );
+            long h2 = hash2( uri );
+            for ( int i = 0; i < numHashes; i++ )
+            {
+                long bit = bitIndex( h1, h2, i );
+                int word = ( int ) ( bit >>> 6 );
+                long mask = 1L << bit;
+                while ( true )
+                {
+                    long current = words.get( word );
+                    if ( ( current & mask ) != 0 ||
+                        words.compareAndSet( word, current, current | mask ) )
+                    {
+                        break;
+                    }
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        double expectedFalsePositiveRate()
+        {
+            return Math.pow( 1 - Math.exp( -( double ) numHashes *
+                count.get() / numBits ), numHashes );
+        }
+
+        void write( File file ) throws IOException
+        {
+            File tempFile = new File( file.getPath() + ".tmp" );
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( new FileOutputStream( tempFile ),
+                    64 * 1024 ) );
+            try
+            {
+                out.writeInt( MAGIC );
+                out.writeLong( numBits );
+                out.writeInt( numHashes );
+                out.writeLong( count.get() );
+                for ( int i = 0; i < words.length(); i++ )
+                {
+                    out.writeLong( words.get( i ) );
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+            file.delete();
+            if ( !tempFile.renameTo( file ) )
+            {
+                throw new IOException( "Couldn't rename " + tempFile +
+                    " to " + file );
+            }
+        }
+
+        static Bits read( File file ) throws IOException
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream(
+                new FileInputStream( file ), 64 * 1024 ) );
+            try
+            {
+                if ( in.readInt() != MAGIC )
+                {
+                    throw new IOException( file + " isn't a bloom filter" );
+                }
+                long numBits = in.readLong();
+                int numHashes = in.readInt();
+                long count = in.readLong();
+                AtomicLongArray words =
+                    new AtomicLongArray( ( int ) ( numBits / 64 ) );
+                for ( int i = 0; i < words.length(); i++ )
+                {
+                    words.set( i, in.readLong() );
+                }
+                return new Bits( numBits, numHashes, count, words );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+}
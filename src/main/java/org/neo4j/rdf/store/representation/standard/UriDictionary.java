@@ -0,0 +1,57 @@
+package org.neo4j.rdf.store.representation.standard;
+
+/**
+ * A cache of URI to node id mappings which an {@link AbstractUriBasedExecutor}
+ * consults before going to its index. Implementations are expected to be
+ * bounded in size and safe for use by multiple threads. The executor verifies
+ * each id it gets from the dictionary so a stale entry is only a performance
+ * problem, never a correctness problem.
+ */
+public interface UriDictionary
+{
+    /**
+     * Returned from {@link #get(String)} if the URI isn't in the dictionary.
+     */
+    public static final long NOT_FOUND = -1;
+
+    /**
+     * @param uri the URI to look up.
+     * @return the node id for {@code uri} or {@link #NOT_FOUND}.
+     */
+    long get( String uri );
+
+    /**
+     * Adds or updates a mapping, possibly evicting other mappings.
+     * @param uri the URI.
+     * @param nodeId the id of the node with that URI.
+     */
+    void put( String uri, long nodeId );
+
+    /**
+     * Removes the mapping for {@code uri}, if any.
+     * @param uri the URI to remove.
+     */
+    void remove( String uri );
+
+    /**
+     * Removes all mappings.
+     */
+    void clear();
+
+    /**
+     * @return the number of mappings currently held.
+     */
+    int size();
+
+    /**
+     * @return the number of calls to {@link #get(String)} which found
+     * a mapping.
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of calls to {@link #get(String)} which didn't find
+     * a mapping.
+     */
+    long getMissCount();
+}
@@ -2,21 +2,38 @@ package org.neo4j.rdf.store.representation.standard;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.meta.model.MetaModel;
+import org.neo4j.rdf.fulltext.ContextReader;
 import org.neo4j.rdf.fulltext.FulltextIndex;
+import org.neo4j.rdf.fulltext.SimpleFulltextIndex;
 import org.neo4j.rdf.model.Uri;
 import org.neo4j.rdf.store.representation.AbstractNode;
 import org.neo4j.rdf.store.representation.AbstractRelationship;
 import org.neo4j.rdf.store.representation.AbstractRepresentation;
+import org.neo4j.index.IndexHits;
 import org.neo4j.index.IndexService;
 
 public class VerboseQuadExecutor extends UriBasedExecutor
@@ -29,6 +46,37 @@ public class VerboseQuadExecutor extends UriBasedExecutor
 //    public static final String SUBJECT_ENERGY = "subject_energy";
 //    public static final String OBJECT_ENERGY = "object_energy";
     public static final String IS_CONTEXT_KEY = "is_context";
+    /**
+     * The index key under which each middle node is indexed with its
+     * predicate.
+     */
+    public static final String MIDDLE_NODE_PREDICATE_KEY = "middle_predicate";
+    /**
+     * Set on the contexts reference node when every middle node in the
+     * store is indexed with {@link #MIDDLE_NODE_PREDICATE_KEY}. Stores
+     * created before that index existed won't have it until
+     * {@link org.neo4j.rdf.store.VerboseQuadStore#rebuildPredicateIndex()}
+     * has been run.
+     */
+    public static final String HAS_PREDICATE_INDEX_KEY = "has_predicate_index";
+    /**
+     * The index key under which the middle nodes of hub subjects are
+     * indexed with their subject, predicate and object, see
+     * {@link #setHubThreshold(int)}.
+     */
+    public static final String MIDDLE_NODE_OBJECT_KEY = "middle_object";
+    /**
+     * Set on subject nodes whose middle nodes are indexed with
+     * {@link #MIDDLE_NODE_OBJECT_KEY}.
+     */
+    public static final String HUB_SUBJECT_KEY = START_OF_ILLEGAL_URI + "hub";
+    /**
+     * Set on subject nodes which are becoming hubs, i.e. whose existing
+     * middle nodes are being indexed with {@link #MIDDLE_NODE_OBJECT_KEY}
+     * in the background. Their new middle nodes are indexed right away.
+     */
+    public static final String HUB_PENDING_KEY =
+        START_OF_ILLEGAL_URI + "hub_pending";
     
     private static final Collection<String> EXCLUDED_LITERAL_KEYS =
     	new HashSet<String>();
@@ -44,10 +92,31 @@ public class VerboseQuadExecutor extends UriBasedExecutor
         IS_A_CONTEXT,
     }
     
+    private static final int HUB_BATCH_SIZE = 1000;
+    
+    private volatile Boolean predicateIndexComplete;
+    private int hubThreshold;
+    private final Set<Long> hubsBeingMade =
+        Collections.synchronizedSet( new HashSet<Long>() );
+    private ExecutorService hubMaker;
+    
     public VerboseQuadExecutor( GraphDatabaseService graphDb, IndexService index,
         MetaModel model, FulltextIndex fulltextIndex )
     {
         super( graphDb, index, model, fulltextIndex );
+        if ( fulltextIndex instanceof SimpleFulltextIndex &&
+            ( ( SimpleFulltextIndex ) fulltextIndex ).getContextReader() ==
+                null )
+        {
+            ( ( SimpleFulltextIndex ) fulltextIndex ).setContextReader(
+                new ContextReader()
+            {
+                public Collection<String> readContexts( Node literalNode )
+                {
+                    return getContextUris( literalNode );
+                }
+            } );
+        }
     }
     
     public Node getContextsReferenceNode()
@@ -56,9 +125,517 @@ public class VerboseQuadExecutor extends UriBasedExecutor
             RelTypes.REF_CONTEXTS );
     }
 
+    /**
+     * @return whether or not all middle nodes are indexed with their
+     * predicate, so that {@link #findMiddleNodes(String)} can be used.
+     */
+    public boolean hasCompletePredicateIndex()
+    {
+        if ( Boolean.TRUE.equals( predicateIndexComplete ) )
+        {
+            return true;
+        }
+        return ( Boolean ) getContextsReferenceNode().getProperty(
+            HAS_PREDICATE_INDEX_KEY, false );
+    }
+    
+    /**
+     * Marks the predicate index as complete, i.e. all middle nodes in the
+     * store are indexed.
+     */
+    public void setPredicateIndexComplete()
+    {
+        Transaction tx = graphDB().beginTx();
+        try
+        {
+            getContextsReferenceNode().setProperty(
+                HAS_PREDICATE_INDEX_KEY, true );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        predicateIndexComplete = true;
+    }
+    
+    private void checkPredicateIndexOnFirstAdd()
+    {
+        if ( predicateIndexComplete != null )
+        {
+            return;
+        }
+        
+        // If the store is empty every middle node from now on will be
+        // indexed, so the index is complete.
+        Node contextsRefNode = getContextsReferenceNode();
+        if ( !contextsRefNode.hasProperty( HAS_PREDICATE_INDEX_KEY ) &&
+            !contextsRefNode.hasRelationship( RelTypes.IS_A_CONTEXT,
+                Direction.OUTGOING ) )
+        {
+            forgetPredicateIndexOnRollback();
+            contextsRefNode.setProperty( HAS_PREDICATE_INDEX_KEY, true );
+        }
+        predicateIndexComplete = ( Boolean ) contextsRefNode.getProperty(
+            HAS_PREDICATE_INDEX_KEY, false );
+    }
+    
+    /**
+     * The property marking the index as complete is set in the transaction
+     * of the first add, so if that transaction is rolled back the cached
+     * value must be checked again.
+     */
+    private void forgetPredicateIndexOnRollback()
+    {
+        try
+        {
+            javax.transaction.Transaction tx =
+                graphDbUtil().getTransactionManager().getTransaction();
+            if ( tx == null )
+            {
+                return;
+            }
+            tx.registerSynchronization( new Synchronization()
+            {
+                public void beforeCompletion()
+                {
+                }
+
+                public void afterCompletion( int status )
+                {
+                    if ( status != Status.STATUS_COMMITTED )
+                    {
+                        predicateIndexComplete = null;
+                    }
+                }
+            } );
+        }
+        catch ( RollbackException e )
+        {
+            throw new RuntimeException( e );
+        }
+        catch ( SystemException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+    
+    /**
+     * @param predicate the predicate URI.
+     * @return the middle nodes of all statements with {@code predicate},
+     * only complete if {@link #hasCompletePredicateIndex()}.
+     */
+    public IndexHits<Node> findMiddleNodes( String predicate )
+    {
+        return index().getNodes( MIDDLE_NODE_PREDICATE_KEY, predicate );
+    }
+    
+    /**
+     * Indexes a middle node with its predicate, removing any existing entry
+     * first so that it can be called more than once for the same node.
+     * @param middleNode the middle node.
+     * @param predicate the predicate of the statement.
+     */
+    public void reindexMiddleNode( Node middleNode, String predicate )
+    {
+        index().removeIndex( middleNode, MIDDLE_NODE_PREDICATE_KEY, predicate );
+        index().index( middleNode, MIDDLE_NODE_PREDICATE_KEY, predicate );
+    }
+    
+    /**
+     * Subjects with many values for a predicate makes finding out whether
+     * a statement exists slow, since all middle nodes of the subject with
+     * that predicate are looked at. When a subject is found to have more
+     * than {@code hubThreshold} of them it becomes a hub and its middle
+     * nodes are indexed by object so that they can be looked up directly.
+     * The existing middle nodes are indexed by a background thread in
+     * transactions of their own, so that a big subject doesn't make one
+     * huge transaction, and the subject is a hub when they all are, see
+     * {@link #isMakingHubs()}. Subjects which already are hubs stay hubs
+     * regardless of this setting.
+     * @param hubThreshold the number of middle nodes for a predicate a
+     * subject may have before it becomes a hub, or 0 to never make any
+     * new hubs.
+     */
+    public void setHubThreshold( int hubThreshold )
+    {
+        this.hubThreshold = hubThreshold;
+    }
+    
+    public int getHubThreshold()
+    {
+        return this.hubThreshold;
+    }
+    
+    /**
+     * @return whether or not any subjects are being made hubs in the
+     * background right now.
+     */
+    public boolean isMakingHubs()
+    {
+        return !hubsBeingMade.isEmpty();
+    }
+    
+    private boolean isHub( Node subjectNode )
+    {
+        return subjectNode.hasProperty( HUB_SUBJECT_KEY );
+    }
+    
+    /**
+     * @return whether or not changed middle nodes of the subject should be
+     * indexed by object, i.e. if it's a hub or becoming one.
+     */
+    private boolean indexesHubMiddleNodes( Node subjectNode )
+    {
+        return isHub( subjectNode ) ||
+            subjectNode.hasProperty( HUB_PENDING_KEY );
+    }
+    
+    /**
+     * Makes a subject a hub when the current transaction commits, since
+     * the background thread can't see the subject or its middle nodes
+     * before that.
+     */
+    private void scheduleMakeHubOnCommit( final long subjectId )
+    {
+        try
+        {
+            javax.transaction.Transaction tx =
+                graphDbUtil().getTransactionManager().getTransaction();
+            if ( tx == null )
+            {
+                scheduleMakeHub( subjectId );
+                return;
+            }
+            tx.registerSynchronization( new Synchronization()
+            {
+                public void beforeCompletion()
+                {
+                }
+
+                public void afterCompletion( int status )
+                {
+                    if ( status == Status.STATUS_COMMITTED )
+                    {
+                        scheduleMakeHub( subjectId );
+                    }
+                }
+            } );
+        }
+        catch ( RollbackException e )
+        {
+            // It's rolling back, the subject may not even exist then
+        }
+        catch ( SystemException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+    
+    /**
+     * Has the background thread make a subject a hub, unless it's already
+     * doing that.
+     */
+    private void scheduleMakeHub( final long subjectId )
+    {
+        if ( !hubsBeingMade.add( subjectId ) )
+        {
+            return;
+        }
+        synchronized ( hubsBeingMade )
+        {
+            if ( hubMaker == null )
+            {
+                hubMaker = Executors.newSingleThreadExecutor(
+                    new ThreadFactory()
+                    {
+                        public Thread newThread( Runnable runnable )
+                        {
+                            Thread thread = new Thread( runnable,
+                                "Hub subject indexer" );
+                            thread.setDaemon( true );
+                            return thread;
+                        }
+                    } );
+            }
+            hubMaker.execute( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        makeHub( subjectId );
+                    }
+                    catch ( RuntimeException e )
+                    {
+                        // It's scheduled again the next time it's needed
+                        e.printStackTrace();
+                    }
+                    finally
+                    {
+                        hubsBeingMade.remove( subjectId );
+                    }
+                }
+            } );
+        }
+    }
+    
+    /**
+     * Waits for the subjects which are being made hubs in the background
+     * and stops the thread doing it. Must be called before the graph
+     * database is shut down.
+     */
+    public void shutDown()
+    {
+        ExecutorService hubMaker;
+        synchronized ( hubsBeingMade )
+        {
+            hubMaker = this.hubMaker;
+            this.hubMaker = null;
+        }
+        if ( hubMaker == null )
+        {
+            return;
+        }
+        hubMaker.shutdown();
+        try
+        {
+            hubMaker.awaitTermination( Long.MAX_VALUE, TimeUnit.SECONDS );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Marks a subject as becoming a hub, so that new middle nodes are
+     * indexed by whoever creates them, and then indexes the existing ones
+     * in batches. The subject is write locked while its middle nodes are
+     * collected, so none can be added without being indexed.
+     */
+    private void makeHub( long subjectId )
+    {
+        List<Long> subjectToMiddleIds = new ArrayList<Long>();
+        Transaction tx = graphDB().beginTx();
+        try
+        {
+            Node subjectNode = graphDB().getNodeById( subjectId );
+            if ( isHub( subjectNode ) )
+            {
+                return;
+            }
+            subjectNode.setProperty( HUB_PENDING_KEY, true );
+            for ( Relationship subjectToMiddle :
+                subjectNode.getRelationships( Direction.OUTGOING ) )
+            {
+                if ( leadsToMiddleNode( subjectToMiddle ) )
+                {
+                    subjectToMiddleIds.add( subjectToMiddle.getId() );
+                }
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        
+        for ( int start = 0; start < subjectToMiddleIds.size();
+            start += HUB_BATCH_SIZE )
+        {
+            tx = graphDB().beginTx();
+            try
+            {
+                for ( long id : subjectToMiddleIds.subList( start, Math.min(
+                    start + HUB_BATCH_SIZE, subjectToMiddleIds.size() ) ) )
+                {
+                    indexHubMiddleNode( id );
+                }
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+        }
+        
+        tx = graphDB().beginTx();
+        try
+        {
+            Node subjectNode = graphDB().getNodeById( subjectId );
+            subjectNode.setProperty( HUB_SUBJECT_KEY, true );
+            subjectNode.removeProperty( HUB_PENDING_KEY );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+    
+    /**
+     * @return whether or not the relationship is a predicate relationship
+     * from a subject to one of its middle nodes.
+     */
+    private boolean leadsToMiddleNode( Relationship relationship )
+    {
+        Node endNode = relationship.getEndNode();
+        return !endNode.hasProperty( URI_PROPERTY_KEY ) &&
+            endNode.hasRelationship( VerboseQuadStrategy.RelTypes.IN_CONTEXT,
+            Direction.OUTGOING ) &&
+            endNode.hasRelationship( relationship.getType(),
+            Direction.OUTGOING );
+    }
+    
+    /**
+     * Write locks a node until the current transaction has finished, like
+     * the kernel does with the nodes it changes.
+     */
+    private void writeLockUntilFinished( final Node node )
+    {
+        getLockManager().getWriteLock( node );
+        try
+        {
+            graphDbUtil().getTransactionManager().getTransaction()
+                .registerSynchronization( new Synchronization()
+            {
+                public void beforeCompletion()
+                {
+                }
+
+                public void afterCompletion( int status )
+                {
+                    getLockManager().releaseWriteLock( node );
+                }
+            } );
+        }
+        catch ( RollbackException e )
+        {
+            getLockManager().releaseWriteLock( node );
+            throw new RuntimeException( e );
+        }
+        catch ( SystemException e )
+        {
+            getLockManager().releaseWriteLock( node );
+            throw new RuntimeException( e );
+        }
+    }
+    
+    private void indexHubMiddleNode( long subjectToMiddleId )
+    {
+        Relationship subjectToMiddle = null;
+        try
+        {
+            subjectToMiddle = graphDB().getRelationshipById(
+                subjectToMiddleId );
+            // It's checked again in case the statement was removed while
+            // waiting for the lock.
+            writeLockUntilFinished( subjectToMiddle.getEndNode() );
+            subjectToMiddle = graphDB().getRelationshipById(
+                subjectToMiddleId );
+        }
+        catch ( NotFoundException e )
+        {
+            return;
+        }
+        
+        Node subjectNode = subjectToMiddle.getStartNode();
+        Node middleNode = subjectToMiddle.getEndNode();
+        String predicate = subjectToMiddle.getType().name();
+        for ( Relationship middleToObject : middleNode.getRelationships(
+            subjectToMiddle.getType(), Direction.OUTGOING ) )
+        {
+            // It may have been indexed when it was added
+            String key = hubKey( subjectNode, predicate,
+                objectKey( predicate, middleToObject.getEndNode() ) );
+            index().removeIndex( middleNode, MIDDLE_NODE_OBJECT_KEY, key );
+            index().index( middleNode, MIDDLE_NODE_OBJECT_KEY, key );
+        }
+    }
+    
+    private String hubKey( Node subjectNode, String predicate,
+        String objectKey )
+    {
+        return subjectNode.getId() + " " + predicate + " " + objectKey;
+    }
+    
+    /**
+     * @return the node id of a resource object or the hash code of a
+     * literal value, collisions are sorted out by comparing the candidates.
+     */
+    private String objectKey( String predicate, Node objectNode )
+    {
+        if ( objectNode.hasProperty( URI_PROPERTY_KEY ) )
+        {
+            return "n" + objectNode.getId();
+        }
+        return "l" + objectNode.getProperty(
+            getLiteralNodePropertyKey( predicate ) ).hashCode();
+    }
+    
+    private String objectKey( String predicate,
+        AbstractNode abstractObjectNode, Node objectNodeIfResource )
+    {
+        if ( abstractObjectNode.getUriOrNull() != null )
+        {
+            return "n" + objectNodeIfResource.getId();
+        }
+        return "l" + abstractObjectNode.properties().get(
+            getLiteralNodePropertyKey( predicate ) ).iterator().next()
+            .hashCode();
+    }
+    
+    private void indexHubMiddleNode( Node subjectNode, Node middleNode,
+        String predicate, Node objectNode )
+    {
+        index().index( middleNode, MIDDLE_NODE_OBJECT_KEY, hubKey(
+            subjectNode, predicate, objectKey( predicate, objectNode ) ) );
+    }
+    
+    private void maybeIndexHubMiddleNode( Node subjectNode, Node middleNode,
+        AbstractRelationship subjectToMiddle, Node objectNode )
+    {
+        if ( indexesHubMiddleNodes( subjectNode ) )
+        {
+            indexHubMiddleNode( subjectNode, middleNode,
+                subjectToMiddle.getRelationshipTypeName(), objectNode );
+        }
+    }
+    
+    @Override
+    protected boolean nodeIsEmpty( AbstractNode abstractNode, Node node,
+        boolean checkRelationships )
+    {
+        // A subject without statements isn't a hub anymore
+        if ( checkRelationships && !node.hasRelationship() )
+        {
+            if ( node.hasProperty( HUB_SUBJECT_KEY ) )
+            {
+                node.removeProperty( HUB_SUBJECT_KEY );
+            }
+            if ( node.hasProperty( HUB_PENDING_KEY ) )
+            {
+                node.removeProperty( HUB_PENDING_KEY );
+            }
+        }
+        return super.nodeIsEmpty( abstractNode, node, checkRelationships );
+    }
+    
+    private Node createMiddleNode( AbstractNode abstractMiddleNode,
+        Node subjectNode, AbstractRelationship subjectToMiddle )
+    {
+        Node middleNode = createNode( abstractMiddleNode, null );
+        createRelationship( subjectNode, subjectToMiddle, middleNode );
+        index().index( middleNode, MIDDLE_NODE_PREDICATE_KEY,
+            subjectToMiddle.getRelationshipTypeName() );
+        return middleNode;
+    }
+
     @Override
     public void addToNodeSpace( AbstractRepresentation representation )
     {
+        checkPredicateIndexOnFirstAdd();
         Map<String, AbstractNode> typeToNode =
             getTypeToNodeMap( representation );
         if ( isLiteralRepresentation( typeToNode ) )
@@ -107,14 +684,60 @@ public class VerboseQuadExecutor extends UriBasedExecutor
         if ( literalNode == null )
         {
             justAddContext = true;
-            middleNode = createNode( abstractMiddleNode, null );
-            createRelationship( subjectNode.getNode(),
-                subjectToMiddle, middleNode );
+            middleNode = createMiddleNode( abstractMiddleNode,
+                subjectNode.getNode(), subjectToMiddle );
             incrementSubjectEnergy( subjectNode.getNode() );
             literalNode = createLiteralNode( abstractLiteralNode );
             createRelationship( middleNode, middleToLiteral, literalNode );
+            maybeIndexHubMiddleNode( subjectNode.getNode(), middleNode,
+                subjectToMiddle, literalNode );
         }
-        ensureContextsAreAdded( representation, middleNode, justAddContext );
+        boolean contextAdded = ensureContextsAreAdded( representation,
+            middleNode, justAddContext );
+        if ( !justAddContext && contextAdded )
+        {
+            reindexLiteralContexts( literalNode, middleToLiteral );
+        }
+    }
+    
+    /**
+     * @param literalNode the literal node of a statement.
+     * @return the uris of the contexts the statement is in.
+     */
+    public Collection<String> getContextUris( Node literalNode )
+    {
+        Collection<String> uris = new ArrayList<String>();
+        for ( Relationship middleToLiteral :
+            literalNode.getRelationships( Direction.INCOMING ) )
+        {
+            for ( Relationship contextRelationship :
+                middleToLiteral.getStartNode().getRelationships(
+                    VerboseQuadStrategy.RelTypes.IN_CONTEXT,
+                    Direction.OUTGOING ) )
+            {
+                uris.add( ( String ) contextRelationship.getEndNode()
+                    .getProperty( URI_PROPERTY_KEY ) );
+            }
+        }
+        return uris;
+    }
+    
+    /**
+     * Indexes a literal again in the fulltext index, so that its document
+     * gets the contexts the statement is in now.
+     */
+    private void reindexLiteralContexts( Node literalNode,
+        AbstractRelationship middleToLiteral )
+    {
+        if ( getFulltextIndex() == null )
+        {
+            return;
+        }
+        Uri predicate = new Uri( middleToLiteral.getRelationshipTypeName() );
+        Object value = literalNode.getProperty(
+            getLiteralNodePropertyKey( predicate.getUriAsString() ) );
+        getFulltextIndex().removeIndex( literalNode, predicate, value );
+        getFulltextIndex().index( literalNode, predicate, value );
     }
     
     private Map<String, AbstractNode> getTypeToNodeMap(
@@ -159,7 +782,11 @@ public class VerboseQuadExecutor extends UriBasedExecutor
         deleteNode( node, null );
     }
 
-    private Relationship findContextRelationship(
+    /**
+     * @return whether or not a relationship from the middle node to the
+     * context was created.
+     */
+    private boolean findContextRelationship(
         AbstractRelationship abstractRelationship, Node middleNode,
         boolean allowCreate, boolean justAddContext )
     {
@@ -167,7 +794,7 @@ public class VerboseQuadExecutor extends UriBasedExecutor
         Node contextNode = lookupNode( abstractContextNode );
         if ( contextNode == null && !allowCreate )
         {
-            return null;
+            return false;
         }
         
         boolean willCreateContextNode = contextNode == null;
@@ -179,8 +806,8 @@ public class VerboseQuadExecutor extends UriBasedExecutor
             Node contextRefNode = getContextsReferenceNode();
             contextRefNode.createRelationshipTo( contextNode,
                 RelTypes.IS_A_CONTEXT );
-            relationship = createRelationship( middleNode,
-                abstractRelationship, contextNode );
+            createRelationship( middleNode, abstractRelationship,
+                contextNode );
             incrementContextCounter( contextNode );
             contextNode.setProperty( IS_CONTEXT_KEY, true );
         }
@@ -216,7 +843,7 @@ public class VerboseQuadExecutor extends UriBasedExecutor
                 }
             }
         }
-        return relationship;
+        return relationship == null;
     }
     
     private void incrementSubjectEnergy( Node node )
@@ -239,6 +866,15 @@ public class VerboseQuadExecutor extends UriBasedExecutor
 //    	graphDbUtil().decrementAndGetCounter( node, OBJECT_ENERGY, 0 );
     }
     
+    /**
+     * @param contextNode the context node.
+     * @return the number of statements in the context.
+     */
+    public int getStatementCount( Node contextNode )
+    {
+        return ( Integer ) contextNode.getProperty( STATEMENT_COUNT, 0 );
+    }
+    
     private void incrementContextCounter( Node node )
     {
     	graphDbUtil().incrementAndGetCounter( node, STATEMENT_COUNT );
@@ -279,12 +915,13 @@ public class VerboseQuadExecutor extends UriBasedExecutor
         if ( middleNode == null )
         {
             justAddContext = true;
-            middleNode = createNode( abstractMiddleNode, null );
-            createRelationship( subjectNode.getNode(), subjectToMiddle,
-                middleNode );
+            middleNode = createMiddleNode( abstractMiddleNode,
+                subjectNode.getNode(), subjectToMiddle );
             incrementSubjectEnergy( subjectNode.getNode() );
             createRelationship( middleNode, middleToObject,
                 objectNode.getNode() );
+            maybeIndexHubMiddleNode( subjectNode.getNode(), middleNode,
+                subjectToMiddle, objectNode.getNode() );
             incrementObjectEnergy( objectNode.getNode() );
         }
         ensureContextsAreAdded( representation, middleNode, justAddContext );
@@ -300,12 +937,53 @@ public class VerboseQuadExecutor extends UriBasedExecutor
         {
             objectNodeToLookFor = objectNodeIfResource;
         }
-
+        
+        if ( isHub( subjectNode ) )
+        {
+            String predicate = subjectToMiddle.getRelationshipTypeName();
+            IndexHits<Node> middleNodes = index().getNodes(
+                MIDDLE_NODE_OBJECT_KEY, hubKey( subjectNode, predicate,
+                objectKey( predicate, abstractObjectNode,
+                objectNodeIfResource ) ) );
+            try
+            {
+                return findMiddleAndObjectNode( middleNodes, middleToObject,
+                    abstractObjectNode, objectNodeToLookFor );
+            }
+            finally
+            {
+                middleNodes.close();
+            }
+        }
+        
+        int middleNodesVisited = 0;
+        Node[] result = new Node[] { null, null };
         for ( Relationship relationship : subjectNode.getRelationships(
             relationshipType( subjectToMiddle.getRelationshipTypeName() ),
             Direction.OUTGOING ) )
         {
-            Node aMiddleNode = relationship.getEndNode();
+            middleNodesVisited++;
+            result = findMiddleAndObjectNode( Collections.singletonList(
+                relationship.getEndNode() ), middleToObject,
+                abstractObjectNode, objectNodeToLookFor );
+            if ( result[ 0 ] != null )
+            {
+                break;
+            }
+        }
+        if ( hubThreshold > 0 && middleNodesVisited > hubThreshold )
+        {
+            scheduleMakeHubOnCommit( subjectNode.getId() );
+        }
+        return result;
+    }
+    
+    private Node[] findMiddleAndObjectNode( Iterable<Node> middleNodes,
+        AbstractRelationship middleToObject, AbstractNode abstractObjectNode,
+        Node objectNodeToLookFor )
+    {
+        for ( Node aMiddleNode : middleNodes )
+        {
             for ( Relationship rel : aMiddleNode.getRelationships(
                 relationshipType( middleToObject.getRelationshipTypeName() ),
                 Direction.OUTGOING ) )
@@ -324,16 +1002,24 @@ public class VerboseQuadExecutor extends UriBasedExecutor
         return new Node[] { null, null };
     }
 
-    private void ensureContextsAreAdded(
+    /**
+     * @return whether or not any context relationship was created.
+     */
+    private boolean ensureContextsAreAdded(
         AbstractRepresentation representation, Node middleNode, 
         boolean justAddContext )
     {
+        boolean added = false;
         for ( AbstractRelationship abstractRelationship :
             getContextRelationships( representation ) )
         {
-            findContextRelationship( abstractRelationship,
-                middleNode, true, justAddContext );
+            if ( findContextRelationship( abstractRelationship,
+                middleNode, true, justAddContext ) )
+            {
+                added = true;
+            }
         }
+        return added;
     }
 
     private Collection<AbstractRelationship> getContextRelationships(
@@ -474,22 +1160,26 @@ public class VerboseQuadExecutor extends UriBasedExecutor
             VerboseQuadStrategy.RelTypes.IN_CONTEXT );
     }
 
-    private void removeAllContextRelationships( Node middleNode )
+    private boolean removeAllContextRelationships( Node middleNode )
     {
+        boolean removed = false;
         for ( Relationship relationship :
             getExistingContextRelationships( middleNode ) )
         {
-            Node contextNode = middleNode.getSingleRelationship(
-                VerboseQuadStrategy.RelTypes.IN_CONTEXT,
-                Direction.OUTGOING ).getEndNode();
-            decrementContextCounter( contextNode );
+            // The relationship is deleted first so that the context node
+            // is locked when its count is changed
+            Node contextNode = relationship.getEndNode();
             deleteRelationship( relationship );
+            decrementContextCounter( contextNode );
+            removed = true;
         }
+        return removed;
     }
 
-    private void removeSelectedContextRelationships( Node middleNode,
+    private boolean removeSelectedContextRelationships( Node middleNode,
         Collection<AbstractRelationship> contextRelationships )
     {
+        boolean removed = false;
         for ( AbstractRelationship contextRelationship :
             contextRelationships )
         {
@@ -503,27 +1193,29 @@ public class VerboseQuadExecutor extends UriBasedExecutor
                     contextNode, Direction.OUTGOING );
                 if ( relationship != null )
                 {
-                    decrementContextCounter( contextNode );
                     deleteRelationship( relationship );
+                    decrementContextCounter( contextNode );
+                    removed = true;
                 }
             }
         }
+        return removed;
     }
 
-    private void removeContextRelationships(
+    /**
+     * @return whether or not any context relationship was removed.
+     */
+    private boolean removeContextRelationships(
         AbstractRepresentation representation, Node middleNode )
     {
         Collection<AbstractRelationship> contextRelationships =
             getContextRelationships( representation );
         if ( contextRelationships.isEmpty() )
         {
-            removeAllContextRelationships( middleNode );
-        }
-        else
-        {
-            removeSelectedContextRelationships( middleNode,
-                contextRelationships );
+            return removeAllContextRelationships( middleNode );
         }
+        return removeSelectedContextRelationships( middleNode,
+            contextRelationships );
     }
 
     private void handleRemoveLiteralRepresentation(
@@ -556,13 +1248,18 @@ public class VerboseQuadExecutor extends UriBasedExecutor
             return;
         }
 
-        removeContextRelationships( representation, middleNode );
+        boolean contextRemoved =
+            removeContextRelationships( representation, middleNode );
         if ( !middleNodeHasContexts( middleNode ) )
         {
             deleteMiddleAndLiteral( middleNode, middleToLiteral,
                 literalNode, subjectNode, subjectToMiddle );
             decrementSubjectEnergy( subjectNode );
         }
+        else if ( contextRemoved )
+        {
+            reindexLiteralContexts( literalNode, middleToLiteral );
+        }
         deleteNodeIfEmpty( abstractSubjectNode, subjectNode );
     }
 
@@ -600,9 +1297,17 @@ public class VerboseQuadExecutor extends UriBasedExecutor
         AbstractRelationship middleToOther, Node otherNode,
         Node subjectNode, AbstractRelationship subjectToMiddle )
     {
+        if ( indexesHubMiddleNodes( subjectNode ) )
+        {
+            String predicate = subjectToMiddle.getRelationshipTypeName();
+            index().removeIndex( middleNode, MIDDLE_NODE_OBJECT_KEY, hubKey(
+                subjectNode, predicate, objectKey( predicate, otherNode ) ) );
+        }
         ensureDirectlyDisconnected( middleNode, middleToOther, otherNode );
         ensureDirectlyDisconnected( subjectNode, subjectToMiddle, middleNode,
             Direction.INCOMING );
+        index().removeIndex( middleNode, MIDDLE_NODE_PREDICATE_KEY,
+            subjectToMiddle.getRelationshipTypeName() );
         deleteNode( middleNode, null );
     }
 }
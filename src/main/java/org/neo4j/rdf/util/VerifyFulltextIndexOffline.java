@@ -9,11 +9,19 @@ import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.rdf.fulltext.FulltextIndex;
 import org.neo4j.rdf.fulltext.SimpleFulltextIndex;
 import org.neo4j.rdf.store.CachingLuceneIndexService;
-import org.neo4j.rdf.store.RdfStore;
 import org.neo4j.rdf.store.VerboseQuadStore;
 import org.neo4j.index.IndexService;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
 
+/**
+ * Usage: VerifyFulltextIndexOffline &lt;graphdb path&gt; &lt;fulltext index
+ * path&gt; [&lt;number of threads&gt; [repair]]
+ * 
+ * If a number of threads is given the entire index is verified in
+ * parallel, see {@link VerboseQuadStore#verifyFulltextIndex(int, boolean,
+ * File)}, and a tab separated report is written. With "repair" the
+ * documents which doesn't match the graph are removed or reindexed.
+ */
 public class VerifyFulltextIndexOffline
 {
     public static void main( String[] args ) throws IOException
@@ -23,8 +31,8 @@ public class VerifyFulltextIndexOffline
             new CachingLuceneIndexService( graphDb );
         final FulltextIndex fulltextIndex = new SimpleFulltextIndex( graphDb,
             new File( args[ 1 ] ) );
-        final RdfStore store = new VerboseQuadStore( graphDb, indexService,
-            null, fulltextIndex );
+        final VerboseQuadStore store = new VerboseQuadStore( graphDb,
+            indexService, null, fulltextIndex );
         
         Runtime.getRuntime().addShutdownHook( new Thread()
         {
@@ -39,6 +47,23 @@ public class VerifyFulltextIndexOffline
             }
         } );
         
+        if ( args.length > 2 )
+        {
+            int numberOfThreads = Integer.parseInt( args[ 2 ] );
+            boolean repair = args.length > 3 && args[ 3 ].equals( "repair" );
+            File report = new File( "verify-fulltextindex-" +
+                System.currentTimeMillis() + ".tsv" );
+            System.out.println( "Running verification of the entire index " +
+                "with " + numberOfThreads + " threads, the report is " +
+                report.getName() );
+            boolean everythingIsOk = store.verifyFulltextIndex(
+                numberOfThreads, repair, report );
+            System.out.println( everythingIsOk ? "Index is OK" :
+                "Index has errors" + ( repair ? ", they are being repaired" :
+                "" ) );
+            System.exit( everythingIsOk ? 0 : 1 );
+        }
+        
         System.out.print( "Enter query or just ENTER for the entire index: " );
         String query = new BufferedReader(
             new InputStreamReader( System.in ) ).readLine();
@@ -56,6 +81,6 @@ public class VerifyFulltextIndexOffline
         System.out.println( "Verification done, " +
             "see file for detailed results" );
         
-        System.exit( 0 );
+        System.exit( everythingIsOk ? 0 : 1 );
     }
 }
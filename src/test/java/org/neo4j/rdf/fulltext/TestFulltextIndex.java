@@ -1,8 +1,11 @@
 package org.neo4j.rdf.fulltext;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.Iterator;
 
 import org.junit.Test;
 import org.neo4j.graphdb.Node;
@@ -86,4 +89,372 @@ public class TestFulltextIndex extends Neo4jTestCase
             tx.finish();
         }
     }
+    
+    @Test
+    public void testLongLivedWriter() throws Exception
+    {
+        File path = new File( "target/var/fulltext-writer" );
+        SimpleFulltextIndex index = new SimpleFulltextIndex( graphDb(), path );
+        index.clear();
+        index.setCommitBatchSize( 10 );
+        index.setCommitInterval( 60000 );
+        
+        Transaction tx = graphDb().beginTx();
+        Node node;
+        try
+        {
+            node = graphDb().createNode();
+            for ( int i = 0; i < 25; i++ )
+            {
+                index.index( node, new Uri( "uri" + i ), "Persson " + i );
+            }
+            tx.success();
+        }
+        finally
+        {
+            index.end( true );
+            tx.finish();
+        }
+        
+        while ( !index.queueIsEmpty() )
+        {
+            Thread.sleep( 100 );
+        }
+        tx = graphDb().beginTx();
+        try
+        {
+            assertEquals( 25, countIndexed( index, 25 ) );
+            
+            // Everything should be committed and not indexed again
+            index.shutDown();
+            index = new SimpleFulltextIndex( graphDb(), path );
+            while ( !index.queueIsEmpty() )
+            {
+                Thread.sleep( 100 );
+            }
+            assertEquals( 25, countIndexed( index, 25 ) );
+            
+            index.clear();
+            index.shutDown();
+            node.delete();
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+    
+    @Test
+    public void testIndexingPipeline() throws Exception
+    {
+        File path = new File( "target/var/fulltext-pipeline" );
+        SimpleFulltextIndex index = new SimpleFulltextIndex( graphDb(), path );
+        index.clear();
+        index.setIndexingWorkers( 4 );
+        index.setLiteralReader( new LiteralReader()
+        {
+            public String read( Object literal )
+            {
+                try
+                {
+                    // Let the documents be done in a different order
+                    Thread.sleep( literal.toString().length() % 3 * 10 );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                }
+                return literal.toString();
+            }
+        } );
+        
+        Transaction tx = graphDb().beginTx();
+        Node node;
+        try
+        {
+            node = graphDb().createNode();
+            for ( int i = 0; i < 30; i++ )
+            {
+                index.index( node, new Uri( "uri" + i ), "Persson " + i );
+            }
+            tx.success();
+        }
+        finally
+        {
+            index.end( true );
+            tx.finish();
+        }
+        
+        // Removes right after the adds, they must be applied after them
+        tx = graphDb().beginTx();
+        try
+        {
+            for ( int i = 0; i < 30; i += 2 )
+            {
+                index.removeIndex( node, new Uri( "uri" + i ), "Persson " + i );
+            }
+            tx.success();
+        }
+        finally
+        {
+            index.end( true );
+            tx.finish();
+        }
+        
+        while ( !index.queueIsEmpty() )
+        {
+            Thread.sleep( 100 );
+        }
+        tx = graphDb().beginTx();
+        try
+        {
+            assertEquals( 15, countIndexed( index, 30 ) );
+            index.clear();
+            index.shutDown();
+            node.delete();
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+    
+    @Test
+    public void testLazyAndParallelSnippets() throws Exception
+    {
+        File path = new File( "target/var/fulltext-snippets" );
+        SimpleFulltextIndex index = new SimpleFulltextIndex( graphDb(), path );
+        index.clear();
+        
+        Transaction tx = graphDb().beginTx();
+        Node[] nodes = new Node[ 10 ];
+        try
+        {
+            for ( int i = 0; i < nodes.length; i++ )
+            {
+                nodes[ i ] = graphDb().createNode();
+                index.index( nodes[ i ], new Uri( "uri" ), "Persson " + i );
+            }
+            tx.success();
+        }
+        finally
+        {
+            index.end( true );
+            tx.finish();
+        }
+        while ( !index.queueIsEmpty() )
+        {
+            Thread.sleep( 100 );
+        }
+        
+        tx = graphDb().beginTx();
+        try
+        {
+            SearchOptions options = new SearchOptions( 0, 10 );
+            options.setSnippetCountLimit( 5 );
+            assertSnippets( index.search( "persson", options ), 5 );
+            
+            index.setSnippetThreads( 2 );
+            assertSnippets( index.search( "persson", options ), 5 );
+            assertTrue( index.getDocumentLoadTime() >= 0 );
+            
+            index.clear();
+            index.shutDown();
+            for ( Node node : nodes )
+            {
+                node.delete();
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+    
+    @Test
+    public void testResultCache() throws Exception
+    {
+        File path = new File( "target/var/fulltext-cache" );
+        SimpleFulltextIndex index = new SimpleFulltextIndex( graphDb(), path );
+        index.clear();
+        index.setResultCacheSize( 10 );
+        SearchOptions options = new SearchOptions( 0, 10 );
+        options.setSnippetCountLimit( 5 );
+        Node[] nodes = new Node[ 11 ];
+        Transaction tx = graphDb().beginTx();
+        try
+        {
+            for ( int i = 0; i < nodes.length; i++ )
+            {
+                nodes[ i ] = graphDb().createNode();
+            }
+            for ( int i = 0; i < 10; i++ )
+            {
+                index.index( nodes[ i ], new Uri( "uri" ), "Persson " + i );
+            }
+            tx.success();
+        }
+        finally
+        {
+            index.end( true );
+            tx.finish();
+        }
+        while ( !index.queueIsEmpty() )
+        {
+            Thread.sleep( 100 );
+        }
+        
+        tx = graphDb().beginTx();
+        try
+        {
+            assertSnippets( index.search( "persson", options ), 5 );
+            // From the cache this time
+            ResultWindow<RawQueryResult> window =
+                index.search( "persson", options );
+            assertSnippets( window, 5 );
+            assertEquals( 10, window.getTotalHits() );
+            
+            // A commit makes the cached results stale
+            index.index( nodes[ 10 ], new Uri( "uri" ), "Persson 10" );
+            tx.success();
+        }
+        finally
+        {
+            index.end( true );
+            tx.finish();
+        }
+        while ( !index.queueIsEmpty() )
+        {
+            Thread.sleep( 100 );
+        }
+        
+        tx = graphDb().beginTx();
+        try
+        {
+            assertEquals( 11, index.search( "persson",
+                options ).getTotalHits() );
+            index.clear();
+            index.shutDown();
+            for ( Node node : nodes )
+            {
+                node.delete();
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+    
+    @Test
+    public void testMoreHitsThanFirstCollected() throws Exception
+    {
+        File path = new File( "target/var/fulltext-many" );
+        SimpleFulltextIndex index = new SimpleFulltextIndex( graphDb(), path );
+        index.clear();
+        index.setResultCacheSize( 0 );
+        Node[] nodes = new Node[ 250 ];
+        Transaction tx = graphDb().beginTx();
+        try
+        {
+            for ( int i = 0; i < nodes.length; i++ )
+            {
+                nodes[ i ] = graphDb().createNode();
+                index.index( nodes[ i ], new Uri( "uri" ), "Persson " + i );
+            }
+            tx.success();
+        }
+        finally
+        {
+            index.end( true );
+            tx.finish();
+        }
+        while ( !index.queueIsEmpty() )
+        {
+            Thread.sleep( 100 );
+        }
+        
+        tx = graphDb().beginTx();
+        try
+        {
+            int refCount = index.getSearcherRefCount();
+            int count = 0;
+            for ( RawQueryResult result : index.search( "persson" ) )
+            {
+                count++;
+            }
+            assertEquals( nodes.length, count );
+            
+            // Iterators which aren't iterated to the end doesn't keep
+            // the searcher
+            assertTrue( index.search( "persson" ).iterator().hasNext() );
+            Iterator<RawQueryResult> partly =
+                index.search( "persson" ).iterator();
+            for ( int i = 0; i < 150; i++ )
+            {
+                partly.next();
+            }
+            assertEquals( refCount, index.getSearcherRefCount() );
+            
+            ResultWindow<RawQueryResult> all =
+                index.search( "persson", new SearchOptions() );
+            assertEquals( nodes.length, all.size() );
+            assertEquals( nodes.length, all.getTotalHits() );
+            ResultWindow<RawQueryResult> tail =
+                index.search( "persson", new SearchOptions( 240, -1 ) );
+            assertEquals( 10, tail.size() );
+            assertEquals( 5, index.search( "persson",
+                new SearchOptions( 150, 5 ) ).size() );
+            
+            index.clear();
+            index.shutDown();
+            for ( Node node : nodes )
+            {
+                node.delete();
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+    
+    private void assertSnippets( ResultWindow<RawQueryResult> window,
+        int withSnippets )
+    {
+        assertEquals( 10, window.size() );
+        int count = 0;
+        for ( RawQueryResult result : window )
+        {
+            String snippet = result.getSnippet();
+            if ( count++ < withSnippets )
+            {
+                assertTrue( snippet.contains( "Persson" ) );
+            }
+            else
+            {
+                assertNull( snippet );
+            }
+        }
+    }
+    
+    private int countIndexed( FulltextIndex index, int max )
+    {
+        // Each node is only returned once per search, so search for
+        // each document separately
+        int count = 0;
+        for ( int i = 0; i < max; i++ )
+        {
+            for ( RawQueryResult result : index.search( "persson AND " + i ) )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
 }
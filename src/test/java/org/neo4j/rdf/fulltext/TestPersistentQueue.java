@@ -0,0 +1,175 @@
+package org.neo4j.rdf.fulltext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.rdf.fulltext.PersistentQueue.Entry;
+
+public class TestPersistentQueue
+{
+    private File file;
+
+    @Before
+    public void setUpFile()
+    {
+        file = new File( "target/var/test-queue" );
+        file.getParentFile().mkdirs();
+        PersistentQueue.delete( file );
+    }
+
+    private PersistentQueue newQueue()
+    {
+        return newQueue( false );
+    }
+
+    private PersistentQueue newQueue( boolean memoryMapped )
+    {
+        PersistentQueue queue = new PersistentQueue( file, memoryMapped );
+        queue.setAutoCompleteEntries( false );
+        queue.setMaxSegmentSize( 100 );
+        return queue;
+    }
+
+    @Test
+    public void testCompletedSegmentsAreDeleted() throws Exception
+    {
+        PersistentQueue queue = newQueue();
+        for ( int i = 0; i < 20; i++ )
+        {
+            queue.add( true, ( long ) i, "predicate" );
+        }
+        int segments = queue.getNumberOfSegments();
+        assertTrue( segments > 2 );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            assertTrue( queue.hasNext() );
+            Entry entry = queue.next();
+            assertEquals( ( long ) i, entry.data()[ 1 ] );
+            queue.markAsCompleted( entry );
+        }
+        assertFalse( queue.hasNext() );
+        assertEquals( 1, queue.getNumberOfSegments() );
+        assertTrue( queue.close() );
+        assertFalse( new File( file.getPath() + ".0" ).exists() );
+    }
+
+    @Test
+    public void testIncompletedEntriesSurviveRestart() throws Exception
+    {
+        PersistentQueue queue = newQueue();
+        for ( int i = 0; i < 20; i++ )
+        {
+            queue.add( ( long ) i );
+        }
+        for ( int i = 0; i < 10; i++ )
+        {
+            queue.markAsCompleted( queue.next() );
+        }
+        // Read, but not completed
+        queue.next();
+        assertFalse( queue.close() );
+
+        queue = newQueue();
+        assertFalse( queue.recoveryWasNeeded() );
+        for ( int i = 10; i < 20; i++ )
+        {
+            Entry entry = queue.next();
+            assertEquals( ( long ) i, entry.data()[ 0 ] );
+            queue.markAsCompleted( entry );
+        }
+        assertFalse( queue.hasNext() );
+        assertTrue( queue.close() );
+    }
+
+    @Test
+    public void testHalfWrittenTailIsTruncated() throws Exception
+    {
+        PersistentQueue queue = newQueue();
+        queue.add( 1L );
+        queue.add( 2L );
+        assertFalse( queue.close() );
+
+        // Simulate a crash in the middle of writing an entry
+        RandomAccessFile tail = new RandomAccessFile(
+            new File( file.getPath() + ".0" ), "rw" );
+        tail.seek( tail.length() );
+        tail.write( new byte[] { 0, 0, 0, 0, 100, 1 } );
+        tail.close();
+
+        queue = newQueue();
+        assertTrue( queue.recoveryWasNeeded() );
+        queue.markAsCompleted( queue.next() );
+        queue.markAsCompleted( queue.next() );
+        assertFalse( queue.hasNext() );
+        assertTrue( queue.close() );
+    }
+
+    @Test
+    public void testAddAll() throws Exception
+    {
+        PersistentQueue queue = newQueue();
+        List<Object[]> entries = new ArrayList<Object[]>();
+        for ( int i = 0; i < 20; i++ )
+        {
+            entries.add( new Object[] { true, ( long ) i, "predicate" } );
+        }
+        queue.addAll( entries );
+        assertTrue( queue.getNumberOfSegments() > 1 );
+        for ( int i = 0; i < 20; i++ )
+        {
+            Entry entry = queue.next();
+            assertEquals( ( long ) i, entry.data()[ 1 ] );
+            assertEquals( "predicate", entry.data()[ 2 ] );
+            queue.markAsCompleted( entry );
+        }
+        assertFalse( queue.hasNext() );
+        assertTrue( queue.close() );
+    }
+
+    @Test
+    public void testMemoryMapped() throws Exception
+    {
+        PersistentQueue queue = newQueue( true );
+        assertTrue( queue.isMemoryMapped() );
+        List<Object[]> entries = new ArrayList<Object[]>();
+        for ( int i = 0; i < 20; i++ )
+        {
+            entries.add( new Object[] { ( long ) i } );
+        }
+        queue.addAll( entries );
+        assertTrue( queue.getNumberOfSegments() > 2 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            Entry entry = queue.next();
+            assertEquals( ( long ) i, entry.data()[ 0 ] );
+            queue.markAsCompleted( entry );
+        }
+        // Read, but not completed
+        queue.next();
+        queue.add( 20L );
+        assertFalse( queue.close() );
+
+        // The head is where the rest of the entries are found, also when
+        // the queue is opened without memory mapping.
+        queue = newQueue();
+        assertFalse( queue.recoveryWasNeeded() );
+        for ( int i = 10; i <= 20; i++ )
+        {
+            Entry entry = queue.next();
+            assertEquals( ( long ) i, entry.data()[ 0 ] );
+            queue.markAsCompleted( entry );
+        }
+        assertFalse( queue.hasNext() );
+        assertTrue( queue.close() );
+        assertFalse( new File( file.getPath() + ".head" ).exists() );
+    }
+}
@@ -0,0 +1,66 @@
+package org.neo4j.rdf.fulltext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+public class TestSearcherManager
+{
+    private void addDocument( IndexWriter writer, String value )
+        throws Exception
+    {
+        Document doc = new Document();
+        doc.add( new Field( "key", value, Store.YES, Index.NOT_ANALYZED ) );
+        writer.addDocument( doc );
+        writer.commit();
+    }
+
+    @Test
+    public void testRefreshAndRelease() throws Exception
+    {
+        Directory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter( directory,
+            new WhitespaceAnalyzer(), true, MaxFieldLength.UNLIMITED );
+        addDocument( writer, "one" );
+        SearcherManager manager = new SearcherManager( directory );
+
+        IndexSearcher first = manager.acquire();
+        assertEquals( 1, first.maxDoc() );
+        manager.maybeRefresh();
+        IndexSearcher same = manager.acquire();
+        assertSame( first, same );
+        manager.release( same );
+
+        addDocument( writer, "two" );
+        assertEquals( 1, first.maxDoc() );
+        manager.maybeRefresh();
+        IndexSearcher second = manager.acquire();
+        assertNotSame( first, second );
+        assertEquals( 2, second.maxDoc() );
+
+        // The old reader is still in use by the first searcher
+        IndexReader firstReader = first.getIndexReader();
+        assertEquals( 1, firstReader.getRefCount() );
+        manager.release( first );
+        assertEquals( 0, firstReader.getRefCount() );
+
+        manager.release( second );
+        manager.close();
+        assertEquals( 0, second.getIndexReader().getRefCount() );
+        writer.close();
+        directory.close();
+    }
+}
@@ -0,0 +1,130 @@
+package org.neo4j.rdf.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Iterator;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.index.IndexService;
+import org.neo4j.index.lucene.LuceneIndexService;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.rdf.model.CompleteStatement;
+import org.neo4j.rdf.model.Context;
+import org.neo4j.rdf.model.Literal;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Wildcard;
+import org.neo4j.rdf.model.WildcardStatement;
+import org.neo4j.rdf.store.Neo4jTestCase;
+import org.neo4j.rdf.store.VerboseQuadStore;
+import org.neo4j.rdf.store.representation.standard.AbstractUriBasedExecutor;
+import org.neo4j.rdf.store.representation.standard.VerboseQuadExecutor;
+
+public class TestBatchQuadImporter
+{
+    private static final String DATA =
+        "<http://s1> <http://knows> <http://s2> <http://g1> .\n" +
+        "<http://s1> <http://knows> <http://s2> <http://g1> .\n" +
+        "<http://s1> <http://knows> <http://s2> <http://g2> .\n" +
+        "<http://s1> <http://name> \"Mattias\"@sv <http://g1> .\n" +
+        "<http://s2> <http://age> \"30\"^^<http://int> <http://g2> .\n";
+
+    @Test
+    public void testImportedStoreCanBeOpened() throws Exception
+    {
+        File path = new File( Neo4jTestCase.getBasePath(), "batch-import" );
+        Neo4jTestCase.deleteFileOrDirectory( path );
+        BatchQuadImporter importer =
+            new BatchQuadImporter( path.getAbsolutePath() );
+        try
+        {
+            assertEquals( 5, importer.importNQuads( new ByteArrayInputStream(
+                DATA.getBytes( "UTF-8" ) ) ) );
+            assertEquals( 5, importer.getStatementCount() );
+        }
+        finally
+        {
+            importer.shutdown();
+        }
+
+        GraphDatabaseService graphDb =
+            new EmbeddedGraphDatabase( path.getAbsolutePath() );
+        IndexService index = new LuceneIndexService( graphDb );
+        VerboseQuadStore store = new VerboseQuadStore( graphDb, index );
+        store.setShutdownNeo4jInstancesUponShutdown( true );
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            Uri s1 = new Uri( "http://s1" );
+            Uri knows = new Uri( "http://knows" );
+            Context g1 = new Context( "http://g1" );
+            Context g2 = new Context( "http://g2" );
+            assertEquals( 4, store.size() );
+            assertEquals( 2, store.size( g1 ) );
+            assertEquals( 2, store.size( g2 ) );
+            assertEquals( 2, store.count( new WildcardStatement( s1, knows,
+                new Wildcard( "o" ), new Wildcard( "g" ) ) ) );
+            assertStatement( store, new CompleteStatement( s1,
+                new Uri( "http://name" ), new Literal( "Mattias", null, "sv" ),
+                g1 ) );
+            assertStatement( store, new CompleteStatement(
+                new Uri( "http://s2" ), new Uri( "http://age" ),
+                new Literal( "30", new Uri( "http://int" ) ), g2 ) );
+
+            for ( String uri : new String[] { "http://s1", "http://s2",
+                "http://g1", "http://g2" } )
+            {
+                assertNotNull( uri, index.getSingleNode(
+                    AbstractUriBasedExecutor.URI_PROPERTY_KEY, uri ) );
+            }
+            assertEquals( 1, count( index.getNodes(
+                VerboseQuadExecutor.MIDDLE_NODE_PREDICATE_KEY,
+                "http://knows" ) ) );
+            assertEquals( 1, count( index.getNodes(
+                AbstractUriBasedExecutor.LITERAL_VALUE_KEY, "Mattias" ) ) );
+
+            // The store can be written to as usual
+            CompleteStatement knowsInG1 = new CompleteStatement( s1, knows,
+                new Uri( "http://s2" ), g1 );
+            store.addStatements( knowsInG1 );
+            assertEquals( 4, store.size() );
+            store.removeStatements( new WildcardStatement( s1, knows,
+                new Wildcard( "o" ), g2 ) );
+            assertEquals( 3, store.size() );
+            assertEquals( 1, store.size( g2 ) );
+            assertStatement( store, knowsInG1 );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+            store.shutDown();
+        }
+    }
+
+    private void assertStatement( VerboseQuadStore store,
+        CompleteStatement statement )
+    {
+        Iterator<CompleteStatement> statements = store.getStatements(
+            new WildcardStatement( statement ), false ).iterator();
+        assertTrue( statement.toString(), statements.hasNext() );
+        assertEquals( statement.getObject(), statements.next().getObject() );
+    }
+
+    private int count( Iterable<Node> nodes )
+    {
+        int count = 0;
+        for ( Iterator<Node> iterator = nodes.iterator(); iterator.hasNext();
+            iterator.next() )
+        {
+            count++;
+        }
+        return count;
+    }
+}
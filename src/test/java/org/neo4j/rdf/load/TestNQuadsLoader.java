@@ -0,0 +1,114 @@
+package org.neo4j.rdf.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import org.junit.Test;
+import org.neo4j.rdf.model.CompleteStatement;
+import org.neo4j.rdf.model.Context;
+import org.neo4j.rdf.model.Literal;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Wildcard;
+import org.neo4j.rdf.model.WildcardStatement;
+import org.neo4j.rdf.store.QuadStoreAbstractTestCase;
+import org.neo4j.rdf.store.VerboseQuadStore;
+
+public class TestNQuadsLoader extends QuadStoreAbstractTestCase
+{
+    private static final String DATA =
+        "# A comment\n" +
+        "<http://s1> <http://knows> <http://s2> <http://g1> .\n" +
+        "<http://s1> <http://name> \"Mattias \\\"P\\\"\"@sv <http://g1> .\n" +
+        "\n" +
+        "<http://s2> <http://name> \"\\u00c5sa\" .\r\n" +
+        "<http://s2> <http://age> \"30\"^^<http://int> <http://g2> .\n";
+
+    @Test
+    public void testParser() throws Exception
+    {
+        NQuadsParser parser = new NQuadsParser();
+        assertNull( parser.parse( "  # comment" ) );
+        assertNull( parser.parse( "" ) );
+
+        CompleteStatement statement = parser.parse(
+            "_:b1 <http://p> \"a\\tb\"@en ." );
+        assertEquals( new Uri( "_:b1" ), statement.getSubject() );
+        assertEquals( Context.NULL, statement.getContext() );
+        Literal literal = ( Literal ) statement.getObject();
+        assertEquals( "a\tb", literal.getValue() );
+        assertEquals( "en", literal.getLanguage() );
+
+        try
+        {
+            parser.parse( "<http://s> <http://p> <http://o>" );
+            fail( "Should fail on missing '.'" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // Good
+        }
+    }
+
+    @Test
+    public void testLoadAndResume() throws Exception
+    {
+        VerboseQuadStore store = ( VerboseQuadStore ) store();
+        File checkpointFile = new File( getBasePath(), "load-checkpoint" );
+        checkpointFile.delete();
+        NQuadsLoader loader = new NQuadsLoader( graphDb(), store );
+        loader.setCommitInterval( 2 );
+        loader.setCheckpointFile( checkpointFile );
+
+        byte[] bytes = DATA.getBytes( "UTF-8" );
+        LoadCheckpoint checkpoint = loader.load(
+            new ByteArrayInputStream( bytes ) );
+        assertEquals( bytes.length, checkpoint.getByteOffset() );
+        assertEquals( 6, checkpoint.getLineNumber() );
+        assertEquals( 4, checkpoint.getStatementCount() );
+        assertEquals( 4, store.size() );
+        assertResult( new WildcardStatement( new Uri( "http://s2" ),
+            new Uri( "http://name" ), new Wildcard( "o" ),
+            new Wildcard( "g" ) ),
+            new CompleteStatement( new Uri( "http://s2" ),
+                new Uri( "http://name" ), new Literal( "\u00c5sa" ),
+                Context.NULL ) );
+
+        // Loading again from the checkpoint file adds nothing
+        checkpoint = loader.load( new ByteArrayInputStream( bytes ) );
+        assertEquals( 4, checkpoint.getStatementCount() );
+        assertEquals( 4, store.size() );
+        checkpointFile.delete();
+        deleteEntireNodeSpace();
+    }
+
+    @Test
+    public void testFailedTransactionIsntIndexed() throws Exception
+    {
+        VerboseQuadStore store = ( VerboseQuadStore ) store();
+        NQuadsLoader loader = new NQuadsLoader( graphDb(), store );
+        String data =
+            "<http://s1> <http://name> \"Mattias\" <http://g1> .\n" +
+            "<http://s1> <http://knows> <http://s2>\n";
+        try
+        {
+            loader.load( new ByteArrayInputStream(
+                data.getBytes( "UTF-8" ) ) );
+            fail( "Should fail on missing '.'" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // The parse error, not something from the rollback
+            assertTrue( e.getMessage().startsWith( "Line 2" ) );
+        }
+        waitForFulltextIndex();
+        assertEquals( 0, store.size() );
+        assertFalse( store.searchFulltext( "Mattias" ).iterator().hasNext() );
+        deleteEntireNodeSpace();
+    }
+}
@@ -0,0 +1,100 @@
+package org.neo4j.rdf.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Wildcard;
+import org.neo4j.rdf.model.WildcardStatement;
+import org.neo4j.rdf.store.QuadStoreAbstractTestCase;
+import org.neo4j.rdf.store.VerboseQuadStore;
+import org.neo4j.rdf.store.representation.standard.AbstractUriBasedExecutor;
+
+public class TestParallelQuadLoader extends QuadStoreAbstractTestCase
+{
+    @Test
+    public void testSharedObjectsAndContexts() throws Exception
+    {
+        // Many subjects, all pointing to the same few objects in the
+        // same few contexts.
+        StringBuilder data = new StringBuilder();
+        int statements = 0;
+        for ( int s = 0; s < 100; s++ )
+        {
+            for ( int o = 0; o < 5; o++ )
+            {
+                data.append( "<http://s" + s + "> <http://knows> <http://o" +
+                    o + "> <http://g" + ( o % 2 ) + "> .\n" );
+                statements++;
+            }
+            data.append( "<http://s" + s + "> <http://name> \"Name " + s +
+                "\" <http://g0> .\n" );
+            statements++;
+        }
+
+        VerboseQuadStore store = ( VerboseQuadStore ) store();
+        ParallelQuadLoader loader = new ParallelQuadLoader( graphDb(), store );
+        loader.setNumberOfThreads( 4 );
+        loader.setCommitInterval( 7 );
+        assertEquals( statements, loader.load( new ByteArrayInputStream(
+            data.toString().getBytes( "UTF-8" ) ) ) );
+        assertEquals( statements, loader.getStatementsAdded() );
+        restartTx();
+
+        assertEquals( statements, store.size() );
+        for ( int o = 0; o < 5; o++ )
+        {
+            assertUriNodes( "http://o" + o );
+        }
+        assertUriNodes( "http://g0" );
+        assertUriNodes( "http://g1" );
+        assertResultCount( new WildcardStatement( new Wildcard( "s" ),
+            new Uri( "http://knows" ), new Uri( "http://o3" ),
+            new Wildcard( "g" ) ), 100 );
+        deleteEntireNodeSpace();
+    }
+
+    @Test
+    public void testWorkersShareOneContext() throws Exception
+    {
+        // All statements in the same context and with the same object, so
+        // that every transaction changes the same two nodes.
+        StringBuilder data = new StringBuilder();
+        int statements = 200;
+        for ( int s = 0; s < statements; s++ )
+        {
+            data.append( "<http://s" + s + "> <http://knows> <http://o> " +
+                "<http://g> .\n" );
+        }
+
+        VerboseQuadStore store = ( VerboseQuadStore ) store();
+        ParallelQuadLoader loader = new ParallelQuadLoader( graphDb(), store );
+        loader.setNumberOfThreads( 4 );
+        loader.setCommitInterval( 5 );
+        loader.setMaxRetries( 100 );
+        assertEquals( statements, loader.load( new ByteArrayInputStream(
+            data.toString().getBytes( "UTF-8" ) ) ) );
+        long total = 0;
+        for ( long added : loader.getStatementsAddedPerWorker() )
+        {
+            assertTrue( added > 0 );
+            total += added;
+        }
+        assertEquals( statements, total );
+        restartTx();
+
+        assertEquals( statements, store.size() );
+        assertUriNodes( "http://o" );
+        assertUriNodes( "http://g" );
+        deleteEntireNodeSpace();
+    }
+
+    private void assertUriNodes( String uri )
+    {
+        assertEquals( uri, 1, countIterable( indexService().getNodes(
+            AbstractUriBasedExecutor.URI_PROPERTY_KEY, uri ) ) );
+    }
+}
@@ -0,0 +1,136 @@
+package org.neo4j.rdf.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.neo4j.rdf.model.CompleteStatement;
+import org.neo4j.rdf.model.Context;
+import org.neo4j.rdf.model.Literal;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Wildcard;
+import org.neo4j.rdf.model.WildcardStatement;
+import org.neo4j.rdf.store.QuadStoreAbstractTestCase;
+import org.neo4j.rdf.store.VerboseQuadStore;
+
+public class TestBasicGraphPatternEvaluator extends QuadStoreAbstractTestCase
+{
+    private static final Uri KNOWS = new Uri( "http://knows" );
+    private static final Uri NAME = new Uri( "http://name" );
+    private static final Uri A = new Uri( "http://a" );
+    private static final Uri B = new Uri( "http://b" );
+    private static final Uri C = new Uri( "http://c" );
+    private static final Context G1 = new Context( "http://g1" );
+    private static final Context G2 = new Context( "http://g2" );
+
+    private void addData()
+    {
+        addStatements(
+            new CompleteStatement( A, KNOWS, B, G1 ),
+            new CompleteStatement( B, KNOWS, C, G1 ),
+            new CompleteStatement( A, KNOWS, C, G2 ),
+            new CompleteStatement( A, NAME, new Literal( "Alice" ), G1 ),
+            new CompleteStatement( B, NAME, new Literal( "Bob" ), G1 ),
+            new CompleteStatement( C, NAME, new Literal( "Carl" ), G2 ) );
+        restartTx();
+    }
+
+    private Set<String> names( Iterable<BindingRow> rows, String variable )
+    {
+        Set<String> result = new HashSet<String>();
+        for ( BindingRow row : rows )
+        {
+            result.add( ( ( Literal ) row.getValue(
+                variable ) ).getValue().toString() );
+        }
+        return result;
+    }
+
+    private Set<String> set( String... items )
+    {
+        return new HashSet<String>( Arrays.asList( items ) );
+    }
+
+    @Test
+    public void testJoin() throws Exception
+    {
+        addData();
+        BasicGraphPatternEvaluator evaluator = new BasicGraphPatternEvaluator(
+            ( VerboseQuadStore ) store() );
+        Wildcard x = new Wildcard( "x" );
+        Wildcard y = new Wildcard( "y" );
+        Wildcard name = new Wildcard( "name" );
+
+        // Who does Alice know?
+        Iterable<BindingRow> rows = evaluator.evaluate(
+            new WildcardStatement( x, NAME, new Literal( "Alice" ),
+                new Wildcard( "g1" ) ),
+            new WildcardStatement( x, KNOWS, y, new Wildcard( "g2" ) ),
+            new WildcardStatement( y, NAME, name, new Wildcard( "g3" ) ) );
+        assertEquals( set( "Bob", "Carl" ), names( rows, "name" ) );
+
+        // Only in one graph
+        rows = evaluator.evaluate(
+            new WildcardStatement( x, KNOWS, y, G1 ),
+            new WildcardStatement( y, NAME, name, new Wildcard( "g" ) ) );
+        assertEquals( set( "Bob", "Carl" ), names( rows, "name" ) );
+        rows = evaluator.evaluate(
+            new WildcardStatement( A, KNOWS, y, G1 ),
+            new WildcardStatement( y, NAME, name, G1 ) );
+        assertEquals( set( "Bob" ), names( rows, "name" ) );
+
+        // Friends of friends, with the same variable in several places
+        rows = evaluator.evaluate(
+            new WildcardStatement( x, KNOWS, y, new Wildcard( "g1" ) ),
+            new WildcardStatement( y, KNOWS, new Wildcard( "z" ),
+                new Wildcard( "g2" ) ),
+            new WildcardStatement( new Wildcard( "z" ), NAME, name,
+                new Wildcard( "g3" ) ) );
+        assertEquals( set( "Carl" ), names( rows, "name" ) );
+        BindingRow row = rows.iterator().next();
+        assertEquals( A, row.getValue( "x" ) );
+        assertEquals( B, row.getValue( "y" ) );
+
+        // Nothing matches a URI which isn't there
+        rows = evaluator.evaluate(
+            new WildcardStatement( new Uri( "http://nobody" ), KNOWS, y,
+                new Wildcard( "g" ) ) );
+        assertTrue( !rows.iterator().hasNext() );
+        deleteEntireNodeSpace();
+    }
+
+    @Test
+    public void testHashJoinAndPlan() throws Exception
+    {
+        addData();
+        BasicGraphPatternEvaluator evaluator = new BasicGraphPatternEvaluator(
+            ( VerboseQuadStore ) store() );
+        Wildcard g = new Wildcard( "g" );
+
+        // The second pattern can't start from anything bound by the first
+        List<WildcardStatement> patterns = Arrays.asList(
+            new WildcardStatement( A, NAME, new Wildcard( "n1" ), g ),
+            new WildcardStatement( new Wildcard( "s" ), NAME,
+                new Wildcard( "n2" ), new Wildcard( "g2" ) ) );
+        List<String> plan = evaluator.explain( patterns );
+        assertEquals( 2, plan.size() );
+        assertTrue( plan.get( 0 ).startsWith( "NESTED LOOP" ) );
+        assertTrue( plan.get( 1 ).startsWith( "HASH JOIN" ) );
+        assertEquals( set( "Alice", "Bob", "Carl" ),
+            names( evaluator.evaluate( patterns ), "n2" ) );
+
+        // Joining on the context
+        patterns = Arrays.asList(
+            new WildcardStatement( A, NAME, new Wildcard( "n1" ), g ),
+            new WildcardStatement( new Wildcard( "s" ), NAME,
+                new Wildcard( "n2" ), g ) );
+        assertEquals( set( "Alice", "Bob" ),
+            names( evaluator.evaluate( patterns ), "n2" ) );
+        deleteEntireNodeSpace();
+    }
+}
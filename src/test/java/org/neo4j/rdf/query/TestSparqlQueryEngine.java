@@ -0,0 +1,208 @@
+package org.neo4j.rdf.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.neo4j.rdf.model.CompleteStatement;
+import org.neo4j.rdf.model.Context;
+import org.neo4j.rdf.model.Literal;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Value;
+import org.neo4j.rdf.store.QuadStoreAbstractTestCase;
+import org.neo4j.rdf.store.VerboseQuadStore;
+
+public class TestSparqlQueryEngine extends QuadStoreAbstractTestCase
+{
+    private static final String PREFIX = "PREFIX ex: <http://ex/> ";
+    private static final Uri KNOWS = new Uri( "http://ex/knows" );
+    private static final Uri NAME = new Uri( "http://ex/name" );
+    private static final Uri AGE = new Uri( "http://ex/age" );
+    private static final Uri A = new Uri( "http://ex/a" );
+    private static final Uri B = new Uri( "http://ex/b" );
+    private static final Uri C = new Uri( "http://ex/c" );
+    private static final Context G1 = new Context( "http://ex/g1" );
+    private static final Context G2 = new Context( "http://ex/g2" );
+
+    private SparqlQueryEngine engine()
+    {
+        addStatements(
+            new CompleteStatement( A, KNOWS, B, G1 ),
+            new CompleteStatement( B, KNOWS, C, G1 ),
+            new CompleteStatement( A, KNOWS, C, G2 ),
+            new CompleteStatement( A, NAME, new Literal( "Alice" ), G1 ),
+            new CompleteStatement( B, NAME, new Literal( "Bob" ), G1 ),
+            new CompleteStatement( C, NAME, new Literal( "Carl" ), G2 ),
+            new CompleteStatement( A, AGE, new Literal( 30 ), G1 ),
+            new CompleteStatement( B, AGE, new Literal( 25 ), G1 ) );
+        restartTx();
+        return new SparqlQueryEngine( ( VerboseQuadStore ) store() );
+    }
+
+    private Set<String> strings( Iterable<BindingRow> rows, String variable )
+    {
+        Set<String> result = new HashSet<String>();
+        for ( BindingRow row : rows )
+        {
+            result.add( string( row.getValue( variable ) ) );
+        }
+        return result;
+    }
+
+    private String string( Value value )
+    {
+        if ( value == null )
+        {
+            return null;
+        }
+        return value instanceof Uri ? ( ( Uri ) value ).getUriAsString() :
+            ( ( Literal ) value ).getValue().toString();
+    }
+
+    private int count( Iterable<BindingRow> rows )
+    {
+        int count = 0;
+        for ( BindingRow row : rows )
+        {
+            count++;
+        }
+        return count;
+    }
+
+    private Set<String> set( String... items )
+    {
+        return new HashSet<String>( Arrays.asList( items ) );
+    }
+
+    @Test
+    public void testSelect() throws Exception
+    {
+        SparqlQueryEngine engine = engine();
+        SparqlResult result = engine.execute( PREFIX +
+            "SELECT ?name WHERE { ?x ex:name \"Alice\" ; ex:knows ?y . " +
+            "?y ex:name ?name }" );
+        assertEquals( Arrays.asList( "name" ), result.getVariableNames() );
+        assertEquals( set( "Bob", "Carl" ), strings( result, "name" ) );
+        for ( BindingRow row : result )
+        {
+            assertFalse( row.isBound( "x" ) );
+        }
+
+        result = engine.execute( PREFIX + "SELECT * { ?x a ex:Nothing }" );
+        assertEquals( 0, count( result ) );
+        result = engine.execute( PREFIX + "SELECT * { ?x ex:knows ?y }" );
+        assertEquals( Arrays.asList( "x", "y" ), result.getVariableNames() );
+        assertEquals( 3, count( result ) );
+    }
+
+    @Test
+    public void testGraph() throws Exception
+    {
+        SparqlQueryEngine engine = engine();
+        assertEquals( set( "http://ex/b", "http://ex/c" ), strings(
+            engine.execute( PREFIX + "SELECT ?y { GRAPH ex:g1 " +
+                "{ ?x ex:knows ?y } }" ), "y" ) );
+        assertEquals( set( "http://ex/g1", "http://ex/g2" ), strings(
+            engine.execute( PREFIX + "SELECT ?g { GRAPH ?g " +
+                "{ ex:a ex:knows ?y } }" ), "g" ) );
+    }
+
+    @Test
+    public void testFilter() throws Exception
+    {
+        SparqlQueryEngine engine = engine();
+        assertEquals( set( "Alice" ), strings( engine.execute( PREFIX +
+            "SELECT ?name { ?x ex:name ?name ; ex:age ?age " +
+            "FILTER ( ?age > 26 ) }" ), "name" ) );
+        assertEquals( set( "Bob", "Carl" ), strings( engine.execute( PREFIX +
+            "SELECT ?name { ?x ex:name ?name FILTER regex( ?name, \"^[bc]\", " +
+            "\"i\" ) }" ), "name" ) );
+        assertEquals( set( "Carl" ), strings( engine.execute( PREFIX +
+            "SELECT ?name { ?x ex:knows ?y . ?y ex:name ?name " +
+            "FILTER ( ?x = ex:b || ?name = \"Nobody\" ) }" ), "name" ) );
+
+        // Equality with an IRI is turned into a binding
+        assertEquals( set( "Bob", "Carl" ), strings( engine.execute( PREFIX +
+            "SELECT ?name { ?x ex:knows ?y . ?y ex:name ?name " +
+            "FILTER ( ?x = ex:a ) }" ), "name" ) );
+        assertEquals( set( "Alice" ), strings( engine.execute( PREFIX +
+            "SELECT ?name { ?x ex:name ?name FILTER ( ex:a = ?x && " +
+            "isLiteral( ?name ) ) }" ), "name" ) );
+    }
+
+    @Test
+    public void testOptional() throws Exception
+    {
+        SparqlQueryEngine engine = engine();
+        SparqlResult result = engine.execute( PREFIX +
+            "SELECT ?name ?age { ?x ex:name ?name " +
+            "OPTIONAL { ?x ex:age ?age } }" );
+        int unbound = 0;
+        for ( BindingRow row : result )
+        {
+            if ( string( row.getValue( "name" ) ).equals( "Carl" ) )
+            {
+                assertNull( row.getValue( "age" ) );
+                unbound++;
+            }
+        }
+        assertEquals( 1, unbound );
+        assertEquals( 3, count( result ) );
+
+        assertEquals( set( "Carl" ), strings( engine.execute( PREFIX +
+            "SELECT ?name { ?x ex:name ?name OPTIONAL { ?x ex:age ?age } " +
+            "FILTER ( !bound( ?age ) ) }" ), "name" ) );
+    }
+
+    @Test
+    public void testDistinctLimitOffset() throws Exception
+    {
+        SparqlQueryEngine engine = engine();
+        assertEquals( 3, count( engine.execute( PREFIX +
+            "SELECT ?x { ?x ex:knows ?y }" ) ) );
+        assertEquals( 2, count( engine.execute( PREFIX +
+            "SELECT DISTINCT ?x { ?x ex:knows ?y }" ) ) );
+
+        SparqlQuery query = engine.prepare( PREFIX +
+            "SELECT ?x ?y { ?x ex:knows ?y } LIMIT 2 OFFSET 1" );
+        assertEquals( 2, count( engine.execute( query ) ) );
+        List<String> all = new ArrayList<String>();
+        for ( BindingRow row : engine.execute( PREFIX +
+            "SELECT ?x ?y { ?x ex:knows ?y } OFFSET 2" ) )
+        {
+            all.add( row.toString() );
+        }
+        assertEquals( 1, all.size() );
+    }
+
+    @Test
+    public void testUnsupported() throws Exception
+    {
+        SparqlQueryEngine engine = engine();
+        for ( String query : new String[] {
+            "SELECT ?x { ?x ?p ?o } ORDER BY ?x",
+            "SELECT ?x { { ?x ?p ?o } UNION { ?o ?p ?x } }",
+            "SELECT ?x { ?x unknown:p ?o }",
+            "SELECT ?x { ?x ?p ?o ",
+            "CONSTRUCT { ?x ?p ?o } WHERE { ?x ?p ?o }" } )
+        {
+            try
+            {
+                engine.prepare( query );
+                fail( "Should fail: " + query );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                // Good
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.neo4j.rdf.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.neo4j.rdf.model.CompleteStatement;
+import org.neo4j.rdf.model.Literal;
+import org.neo4j.rdf.model.Wildcard;
+import org.neo4j.rdf.model.WildcardStatement;
+
+public class TestAsyncRdfStore extends QuadStoreAbstractTestCase
+{
+    @Test
+    public void testGroupCommit() throws Exception
+    {
+        AsyncRdfStore async = new AsyncRdfStore( ( RdfStoreImpl ) store(), 4 );
+        async.setBatchSize( 10 );
+        async.setFlushInterval( 50 );
+
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for ( int i = 0; i < 25; i++ )
+        {
+            futures.add( async.addStatementsAsync( completeStatement(
+                TestUri.MATTIAS, TestUri.FOAF_NICK, new Literal( "Nick " + i ),
+                TestUri.MATTIAS_PUBLIC_GRAPH ) ) );
+        }
+        for ( Future<Object> future : futures )
+        {
+            future.get();
+            assertTrue( future.isDone() );
+        }
+        restartTx();
+        WildcardStatement allNicks = wildcardStatement(
+            TestUri.MATTIAS.toUri(), TestUri.FOAF_NICK.toUri(),
+            new Wildcard( "o" ), new Wildcard( "g" ) );
+        assertResultCount( allNicks, 25 );
+
+        // Removing flushes what's added before it
+        CompleteStatement knows = completeStatement( TestUri.MATTIAS,
+            TestUri.FOAF_KNOWS, TestUri.EMIL, TestUri.MATTIAS_PUBLIC_GRAPH );
+        async.addStatementsAsync( knows );
+        async.removeStatements( new WildcardStatement( knows ) );
+        restartTx();
+        assertEquals( 25, async.size() );
+
+        async.addStatements( knows );
+        restartTx();
+        assertEquals( 26, async.size() );
+        deleteEntireNodeSpace();
+    }
+
+    @Test
+    public void testStopAddsWhatsBuffered() throws Exception
+    {
+        AsyncRdfStore async =
+            new AsyncRdfStore( ( RdfStoreImpl ) store(), 100 );
+        async.setBatchSize( 1000 );
+        async.setFlushInterval( 60000 );
+
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for ( int i = 0; i < 10; i++ )
+        {
+            futures.add( async.addStatementsAsync( nick( "Nick " + i ) ) );
+        }
+        async.stop();
+        for ( Future<Object> future : futures )
+        {
+            assertTrue( future.isDone() );
+            future.get();
+        }
+        try
+        {
+            async.addStatementsAsync( nick( "Too late" ) );
+            fail( "Shouldn't be able to add to a stopped store" );
+        }
+        catch ( IllegalStateException e )
+        {
+            // Good
+        }
+        restartTx();
+        assertEquals( 10, async.size() );
+        deleteEntireNodeSpace();
+    }
+
+    @Test
+    public void testAddConcurrentlyWithStop() throws Exception
+    {
+        final AsyncRdfStore async =
+            new AsyncRdfStore( ( RdfStoreImpl ) store(), 4 );
+        async.setBatchSize( 10 );
+        async.setFlushInterval( 10 );
+
+        final AtomicInteger added = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int t = 0; t < 4; t++ )
+        {
+            final int thread = t;
+            threads.add( new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; true; i++ )
+                        {
+                            async.addStatements(
+                                nick( "Nick " + thread + "-" + i ) );
+                            added.incrementAndGet();
+                        }
+                    }
+                    catch ( IllegalStateException e )
+                    {
+                        // The store is stopped
+                    }
+                }
+            } );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        Thread.sleep( 200 );
+        async.stop();
+        for ( Thread thread : threads )
+        {
+            // An add which was let in after the stop would hang
+            thread.join( 10000 );
+            assertFalse( thread.isAlive() );
+        }
+        restartTx();
+        assertEquals( added.get(), async.size() );
+        deleteEntireNodeSpace();
+    }
+
+    private CompleteStatement nick( String nick )
+    {
+        return completeStatement( TestUri.MATTIAS, TestUri.FOAF_NICK,
+            new Literal( nick ), TestUri.MATTIAS_PUBLIC_GRAPH );
+    }
+}
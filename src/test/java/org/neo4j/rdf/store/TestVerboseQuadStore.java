@@ -4,14 +4,25 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 import org.junit.Test;
+import org.neo4j.graphdb.Node;
 import org.neo4j.index.IndexService;
 import org.neo4j.index.lucene.LuceneFulltextQueryIndexService;
+import org.neo4j.rdf.fulltext.Facets;
 import org.neo4j.rdf.fulltext.QueryResult;
+import org.neo4j.rdf.fulltext.ResultWindow;
+import org.neo4j.rdf.fulltext.SearchOptions;
 import org.neo4j.rdf.model.BlankNode;
 import org.neo4j.rdf.model.CompleteStatement;
 import org.neo4j.rdf.model.Context;
@@ -21,6 +32,7 @@ import org.neo4j.rdf.model.Uri;
 import org.neo4j.rdf.model.Wildcard;
 import org.neo4j.rdf.model.WildcardStatement;
 import org.neo4j.rdf.store.representation.standard.AbstractUriBasedExecutor;
+import org.neo4j.rdf.store.representation.standard.VerboseQuadExecutor;
 
 public class TestVerboseQuadStore extends QuadStoreAbstractTestCase
 {
@@ -111,6 +123,287 @@ public class TestVerboseQuadStore extends QuadStoreAbstractTestCase
         deleteEntireNodeSpace();
     }
 
+    @Test
+    public void testBatchAdd() throws Exception
+    {
+        List<CompleteStatement> statements = new ArrayList<CompleteStatement>();
+        for ( int i = 0; i < 10; i++ )
+        {
+            statements.add( completeStatement( TestUri.MATTIAS,
+                    TestUri.FOAF_NICK, new Literal( "Nick " + i ),
+                    TestUri.MATTIAS_PUBLIC_GRAPH ) );
+        }
+        // The same statement twice and a new context in the same batch
+        statements.add( completeStatement( TestUri.MATTIAS,
+                TestUri.FOAF_KNOWS, TestUri.EMIL,
+                TestUri.MATTIAS_PUBLIC_GRAPH ) );
+        statements.add( completeStatement( TestUri.MATTIAS,
+                TestUri.FOAF_KNOWS, TestUri.EMIL,
+                TestUri.MATTIAS_PUBLIC_GRAPH ) );
+        statements.add( completeStatement( TestUri.MATTIAS,
+                TestUri.FOAF_KNOWS, TestUri.EMIL,
+                TestUri.MATTIAS_PRIVATE_GRAPH ) );
+        addStatements( statements.toArray(
+                new CompleteStatement[ statements.size() ] ) );
+        restartTx();
+
+        int mattiasNodes = 0;
+        for ( Node node : indexService().getNodes(
+                AbstractUriBasedExecutor.URI_PROPERTY_KEY,
+                TestUri.MATTIAS.uriAsString() ) )
+        {
+            mattiasNodes++;
+        }
+        assertEquals( 1, mattiasNodes );
+        assertResultCount( wildcardStatement( TestUri.MATTIAS.toUri(),
+                TestUri.FOAF_NICK.toUri(), new Wildcard( "o" ),
+                new Wildcard( "g" ) ), 10 );
+        assertResult( wildcardStatement( TestUri.MATTIAS.toUri(),
+                TestUri.FOAF_KNOWS.toUri(), new Wildcard( "o" ),
+                new Wildcard( "g" ) ),
+                completeStatement( TestUri.MATTIAS, TestUri.FOAF_KNOWS,
+                TestUri.EMIL, TestUri.MATTIAS_PUBLIC_GRAPH ),
+                completeStatement( TestUri.MATTIAS, TestUri.FOAF_KNOWS,
+                TestUri.EMIL, TestUri.MATTIAS_PRIVATE_GRAPH ) );
+        deleteEntireNodeSpace();
+    }
+
+    @Test
+    public void testHubSubject() throws Exception
+    {
+        VerboseQuadExecutor executor = ( ( VerboseQuadStore ) store() )
+                .getRepresentationStrategy().getExecutor();
+        executor.setHubThreshold( 5 );
+        try
+        {
+            CompleteStatement[] nicks = new CompleteStatement[ 20 ];
+            for ( int i = 0; i < nicks.length; i++ )
+            {
+                nicks[ i ] = completeStatement( TestUri.MATTIAS,
+                        TestUri.FOAF_NICK, new Literal( "Nick " + i ),
+                        TestUri.MATTIAS_PUBLIC_GRAPH );
+            }
+            addStatements( nicks );
+            addStatements( completeStatement( TestUri.MATTIAS,
+                    TestUri.FOAF_KNOWS, TestUri.EMIL,
+                    TestUri.MATTIAS_PUBLIC_GRAPH ) );
+            restartTx();
+            while ( executor.isMakingHubs() )
+            {
+                Thread.sleep( 10 );
+            }
+            Node mattias = indexService().getSingleNode(
+                    AbstractUriBasedExecutor.URI_PROPERTY_KEY,
+                    TestUri.MATTIAS.uriAsString() );
+            assertTrue( mattias.hasProperty(
+                    VerboseQuadExecutor.HUB_SUBJECT_KEY ) );
+
+            // Duplicates are found through the hub index
+            addStatements( nicks );
+            addStatements( completeStatement( TestUri.MATTIAS,
+                    TestUri.FOAF_KNOWS, TestUri.EMIL,
+                    TestUri.MATTIAS_PUBLIC_GRAPH ) );
+            restartTx();
+            WildcardStatement allNicks = wildcardStatement(
+                    TestUri.MATTIAS.toUri(), TestUri.FOAF_NICK.toUri(),
+                    new Wildcard( "o" ), new Wildcard( "g" ) );
+            assertResultCount( allNicks, 20 );
+            assertResultCount( wildcardStatement( TestUri.MATTIAS.toUri(),
+                    TestUri.FOAF_KNOWS.toUri(), new Wildcard( "o" ),
+                    new Wildcard( "g" ) ), 1 );
+
+            for ( int i = 0; i < 10; i++ )
+            {
+                removeStatements( new WildcardStatement( nicks[ i ] ) );
+            }
+            restartTx();
+            assertResultCount( allNicks, 10 );
+            addStatements( nicks[ 0 ] );
+            restartTx();
+            assertResultCount( allNicks, 11 );
+        }
+        finally
+        {
+            executor.setHubThreshold( 0 );
+        }
+        deleteEntireNodeSpace();
+    }
+
+    @Test
+    public void testConcurrentContextCounts() throws Exception
+    {
+        final Context context = new Context(
+                TestUri.MATTIAS_PUBLIC_GRAPH.uriAsString() );
+        addStatements( completeStatement( TestUri.MATTIAS,
+                TestUri.FOAF_KNOWS, TestUri.EMIL, context ) );
+        restartTx();
+        Thread[] threads = new Thread[ 4 ];
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final int thread = t;
+            threads[ t ] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        addAndRemoveInContext( thread, context );
+                    }
+                    catch ( Throwable e )
+                    {
+                        synchronized ( failures )
+                        {
+                            failures.add( e );
+                        }
+                    }
+                }
+            };
+            threads[ t ].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertTrue( failures.toString(), failures.isEmpty() );
+        assertEquals( 1 + threads.length * 20, store().size( context ) );
+
+        // Removed by another thread than the one which added it
+        store().removeStatements( new WildcardStatement( new Uri(
+                "http://test/concurrent/0/0" ), new Wildcard( "p" ),
+                new Wildcard( "o" ), context ) );
+        restartTx();
+        assertEquals( threads.length * 20, store().size( context ) );
+
+        store().removeStatements( new WildcardStatement(
+                new Wildcard( "s" ), new Wildcard( "p" ),
+                new Wildcard( "o" ), context ) );
+        restartTx();
+        assertEquals( 0, store().size( context ) );
+        deleteEntireNodeSpace();
+    }
+
+    private void addAndRemoveInContext( int thread, Context context )
+    {
+        for ( int i = 0; i < 25; i++ )
+        {
+            store().addStatements( completeStatement(
+                    "http://test/concurrent/" + thread + "/" + i,
+                    TestUri.FOAF_KNOWS.uriAsString(),
+                    TestUri.EMIL.uriAsString(), context.getUriAsString() ) );
+        }
+        for ( int i = 20; i < 25; i++ )
+        {
+            store().removeStatements( new WildcardStatement( new Uri(
+                    "http://test/concurrent/" + thread + "/" + i ),
+                    new Wildcard( "p" ), new Wildcard( "o" ), context ) );
+        }
+    }
+
+    @Test
+    public void testPredicateIndex() throws Exception
+    {
+        CompleteStatement mattiasKnowsEmilPublic = completeStatement(
+                TestUri.MATTIAS, TestUri.FOAF_KNOWS, TestUri.EMIL,
+                TestUri.MATTIAS_PUBLIC_GRAPH );
+        CompleteStatement mattiasKnowsEmilPrivate = completeStatement(
+                TestUri.MATTIAS, TestUri.FOAF_KNOWS, TestUri.EMIL,
+                TestUri.MATTIAS_PRIVATE_GRAPH );
+        CompleteStatement emilKnowsMattiasPublic = completeStatement(
+                TestUri.EMIL, TestUri.FOAF_KNOWS, TestUri.MATTIAS,
+                TestUri.MATTIAS_PUBLIC_GRAPH );
+        CompleteStatement mattiasNamePublic = completeStatement(
+                TestUri.MATTIAS, TestUri.FOAF_NICK,
+                new Literal( "Mattias" ), TestUri.MATTIAS_PUBLIC_GRAPH );
+        addStatements( mattiasKnowsEmilPublic, mattiasKnowsEmilPrivate,
+                emilKnowsMattiasPublic, mattiasNamePublic );
+        restartTx();
+
+        VerboseQuadStore store = ( VerboseQuadStore ) store();
+        assertTrue( store.getRepresentationStrategy().getExecutor()
+                .hasCompletePredicateIndex() );
+        for ( int i = 0; i < 2; i++ )
+        {
+            assertResult( wildcardStatement( new Wildcard( "s" ),
+                    TestUri.FOAF_KNOWS.toUri(), new Wildcard( "o" ),
+                    new Wildcard( "g" ) ),
+                    mattiasKnowsEmilPublic, mattiasKnowsEmilPrivate,
+                    emilKnowsMattiasPublic );
+            assertResult( wildcardStatement( new Wildcard( "s" ),
+                    TestUri.FOAF_KNOWS.toUri(), new Wildcard( "o" ),
+                    new Context( TestUri.MATTIAS_PUBLIC_GRAPH.toUri()
+                            .getUriAsString() ) ),
+                    mattiasKnowsEmilPublic, emilKnowsMattiasPublic );
+
+            // Rebuilding shouldn't add duplicates
+            store.rebuildPredicateIndex();
+            restartTx();
+        }
+
+        removeStatements( wildcardStatement( TestUri.EMIL.toUri(),
+                TestUri.FOAF_KNOWS.toUri(), new Wildcard( "o" ),
+                new Wildcard( "g" ) ) );
+        restartTx();
+        assertResult( wildcardStatement( new Wildcard( "s" ),
+                TestUri.FOAF_KNOWS.toUri(), new Wildcard( "o" ),
+                new Wildcard( "g" ) ),
+                mattiasKnowsEmilPublic, mattiasKnowsEmilPrivate );
+        deleteEntireNodeSpace();
+    }
+
+    @Test
+    public void testCountAndExists() throws Exception
+    {
+        Context publicGraph = new Context(
+                TestUri.MATTIAS_PUBLIC_GRAPH.uriAsString() );
+        Context emilGraph = new Context(
+                TestUri.EMIL_PUBLIC_GRAPH.uriAsString() );
+        addStatements(
+                completeStatement( TestUri.MATTIAS, TestUri.FOAF_KNOWS,
+                        TestUri.EMIL, TestUri.MATTIAS_PUBLIC_GRAPH ),
+                completeStatement( TestUri.MATTIAS, TestUri.FOAF_KNOWS,
+                        TestUri.EMIL, TestUri.MATTIAS_PRIVATE_GRAPH ),
+                completeStatement( TestUri.EMIL, TestUri.FOAF_KNOWS,
+                        TestUri.MATTIAS, TestUri.MATTIAS_PUBLIC_GRAPH ),
+                completeStatement( TestUri.MATTIAS, TestUri.FOAF_NICK,
+                        new Literal( "Mattias" ),
+                        TestUri.MATTIAS_PUBLIC_GRAPH ) );
+        restartTx();
+
+        RdfStore store = store();
+        Wildcard s = new Wildcard( "s" );
+        Wildcard p = new Wildcard( "p" );
+        Wildcard o = new Wildcard( "o" );
+        Wildcard g = new Wildcard( "g" );
+        assertEquals( 4, store.count( new WildcardStatement( s, p, o, g ) ) );
+        assertEquals( 3, store.count(
+                new WildcardStatement( s, p, o, publicGraph ) ) );
+        assertEquals( 0, store.count(
+                new WildcardStatement( s, p, o, emilGraph ) ) );
+        assertEquals( 3, store.count( new WildcardStatement( s,
+                TestUri.FOAF_KNOWS.toUri(), o, g ) ) );
+        assertEquals( 2, store.count( new WildcardStatement(
+                TestUri.MATTIAS.toUri(), TestUri.FOAF_KNOWS.toUri(), o, g ) ) );
+        assertEquals( 2, store.count( new WildcardStatement(
+                TestUri.MATTIAS.toUri(), p, o, publicGraph ) ) );
+        assertEquals( 1, store.count( new WildcardStatement( s, p,
+                new Literal( "Mattias" ), g ) ) );
+        assertEquals( 0, store.count( new WildcardStatement( s, p,
+                TestUri.JOHAN.toUri(), g ) ) );
+
+        assertTrue( store.exists( new WildcardStatement( s, p, o, g ) ) );
+        assertTrue( store.exists( new WildcardStatement( TestUri.EMIL.toUri(),
+                TestUri.FOAF_KNOWS.toUri(), TestUri.MATTIAS.toUri(), g ) ) );
+        assertFalse( store.exists( new WildcardStatement(
+                TestUri.EMIL.toUri(), TestUri.FOAF_KNOWS.toUri(),
+                TestUri.MATTIAS.toUri(), new Context(
+                        TestUri.MATTIAS_PRIVATE_GRAPH.uriAsString() ) ) ) );
+        assertFalse( store.exists( new WildcardStatement( s, p, o,
+                emilGraph ) ) );
+        deleteEntireNodeSpace();
+    }
+
     @Test
     public void testType() throws Exception
     {
@@ -245,6 +538,156 @@ public class TestVerboseQuadStore extends QuadStoreAbstractTestCase
         deleteEntireNodeSpace();
     }
 
+    @Test
+    public void testPagedFulltextSearch() throws Exception
+    {
+        for ( int i = 0; i < 30; i++ )
+        {
+            addStatements( completeStatement( TestUri.MATTIAS,
+                    TestUri.FOAF_NICK, new Literal( "Persson " + i ),
+                    TestUri.MATTIAS_PUBLIC_GRAPH ) );
+        }
+        restartTx();
+        waitForFulltextIndex();
+
+        SearchOptions options = new SearchOptions( 0, 20 );
+        options.setSnippetCountLimit( 5 );
+        ResultWindow<QueryResult> window =
+                store().searchFulltextWithSnippets( "persson", options );
+        assertEquals( 30, window.getTotalHits() );
+        assertEquals( 20, window.size() );
+        int withSnippets = 0;
+        double previousScore = Double.MAX_VALUE;
+        for ( QueryResult result : window )
+        {
+            assertTrue( result.getScore() <= previousScore );
+            assertTrue( result.getScore() <= 1.0 );
+            previousScore = result.getScore();
+            withSnippets += result.getSnippet() != null ? 1 : 0;
+        }
+        assertEquals( 5, withSnippets );
+
+        window = store().searchFulltextWithSnippets( "persson",
+                new SearchOptions( 20, 20 ) );
+        assertEquals( 30, window.getTotalHits() );
+        assertEquals( 10, window.size() );
+        assertEquals( 20, window.getOffset() );
+
+        options = new SearchOptions();
+        options.setMinimumScore( 1.1 );
+        window = store().searchFulltextWithSnippets( "persson", options );
+        assertEquals( 0, window.size() );
+
+        removeStatements( new WildcardStatement( TestUri.MATTIAS.toUri(),
+                TestUri.FOAF_NICK.toUri(), new Wildcard( "o" ),
+                new Wildcard( "g" ) ) );
+        restartTx();
+        waitForFulltextIndex();
+        deleteEntireNodeSpace();
+    }
+
+    @Test
+    public void testScopedFulltextSearch() throws Exception
+    {
+        CompleteStatement nickPublic = completeStatement( TestUri.MATTIAS,
+                TestUri.FOAF_NICK, new Literal( "Matte Persson" ),
+                TestUri.MATTIAS_PUBLIC_GRAPH );
+        CompleteStatement namePrivate = completeStatement( TestUri.MATTIAS,
+                TestUri.FOAF_NAME, new Literal( "Mattias Persson" ),
+                TestUri.MATTIAS_PRIVATE_GRAPH );
+        addStatements( nickPublic, namePrivate );
+        restartTx();
+        waitForFulltextIndex();
+
+        SearchOptions options = new SearchOptions();
+        assertEquals( 2, store().searchFulltextWithSnippets( "persson",
+                options ).size() );
+        options.setPredicates( Arrays.asList(
+                TestUri.FOAF_NAME.uriAsString() ) );
+        ResultWindow<QueryResult> window =
+                store().searchFulltextWithSnippets( "persson", options );
+        assertEquals( 1, window.getTotalHits() );
+        assertEquals( namePrivate.getObject(),
+                window.iterator().next().getStatement().getObject() );
+
+        options = new SearchOptions();
+        options.setContexts( Arrays.asList(
+                TestUri.MATTIAS_PUBLIC_GRAPH.uriAsString() ) );
+        window = store().searchFulltextWithSnippets( "persson", options );
+        assertEquals( 1, window.getTotalHits() );
+        assertEquals( nickPublic.getObject(),
+                window.iterator().next().getStatement().getObject() );
+
+        // The contexts of an indexed literal follows the statement
+        CompleteStatement nickPrivate = completeStatement( TestUri.MATTIAS,
+                TestUri.FOAF_NICK, new Literal( "Matte Persson" ),
+                TestUri.MATTIAS_PRIVATE_GRAPH );
+        addStatements( nickPrivate );
+        restartTx();
+        waitForFulltextIndex();
+        options.setContexts( Arrays.asList(
+                TestUri.MATTIAS_PRIVATE_GRAPH.uriAsString() ) );
+        window = store().searchFulltextWithSnippets( "persson", options );
+        assertEquals( 2, window.getTotalHits() );
+        assertEquals( 2, window.size() );
+
+        removeStatements( new WildcardStatement( nickPrivate ) );
+        restartTx();
+        waitForFulltextIndex();
+        window = store().searchFulltextWithSnippets( "persson", options );
+        assertEquals( 1, window.getTotalHits() );
+        options.setContexts( Arrays.asList(
+                TestUri.MATTIAS_PUBLIC_GRAPH.uriAsString() ) );
+        options.setPredicates( Arrays.asList(
+                TestUri.FOAF_NAME.uriAsString() ) );
+        assertEquals( 0, store().searchFulltextWithSnippets( "persson",
+                options ).getTotalHits() );
+
+        deleteEntireNodeSpace();
+    }
+
+    @Test
+    public void testFulltextFacets() throws Exception
+    {
+        addStatements( completeStatement( TestUri.MATTIAS, TestUri.FOAF_NICK,
+                new Literal( "Matte Persson" ), TestUri.MATTIAS_PUBLIC_GRAPH ),
+                completeStatement( TestUri.MATTIAS, TestUri.FOAF_NICK,
+                new Literal( "Matte Persson" ),
+                TestUri.MATTIAS_PRIVATE_GRAPH ),
+                completeStatement( TestUri.MATTIAS, TestUri.FOAF_NAME,
+                new Literal( "Mattias Persson" ),
+                TestUri.MATTIAS_PRIVATE_GRAPH ),
+                completeStatement( TestUri.EMIL, TestUri.FOAF_NAME,
+                new Literal( "Emil Eifrem" ), TestUri.EMIL_PUBLIC_GRAPH ) );
+        restartTx();
+        waitForFulltextIndex();
+
+        Facets facets = store().searchFulltextFacets( "persson",
+                new SearchOptions() );
+        assertEquals( 2, facets.getTotalHits() );
+        assertEquals( 2, facets.getPredicateCounts().size() );
+        assertEquals( 1, ( int ) facets.getPredicateCounts().get(
+                TestUri.FOAF_NICK.uriAsString() ) );
+        assertEquals( 1, ( int ) facets.getPredicateCounts().get(
+                TestUri.FOAF_NAME.uriAsString() ) );
+        assertEquals( 2, facets.getContextCounts().size() );
+        assertEquals( 1, ( int ) facets.getContextCounts().get(
+                TestUri.MATTIAS_PUBLIC_GRAPH.uriAsString() ) );
+        assertEquals( 2, ( int ) facets.getContextCounts().get(
+                TestUri.MATTIAS_PRIVATE_GRAPH.uriAsString() ) );
+
+        SearchOptions options = new SearchOptions();
+        options.setPredicates( Arrays.asList(
+                TestUri.FOAF_NAME.uriAsString() ) );
+        facets = store().searchFulltextFacets( "persson", options );
+        assertEquals( 1, facets.getTotalHits() );
+        assertEquals( 1, facets.getContextCounts().size() );
+        assertEquals( 1, ( int ) facets.getContextCounts().get(
+                TestUri.MATTIAS_PRIVATE_GRAPH.uriAsString() ) );
+
+        deleteEntireNodeSpace();
+    }
+
     @Test
     public void testReindexFulltextIndex() throws Exception
     {
@@ -296,6 +739,175 @@ public class TestVerboseQuadStore extends QuadStoreAbstractTestCase
         deleteEntireNodeSpace();
     }
 
+    @Test
+    public void testParallelResumableReindex() throws Exception
+    {
+        CompleteStatement mattiasNamePublic = completeStatement(
+                TestUri.MATTIAS, TestUri.FOAF_NAME, new Literal(
+                        "Mattias Persson" ), TestUri.MATTIAS_PUBLIC_GRAPH );
+        CompleteStatement emilNamePublic = completeStatement( TestUri.EMIL,
+                TestUri.FOAF_NAME, new Literal( "Emil Eifrém" ),
+                TestUri.EMIL_PUBLIC_GRAPH );
+        addStatements( mattiasNamePublic, emilNamePublic );
+        restartTx();
+        waitForFulltextIndex();
+        VerboseQuadStore store = ( VerboseQuadStore ) store();
+
+        // Pretend that a reindex died after the emil context
+        File progressFile = new File( "target/var/reindex-progress" );
+        progressFile.getParentFile().mkdirs();
+        Writer writer = new FileWriter( progressFile );
+        writer.write( TestUri.EMIL_PUBLIC_GRAPH.uriAsString() + "\n" );
+        writer.close();
+        store.getFulltextIndex().clear();
+
+        final List<String> reindexedContexts = new ArrayList<String>();
+        FulltextReindexer reindexer = new FulltextReindexer( store );
+        reindexer.setNumberOfThreads( 2 );
+        reindexer.setProgressFile( progressFile );
+        reindexer.setProgressListener( new ReindexProgressListener()
+        {
+            public void reindexStarting( int numberOfContexts,
+                int numberOfContextsAlreadyDone )
+            {
+                assertEquals( 1, numberOfContextsAlreadyDone );
+            }
+
+            public void progress( long quadsVisited, long literalsIndexed )
+            {
+            }
+
+            public synchronized void contextReindexed( String contextUri,
+                int literalsIndexed )
+            {
+                reindexedContexts.add( contextUri );
+            }
+
+            public void reindexCompleted( long literalsIndexed )
+            {
+                assertEquals( 1, literalsIndexed );
+            }
+        } );
+        reindexer.reindex();
+        waitForFulltextIndex();
+        assertEquals( Arrays.asList(
+            TestUri.MATTIAS_PUBLIC_GRAPH.uriAsString() ), reindexedContexts );
+        assertFalse( progressFile.exists() );
+        assertTrue( store.searchFulltext( "Persson" ).iterator().hasNext() );
+        assertFalse( store.searchFulltext( "Emil" ).iterator().hasNext() );
+
+        // Rebuild on the side while the current index stays searchable.
+        // It starts over even if there's progress from an earlier one.
+        writer = new FileWriter( progressFile );
+        writer.write( TestUri.EMIL_PUBLIC_GRAPH.uriAsString() + "\n" );
+        writer.close();
+        reindexer = new FulltextReindexer( store );
+        reindexer.setNumberOfThreads( 2 );
+        reindexer.setProgressFile( progressFile );
+        reindexer.setUseSideIndex( true );
+        reindexer.reindex();
+        waitForFulltextIndex();
+        assertEquals( 2, reindexer.getLiteralsIndexed() );
+        assertTrue( store.searchFulltext( "Persson" ).iterator().hasNext() );
+        assertTrue( store.searchFulltext( "Emil" ).iterator().hasNext() );
+
+        deleteEntireNodeSpace();
+    }
+
+    @Test
+    public void testResumedAndHaltedReindex() throws Exception
+    {
+        CompleteStatement mattiasNamePublic = completeStatement(
+                TestUri.MATTIAS, TestUri.FOAF_NAME, new Literal(
+                        "Mattias Persson" ), TestUri.MATTIAS_PUBLIC_GRAPH );
+        CompleteStatement emilNamePublic = completeStatement( TestUri.EMIL,
+                TestUri.FOAF_NAME, new Literal( "Emil Eifrém" ),
+                TestUri.EMIL_PUBLIC_GRAPH );
+        addStatements( mattiasNamePublic, emilNamePublic );
+        restartTx();
+        waitForFulltextIndex();
+        VerboseQuadStore store = ( VerboseQuadStore ) store();
+
+        // Pretend that a reindex died after the emil context, with the
+        // mattias context already indexed
+        File progressFile = new File( "target/var/reindex-progress" );
+        progressFile.getParentFile().mkdirs();
+        Writer writer = new FileWriter( progressFile );
+        writer.write( TestUri.EMIL_PUBLIC_GRAPH.uriAsString() + "\n" );
+        writer.close();
+        FulltextReindexer reindexer = new FulltextReindexer( store );
+        reindexer.setProgressFile( progressFile );
+        assertTrue( reindexer.reindex() );
+        waitForFulltextIndex();
+        assertFalse( progressFile.exists() );
+        assertEquals( 1, countIterable( store.searchFulltext( "Persson" ) ) );
+        assertEquals( 1, countIterable( store.searchFulltext( "Emil" ) ) );
+
+        // Stopping at max entries isn't completing it, the side index isn't
+        // swapped in and it can be resumed
+        fulltextIndex().clear();
+        reindexer.setUseSideIndex( true );
+        reindexer.setMaxEntries( 0 );
+        assertFalse( reindexer.reindex() );
+        assertTrue( progressFile.exists() );
+        assertFalse( store.searchFulltext( "Persson" ).iterator().hasNext() );
+        reindexer.setUseSideIndex( false );
+        reindexer.setMaxEntries( null );
+        assertTrue( reindexer.reindex() );
+        waitForFulltextIndex();
+        assertFalse( progressFile.exists() );
+        assertEquals( 1, countIterable( store.searchFulltext( "Persson" ) ) );
+        assertEquals( 1, countIterable( store.searchFulltext( "Emil" ) ) );
+
+        deleteEntireNodeSpace();
+    }
+
+    @Test
+    public void testParallelVerification() throws Exception
+    {
+        CompleteStatement mattiasNamePublic = completeStatement(
+                TestUri.MATTIAS, TestUri.FOAF_NAME, new Literal(
+                        "Mattias Persson" ), TestUri.MATTIAS_PUBLIC_GRAPH );
+        CompleteStatement emilNamePublic = completeStatement( TestUri.EMIL,
+                TestUri.FOAF_NAME, new Literal( "Emil Eifrém" ),
+                TestUri.EMIL_PUBLIC_GRAPH );
+        addStatements( mattiasNamePublic, emilNamePublic );
+        restartTx();
+        waitForFulltextIndex();
+        VerboseQuadStore store = ( VerboseQuadStore ) store();
+        File report = new File( "target/var/verify-report.tsv" );
+        report.getParentFile().mkdirs();
+        assertTrue( store.verifyFulltextIndex( 2, false, report ) );
+
+        // Index a literal which the node doesn't have
+        Node literalNode = fulltextIndex().search( "Persson" ).iterator().
+            next().getNode();
+        fulltextIndex().index( literalNode, new Uri(
+            TestUri.FOAF_NAME.uriAsString() ), "Wrong\tliteral" );
+        restartTx();
+        waitForFulltextIndex();
+
+        assertFalse( store.verifyFulltextIndex( 2, true, report ) );
+        BufferedReader reader = new BufferedReader( new FileReader( report ) );
+        List<String> mismatches = new ArrayList<String>();
+        for ( String line = reader.readLine(); line != null;
+            line = reader.readLine() )
+        {
+            if ( !line.startsWith( "#" ) )
+            {
+                mismatches.add( line );
+            }
+        }
+        reader.close();
+        assertEquals( Arrays.asList( "WRONG_LITERAL\t" + literalNode.getId() +
+            "\t" + TestUri.FOAF_NAME.uriAsString() + "\tWrong\\tliteral" +
+            "\tREINDEXED" ), mismatches );
+        waitForFulltextIndex();
+        assertTrue( store.verifyFulltextIndex( 2, false, null ) );
+
+        deleteEntireNodeSpace();
+    }
+
     @Test
     public void testMetadata() throws Exception
     {
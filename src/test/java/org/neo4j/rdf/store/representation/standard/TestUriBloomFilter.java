@@ -0,0 +1,170 @@
+package org.neo4j.rdf.store.representation.standard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.neo4j.rdf.model.CompleteStatement;
+import org.neo4j.rdf.model.Context;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Wildcard;
+import org.neo4j.rdf.model.WildcardStatement;
+import org.neo4j.rdf.store.QuadStoreAbstractTestCase;
+import org.neo4j.rdf.store.VerboseQuadStore;
+
+public class TestUriBloomFilter extends QuadStoreAbstractTestCase
+{
+    @Test
+    public void testAddedUrisAreNeverMissed() throws Exception
+    {
+        UriBloomFilter filter = new UriBloomFilter( 1000, 0.01, null );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            filter.add( "http://uri" + i );
+        }
+        int falsePositives = 0;
+        for ( int i = 0; i < 1000; i++ )
+        {
+            assertTrue( filter.mightContain( "http://uri" + i ) );
+            if ( filter.mightContain( "http://other" + i ) )
+            {
+                falsePositives++;
+            }
+        }
+        assertTrue( falsePositives < 50 );
+        assertFalse( filter.needsResize() );
+
+        for ( int i = 1000; i < 3000; i++ )
+        {
+            filter.add( "http://uri" + i );
+        }
+        assertTrue( filter.needsResize() );
+    }
+
+    @Test
+    public void testAddsDuringRebuildAreKept() throws Exception
+    {
+        final UriBloomFilter filter = new UriBloomFilter( 10, 0.01, null );
+        Thread[] threads = new Thread[ 4 ];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final int thread = t;
+            threads[ t ] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int i = 0; i < 5000; i++ )
+                    {
+                        filter.add( "http://uri" + thread + "/" + i );
+                    }
+                }
+            };
+            threads[ t ].start();
+        }
+        for ( Thread thread : threads )
+        {
+            while ( thread.isAlive() )
+            {
+                filter.rebuild( graphDb() );
+            }
+            thread.join();
+        }
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            for ( int i = 0; i < 5000; i++ )
+            {
+                assertTrue( filter.mightContain( "http://uri" + t + "/" + i ) );
+            }
+        }
+    }
+
+    @Test
+    public void testResizedWhenFilledUp() throws Exception
+    {
+        VerboseQuadStore store = ( VerboseQuadStore ) store();
+        AbstractUriBasedExecutor executor =
+            store.getRepresentationStrategy().getExecutor();
+        UriBloomFilter filter = new UriBloomFilter( 10, 0.01, null );
+        executor.setUriBloomFilter( filter );
+        try
+        {
+            Uri knows = new Uri( "http://knows" );
+            Context context = new Context( "http://context" );
+            for ( int i = 0; i < 100; i++ )
+            {
+                addStatements( new CompleteStatement( new Uri(
+                    "http://person" + i ), knows, new Uri( "http://other" ),
+                    context ) );
+                restartTx();
+            }
+            while ( filter.isResizing() )
+            {
+                Thread.sleep( 10 );
+            }
+            // Sized for 10 it would let almost everything through by now
+            assertTrue( filter.getExpectedFalsePositiveRate() < 0.2 );
+            for ( int i = 0; i < 100; i++ )
+            {
+                assertTrue( filter.mightContain( "http://person" + i ) );
+            }
+        }
+        finally
+        {
+            executor.setUriBloomFilter( null );
+            deleteEntireNodeSpace();
+        }
+    }
+
+    @Test
+    public void testSaveLoadAndRebuild() throws Exception
+    {
+        VerboseQuadStore store = ( VerboseQuadStore ) store();
+        File file = new File( getBasePath(), "uri-bloom-filter" );
+        file.delete();
+        AbstractUriBasedExecutor executor =
+            store.getRepresentationStrategy().getExecutor();
+        try
+        {
+            Uri subject = new Uri( "http://person" );
+            Uri knows = new Uri( "http://knows" );
+            Uri other = new Uri( "http://other" );
+            Context context = new Context( "http://context" );
+            addStatements( new CompleteStatement( subject, knows, other,
+                context ) );
+            restartTx();
+
+            // No file, so it's rebuilt from the graph
+            UriBloomFilter filter = UriBloomFilter.loadOrRebuild( file,
+                graphDb(), 0.01 );
+            assertEquals( 3, filter.getAddedCount() );
+            assertTrue( filter.mightContain( "http://person" ) );
+            executor.setUriBloomFilter( filter );
+
+            CompleteStatement newStatement = new CompleteStatement(
+                new Uri( "http://someone" ), knows, other, context );
+            addStatements( newStatement );
+            restartTx();
+            assertTrue( filter.mightContain( "http://someone" ) );
+            assertResult( new WildcardStatement( new Uri( "http://someone" ),
+                knows, new Wildcard( "o" ), new Wildcard( "g" ) ),
+                newStatement );
+
+            filter.save();
+            assertTrue( file.exists() );
+            filter = UriBloomFilter.loadOrRebuild( file, graphDb(), 0.01 );
+            assertFalse( file.exists() );
+            assertEquals( 4, filter.getAddedCount() );
+            assertTrue( filter.mightContain( "http://someone" ) );
+        }
+        finally
+        {
+            executor.setUriBloomFilter( null );
+            file.delete();
+            deleteEntireNodeSpace();
+        }
+    }
+}
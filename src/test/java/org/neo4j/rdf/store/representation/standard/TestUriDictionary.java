@@ -0,0 +1,100 @@
+package org.neo4j.rdf.store.representation.standard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.neo4j.rdf.model.CompleteStatement;
+import org.neo4j.rdf.model.Context;
+import org.neo4j.rdf.model.Uri;
+import org.neo4j.rdf.model.Wildcard;
+import org.neo4j.rdf.model.WildcardStatement;
+import org.neo4j.rdf.store.QuadStoreAbstractTestCase;
+import org.neo4j.rdf.store.VerboseQuadStore;
+
+public class TestUriDictionary extends QuadStoreAbstractTestCase
+{
+    @Test
+    public void testPutGetRemove() throws Exception
+    {
+        UriDictionary dictionary = new ClockUriDictionary( 100 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            dictionary.put( "http://uri" + i, i );
+        }
+        assertEquals( 100, dictionary.size() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( i, dictionary.get( "http://uri" + i ) );
+        }
+        assertEquals( UriDictionary.NOT_FOUND, dictionary.get( "http://x" ) );
+        assertEquals( 100, dictionary.getHitCount() );
+        assertEquals( 1, dictionary.getMissCount() );
+
+        for ( int i = 0; i < 100; i += 2 )
+        {
+            dictionary.remove( "http://uri" + i );
+        }
+        assertEquals( 50, dictionary.size() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( i % 2 == 0 ? UriDictionary.NOT_FOUND : i,
+                dictionary.get( "http://uri" + i ) );
+        }
+    }
+
+    @Test
+    public void testEvictsUnreferencedFirst() throws Exception
+    {
+        UriDictionary dictionary = new ClockUriDictionary( 10 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            dictionary.put( "http://uri" + i, i );
+        }
+        dictionary.get( "http://uri3" );
+        for ( int i = 10; i < 19; i++ )
+        {
+            dictionary.put( "http://uri" + i, i );
+        }
+        assertEquals( 10, dictionary.size() );
+        assertEquals( 3, dictionary.get( "http://uri3" ) );
+        assertEquals( 18, dictionary.get( "http://uri18" ) );
+    }
+
+    @Test
+    public void testExecutorUsesDictionary() throws Exception
+    {
+        VerboseQuadStore store = ( VerboseQuadStore ) store();
+        UriDictionary dictionary = new ClockUriDictionary( 1000 );
+        store.getRepresentationStrategy().getExecutor().setUriDictionary(
+            dictionary );
+        try
+        {
+            Uri subject = new Uri( "http://person" );
+            Uri knows = new Uri( "http://knows" );
+            Context context = new Context( "http://context" );
+            CompleteStatement statement = new CompleteStatement( subject,
+                knows, new Uri( "http://other" ), context );
+            addStatements( statement );
+            restartTx();
+            assertEquals( 3, dictionary.size() );
+
+            long hits = dictionary.getHitCount();
+            assertResult( new WildcardStatement( subject, knows,
+                new Wildcard( "o" ), context ), statement );
+            assertTrue( dictionary.getHitCount() > hits );
+
+            removeStatements( new WildcardStatement( subject, knows,
+                new Wildcard( "o" ), new Wildcard( "g" ) ) );
+            restartTx();
+            assertEquals( UriDictionary.NOT_FOUND,
+                dictionary.get( "http://person" ) );
+        }
+        finally
+        {
+            store.getRepresentationStrategy().getExecutor().setUriDictionary(
+                null );
+            deleteEntireNodeSpace();
+        }
+    }
+}